@@ -1,14 +1,12 @@
 package ch.bfh.ti.jts;
 
-import java.awt.Font;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.file.Path;
 import java.util.Collection;
-import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
-import ch.bfh.ti.jts.data.Agent;
 import ch.bfh.ti.jts.data.Net;
 import ch.bfh.ti.jts.data.SpawnInfo;
 import ch.bfh.ti.jts.gui.Window;
@@ -16,7 +14,12 @@ import ch.bfh.ti.jts.gui.console.Console;
 import ch.bfh.ti.jts.gui.console.commands.Command;
 import ch.bfh.ti.jts.importer.NetImporter;
 import ch.bfh.ti.jts.importer.RoutesImporter;
+import ch.bfh.ti.jts.simulation.FrameSource;
+import ch.bfh.ti.jts.simulation.Playback;
 import ch.bfh.ti.jts.simulation.Simulation;
+import ch.bfh.ti.jts.simulation.Topology;
+import ch.bfh.ti.jts.simulation.TraceReader;
+import ch.bfh.ti.jts.simulation.WhatIf;
 import ch.bfh.ti.jts.utils.Config;
 
 /**
@@ -31,7 +34,6 @@ public class App implements Runnable {
         return instance;
     }
 
-    public static final Font     FONT               = new Font(Config.getInstance().getValue("app.font.familiy", "sans-serif"), Font.PLAIN, Config.getInstance().getInt("app.font.size", 4, 1, 100));
     /**
      * Format string used for net loading.
      */
@@ -52,11 +54,21 @@ public class App implements Runnable {
     public boolean               isRunning          = false;
     private String               netName;
     private Simulation           simulation;
+    /**
+     * Set instead of {@link App#simulation} when playing back a trace.
+     */
+    private Playback             playback;
+    private TraceReader          trace;
+    /**
+     * Evaluates what-if scenarios on forks of {@link App#simulation}.
+     */
+    private WhatIf               whatIf;
     
     private int TIME_LIMIT = 2000;
     private float SAMPLE_RATIO = (float) 0.02;
     private int THRESHOLD = 100;
     private float Z = (float) 1.5;
+    private HandshakeExperiment.Thresholding THRESHOLDING = HandshakeExperiment.Thresholding.FIXED;
 
     public void addCommand(final Command command) {
         commands.add(command);
@@ -64,6 +76,19 @@ public class App implements Runnable {
 
     private void end() {
         // free resources or clean up stuff...
+        if (whatIf != null) {
+            whatIf.close();
+        }
+        if (simulation != null) {
+            simulation.close();
+        }
+        if (trace != null) {
+            try {
+                trace.close();
+            } catch (final IOException e) {
+                // nothing left to do
+            }
+        }
     }
 
     private void executeCommands() {
@@ -74,19 +99,70 @@ public class App implements Runnable {
             if (command.getTargetType() == App.class) {
                 // command for app
                 command.execute(this).ifPresent(message -> console.write(message));
+            } else if (playback != null) {
+                if (command.getTargetType() == Playback.class) {
+                    command.execute(playback).ifPresent(message -> console.write(message));
+                } else {
+                    console.write("Not available in playback");
+                }
             } else {
                 // delegate to simulation
-                simulation.executeCommand(command);
+                simulation.executeCommand(command, console::write);
             }
         }
     }
 
+    /**
+     * @return the source of the frames to render: the playback if playing
+     *         back a trace, the simulation otherwise
+     */
+    public FrameSource getFrameSource() {
+        if (playback != null) {
+            return playback;
+        }
+        return simulation;
+    }
+
     public Simulation getSimulation() {
         return simulation;
     }
 
+    /**
+     * @return evaluates what-if scenarios on forks of the simulation, created
+     *         on first use. {@code null} when playing back a trace.
+     */
+    public WhatIf getWhatIf() {
+        if (whatIf == null && simulation != null) {
+            whatIf = new WhatIf(netName);
+        }
+        return whatIf;
+    }
+
+    /**
+     * Imports a net together with its routes.
+     *
+     * @param netName
+     *            name of the net
+     * @return the net, ready to be simulated
+     */
+    public static Net importNet(final String netName) {
+        if (netName == null) {
+            throw new IllegalArgumentException("netName");
+        }
+        // import net
+        final NetImporter netImporter = new NetImporter();
+        final Net net = netImporter.importData(String.format(NET_LOAD_FORMAT, netName));
+
+        // import routes data
+        final RoutesImporter routesImporter = new RoutesImporter();
+        routesImporter.setNet(net);
+        final Collection<SpawnInfo> routes = routesImporter.importData(String.format(ROUTES_LOAD_FORMAT, netName));
+        net.addRoutes(routes);
+        return net;
+    }
+
     private void init() {
-        if (simulation == null) {
+        if (simulation == null && playback == null) {
             throw new RuntimeException("simulation not loaded");
         }
         Window.getInstance().setVisible(true);
@@ -96,25 +172,52 @@ public class App implements Runnable {
         return isRunning;
     }
 
+    /**
+     * Loads a trace to play back instead of simulating.
+     *
+     * @param file
+     *            trace file written by {@link ch.bfh.ti.jts.simulation.TraceWriter}
+     * @throws IOException
+     *             if the trace can't be read or doesn't match its net
+     */
+    public void loadPlayback(final Path file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file");
+        }
+        trace = new TraceReader(file);
+        netName = trace.getNetName();
+        // only the topology is needed, no routes
+        final Net net = new NetImporter().importData(String.format(NET_LOAD_FORMAT, netName));
+        final Topology topology = new Topology(net);
+        if (topology.getElements().size() != trace.getElementCount()) {
+            throw new IOException("trace doesn't match the net: " + netName);
+        }
+        playback = new Playback(trace, topology);
+    }
+
     public void loadSimulation(final String netName) {
         if (netName == null) {
             throw new IllegalArgumentException("netName");
         }
         this.netName = netName;
-
-        // import net
-        final NetImporter netImporter = new NetImporter();
-        final Net net = netImporter.importData(String.format(NET_LOAD_FORMAT, this.netName));
-
-        // import routes data
-        final RoutesImporter routesImporter = new RoutesImporter();
-        routesImporter.setNet(net);
-        final Collection<SpawnInfo> routes = routesImporter.importData(String.format(ROUTES_LOAD_FORMAT, this.netName));
-        net.addRoutes(routes);
+        final Net net = importNet(netName);
+        if (whatIf != null) {
+            // forked from the old simulation
+            whatIf.close();
+            whatIf = null;
+        }
+        if (simulation != null) {
+            // restarted: free the threads of the old engine
+            simulation.close();
+        }
         simulation = new Simulation(net);
     }
 
     public void restart() {
+        if (playback != null) {
+            playback.seek(playback.getStartTime());
+            return;
+        }
         loadSimulation(netName); // load same net again
     }
 
@@ -122,34 +225,24 @@ public class App implements Runnable {
     public void run() {
         isRunning = true;
         init();
+        if (playback != null) {
+            // nothing to simulate, the window reads the trace
+            while (isRunning() && !Thread.interrupted()) {
+                executeCommands();
+                LockSupport.parkNanos(this, 50000000L);
+            }
+            end();
+            return;
+        }
         int i = 0;
-        int deltaTick = (int) (TIME_LIMIT * 0.02);
-        List<Double> handshakeRateOverTime = new ArrayList<Double>();
-        final long startTime = System.currentTimeMillis();
-        System.out.println("Simulation started...");
-        System.out.println("TIME_LIMIT: " + TIME_LIMIT);
-        System.out.println("SAMPLE_RATIO: " + SAMPLE_RATIO);
-        while (isRunning() && !Thread.interrupted() && i++ <= TIME_LIMIT) {
+        final HandshakeExperiment experiment = new HandshakeExperiment(TIME_LIMIT, SAMPLE_RATIO, THRESHOLD, Z, THRESHOLDING);
+        experiment.start(simulation);
+        while (isRunning() && !Thread.interrupted() && experiment.isRunning(++i)) {
             executeCommands();
             simulation.tick();
-            if (i % deltaTick == 0) {
-                handshakeRateOverTime.add(simulation.getSimNet().calculateAverageHandshakeRate(deltaTick));
-            }
-            //Simulate time epochs
-            if (i % (int)(TIME_LIMIT * SAMPLE_RATIO) == 0) {
-                System.out.print("Progress: " + (100 * i/TIME_LIMIT) + "%" + '\r');
-                //Handshake.logLightweightHandshakes(this.simulation,startTime,TIME_LIMIT,handshakeRateOverTime);
-                Handshake.fixedThresholding(this.simulation, (int)(i / (TIME_LIMIT * SAMPLE_RATIO)), THRESHOLD, startTime, TIME_LIMIT, handshakeRateOverTime);
-                //Handshake.adaptiveThresholding(this.simulation, (int)(i / (TIME_LIMIT * SAMPLE_RATIO)), Z, startTime, TIME_LIMIT, handshakeRateOverTime);
-                System.out.println("Logged @ " +(int) 100 * i / TIME_LIMIT + "%" + '\r');
-            }
-
+            experiment.sample(simulation, i);
         }
-        System.out.println("Final Logging...");
-        //Swap next two lines for verbose log
-        //Handshake.logHandshakes(this.simulation,startTime,TIME_LIMIT,handshakeRateOverTime);
-        Handshake.logLightweightHandshakes(this.simulation,startTime,TIME_LIMIT,handshakeRateOverTime);
-        System.out.println("Logging complete.");
+        experiment.finish(simulation);
         end();
     }
 }
@@ -0,0 +1,203 @@
+package ch.bfh.ti.jts;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.bfh.ti.jts.data.Net;
+import ch.bfh.ti.jts.simulation.Simulation;
+import ch.bfh.ti.jts.simulation.Statistics;
+import ch.bfh.ti.jts.utils.Config;
+import ch.bfh.ti.jts.utils.SplitMix64;
+import ch.bfh.ti.jts.utils.deepcopy.DeepCopy;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+
+/**
+ * Entry point for ensembles of the {@link HandshakeExperiment}. Runs several
+ * replications of the same scenario concurrently, each one headless with its
+ * own {@link Simulation}, and reports mean and 95% confidence interval of the
+ * metrics of {@link HandshakeExperiment#getMetrics()}. The net is imported
+ * once, each replication simulates a copy of it. Replication i writes its
+ * handshake logs to {@code -output}/replication-i, the summary goes to
+ * {@code -output}/ensemble.txt.
+ *
+ * <pre>
+ * java ch.bfh.ti.jts.Ensemble -replications 20 -threads 4 -ticks 1500
+ * </pre>
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class Ensemble implements Runnable {
+
+    private static final Logger log = LogManager.getLogger(Ensemble.class);
+
+    public static void main(final String[] args) {
+        // never open a window
+        System.setProperty("java.awt.headless", "true");
+
+        final Ensemble ensemble = new Ensemble();
+        final JCommander jc = new JCommander(ensemble);
+        jc.setProgramName(Ensemble.class.getName());
+        try {
+            for (int i = 0; i < args.length - 1; i++) {
+                if ("-scenario".equals(args[i])) {
+                    jc.setDefaultProvider(new Headless.ScenarioDefaultProvider(args[i + 1]));
+                }
+            }
+            jc.parse(args);
+        } catch (final ParameterException e) {
+            System.err.println(e.getMessage());
+            jc.usage();
+            System.exit(1);
+        }
+        if (ensemble.help) {
+            jc.usage();
+            return;
+        }
+        ensemble.run();
+    }
+
+    @Parameter(names = { "-help", "-h" }, description = "Help")
+    private boolean help         = false;
+    @Parameter(names = "-scenario", description = "Scenario file with default values for all the other parameters")
+    private String  scenario;
+    @Parameter(names = "-net", description = "Name of the net to simulate")
+    private String  net          = Config.getInstance().getValue("net.name.default", "default");
+    @Parameter(names = "-engine", description = "Engine used to simulate a step, see simulation.engine")
+    private String  engine       = Config.getInstance().getValue("simulation.engine", "Layered");
+    @Parameter(names = "-ticks", description = "Number of ticks to simulate")
+    private Integer ticks        = 2000;
+    @Parameter(names = "-sampleRatio", description = "Ratio of ticks between two thresholding epochs", converter = Headless.FloatConverter.class)
+    private Float   sampleRatio  = 0.02f;
+    @Parameter(names = "-threshold", description = "Threshold for fixed thresholding")
+    private Integer threshold    = 100;
+    @Parameter(names = "-z", description = "Z value for adaptive thresholding", converter = Headless.FloatConverter.class)
+    private Float   z            = 1.5f;
+    @Parameter(names = "-thresholding", description = "Thresholding strategy: fixed|adaptive")
+    private String  thresholding = HandshakeExperiment.Thresholding.FIXED.name();
+    @Parameter(names = "-replications", description = "Number of replications")
+    private Integer replications = 10;
+    @Parameter(names = "-threads", description = "Number of replications running at the same time")
+    private Integer threads      = Runtime.getRuntime().availableProcessors();
+    @Parameter(names = "-output", description = "Directory to write the logs of the replications and the summary to")
+    private String  output       = "ensemble";
+    @Parameter(names = "-seed", description = "Seed the seeds of the replications are drawn from, see simulation.seed")
+    private Long    seed         = Config.getInstance().getValue("simulation.seed", 1L);
+
+    /**
+     * Simulates one replication on a copy of the net.
+     *
+     * @return the metrics of the replication
+     */
+    private Map<String, Double> replicate(final Net template, final HandshakeExperiment.Thresholding thresholdingValue, final int replication, final long replicationSeed) {
+        final Net copy = DeepCopy.copy(template);
+        if (copy == null) {
+            throw new IllegalStateException("copying the net failed");
+        }
+        final File directory = new File(output, "replication-" + replication);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new UncheckedIOException(new IOException("can't create " + directory));
+        }
+        final Simulation simulation = new Simulation(copy);
+        simulation.setSeed(replicationSeed);
+        simulation.setRecordHistory(false);
+        simulation.setWallClockPacing(false);
+        simulation.setEngine(Simulation.createEngine(engine));
+
+        final HandshakeExperiment experiment = new HandshakeExperiment(ticks, sampleRatio, threshold, z, thresholdingValue);
+        experiment.setDirectory(directory);
+        experiment.setVerbose(false);
+        experiment.start(simulation);
+        int i = 0;
+        while (!Thread.interrupted() && experiment.isRunning(++i)) {
+            simulation.tick();
+            experiment.sample(simulation, i);
+        }
+        experiment.finish(simulation);
+        simulation.close();
+        log.info("Replication " + replication + " finished after " + (System.currentTimeMillis() - experiment.getStartTime()) + " ms");
+        return experiment.getMetrics();
+    }
+
+    @Override
+    public void run() {
+        final HandshakeExperiment.Thresholding thresholdingValue;
+        try {
+            thresholdingValue = HandshakeExperiment.Thresholding.valueOf(thresholding.toUpperCase());
+        } catch (final IllegalArgumentException e) {
+            throw new ParameterException("Unknown thresholding: " + thresholding);
+        }
+        if (replications < 1) {
+            throw new ParameterException("Less than one replication: " + replications);
+        }
+        if (threads < 1) {
+            throw new ParameterException("Less than one thread: " + threads);
+        }
+        log.info("Ensemble net:" + net + " engine:" + engine + " ticks:" + ticks + " replications:" + replications + " threads:" + threads + " seed:" + seed + " scenario:" + scenario);
+        final long startTime = System.currentTimeMillis();
+
+        // never simulated, only copied
+        final Net template = App.importNet(net);
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, replications));
+        final List<Map<String, Double>> results = new ArrayList<>();
+        try {
+            final List<Future<Map<String, Double>>> futures = new ArrayList<>();
+            // the same seed gives the same replications
+            final SplitMix64 seeds = new SplitMix64(seed);
+            for (int replication = 0; replication < replications; replication++) {
+                final int index = replication;
+                final long replicationSeed = seeds.nextLong();
+                futures.add(executor.submit(() -> replicate(template, thresholdingValue, index, replicationSeed)));
+            }
+            for (final Future<Map<String, Double>> future : futures) {
+                results.add(future.get());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Ensemble interrupted");
+            return;
+        } catch (final ExecutionException e) {
+            throw new RuntimeException("Replication failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // samples of each metric, in the order of the replications
+        final Map<String, double[]> samples = new LinkedHashMap<>();
+        for (int replication = 0; replication < results.size(); replication++) {
+            for (final Map.Entry<String, Double> metric : results.get(replication).entrySet()) {
+                samples.computeIfAbsent(metric.getKey(), x -> new double[results.size()])[replication] = metric.getValue();
+            }
+        }
+        final StringBuilder summary = new StringBuilder();
+        summary.append(String.format("#Net: %s, engine: %s, ticks: %d, thresholding: %s, replications: %d, seed: %d%n", net, engine, ticks, thresholdingValue, replications, seed));
+        summary.append(String.format("#%-30s %14s %14s%n", "metric", "mean", "95% ci"));
+        for (final Map.Entry<String, double[]> metric : samples.entrySet()) {
+            summary.append(String.format("%-31s %14.4f %14.4f%n", metric.getKey(), Statistics.getMean(metric.getValue()), Statistics.getConfidenceHalfWidth(metric.getValue())));
+        }
+        System.out.print(summary);
+        try (Writer writer = new FileWriter(new File(output, "ensemble.txt"))) {
+            writer.write(summary.toString());
+        } catch (final IOException e) {
+            log.error("Writing the summary failed", e);
+        }
+        log.info("Ensemble finished after " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+}
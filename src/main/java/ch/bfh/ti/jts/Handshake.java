@@ -1,132 +1,197 @@
 package ch.bfh.ti.jts;
 import java.io.*;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import ch.bfh.ti.jts.data.Agent;
 import ch.bfh.ti.jts.simulation.Simulation;
+import ch.bfh.ti.jts.simulation.engines.Engine;
 
 public class Handshake {
     
-    public static void logHandshakes(Simulation simulation, long startTime, int simIterations,List<Double> rates) {
-        try {
-            FileWriter myWriter = new FileWriter("handshake_"+simIterations+"_log.txt");
-            
-            
-            /* Start */
-            final long endTime = System.currentTimeMillis();
-            int totalAgents = simulation.getSimNet().getAgents().size();
-            int totalNeighbors = 0;
-            for (Agent a: simulation.getSimNet().getAgents()) {
-                totalNeighbors += a.getNeighborsQueue().size();
-                myWriter.write(a.getId() + "\t" + a.getNeighborsQueue().size() + "\t" + a.getNeighborsQueue().toString() + "\n");
+    /**
+     * Writes a log on the output stage. The text is complete, the stage never
+     * looks at the agents.
+     * @param output stage writing the file
+     * @param file file to write
+     * @param append append to the file instead of replacing it
+     * @param text text to write
+     */
+    private static void write(Executor output, File file, boolean append, String text) {
+        output.execute(() -> {
+            try (FileWriter myWriter = new FileWriter(file, append)) {
+                myWriter.write(text);
+            } catch (IOException e) {
+                System.out.println("Unable to write file " + file);
             }
-            myWriter.write("#Handshake Rate: " + rates.toString() + "\n");
-            myWriter.write("#Total agents : " + totalAgents + "\n");
-            myWriter.write("#Avg neighbors: " + totalNeighbors/totalAgents + "\n");
-            myWriter.write("#Total execution time: " + (endTime - startTime) + "\n");
-            
-            /* end */
-           
-            myWriter.close();
-            
-          } catch (IOException e) {
-            System.out.println("An error occurred while logging.");
-            e.printStackTrace();
-          }
+        });
     }
     
-    public static void logLightweightHandshakes(Simulation simulation, long startTime, int simIterations,List<Double> rates) {
-        try {
-            FileWriter myWriter = new FileWriter("handshake_"+simIterations+"_log.txt");
-            
-            
-            /* Start */
-            final long endTime = System.currentTimeMillis();
-            int totalAgents = simulation.getSimNet().getAgents().size();
-            int totalNeighbors = 0;
-            for (Agent a: simulation.getSimNet().getAgents()) {
-                totalNeighbors += a.getNeighborsSet().size();
-                myWriter.write(a.getId() + "\t size= " + a.getNeighborsSet().size() + "\t neighbors=" + a.getNeighborsSet().toString() + "\n");
-            }
-            myWriter.write("#Handshake Rate: " + rates.toString() + "\n");
-            myWriter.write("#Total agents : " + totalAgents + "\n");
-            myWriter.write("#Avg neighbors: " + totalNeighbors/totalAgents + "\n");
-            myWriter.write("#Total execution time: " + (endTime - startTime) + "\n");
-            
-            /* end */
-           
-            myWriter.close();
-            
-          } catch (IOException e) {
-            System.out.println("An error occurred while logging.");
-            e.printStackTrace();
-          }
+    /**
+     * Average handshake rate of all agents since the last sampling. Resets
+     * the counters of the agents. Agents of all processes are taken into
+     * account.
+     * @param simulation
+     * @param timeSpan
+     * @return average handshake rate
+     */
+    public static double averageHandshakeRate(Simulation simulation, int timeSpan) {
+        double rate = 0.0;
+        int total = 0;
+        for (Agent a: simulation.getSimNet().getAgents()) {
+            rate += a.getLatestHandshakeRate(timeSpan);
+            total++;
+        }
+        final double[] sums = simulation.getEngine().sum(new double[] { rate, total });
+        return sums[0]/sums[1];
     }
     
-    public static void fixedThresholding(Simulation simulation, int timestep, int threshold, long startTime, int simIterations,List<Double> rates) {
-        try {
-            FileWriter myWriter = new FileWriter("fixed_thresholding_epochs"+simIterations+"_threshold"+threshold+"_log.txt",true);
-            /* Start */
-            final long endTime = System.currentTimeMillis();
-            int totalAgents = simulation.getSimNet().getAgents().size();
-            int maxedQueue = 0;
-            int totalQueueSize = 0;
-            int uploadSize = 0;
-            for (Agent a: simulation.getSimNet().getAgents()) {
-                totalQueueSize += a.getNeighborsSet().size();
-                if (a.getNeighborsSet().size() >= threshold) {
-                    maxedQueue ++;
-                    uploadSize += a.getNeighborsSet().size();
-                    a.emptyNeighborsSet();
-                }
-            }
-            //myWriter.write("Epoch \t Uploader \t Total_agents \t compute_time\n");
-            String line = String.format("%d\t %d\t %d\t %d\t %d\t %d\n", timestep,maxedQueue,uploadSize,totalQueueSize,totalAgents,(endTime - startTime));
-            myWriter.write(line);
-            
-            /* end */
-           
-            myWriter.close();
-        }catch(IOException ex) {
-            System.out.println("Unable to open file " + "fixed_thresholding_"+simIterations+"_log.txt");
+    /**
+     * Writes the neighbour queues of all the agents.
+     * @param directory directory to write the log to, {@code null} for the working directory
+     * @param output stage writing the log
+     * @return total agents and total neighbours
+     */
+    public static double[] logHandshakes(Simulation simulation, long startTime, int simIterations,List<Double> rates, File directory, Executor output) {
+        final Engine engine = simulation.getEngine();
+        final List<String> lines = new ArrayList<String>();
+        int localNeighbors = 0;
+        for (Agent a: simulation.getSimNet().getAgents()) {
+            localNeighbors += a.getNeighborsQueue().size();
+            lines.add(a.getId() + "\t" + a.getNeighborsQueue().size() + "\t" + a.getNeighborsQueue().toString() + "\n");
+        }
+        final double[] sums = engine.sum(new double[] { simulation.getSimNet().getAgents().size(), localNeighbors });
+        final List<String> allLines = engine.gather(lines);
+        if (!engine.isReporter()) {
+            return sums;
+        }
+        /* Start */
+        final long endTime = System.currentTimeMillis();
+        int totalAgents = (int) sums[0];
+        int totalNeighbors = (int) sums[1];
+        final StringBuilder text = new StringBuilder();
+        for (String line: allLines) {
+            text.append(line);
         }
+        text.append("#Handshake Rate: " + rates.toString() + "\n");
+        text.append("#Total agents : " + totalAgents + "\n");
+        text.append("#Avg neighbors: " + totalNeighbors/totalAgents + "\n");
+        text.append("#Total execution time: " + (endTime - startTime) + "\n");
+        /* end */
+        write(output, new File(directory, "handshake_"+simIterations+"_log.txt"), false, text.toString());
+        return sums;
     }
     
-    public static void adaptiveThresholding(Simulation simulation, int timestep, float z, long startTime, int simIterations,List<Double> rates) {
-        try {
-            FileWriter myWriter = new FileWriter("adaptive_thresholding_epochs"+simIterations+"_z"+z+"_log.txt",true);
-            final long endTime = System.currentTimeMillis();
-            int totalAgents = simulation.getSimNet().getAgents().size();
-            int maxedQueue = 0;
-            int uploadSize = 0;
-            int totalQueueSize = 0;
-            int mean = 0;
-            float std = 0;
-            for (Agent a: simulation.getSimNet().getAgents()) {
-                mean += a.getNeighborsSet().size();
-            }
-            mean /=  simulation.getSimNet().getAgents().size();
-            for (Agent a: simulation.getSimNet().getAgents()) {
-                std += Math.pow(a.getNeighborsSet().size() - mean,2);
+    /**
+     * Writes the neighbour sets of all the agents.
+     * @param directory directory to write the log to, {@code null} for the working directory
+     * @param output stage writing the log
+     * @return total agents and total neighbours
+     */
+    public static double[] logLightweightHandshakes(Simulation simulation, long startTime, int simIterations,List<Double> rates, File directory, Executor output) {
+        final Engine engine = simulation.getEngine();
+        final List<String> lines = new ArrayList<String>();
+        int localNeighbors = 0;
+        for (Agent a: simulation.getSimNet().getAgents()) {
+            localNeighbors += a.getNeighborsSet().size();
+            lines.add(a.getId() + "\t size= " + a.getNeighborsSet().size() + "\t neighbors=" + a.getNeighborsSet().toString() + "\n");
+        }
+        final double[] sums = engine.sum(new double[] { simulation.getSimNet().getAgents().size(), localNeighbors });
+        final List<String> allLines = engine.gather(lines);
+        if (!engine.isReporter()) {
+            return sums;
+        }
+        /* Start */
+        final long endTime = System.currentTimeMillis();
+        int totalAgents = (int) sums[0];
+        int totalNeighbors = (int) sums[1];
+        final StringBuilder text = new StringBuilder();
+        for (String line: allLines) {
+            text.append(line);
+        }
+        text.append("#Handshake Rate: " + rates.toString() + "\n");
+        text.append("#Total agents : " + totalAgents + "\n");
+        text.append("#Avg neighbors: " + totalNeighbors/totalAgents + "\n");
+        text.append("#Total execution time: " + (endTime - startTime) + "\n");
+        /* end */
+        write(output, new File(directory, "handshake_"+simIterations+"_log.txt"), false, text.toString());
+        return sums;
+    }
+    
+    /**
+     * @param directory directory to write the log to, {@code null} for the working directory
+     * @param output stage writing the log
+     * @return agents which uploaded, uploaded neighbours, total neighbours and total agents
+     */
+    public static double[] fixedThresholding(Simulation simulation, int timestep, int threshold, long startTime, int simIterations,List<Double> rates, File directory, Executor output) {
+        final Engine engine = simulation.getEngine();
+        int maxedQueue = 0;
+        int totalQueueSize = 0;
+        int uploadSize = 0;
+        for (Agent a: simulation.getSimNet().getAgents()) {
+            totalQueueSize += a.getNeighborsSet().size();
+            if (a.getNeighborsSet().size() >= threshold) {
+                maxedQueue ++;
+                uploadSize += a.getNeighborsSet().size();
+                a.emptyNeighborsSet();
             }
-            std /= (simulation.getSimNet().getAgents().size() - 1);
-            std = (float) Math.sqrt(std);
-            int threshold = mean + (int)(z * std);
-            for (Agent a: simulation.getSimNet().getAgents()) {
-                totalQueueSize += a.getNeighborsSet().size();
-                if (a.getNeighborsSet().size() >= threshold && a.getNeighborsSet().size() > 10) {
-                    maxedQueue ++;
-                    uploadSize += a.getNeighborsSet().size();
-                    a.emptyNeighborsSet();
-                }
+        }
+        final double[] sums = engine.sum(new double[] { maxedQueue, uploadSize, totalQueueSize, simulation.getSimNet().getAgents().size() });
+        if (!engine.isReporter()) {
+            return sums;
+        }
+        /* Start */
+        final long endTime = System.currentTimeMillis();
+        //myWriter.write("Epoch \t Uploader \t Total_agents \t compute_time\n");
+        String line = String.format("%d\t %d\t %d\t %d\t %d\t %d\n", timestep,(int) sums[0],(int) sums[1],(int) sums[2],(int) sums[3],(endTime - startTime));
+        /* end */
+        write(output, new File(directory, "fixed_thresholding_epochs"+simIterations+"_threshold"+threshold+"_log.txt"), true, line);
+        return sums;
+    }
+    
+    /**
+     * @param directory directory to write the log to, {@code null} for the working directory
+     * @param output stage writing the log
+     * @return agents which uploaded, uploaded neighbours and total neighbours
+     */
+    public static double[] adaptiveThresholding(Simulation simulation, int timestep, float z, long startTime, int simIterations,List<Double> rates, File directory, Executor output) {
+        final Engine engine = simulation.getEngine();
+        int maxedQueue = 0;
+        int uploadSize = 0;
+        int totalQueueSize = 0;
+        int mean = 0;
+        float std = 0;
+        for (Agent a: simulation.getSimNet().getAgents()) {
+            mean += a.getNeighborsSet().size();
+        }
+        final double[] meanSums = engine.sum(new double[] { mean, simulation.getSimNet().getAgents().size() });
+        final int totalAgents = (int) meanSums[1];
+        mean = (int) meanSums[0];
+        mean /= totalAgents;
+        for (Agent a: simulation.getSimNet().getAgents()) {
+            std += Math.pow(a.getNeighborsSet().size() - mean,2);
+        }
+        std = (float) engine.sum(new double[] { std })[0];
+        std /= (totalAgents - 1);
+        std = (float) Math.sqrt(std);
+        int threshold = mean + (int)(z * std);
+        for (Agent a: simulation.getSimNet().getAgents()) {
+            totalQueueSize += a.getNeighborsSet().size();
+            if (a.getNeighborsSet().size() >= threshold && a.getNeighborsSet().size() > 10) {
+                maxedQueue ++;
+                uploadSize += a.getNeighborsSet().size();
+                a.emptyNeighborsSet();
             }
-            //myWriter.write("Epoch \t Uploader \t Total_agents \t compute_time\n");
-            String line = String.format("%d\t %d\t %d\t %d\t %.2f\t %d\t %d\t %d\n", timestep,maxedQueue,uploadSize,mean,std,totalQueueSize,totalAgents,(endTime - startTime));
-            myWriter.write(line);
-            
-            myWriter.close();
-        }catch(IOException ex) {
-                System.out.println("Unable to open file " + "adaptive_thresholding_"+simIterations+"_log.txt");
         }
+        final double[] sums = engine.sum(new double[] { maxedQueue, uploadSize, totalQueueSize });
+        if (!engine.isReporter()) {
+            return sums;
+        }
+        final long endTime = System.currentTimeMillis();
+        //myWriter.write("Epoch \t Uploader \t Total_agents \t compute_time\n");
+        String line = String.format("%d\t %d\t %d\t %d\t %.2f\t %d\t %d\t %d\n", timestep,(int) sums[0],(int) sums[1],mean,std,(int) sums[2],totalAgents,(endTime - startTime));
+        write(output, new File(directory, "adaptive_thresholding_epochs"+simIterations+"_z"+z+"_log.txt"), true, line);
+        return sums;
     }
 }
@@ -0,0 +1,256 @@
+package ch.bfh.ti.jts;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import ch.bfh.ti.jts.simulation.Simulation;
+import ch.bfh.ti.jts.simulation.Stage;
+import ch.bfh.ti.jts.utils.Config;
+
+/**
+ * Handshake experiment. Samples the handshake rate and runs the thresholding
+ * epochs while a {@link Simulation} is ticking. Sampling and thresholding
+ * touch the agents and run within the tick, the logs are written on a
+ * {@link Stage} while the next ticks are simulated.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class HandshakeExperiment {
+
+    /**
+     * Thresholding strategies.
+     */
+    public enum Thresholding {
+        /**
+         * @see Handshake#fixedThresholding(Simulation, int, int, long, int,
+         *      List, File, Executor)
+         */
+        FIXED,
+        /**
+         * @see Handshake#adaptiveThresholding(Simulation, int, float, long,
+         *      int, List, File, Executor)
+         */
+        ADAPTIVE;
+    }
+
+    private final int          timeLimit;
+    private final float        sampleRatio;
+    private final int          threshold;
+    private final float        z;
+    private final Thresholding thresholding;
+    /**
+     * Ticks between two handshake rate samples.
+     */
+    private final int          deltaTick;
+    /**
+     * Ticks between two thresholding epochs.
+     */
+    private final int          epochTicks;
+    private final List<Double> handshakeRateOverTime = new ArrayList<Double>();
+    private long               startTime;
+    /**
+     * Directory the logs are written to, {@code null} for the working
+     * directory.
+     */
+    private File               directory;
+    /**
+     * Print the progress, if this process is the reporter.
+     */
+    private boolean            verbose               = true;
+    /**
+     * Writes the logs, set between {@link HandshakeExperiment#start(Simulation)}
+     * and {@link HandshakeExperiment#finish(Simulation)}.
+     */
+    private Stage              output;
+    private int                epochs;
+    /**
+     * Agents which uploaded their neighbours, summed over all the epochs.
+     */
+    private double             uploaders;
+    /**
+     * Uploaded neighbours, summed over all the epochs.
+     */
+    private double             uploaded;
+    /**
+     * Total agents and total neighbours after the last tick.
+     */
+    private double[]           totals;
+    /**
+     * Mean bytes allocated per tick.
+     */
+    private double             allocatedPerTick      = Double.NaN;
+
+    public HandshakeExperiment(final int timeLimit, final float sampleRatio, final int threshold, final float z, final Thresholding thresholding) {
+        if (timeLimit <= 0) {
+            throw new IllegalArgumentException("timeLimit");
+        }
+        if (thresholding == null) {
+            throw new IllegalArgumentException("thresholding");
+        }
+        this.timeLimit = timeLimit;
+        this.sampleRatio = sampleRatio;
+        this.threshold = threshold;
+        this.z = z;
+        this.thresholding = thresholding;
+        deltaTick = Math.max(1, (int) (timeLimit * 0.02));
+        epochTicks = Math.max(1, (int) (timeLimit * sampleRatio));
+    }
+
+    /**
+     * Writes the final handshake log.
+     *
+     * @param simulation
+     *            the simulation of the experiment
+     */
+    public void finish(final Simulation simulation) {
+        final boolean reporter = verbose && simulation.getEngine().isReporter();
+        if (reporter) {
+            System.out.println("Final Logging...");
+        }
+        //Swap next two lines for verbose log
+        //totals = Handshake.logHandshakes(simulation,startTime,timeLimit,handshakeRateOverTime,directory,getOutput());
+        totals = Handshake.logLightweightHandshakes(simulation, startTime, timeLimit, handshakeRateOverTime, directory, getOutput());
+        allocatedPerTick = simulation.getAllocations().getAverage();
+        if (output != null) {
+            // all the logs are written
+            output.close();
+            output = null;
+        }
+        if (reporter) {
+            System.out.println("Logging complete.");
+        }
+    }
+
+    public List<Double> getHandshakeRateOverTime() {
+        return handshakeRateOverTime;
+    }
+
+    /**
+     * Summarizes the experiment, available after
+     * {@link HandshakeExperiment#finish(Simulation)}.
+     *
+     * @return the metrics by name, in a fixed order
+     */
+    public Map<String, Double> getMetrics() {
+        if (totals == null) {
+            throw new IllegalStateException("not finished");
+        }
+        final Map<String, Double> metrics = new LinkedHashMap<>();
+        metrics.put("handshake rate", handshakeRateOverTime.stream().mapToDouble(x -> x).average().orElse(Double.NaN));
+        metrics.put("uploaders per epoch", epochs == 0 ? Double.NaN : uploaders / epochs);
+        metrics.put("uploaded neighbors per epoch", epochs == 0 ? Double.NaN : uploaded / epochs);
+        metrics.put("agents", totals[0]);
+        metrics.put("neighbors per agent", totals[1] / totals[0]);
+        metrics.put("allocated bytes per tick", allocatedPerTick);
+        return metrics;
+    }
+
+    /**
+     * @return the stage writing the logs, the calling thread if not
+     *         pipelining
+     */
+    private Executor getOutput() {
+        if (output != null) {
+            return output;
+        }
+        return Runnable::run;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public int getTimeLimit() {
+        return timeLimit;
+    }
+
+    /**
+     * @param tick
+     *            number of the current tick (starting with 1)
+     * @return {@code true} if the experiment wants to see this tick
+     */
+    public boolean isRunning(final int tick) {
+        return tick <= timeLimit + 1;
+    }
+
+    /**
+     * Called after each simulation tick.
+     *
+     * @param simulation
+     *            the simulation of the experiment
+     * @param tick
+     *            number of the tick (starting with 1)
+     */
+    public void sample(final Simulation simulation, final int tick) {
+        final boolean reporter = verbose && simulation.getEngine().isReporter();
+        if (tick % deltaTick == 0) {
+            handshakeRateOverTime.add(Handshake.averageHandshakeRate(simulation, deltaTick));
+        }
+        //Simulate time epochs
+        if (tick % epochTicks == 0) {
+            if (reporter) {
+                System.out.print("Progress: " + (100 * tick / timeLimit) + "%" + '\r');
+            }
+            final int epoch = tick / epochTicks;
+            //Handshake.logLightweightHandshakes(simulation,startTime,timeLimit,handshakeRateOverTime,directory);
+            final double[] sums;
+            switch (thresholding) {
+                case FIXED :
+                    sums = Handshake.fixedThresholding(simulation, epoch, threshold, startTime, timeLimit, handshakeRateOverTime, directory, getOutput());
+                    break;
+                case ADAPTIVE :
+                    sums = Handshake.adaptiveThresholding(simulation, epoch, z, startTime, timeLimit, handshakeRateOverTime, directory, getOutput());
+                    break;
+                default :
+                    throw new IllegalArgumentException("thresholding");
+            }
+            epochs++;
+            uploaders += sums[0];
+            uploaded += sums[1];
+            if (reporter) {
+                System.out.println("Logged @ " + 100 * tick / timeLimit + "%" + '\r');
+            }
+        }
+    }
+
+    /**
+     * @param directory
+     *            directory the logs are written to, {@code null} for the
+     *            working directory
+     */
+    public void setDirectory(final File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param verbose
+     *            {@code false} to keep quiet, e.g. while several experiments
+     *            run at the same time
+     */
+    public void setVerbose(final boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Called before the first tick.
+     *
+     * @param simulation
+     *            the simulation of the experiment
+     */
+    public void start(final Simulation simulation) {
+        startTime = System.currentTimeMillis();
+        if (Config.getInstance().getValue("simulation.pipeline", true)) {
+            output = new Stage("log-stage", Config.getInstance().getInt("simulation.pipeline.queue", 16, 1, 1 << 16));
+        }
+        if (verbose && simulation.getEngine().isReporter()) {
+            System.out.println("Simulation started...");
+            System.out.println("TIME_LIMIT: " + timeLimit);
+            System.out.println("SAMPLE_RATIO: " + sampleRatio);
+        }
+    }
+}
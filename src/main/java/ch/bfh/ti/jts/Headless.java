@@ -0,0 +1,395 @@
+package ch.bfh.ti.jts;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.bfh.ti.jts.simulation.AllocationCounter;
+import ch.bfh.ti.jts.simulation.Checkpoint;
+import ch.bfh.ti.jts.simulation.CheckpointWriter;
+import ch.bfh.ti.jts.simulation.EventLog;
+import ch.bfh.ti.jts.simulation.Simulation;
+import ch.bfh.ti.jts.simulation.TraceWriter;
+import ch.bfh.ti.jts.simulation.engines.CellularEngine;
+import ch.bfh.ti.jts.simulation.engines.DistributedEngine;
+import ch.bfh.ti.jts.utils.Config;
+
+import com.beust.jcommander.IDefaultProvider;
+import com.beust.jcommander.IStringConverter;
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+
+/**
+ * Entry point for batch runs of the {@link HandshakeExperiment}. Ticks the
+ * simulation as fast as possible: no window, no console, no wall clock pacing
+ * and no recorded history. Writes the same handshake logs as {@link App}.
+ * Parameters are taken from the command line or from a scenario file (java
+ * properties, keys are the parameter names without the leading dash).
+ * Command line parameters override the scenario file.
+ *
+ * <pre>
+ * java ch.bfh.ti.jts.Headless -scenario my.scenario -ticks 5000
+ * </pre>
+ *
+ * With {@code -processes n} the net is split over n processes on this
+ * machine, see {@link DistributedEngine}. The started process becomes process
+ * 0 and starts the other processes with the same arguments.
+ * <p>
+ * With {@code -checkpoint file} the state is saved every
+ * {@code -checkpointInterval} ticks and after the last one. A run started
+ * with {@code -resume file} continues from a saved state and writes the same
+ * handshake log as an uninterrupted run. The thresholding logs get one line
+ * appended per epoch, so they only hold all the epochs if the resumed run
+ * writes to the directory of the interrupted one.
+ * <p>
+ * With {@code -trace file} the agents of each tick are recorded for playback
+ * with {@code Main -playback file}. With {@code -events file} the spawns,
+ * despawns, collisions, lane changes and handshakes are written to a file,
+ * see {@link EventLog}.
+ * <p>
+ * With {@code -engine Cellular} the vehicles are cells of the
+ * {@link CellularEngine}: there are no agents, so no handshake logs are
+ * written. The contacts counted by the engine and the vehicle updates per
+ * second are written to {@code cellular_<ticks>_log.txt} instead.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class Headless implements Runnable {
+
+    /**
+     * Converts parameters to {@link Float}. Not shipped with jcommander.
+     */
+    public static class FloatConverter implements IStringConverter<Float> {
+
+        @Override
+        public Float convert(final String value) {
+            try {
+                return Float.parseFloat(value);
+            } catch (final NumberFormatException e) {
+                throw new ParameterException("Not a float: " + value);
+            }
+        }
+    }
+
+    /**
+     * Default values read from a scenario file.
+     */
+    static class ScenarioDefaultProvider implements IDefaultProvider {
+
+        private final Properties properties = new Properties();
+
+        public ScenarioDefaultProvider(final String scenario) {
+            try (InputStream in = new FileInputStream(scenario)) {
+                properties.load(in);
+            } catch (final IOException e) {
+                throw new ParameterException("Could not read scenario: " + scenario);
+            }
+        }
+
+        @Override
+        public String getDefaultValueFor(final String optionName) {
+            int i = 0;
+            while (i < optionName.length() && optionName.charAt(i) == '-') {
+                i++;
+            }
+            return properties.getProperty(optionName.substring(i));
+        }
+    }
+
+    private static final Logger log = LogManager.getLogger(Headless.class);
+
+    public static void main(final String[] args) {
+        // never open a window
+        System.setProperty("java.awt.headless", "true");
+
+        final Headless headless = new Headless();
+        final JCommander jc = new JCommander(headless);
+        jc.setProgramName(Headless.class.getName());
+        try {
+            for (int i = 0; i < args.length - 1; i++) {
+                if ("-scenario".equals(args[i])) {
+                    jc.setDefaultProvider(new ScenarioDefaultProvider(args[i + 1]));
+                }
+            }
+            jc.parse(args);
+        } catch (final ParameterException e) {
+            System.err.println(e.getMessage());
+            jc.usage();
+            System.exit(1);
+        }
+        if (headless.help) {
+            jc.usage();
+            return;
+        }
+        final List<Process> processes = headless.children;
+        if (headless.processes > 1 && headless.rank < 0) {
+            headless.rank = 0;
+            try {
+                for (int rank = 1; rank < headless.processes; rank++) {
+                    processes.add(headless.launch(args, rank));
+                }
+            } catch (final IOException e) {
+                log.fatal("Launching processes failed", e);
+                processes.forEach(Process::destroy);
+                System.exit(1);
+            }
+        }
+        try {
+            headless.run();
+        } catch (final RuntimeException e) {
+            processes.forEach(Process::destroy);
+            throw e;
+        }
+        for (final Process process : processes) {
+            try {
+                if (process.waitFor() != 0) {
+                    log.error("Process exited with " + process.exitValue());
+                }
+            } catch (final InterruptedException e) {
+                process.destroy();
+            }
+        }
+    }
+
+    @Parameter(names = { "-help", "-h" }, description = "Help")
+    private boolean help               = false;
+    @Parameter(names = "-scenario", description = "Scenario file with default values for all the other parameters")
+    private String  scenario;
+    @Parameter(names = "-net", description = "Name of the net to simulate")
+    private String  net                = Config.getInstance().getValue("net.name.default", "default");
+    @Parameter(names = "-engine", description = "Engine used to simulate a step, see simulation.engine")
+    private String  engine             = Config.getInstance().getValue("simulation.engine", "Layered");
+    @Parameter(names = "-ticks", description = "Number of ticks to simulate")
+    private Integer ticks              = 2000;
+    @Parameter(names = "-sampleRatio", description = "Ratio of ticks between two thresholding epochs", converter = FloatConverter.class)
+    private Float   sampleRatio        = 0.02f;
+    @Parameter(names = "-threshold", description = "Threshold for fixed thresholding")
+    private Integer threshold          = 100;
+    @Parameter(names = "-z", description = "Z value for adaptive thresholding", converter = FloatConverter.class)
+    private Float   z                  = 1.5f;
+    @Parameter(names = "-thresholding", description = "Thresholding strategy: fixed|adaptive")
+    private String  thresholding       = HandshakeExperiment.Thresholding.FIXED.name();
+    @Parameter(names = "-processes", description = "Number of processes to split the net over")
+    private Integer processes          = 1;
+    @Parameter(names = "-rank", description = "Rank of this process (set by process 0)", hidden = true)
+    private Integer rank               = -1;
+    @Parameter(names = "-port", description = "Loopback port of process 0")
+    private Integer port               = Config.getInstance().getInt("simulation.distributed.port", 7331, 1024, 65535);
+    @Parameter(names = "-checkpoint", description = "File to save checkpoints to")
+    private String  checkpoint;
+    @Parameter(names = "-checkpointInterval", description = "Number of ticks between two checkpoints, 0 for the last tick only")
+    private Integer checkpointInterval = 0;
+    @Parameter(names = "-resume", description = "Checkpoint file to resume from")
+    private String  resume;
+    @Parameter(names = "-trace", description = "File to record the agents of each tick to, for playback")
+    private String  trace;
+    @Parameter(names = "-events", description = "File to write the events of the simulation to")
+    private String  events;
+    @Parameter(names = "-seed", description = "Seed of the random streams, see simulation.seed")
+    private Long    seed               = Config.getInstance().getValue("simulation.seed", 1L);
+    /**
+     * Processes started by process 0.
+     */
+    private final List<Process> children = new ArrayList<>();
+
+    /**
+     * Starts another process of a distributed run.
+     */
+    private Process launch(final String[] args, final int rank) throws IOException {
+        final List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Headless.class.getName());
+        // rank and port are set below, jcommander accepts each only once
+        for (int i = 0; i < args.length; i++) {
+            if (("-rank".equals(args[i]) || "-port".equals(args[i])) && i + 1 < args.length) {
+                i++;
+            } else {
+                command.add(args[i]);
+            }
+        }
+        command.add("-rank");
+        command.add(Integer.toString(rank));
+        command.add("-port");
+        command.add(Integer.toString(port));
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    /**
+     * Ticks a simulation of the {@link CellularEngine}. Writes the contact
+     * rate over time and the totals to {@code cellular_<ticks>_log.txt}, the
+     * totals also to the console.
+     */
+    private void runCellular(final Simulation simulation, final CellularEngine engine) {
+        final long startTime = System.currentTimeMillis();
+        final int deltaTicks = Math.max(1, (int) (ticks * 0.02));
+        final List<Double> contactRates = new ArrayList<>();
+        final StringBuilder text = new StringBuilder();
+        System.out.println("Simulation started...");
+        System.out.println("TIME_LIMIT: " + ticks);
+        long contacts = 0;
+        long vehicleUpdates = 0;
+        for (int i = 1; i <= ticks && !Thread.interrupted(); i++) {
+            simulation.tick();
+            if (i % deltaTicks == 0) {
+                final long updates = engine.getVehicleUpdates() - vehicleUpdates;
+                contactRates.add(updates == 0 ? 0.0 : (double) (engine.getContacts() - contacts) / updates);
+                contacts = engine.getContacts();
+                vehicleUpdates = engine.getVehicleUpdates();
+                text.append(i + "\t vehicles= " + engine.getVehicles() + "\t arrivals= " + engine.getArrivals() + "\n");
+                System.out.print("Progress: " + 100 * i / ticks + "%" + '\r');
+            }
+        }
+        final long endTime = System.currentTimeMillis();
+        final StringBuilder totals = new StringBuilder();
+        totals.append("#Contact Rate: " + contactRates + "\n");
+        totals.append("#Total vehicles: " + engine.getVehicles() + "\n");
+        totals.append("#Arrivals: " + engine.getArrivals() + "\n");
+        totals.append("#Left the net: " + engine.getLeft() + "\n");
+        totals.append("#Spawns blocked: " + engine.getBlocked() + "\n");
+        totals.append("#Mean speed: " + engine.getMeanSpeed() + "\n");
+        totals.append("#Avg contacts: " + engine.getContactRate() + "\n");
+        totals.append("#Vehicle updates: " + engine.getVehicleUpdates() + "\n");
+        totals.append("#Vehicle updates/s: " + Math.round(engine.getUpdateRate()) + "\n");
+        totals.append("#Total execution time: " + (endTime - startTime) + "\n");
+        final File file = new File("cellular_" + ticks + "_log.txt");
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(text.toString());
+            writer.write(totals.toString());
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.print(totals);
+        System.out.println("Logged to " + file);
+    }
+
+    /**
+     * Restores the state of a checkpoint.
+     *
+     * @return number of the last tick simulated
+     */
+    private int resume(final Simulation simulation, final HandshakeExperiment experiment) {
+        try {
+            final Checkpoint saved = Checkpoint.read(Paths.get(resume));
+            if (!saved.getNetName().equals(net)) {
+                throw new ParameterException("Checkpoint is of net " + saved.getNetName() + ", not " + net);
+            }
+            if (!experiment.isRunning(saved.getTick() + 1)) {
+                log.warn(String.format("Checkpoint is of tick %d, at or past the last tick of the run: nothing left to simulate", saved.getTick()));
+            }
+            saved.restore(simulation);
+            experiment.getHandshakeRateOverTime().addAll(saved.getHandshakeRates());
+            log.info("Resumed after tick " + saved.getTick() + " from " + resume);
+            return saved.getTick();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void run() {
+        final HandshakeExperiment.Thresholding thresholdingValue;
+        try {
+            thresholdingValue = HandshakeExperiment.Thresholding.valueOf(thresholding.toUpperCase());
+        } catch (final IllegalArgumentException e) {
+            throw new ParameterException("Unknown thresholding: " + thresholding);
+        }
+        if (processes > 1 && (checkpoint != null || resume != null)) {
+            throw new ParameterException("Checkpoints are not supported with several processes");
+        }
+        if (processes > 1 && trace != null) {
+            throw new ParameterException("Traces are not supported with several processes");
+        }
+        if (processes > 1 && events != null) {
+            throw new ParameterException("Events are not supported with several processes");
+        }
+        if (checkpointInterval < 0) {
+            throw new ParameterException("Negative checkpoint interval: " + checkpointInterval);
+        }
+        log.info("Headless run net:" + net + " engine:" + (processes > 1 ? "Distributed" : engine) + " ticks:" + ticks + " seed:" + seed + " scenario:" + scenario);
+
+        try (Simulation simulation = new Simulation(App.importNet(net))) {
+            simulation.setSeed(seed);
+            simulation.setRecordHistory(false);
+            simulation.setWallClockPacing(false);
+            if (processes > 1) {
+                try {
+                    simulation.setEngine(new DistributedEngine(rank, processes, port, children));
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else {
+                simulation.setEngine(Simulation.createEngine(engine));
+            }
+            if (simulation.getEngine() instanceof CellularEngine) {
+                if (checkpoint != null || resume != null || trace != null || events != null) {
+                    throw new ParameterException("Checkpoints, traces and events are not supported by the cellular engine");
+                }
+                runCellular(simulation, (CellularEngine) simulation.getEngine());
+            } else {
+                runExperiment(simulation, thresholdingValue);
+            }
+        }
+    }
+
+    /**
+     * Runs the handshake experiment on a simulation, with the checkpoints,
+     * trace and events asked for.
+     */
+    private void runExperiment(final Simulation simulation, final HandshakeExperiment.Thresholding thresholdingValue) {
+        final HandshakeExperiment experiment = new HandshakeExperiment(ticks, sampleRatio, threshold, z, thresholdingValue);
+        experiment.start(simulation);
+        int i = 0;
+        if (resume != null) {
+            i = resume(simulation, experiment);
+        }
+        EventLog eventLog = null;
+        try (CheckpointWriter writer = checkpoint == null ? null : new CheckpointWriter(Paths.get(checkpoint));
+                TraceWriter traceWriter = trace == null ? null : new TraceWriter(Paths.get(trace), net, simulation.getTopology())) {
+            if (events != null) {
+                // reads the bus on its own thread, closed after the last tick
+                eventLog = new EventLog(Paths.get(events), simulation.getEvents());
+            }
+            simulation.setTrace(traceWriter);
+            while (!Thread.interrupted() && experiment.isRunning(++i)) {
+                simulation.tick();
+                experiment.sample(simulation, i);
+                if (writer != null && !experiment.isRunning(i + 1)) {
+                    // the last one is never dropped
+                    writer.submitAndWait(Checkpoint.capture(net, i, experiment.getHandshakeRateOverTime(), simulation));
+                } else if (writer != null && checkpointInterval > 0 && i % checkpointInterval == 0) {
+                    writer.submit(Checkpoint.capture(net, i, experiment.getHandshakeRateOverTime(), simulation));
+                }
+            }
+            simulation.setTrace(null);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (eventLog != null) {
+                try {
+                    eventLog.close();
+                } catch (final IOException e) {
+                    log.error("Writing events failed", e);
+                }
+            }
+        }
+        experiment.finish(simulation);
+        if (AllocationCounter.isSupported()) {
+            log.info(String.format("%.0f bytes allocated per tick, %d bytes by the last tick", simulation.getAllocations().getAverage(), simulation.getAllocations().getLast()));
+        }
+        log.info("Headless run finished after " + (System.currentTimeMillis() - experiment.getStartTime()) + " ms");
+    }
+}
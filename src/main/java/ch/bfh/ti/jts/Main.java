@@ -1,5 +1,7 @@
 package ch.bfh.ti.jts;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Arrays;
 
 import javax.swing.UIManager;
@@ -10,7 +12,9 @@ import org.apache.logging.log4j.Logger;
 import ch.bfh.ti.jts.utils.Config;
 
 /**
- * Entry point class with the main method.
+ * Entry point class with the main method. With {@code -playback file} a trace
+ * written by {@code Headless -trace file} is played back instead of
+ * simulating.
  *
  * @author Enteee
  * @author winki
@@ -31,7 +35,17 @@ public class Main {
 
         // start app
         final App app = App.getInstance();
-        app.loadSimulation(net);
+        final int playback = Arrays.asList(args).indexOf("-playback");
+        if (playback >= 0 && playback + 1 < args.length) {
+            try {
+                app.loadPlayback(Paths.get(args[playback + 1]));
+            } catch (final IOException e) {
+                log.fatal("Loading trace failed", e);
+                System.exit(1);
+            }
+        } else {
+            app.loadSimulation(net);
+        }
         app.run();
     }
 
@@ -20,6 +20,9 @@ public interface Thinkable {
      * influence the simulation by modifying the returned object of
      * {@link Thinkable#getDecision()}. Important: This method should not modify
      * any data but the object returned by {@link Thinkable#getDecision()}.
+     *
+     * @param duration
+     *            duration of the next simulation step in [s]
      */
-    public void think();
+    public void think(double duration);
 }
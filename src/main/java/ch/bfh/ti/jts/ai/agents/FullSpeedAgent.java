@@ -15,9 +15,13 @@ public class FullSpeedAgent extends RandomAgent {
         super();
     }
 
+    public FullSpeedAgent(final int id) {
+        super(id);
+    }
+
     @Override
-    public void think() {
-        super.think();
+    public void think(final double duration) {
+        super.think(duration);
         getDecision().setAcceleration(getVehicle().getMaxAcceleration());
     }
 }
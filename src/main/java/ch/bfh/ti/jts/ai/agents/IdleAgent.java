@@ -16,9 +16,13 @@ public class IdleAgent extends RandomAgent {
         super();
     }
 
+    public IdleAgent(final int id) {
+        super(id);
+    }
+
     @Override
-    public void think() {
-        super.think();
+    public void think(final double duration) {
+        super.think(duration);
         getDecision().setAcceleration(0);
         getDecision().setLaneChange(LaneChange.NONE);
     }
@@ -1,10 +1,7 @@
 package ch.bfh.ti.jts.ai.agents;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.Collection;
+import java.util.Iterator;
 
 import ch.bfh.ti.jts.ai.LaneChange;
 import ch.bfh.ti.jts.data.Agent;
@@ -21,33 +18,49 @@ import ch.bfh.ti.jts.data.Vehicle;
  */
 public class RandomAgent extends Agent {
 
-    private static final long serialVersionUID = 1L;
+    private static final long         serialVersionUID = 1L;
+    private static final LaneChange[] LANE_CHANGES     = LaneChange.values();
+
+    /**
+     * @return element at an index of the iteration order, without copying
+     *         the collection
+     */
+    private static <T> T get(final Collection<T> collection, final int index) {
+        final Iterator<T> iterator = collection.iterator();
+        for (int i = 0; i < index; i++) {
+            iterator.next();
+        }
+        return iterator.next();
+    }
 
     public RandomAgent() {
         super();
     }
 
+    public RandomAgent(final int id) {
+        super(id);
+    }
+
     private double getRandomAcceleration() {
         final Vehicle vehicle = getVehicle();
-        return ThreadLocalRandom.current().nextDouble() * (vehicle.getMaxAcceleration() - vehicle.getMinAcceleration()) + vehicle.getMinAcceleration();
+        return getRandom().nextDouble() * (vehicle.getMaxAcceleration() - vehicle.getMinAcceleration()) + vehicle.getMinAcceleration();
     }
 
     private LaneChange getRandomLaneChange() {
-        final List<LaneChange> values = Collections.unmodifiableList(Arrays.asList(LaneChange.values()));
-        return values.get(ThreadLocalRandom.current().nextInt(values.size()));
+        return LANE_CHANGES[getRandom().nextInt(LANE_CHANGES.length)];
     }
 
     @Override
-    public void think() {
+    public void think(final double duration) {
         getDecision().setAcceleration(getRandomAcceleration());
         getDecision().setLaneChange(getRandomLaneChange());
         final Junction nextJunction = getLane().getEdge().getEnd();
-        final List<Edge> nextEdges = new LinkedList<Edge>(nextJunction.getOutgoingEdges());
+        final Collection<Edge> nextEdges = nextJunction.getOutgoingEdges();
         if (nextEdges.size() > 0) {
             // get all lanes from a random next edge
-            final List<Lane> nextLanes = new LinkedList<Lane>(nextEdges.get(ThreadLocalRandom.current().nextInt(nextEdges.size())).getLanes());
+            final Collection<Lane> nextLanes = get(nextEdges, getRandom().nextInt(nextEdges.size())).getLanes();
             // select a random lane
-            final Lane nextLane = nextLanes.get(ThreadLocalRandom.current().nextInt(nextLanes.size()));
+            final Lane nextLane = get(nextLanes, getRandom().nextInt(nextLanes.size()));
             getDecision().setTurning(nextLane);
         }
     }
@@ -1,7 +1,11 @@
 package ch.bfh.ti.jts.ai.agents;
 
-import java.util.Collection;
-import java.util.Random;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -10,41 +14,57 @@ import ch.bfh.ti.jts.ai.LaneChange;
 import ch.bfh.ti.jts.data.Agent;
 import ch.bfh.ti.jts.data.Junction;
 import ch.bfh.ti.jts.data.Lane;
+import ch.bfh.ti.jts.data.Net;
 import ch.bfh.ti.jts.data.Vehicle;
-import ch.bfh.ti.jts.simulation.Simulation;
 import ch.bfh.ti.jts.utils.Config;
 import ch.bfh.ti.jts.utils.Helpers;
 
 /**
- * Agent which tries to avoid collisions.
+ * Agent which tries to avoid collisions. A full decision (leaders, secure
+ * velocity, lane change tests) is only made every
+ * {@link RealisticAgent#DECISION_INTERVAL} ticks, staggered by id, or sooner if
+ * something changed: the agent is on another lane, its leader changed, it
+ * wants to change the lane, or a leader or the end of the lane comes within
+ * reach before the next decision is due. In between the agent keeps its last
+ * decision and only follows the velocity it decided for.
  *
  * @author Enteee
  * @author winki
  */
 public class RealisticAgent extends RandomAgent {
 
-    private static final long   serialVersionUID = 1L;
-    private static final Logger log              = LogManager.getLogger(RealisticAgent.class);
+    private static final long   serialVersionUID  = 1L;
+    private static final Logger log               = LogManager.getLogger(RealisticAgent.class);
     /**
      * Distance the agent try to hold to the next agent next to him.
      */
-    private static final double SECURE_DISTANCE  = Config.getInstance().getDouble("agent.realistic.securedistance", 10.0, 0.0, 100.0);
+    private static final double SECURE_DISTANCE   = Config.getInstance().getDouble("agent.realistic.securedistance", 10.0, 0.0, 100.0);
     /**
      * Chance by which a agent will slow down from the maximum possible
      * velocity.
      */
-    private static final double NIGGLE_Chance    = Config.getInstance().getDouble("agent.realistic.nigglechance", 0.3, 0.0, 1.0);
+    private static final double NIGGLE_Chance     = Config.getInstance().getDouble("agent.realistic.nigglechance", 0.3, 0.0, 1.0);
     /**
      * Factor how much the agent will niggle maximally. 0 means no slow down. 1
      * means slow maximally in the worst case.
      */
-    private static final double NIGGLE_FACTOR    = Config.getInstance().getDouble("agent.realistic.nigglefactor", 0.6, 0.0, 1.0);
+    private static final double NIGGLE_FACTOR     = Config.getInstance().getDouble("agent.realistic.nigglefactor", 0.6, 0.0, 1.0);
     /**
      * Factor how patient an agent is. Value from 0 (no patience, wants to
      * overtake other agent as soon as possible) to 1 (never wants to overtake
      * other agents).
      */
-    private static final double PATIENCE_FACTOR  = Config.getInstance().getDouble("agent.realistic.patiencefactor", 0.3, 0.0, 1.0);
+    private static final double PATIENCE_FACTOR   = Config.getInstance().getDouble("agent.realistic.patiencefactor", 0.3, 0.0, 1.0);
+    /**
+     * Number of ticks between two full decisions at most. 1 decides every
+     * tick.
+     */
+    private static final int    DECISION_INTERVAL = Config.getInstance().getInt("agent.realistic.decisioninterval", 1, 1, 1000);
+    /**
+     * Agents of the lane to test a lane change against, per thread as the
+     * agents think in parallel. Cleared after use.
+     */
+    private static final ThreadLocal<List<Agent>> laneAgents = ThreadLocal.withInitial(ArrayList::new);
     /**
      * This counter is increased every simulation step when an agent has to slow
      * down because of another agent. It is decreased when the agent in not
@@ -52,40 +72,145 @@ public class RealisticAgent extends RandomAgent {
      */
     private int                 impatienceCounter;
     /**
-     * Random object.
+     * Ticks since the last full decision.
+     */
+    private int                 decisionAge;
+    /**
+     * Lane at the last full decision, 0 before the first one.
+     */
+    private int                 decisionLaneId;
+    /**
+     * Nearest leader at the last full decision, 0 if there was none.
+     */
+    private int                 decisionLeaderId;
+    /**
+     * Velocity the agent decided for [m/s].
      */
-    private final Random        rand;
+    private double              decisionVelocity;
+    /**
+     * Did the agent have to slow down because of a leader at the last full
+     * decision?
+     */
+    private boolean             hindered;
 
     public RealisticAgent() {
         super();
-        rand = new Random(getId());
     }
 
-    private boolean canChangeLane(final Lane lane) {
-        return getLaneChaneVelocity(lane) != -1;
+    public RealisticAgent(final int id) {
+        super(id);
+    }
+
+    private boolean canChangeLane(final Lane lane, final double duration) {
+        return getLaneChaneVelocity(lane, duration) != -1;
+    }
+
+    /**
+     * Makes a full decision.
+     *
+     * @param leaders
+     *            nearest agents in front of this agent on the same lane
+     * @param duration
+     *            duration of the next step in [s]
+     */
+    private void decide(final Set<Agent> leaders, final double duration) {
+        super.think(duration);
+
+        // current properties of this agent
+        final double maxPossibleVelocityNextStep = getMaxPossibleVelocityNextStep(this, duration);
+
+        // calculate secure velocity to not hit any of the agents in front of
+        // this agent on the same lane
+        double secureMaxVelocity = maxPossibleVelocityNextStep;
+        for (final Agent o : leaders) {
+            final double secureVelocity = getSecureVelocity(o, duration);
+            secureMaxVelocity = Math.min(secureMaxVelocity, secureVelocity);
+        }
+
+        // does the agent has to slow down because of a slow agent in front of
+        // him?
+        final boolean hasToSlowDownBecauseOfOtherAgent = secureMaxVelocity < maxPossibleVelocityNextStep;
+        updateImpatience(hasToSlowDownBecauseOfOtherAgent);
+        if (log.isDebugEnabled()) {
+            // formatting the agent costs more than the whole decision
+            log.debug(" securemax v: " + secureMaxVelocity + " " + this);
+        }
+        double targetVelocity = secureMaxVelocity;
+
+        // agent does only niggle when he is not impatient
+        if (!isImpatient(duration)) {
+            if (doesNiggle()) {
+                final double velocityRange = getVehicle().getMaxVelocity() - getVehicle().getMinVelocity();
+                final double niggleVelocity = Helpers.clamp(getVehicle().getMinVelocity() + velocityRange * (1 - NIGGLE_FACTOR), getVehicle().getMinVelocity(), getVehicle().getMaxVelocity());
+                // maximal speed is still the "secureMaxVelocity"
+                if (niggleVelocity < secureMaxVelocity) {
+                    // override target velocity with the niggle velocity
+                    targetVelocity = niggleVelocity;
+                }
+            }
+        }
+
+        // set max acceleration
+        getDecision().setAcceleration(getAccelerationToReachVelocity(targetVelocity, duration));
+
+        // check lane switching possibilities
+        LaneChange direction = LaneChange.NONE;
+
+        // does the agent want to overtake?
+        final boolean isImpatient = isImpatient(duration);
+        if (isImpatient) {
+            final Lane lane = getLane().getLeftLane().orElse(null);
+            if (canChangeLane(lane, duration)) {
+                direction = LaneChange.LEFT;
+            } else {
+                direction = LaneChange.NONE;
+            }
+        } else {
+            // try to go back on right lane
+            final Lane lane = getLane().getRightLane().orElse(null);
+            if (canChangeLane(lane, duration)) {
+                direction = LaneChange.RIGHT;
+            } else {
+                direction = LaneChange.NONE;
+            }
+        }
+        getDecision().setLaneChange(direction);
+
+        getDecision().setTurning(null); // no direct switch. use gps...
+        final Junction destination = getSpawnInfo().getEndJunction();
+        if (destination != null) {
+            getDecision().setDestination(destination);
+        }
+
+        // stagger the first decisions of agents spawned together
+        decisionAge = decisionLaneId == 0 ? getId() % DECISION_INTERVAL : 0;
+        decisionLaneId = getLane().getId();
+        decisionLeaderId = getLeaderId(leaders);
+        decisionVelocity = targetVelocity;
+        hindered = hasToSlowDownBecauseOfOtherAgent;
     }
 
     private boolean doesNiggle() {
-        return rand.nextDouble() < NIGGLE_Chance;
+        return getRandom().nextDouble() < NIGGLE_Chance;
     }
 
-    private double getAccelerationToReachVelocity(final double goalVelocity) {
-        return (goalVelocity - getVelocity()) / Simulation.SIMULATION_STEP_DURATION;
+    private double getAccelerationToReachVelocity(final double goalVelocity, final double duration) {
+        return (goalVelocity - getVelocity()) / duration;
     }
 
-    private double getLaneChaneVelocity(final Lane lane) {
+    private double getLaneChaneVelocity(final Lane lane, final double duration) {
         if (lane != null) {
             // minimal velocity if fully slow down
-            final double minPossibleVelocity = getMinPossibleVelocityNextStep(this);
+            final double minPossibleVelocity = getMinPossibleVelocityNextStep(this, duration);
             // maximal velocity if fully speed up
-            final double maxPossibleVelocity = getMaxPossibleVelocityNextStep(this);
+            final double maxPossibleVelocity = getMaxPossibleVelocityNextStep(this, duration);
             // make some tests with different velocities
             final int tests = 5; // must be at least 2
             for (int i = 0; i < tests; i++) {
                 final double f = (double) i / (double) (tests - 1);
                 final double velocityTest = minPossibleVelocity + f * (maxPossibleVelocity - minPossibleVelocity);
                 // test for a specific distance on lane
-                if (testLaneChange(lane, velocityTest)) {
+                if (testLaneChange(lane, velocityTest, duration)) {
                     // positive with velocity "velocityTest"
                     return velocityTest;
                 }
@@ -94,15 +219,30 @@ public class RealisticAgent extends RandomAgent {
         return -1; // no lane change possible
     }
 
-    private double getMaxPossibleVelocityNextStep(final Agent agent) {
+    /**
+     * @return id of the nearest leader, the lowest one if several are at the
+     *         same position, 0 if there is none
+     */
+    private int getLeaderId(final Set<Agent> leaders) {
+        if (leaders.isEmpty()) {
+            return 0;
+        }
+        int leaderId = Integer.MAX_VALUE;
+        for (final Agent leader : leaders) {
+            leaderId = Math.min(leaderId, leader.getId());
+        }
+        return leaderId;
+    }
+
+    private double getMaxPossibleVelocityNextStep(final Agent agent, final double duration) {
         final Vehicle vehicle = agent.getVehicle();
-        final double maxPossibleVelocityWithoutLimit = agent.getVelocity() + Simulation.SIMULATION_STEP_DURATION * vehicle.getMaxAcceleration();
+        final double maxPossibleVelocityWithoutLimit = agent.getVelocity() + duration * vehicle.getMaxAcceleration();
         return Helpers.clamp(maxPossibleVelocityWithoutLimit, vehicle.getMinVelocity(), vehicle.getMaxVelocity());
     }
 
-    private double getMinPossibleVelocityNextStep(final Agent agent) {
+    private double getMinPossibleVelocityNextStep(final Agent agent, final double duration) {
         final Vehicle vehicle = agent.getVehicle();
-        final double minPossibleVelocityWithoutLimit = agent.getVelocity() + Simulation.SIMULATION_STEP_DURATION * vehicle.getMinAcceleration();
+        final double minPossibleVelocityWithoutLimit = agent.getVelocity() + duration * vehicle.getMinAcceleration();
         return Helpers.clamp(minPossibleVelocityWithoutLimit, vehicle.getMinVelocity(), vehicle.getMaxVelocity());
     }
 
@@ -133,31 +273,76 @@ public class RealisticAgent extends RandomAgent {
      *
      * @param o
      *            other agent
+     * @param duration
+     *            duration of the next step in [s]
      * @return secure velocity
      */
-    private double getSecureVelocity(final Agent o) {
+    private double getSecureVelocity(final Agent o, final double duration) {
         assert o != null;
 
         // where is other agent in the specified amount of time if he decelerate
         // by the maximum?
-        final double minVelocityOther = Helpers.clamp(o.getVelocity() + Simulation.SIMULATION_STEP_DURATION * o.getVehicle().getMinAcceleration(), o.getVehicle().getMinVelocity(), o.getVehicle()
+        final double minVelocityOther = Helpers.clamp(o.getVelocity() + duration * o.getVehicle().getMinAcceleration(), o.getVehicle().getMinVelocity(), o.getVehicle()
                 .getMaxVelocity());
         // subtract the secure distance from the other agents position
-        final double oPos = o.getLanePosition() + minVelocityOther * Simulation.SIMULATION_STEP_DURATION - SECURE_DISTANCE;
+        final double oPos = o.getLanePosition() + minVelocityOther * duration - SECURE_DISTANCE;
         // stopping distance with max acceleration [m]
         final double stoppingDistance = getVelocity() * getVelocity() / (-getVehicle().getMinAcceleration() * 2);
         final double deltaDistance = oPos - getLanePosition();
-        return (deltaDistance - stoppingDistance) / Simulation.SIMULATION_STEP_DURATION;
+        return (deltaDistance - stoppingDistance) / duration;
     }
 
-    private boolean isImpatient() {
-        final double waitTime = impatienceCounter * Simulation.SIMULATION_STEP_DURATION;
+    /**
+     * Decides whether the last decision is outdated.
+     *
+     * @param leaders
+     *            nearest agents in front of this agent on the same lane
+     * @param duration
+     *            duration of the next step in [s]
+     * @return {@code true} if a full decision is needed
+     */
+    private boolean isDecisionDue(final Set<Agent> leaders, final double duration) {
+        if (decisionAge >= DECISION_INTERVAL || decisionLaneId != getLane().getId() || getDecision().getLaneChange() != LaneChange.NONE
+                || decisionLeaderId != getLeaderId(leaders)) {
+            return true;
+        }
+        // distance the agent may drive until the next decision is due [m]
+        final double horizon = (DECISION_INTERVAL - decisionAge) * duration;
+        final double maxVelocity = getMaxPossibleVelocityNextStep(this, horizon);
+        final double reach = maxVelocity * horizon;
+        if (getAbsoluteDistanceOnLaneLeft() < reach) {
+            // lane end or destination ahead
+            return true;
+        }
+        final double stoppingDistance = maxVelocity * maxVelocity / (-getVehicle().getMinAcceleration() * 2);
+        for (final Agent o : leaders) {
+            if (o.getLanePosition() - getLanePosition() < reach + stoppingDistance + SECURE_DISTANCE) {
+                // gap closing
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isImpatient(final double duration) {
+        final double waitTime = impatienceCounter * duration;
         final double patientTime = getPatientTime();
         return waitTime >= patientTime;
     }
 
-    private double simulateMove(final double velocity) {
-        final double distanceToDrive = velocity * Simulation.SIMULATION_STEP_DURATION;
+    @Override
+    public void readState(final DataInput in, final Net net) throws IOException {
+        super.readState(in, net);
+        impatienceCounter = Helpers.readVarInt(in);
+        decisionAge = Helpers.readVarInt(in);
+        decisionLaneId = in.readInt();
+        decisionLeaderId = in.readInt();
+        decisionVelocity = in.readDouble();
+        hindered = in.readBoolean();
+    }
+
+    private double simulateMove(final double velocity, final double duration) {
+        final double distanceToDrive = velocity * duration;
         final double distanceOnLaneLeft = getAbsoluteDistanceOnLaneLeft();
         if (distanceOnLaneLeft >= distanceToDrive) {
             // stay on this lane
@@ -169,51 +354,53 @@ public class RealisticAgent extends RandomAgent {
         }
     }
 
-    private boolean testLaneChange(final Lane lane, final double velocity) {
+    private boolean testLaneChange(final Lane lane, final double velocity, final double duration) {
         // where would the agent be?
-        final double positionOnLane = simulateMove(velocity);
+        final double positionOnLane = simulateMove(velocity, duration);
         // test all agents on the lane
-        final Collection<Agent> agents = lane.getAgentsInOrder();
-        for (final Agent agent : agents) {
-            // minimal velocity if fully slow down
-            final double minPossibleVelocity = getMinPossibleVelocityNextStep(agent);
-            final double minPossiblePos = simulateMove(minPossibleVelocity);
-            if (willProbablyCrash(this, positionOnLane, velocity, agent, minPossiblePos, minPossibleVelocity)) {
-                // crash possible
-                return false;
-            }
-            // maximal velocity if fully speed up
-            final double maxPossibleVelocity = getMaxPossibleVelocityNextStep(agent);
-            final double maxPossiblePos = simulateMove(maxPossibleVelocity);
-            if (willProbablyCrash(this, positionOnLane, velocity, agent, maxPossiblePos, maxPossibleVelocity)) {
-                // crash possible
-                return false;
+        final List<Agent> agents = laneAgents.get();
+        lane.collectAgentsInOrder(agents);
+        try {
+            for (final Agent agent : agents) {
+                // minimal velocity if fully slow down
+                final double minPossibleVelocity = getMinPossibleVelocityNextStep(agent, duration);
+                final double minPossiblePos = simulateMove(minPossibleVelocity, duration);
+                if (willProbablyCrash(this, positionOnLane, velocity, agent, minPossiblePos, minPossibleVelocity, duration)) {
+                    // crash possible
+                    return false;
+                }
+                // maximal velocity if fully speed up
+                final double maxPossibleVelocity = getMaxPossibleVelocityNextStep(agent, duration);
+                final double maxPossiblePos = simulateMove(maxPossibleVelocity, duration);
+                if (willProbablyCrash(this, positionOnLane, velocity, agent, maxPossiblePos, maxPossibleVelocity, duration)) {
+                    // crash possible
+                    return false;
+                }
             }
+            // no possible crash detected
+            return true;
+        } finally {
+            agents.clear();
         }
-        // no possible crash detected
-        return true;
     }
 
-    @Override
-    public void think() {
-        super.think();
 
-        assert Simulation.SIMULATION_STEP_DURATION > 0;
-
-        // current properties of this agent
-        final double maxPossibleVelocityNextStep = getMaxPossibleVelocityNextStep(this);
+    @Override
+    public void think(final double duration) {
+        assert duration > 0;
 
-        // calculate secure velocity to not hit any of the agents in front of
-        // this agent on the same lane
-        double secureMaxVelocity = maxPossibleVelocityNextStep;
-        for (final Agent o : getLane().getNextAgentsOnLine(this)) {
-            final double secureVelocity = getSecureVelocity(o);
-            secureMaxVelocity = Math.min(secureMaxVelocity, secureVelocity);
+        final Set<Agent> leaders = getLane().getNextAgentsOnLine(this);
+        decisionAge++;
+        if (isDecisionDue(leaders, duration)) {
+            decide(leaders, duration);
+            return;
         }
+        // keep the last decision
+        updateImpatience(hindered);
+        getDecision().setAcceleration(getAccelerationToReachVelocity(decisionVelocity, duration));
+    }
 
-        // does the agent has to slow down because of a slow agent in front of
-        // him?
-        final boolean hasToSlowDownBecauseOfOtherAgent = secureMaxVelocity < maxPossibleVelocityNextStep;
+    private void updateImpatience(final boolean hasToSlowDownBecauseOfOtherAgent) {
         final int impatienceDecrementFactor = 3;
         final int impatienceCounterMax = 100;
         if (hasToSlowDownBecauseOfOtherAgent) {
@@ -221,53 +408,6 @@ public class RealisticAgent extends RandomAgent {
         } else {
             impatienceCounter = Helpers.clamp(impatienceCounter - 1 * impatienceDecrementFactor, 0, impatienceCounterMax);
         }
-        log.debug(" securemax v: " + secureMaxVelocity + " " + this);
-        double targetAcceleration = getAccelerationToReachVelocity(secureMaxVelocity);
-
-        // agent does only niggle when he is not impatient
-        if (!isImpatient()) {
-            if (doesNiggle()) {
-                final double velocityRange = getVehicle().getMaxVelocity() - getVehicle().getMinVelocity();
-                final double niggleVelocity = Helpers.clamp(getVehicle().getMinVelocity() + velocityRange * (1 - NIGGLE_FACTOR), getVehicle().getMinVelocity(), getVehicle().getMaxVelocity());
-                // maximal speed is still the "secureMaxVelocity"
-                if (niggleVelocity < secureMaxVelocity) {
-                    // override target acceleration with the niggle acceleration
-                    targetAcceleration = getAccelerationToReachVelocity(niggleVelocity);
-                }
-            }
-        }
-
-        // set max acceleration
-        getDecision().setAcceleration(targetAcceleration);
-
-        // check lane switching possibilities
-        LaneChange direction = LaneChange.NONE;
-
-        // does the agent want to overtake?
-        final boolean isImpatient = isImpatient();
-        if (isImpatient) {
-            final Lane lane = getLane().getLeftLane().orElse(null);
-            if (canChangeLane(lane)) {
-                direction = LaneChange.LEFT;
-            } else {
-                direction = LaneChange.NONE;
-            }
-        } else {
-            // try to go back on right lane
-            final Lane lane = getLane().getRightLane().orElse(null);
-            if (canChangeLane(lane)) {
-                direction = LaneChange.RIGHT;
-            } else {
-                direction = LaneChange.NONE;
-            }
-        }
-        getDecision().setLaneChange(direction);
-
-        getDecision().setTurning(null); // no direct switch. use gps...
-        final Junction destination = getSpawnInfo().getEndJunction();
-        if (destination != null) {
-            getDecision().setDestination(destination);
-        }
     }
 
     /**
@@ -285,16 +425,29 @@ public class RealisticAgent extends RandomAgent {
      *            position of agent B
      * @param bV
      *            velocity of agent B
+     * @param duration
+     *            duration of the next step in [s]
      * @return true, if there is a chance that the two agents will crash.
      */
-    private boolean willProbablyCrash(final Agent a, double aPos, final double aV, final Agent b, double bPos, final double bV) {
+    private boolean willProbablyCrash(final Agent a, double aPos, final double aV, final Agent b, double bPos, final double bV, final double duration) {
         if (aPos > bPos) {
             // swap agents so that A is behind B.
-            return willProbablyCrash(b, bPos, bV, a, aPos, aV);
+            return willProbablyCrash(b, bPos, bV, a, aPos, aV, duration);
         }
         // scenario: B slows down maximally, A speed up maximally
-        bPos = bPos + Simulation.SIMULATION_STEP_DURATION * (bV + Simulation.SIMULATION_STEP_DURATION * b.getVehicle().getMinAcceleration());
-        aPos = aPos + Simulation.SIMULATION_STEP_DURATION * (aV + Simulation.SIMULATION_STEP_DURATION * a.getVehicle().getMaxAcceleration());
+        bPos = bPos + duration * (bV + duration * b.getVehicle().getMinAcceleration());
+        aPos = aPos + duration * (aV + duration * a.getVehicle().getMaxAcceleration());
         return aPos >= bPos; // crash?
     }
+
+    @Override
+    public void writeState(final DataOutput out) throws IOException {
+        super.writeState(out);
+        Helpers.writeVarInt(out, impatienceCounter);
+        Helpers.writeVarInt(out, decisionAge);
+        out.writeInt(decisionLaneId);
+        out.writeInt(decisionLeaderId);
+        out.writeDouble(decisionVelocity);
+        out.writeBoolean(hindered);
+    }
 }
@@ -6,24 +6,32 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.geom.Point2D;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NavigableMap;
 import java.util.Optional;
-import java.util.concurrent.ThreadLocalRandom;
 
-import ch.bfh.ti.jts.App;
 import ch.bfh.ti.jts.Main;
 import ch.bfh.ti.jts.ai.Decision;
 import ch.bfh.ti.jts.ai.LaneChange;
 import ch.bfh.ti.jts.ai.Thinkable;
 import ch.bfh.ti.jts.exceptions.ArgumentNullException;
 import ch.bfh.ti.jts.gui.Renderable;
+import ch.bfh.ti.jts.gui.Window;
+import ch.bfh.ti.jts.simulation.AgentFrame;
+import ch.bfh.ti.jts.simulation.EventType;
 import ch.bfh.ti.jts.simulation.Simulatable;
 import ch.bfh.ti.jts.utils.Config;
 import ch.bfh.ti.jts.utils.Helpers;
+import ch.bfh.ti.jts.utils.IntHashSet;
+import ch.bfh.ti.jts.utils.SplitMix64;
 
 /**
  * Abstract agents which are the moving objects in the simulation (cars i.e.).
@@ -33,9 +41,21 @@ import ch.bfh.ti.jts.utils.Helpers;
  */
 public abstract class Agent extends Element implements Thinkable, Simulatable, Renderable {
     
+    /**
+     * Colours of the agents. Initialized on first use, so that the simulation
+     * doesn't load AWT when run headless.
+     */
+    private static final class Palette {
+
+        private static final Color[] COLORS = Arrays.stream(colors).mapToObj(Color::new).toArray(Color[]::new);
+    }
+
     private static final long    serialVersionUID                    = 1L;
-    private static final Color[] colors                              = new Color[] { Color.WHITE, new Color(200, 200, 200), Color.GRAY, Color.LIGHT_GRAY, Color.BLUE, Color.RED,
-            new Color(185, 122, 87), new Color(0, 128, 0)           };
+    /**
+     * RGB values of the agent colours. The {@link Color}s are only created
+     * when rendering, see {@link Palette}.
+     */
+    private static final int[]   colors                              = new int[] { 0xFFFFFF, 0xC8C8C8, 0x808080, 0xC0C0C0, 0x0000FF, 0xFF0000, 0xB97A57, 0x008000 };
     public final static boolean  CHANGE_LANE_ANIMATED                = Config.getInstance().getBool("agent.langechang.animation", true);
     /**
      * Duration [s] of change line animation.
@@ -45,6 +65,11 @@ public abstract class Agent extends Element implements Thinkable, Simulatable, R
      * Length of the debug acceleration indicator
      */
     public final static double   ACCELERATION_DEBUG_INDICATOR_LENGTH = Config.getInstance().getDouble("agent.acceleration.debug.indicator.lenght", 5, 1, 100);
+    /**
+     * Agents of the lane during a handshake, per thread as the handshakes run
+     * in parallel. Cleared after use.
+     */
+    private static final ThreadLocal<List<Agent>> laneAgents         = ThreadLocal.withInitial(ArrayList::new);
     /**
      * Decision object.
      */
@@ -65,6 +90,12 @@ public abstract class Agent extends Element implements Thinkable, Simulatable, R
      * Distance in [m] from the start of {@link Agent#lane}
      */
     private double               lanePosition;
+    /**
+     * Next state, see {@link Agent#step(double)}.
+     */
+    private double               nextVelocity;
+    private double               nextAcceleration;
+    private double               nextLanePosition;
     /**
      * Vehicle of this agent
      */
@@ -78,9 +109,13 @@ public abstract class Agent extends Element implements Thinkable, Simulatable, R
      */
     private int                  collisionCount;
     /**
-     * Color.
+     * Index into {@link Agent#colors}.
+     */
+    private int                  colorIndex;
+    /**
+     * Random stream of this agent, split from the one of the net.
      */
-    private final Color          color;
+    private SplitMix64           random;
     
     /**
      * Maximum Handshake distance
@@ -105,9 +140,50 @@ public abstract class Agent extends Element implements Thinkable, Simulatable, R
     
     private HashSet<Integer> neighborsSet = new HashSet<Integer>();
     
+    /**
+     * Ids of {@link Agent#neighborsSet} again, looked up without boxing.
+     * {@code null} until the first handshake.
+     */
+    private transient IntHashSet neighborIds;
+    
     public Agent() {
         super("Agent");
-        color = getRandomColor();
+    }
+
+    /**
+     * Recreates an agent with a known id. The state is restored with
+     * {@link Agent#readState(DataInput, Net)}.
+     *
+     * @param id
+     *            id of the agent
+     */
+    protected Agent(final int id) {
+        super("Agent", id);
+    }
+
+    /**
+     * Reads an agent written by {@link Agent#write(DataOutput)}. The agent is
+     * not added to the net.
+     *
+     * @param in
+     *            input to read from
+     * @param net
+     *            net to look up lanes, junctions and spawn infos
+     * @return the agent
+     * @throws IOException
+     */
+    public static Agent read(final DataInput in, final Net net) throws IOException {
+        final String name = in.readUTF();
+        final int id = in.readInt();
+        final Agent agent;
+        try {
+            final Class<?> clazz = Class.forName(String.format("ch.bfh.ti.jts.ai.agents.%s", name));
+            agent = (Agent) clazz.getConstructor(int.class).newInstance(id);
+        } catch (final Exception e) {
+            throw new IOException("can't create agent: " + name, e);
+        }
+        agent.readState(in, net);
+        return agent;
     }
     
     public HashSet<Integer> getNeighborsSet(){
@@ -116,6 +192,9 @@ public abstract class Agent extends Element implements Thinkable, Simulatable, R
     
     public void emptyNeighborsSet() {
         this.neighborsSet = new HashSet<Integer>();
+        if (neighborIds != null) {
+            neighborIds.clear();
+        }
     }
     
     /**
@@ -142,20 +221,30 @@ public abstract class Agent extends Element implements Thinkable, Simulatable, R
     }
     
     /**
-     * Gets the color of the agent. Mode is configurable.
+     * Gets the color of an agent. Mode is configurable.
      *
+     * @param colorIndex
+     *            index of the agents normal color
+     * @param velocity
+     *            velocity of the agent
+     * @param vehicle
+     *            vehicle of the agent
      * @return color
      */
-    private Color getColor() {
+    private static Color getColor(final int colorIndex, final double velocity, final Vehicle vehicle) {
         final String mode = Config.getInstance().getEnum("agent.render.colormode", new String[] { "normal", "velocity" });
         if ("normal".equals(mode)) {
-            return color;
+            return Palette.COLORS[colorIndex];
         }
         if ("velocity".equals(mode)) {
-            return getHeatColor(getVelocity(), vehicle.getMinVelocity(), vehicle.getMaxVelocity());
+            return getHeatColor(velocity, vehicle.getMinVelocity(), vehicle.getMaxVelocity());
         }
         throw new RuntimeException("illegal color mode");
     }
+
+    public int getColorIndex() {
+        return colorIndex;
+    }
     
     @Override
     public Decision getDecision() {
@@ -175,13 +264,16 @@ public abstract class Agent extends Element implements Thinkable, Simulatable, R
      * value;
      */
     public void makeHandshakeByEnqueuingNeighbors() {
-        for (Agent agent: lane.getAgentsInOrder()) {
+        final List<Agent> agents = laneAgents.get();
+        lane.collectAgentsInOrder(agents);
+        for (Agent agent: agents) {
             double delta = Math.abs(this.getLanePosition() - agent.getLanePosition());
             if(!neighborsQueue.containsKey(agent) && !this.equals(agent) && delta <= DIST) {
                 neighborsQueue.put(agent,delta);
                 neighborCountSinceLastSampling++;
             }
         }
+        agents.clear();
     }
     
     /**
@@ -190,13 +282,56 @@ public abstract class Agent extends Element implements Thinkable, Simulatable, R
      * used to avoid stackoverflowing during logging.
      */
     public void makeLightweightHandshake() {
-        for (Agent agent: lane.getAgentsInOrder()) {
+        final List<Agent> agents = laneAgents.get();
+        lane.collectAgentsInOrder(agents);
+        for (Agent agent: agents) {
             double delta = Math.abs(this.getLanePosition() - agent.getLanePosition());
-            if(!neighborsSet.contains(agent.getId()) && !this.equals(agent) && delta <= DIST) {
-                neighborsSet.add(agent.getId());
-                neighborCountSinceLastSampling++;
+            if(delta <= DIST && !this.equals(agent)) {
+                addNeighbor(agent.getId(), delta);
+            }
+        }
+        agents.clear();
+    }
+
+    /**
+     * Adds a neighbour to the neighbours set, unless it is in already.
+     *
+     * @param neighbor
+     *            id of the neighbour
+     * @param delta
+     *            distance to the neighbour [m]
+     * @return {@code true} if the neighbour was new
+     */
+    public boolean addNeighbor(final int neighbor, final double delta) {
+        if (neighborIds == null) {
+            neighborIds = new IntHashSet(neighborsSet.size());
+            for (final int id : neighborsSet) {
+                neighborIds.add(id);
             }
         }
+        if (!neighborIds.add(neighbor)) {
+            return false;
+        }
+        neighborsSet.add(neighbor);
+        neighborCountSinceLastSampling++;
+        getNet().publish(EventType.HANDSHAKE, this, neighbor, lane, delta);
+        return true;
+    }
+
+    /**
+     * Takes over the handshake counter and the neighbours set of another copy
+     * of this agent, e.g. one restored from an earlier state.
+     *
+     * @param agent
+     *            the other copy
+     */
+    public void takeHandshakes(final Agent agent) {
+        if (agent == null) {
+            throw new ArgumentNullException("agent");
+        }
+        neighborCountSinceLastSampling = agent.neighborCountSinceLastSampling;
+        neighborsSet = agent.neighborsSet;
+        neighborIds = agent.neighborIds;
     }
     
     /**
@@ -232,9 +367,12 @@ public abstract class Agent extends Element implements Thinkable, Simulatable, R
         return getLane().getPolyShape().getRelativePosition(getRelativeLanePosition());
     }
     
-    private Color getRandomColor() {
-        final int index = ThreadLocalRandom.current().nextInt(colors.length);
-        return colors[index];
+    /**
+     * @return the random stream of this agent, only drawn from while this
+     *         agent thinks or is spawned
+     */
+    protected SplitMix64 getRandom() {
+        return random;
     }
     
     /**
@@ -311,108 +449,171 @@ public abstract class Agent extends Element implements Thinkable, Simulatable, R
         // @formatter:on
     }
     
-    @Override
-    public void render(final Graphics2D g) {
-        final Point2D position = getPosition();
-        final double x = position.getX();
-        final double y = position.getY();
-        final double orientation = getLane().getPolyShape().getRelativeOrientation(getRelativeLanePosition());
-        g.setStroke(new BasicStroke(1));
-        g.setColor(getColor());
-        g.translate(x, y);
-        g.rotate(orientation);
-        g.fill(vehicle.getShape());
-        if (Config.getInstance().getBool("agent.render.infos", false)) {
-            g.setFont(App.FONT);
-            g.drawString("Agent " + getId(), -9, 5);
+    /**
+     * Restores the state written by {@link Agent#writeState(DataOutput)}.
+     * Subclasses with own state override both methods.
+     *
+     * @param in
+     *            input to read from
+     * @param net
+     *            net to look up lanes, junctions and spawn infos
+     * @throws IOException
+     */
+    public void readState(final DataInput in, final Net net) throws IOException {
+        lane = (Lane) net.getElement(in.readInt());
+        if (lane == null) {
+            throw new IOException("unknown lane");
         }
-        if (Main.DEBUG) {
-            final Color c = g.getColor();
-            g.setColor(Color.RED);
-            final double acceleration = getAcceleration();
-            int accelerationIndicatorLength = 0;
-            if (acceleration > 0) {
-                accelerationIndicatorLength = (int) (acceleration / getVehicle().getMaxAcceleration() * ACCELERATION_DEBUG_INDICATOR_LENGTH);
-            } else {
-                accelerationIndicatorLength = (int) -(acceleration / getVehicle().getMinAcceleration() * ACCELERATION_DEBUG_INDICATOR_LENGTH);
-            }
-            g.setStroke(new BasicStroke(.5f));
-            g.drawLine(0, 0, accelerationIndicatorLength, 0);
-            g.drawOval((int) -ACCELERATION_DEBUG_INDICATOR_LENGTH, (int) -ACCELERATION_DEBUG_INDICATOR_LENGTH, (int) ACCELERATION_DEBUG_INDICATOR_LENGTH * 2,
-                    (int) ACCELERATION_DEBUG_INDICATOR_LENGTH * 2);
-            g.setColor(c);
+        lanePosition = in.readDouble();
+        velocity = in.readDouble();
+        acceleration = in.readDouble();
+        collisionCount = Helpers.readVarInt(in);
+        colorIndex = in.readByte();
+        final int spawnInfoIndex = Helpers.readVarInt(in) - 1;
+        if (spawnInfoIndex >= 0) {
+            spawnInfo = net.getSpawnInfo(spawnInfoIndex);
+            vehicle = spawnInfo.getVehicle();
+        } else {
+            final String agent = in.readBoolean() ? in.readUTF() : null;
+            vehicle = new Vehicle(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), agent);
         }
-        g.rotate(-orientation);
-        g.translate(-x, -y);
+        decision.setAcceleration(in.readDouble());
+        decision.setLaneChange(LaneChange.values()[in.readByte()]);
+        decision.setTurning((Lane) net.getElement(in.readInt()));
+        decision.setDestination((Junction) net.getElement(in.readInt()));
+        neighborCountSinceLastSampling = Helpers.readVarInt(in);
+        final int neighbors = Helpers.readVarInt(in);
+        // grown like the written set, so it iterates in the same order
+        neighborsSet = new HashSet<Integer>();
+        neighborIds = null;
+        for (int i = 0; i < neighbors; i++) {
+            neighborsSet.add(Helpers.readVarInt(in));
+        }
+        random = SplitMix64.read(in);
     }
-    
+
     @Override
-    public void render(final Graphics2D g, final NavigableMap<Double, Net> simulationStates) {
+    public void render(final Graphics2D g) {
+        final double relativeLanePosition = getRelativeLanePosition();
+        final Point2D position = getLane().getPolyShape().getRelativePosition(relativeLanePosition);
+        final double orientation = getLane().getPolyShape().getRelativeOrientation(relativeLanePosition);
+        render(g, getId(), position, orientation, getColor(colorIndex, getVelocity(), vehicle), vehicle, getAcceleration());
+    }
+
+    /**
+     * Render an agent out of a simulation frame.
+     *
+     * @param g
+     *            the object to render with.
+     * @param frame
+     *            the frame holding the agent state
+     * @param index
+     *            index of the agent in the frame
+     * @param simulationStates
+     *            Saved simulation states. Key:= simulation time [s].
+     *            Value:=@{link AgentFrame}
+     * @param wallClockTime
+     *            wall clock time of the frame source [s]
+     */
+    public static void render(final Graphics2D g, final AgentFrame frame, final int index, final NavigableMap<Double, AgentFrame> simulationStates, final double wallClockTime) {
+        final Lane lane = frame.getLane(index);
+        final Vehicle vehicle = frame.getVehicle(index);
+        final double relativeLanePosition = frame.getRelativeLanePosition(index);
+        final Point2D position = lane.getPolyShape().getRelativePosition(relativeLanePosition);
+        final double orientation = lane.getPolyShape().getRelativeOrientation(relativeLanePosition);
+        final Color color = getColor(frame.getColorIndex(index), frame.getVelocity(index), vehicle);
+        final double x = position.getX();
+        final double y = position.getY();
+        double xChangeLaneShift = 0;
+        double yChangeLaneShift = 0;
         if (CHANGE_LANE_ANIMATED) {
-            final Point2D position = getPosition();
-            final double x = position.getX();
-            final double y = position.getY();
-            double xChangeLaneShift = 0;
-            double yChangeLaneShift = 0;
-            // translate to agent
-            g.translate(x, y);
-            final double wallClockTime = App.getInstance().getSimulation().getWallClockTime();
-            // check old simulation states
-            final Optional<Element.ElementInTime> lastAgentStateBeforeLaneChange = simulationStates.headMap(wallClockTime).values().stream().map(oldNet -> {
-                return new Element.ElementInTime(oldNet.getSimulationTime(), oldNet.getElement(getId()));
-            }).filter(oldAgentInTime -> {
-                final Agent oldAgent = (Agent) oldAgentInTime.getElement();
+            final Optional<Lane> leftLane = lane.getLeftLane();
+            final Optional<Lane> rightLane = lane.getRightLane();
+            // check old simulation states, only the ones which can still be
+            // animated are of interest. Most recent first, as the natural
+            // order of Element.ElementInTime: the animation starts from the
+            // last position on the old lane, which is the one next to the
+            // current position.
+            double lastTimeBeforeChange = 0;
+            Point2D lastPositionBeforeChange = null;
+            for (final AgentFrame oldFrame : simulationStates.subMap(wallClockTime - CHANGE_LANE_ANIMATION_DURATION, false, wallClockTime, false).descendingMap().values()) {
+                final int oldIndex = oldFrame.indexOf(frame.getId(index));
+                if (oldIndex < 0) {
+                    continue;
+                }
+                final int oldLaneId = oldFrame.getLaneId(oldIndex);
                 // lane changed on same edge?
                 // @formatter:off
-                return  oldAgent != null
-                        && (
-                                getLane().getLeftLane().isPresent()
-                                && oldAgent.getLane().getId() == getLane().getLeftLane().get().getId() || getLane().getRightLane().isPresent()
-                                && oldAgent.getLane().getId() == getLane().getRightLane().get().getId()
-                                );
+                if (       leftLane.isPresent() && oldLaneId == leftLane.get().getId()
+                        || rightLane.isPresent() && oldLaneId == rightLane.get().getId()) {
+                    lastTimeBeforeChange = oldFrame.getSimulationTime();
+                    lastPositionBeforeChange = oldFrame.getPosition(oldIndex);
+                    break;
+                }
                 // @formatter:on
-                    }).sorted().findFirst();
-            if (lastAgentStateBeforeLaneChange.isPresent()) {
-                final double lastTimeBeforeChange = lastAgentStateBeforeLaneChange.get().getTime();
-                final Agent lastAgentStateBeforeChange = (Agent) lastAgentStateBeforeLaneChange.get().getElement();
+            }
+            if (lastPositionBeforeChange != null) {
                 final double lastLaneChangeRelativeTime = wallClockTime - lastTimeBeforeChange;
                 final double changeLaneAnimationDurationLeft = CHANGE_LANE_ANIMATION_DURATION - lastLaneChangeRelativeTime;
                 if (changeLaneAnimationDurationLeft > 0) {
-                    final double extrapolatedRelativePosition = getRelativeLanePosition() + getVelocity() * changeLaneAnimationDurationLeft / getLane().getLength();
+                    final double extrapolatedRelativePosition = relativeLanePosition + frame.getVelocity(index) * changeLaneAnimationDurationLeft / lane.getLength();
                     // only animate lane change if change is fully on this lane
                     if (extrapolatedRelativePosition >= 0 && extrapolatedRelativePosition <= 1) {
-                        final Point2D extrapolatedPosition = getLane().getPolyShape().getRelativePosition(extrapolatedRelativePosition);
+                        final Point2D extrapolatedPosition = lane.getPolyShape().getRelativePosition(extrapolatedRelativePosition);
                         final double changeLaneFactor = 1 - changeLaneAnimationDurationLeft / CHANGE_LANE_ANIMATION_DURATION;
-                        final Point2D changeLanePosition = new Point2D.Double(changeLaneFactor * (extrapolatedPosition.getX() - lastAgentStateBeforeChange.getPosition().getX())
-                                + lastAgentStateBeforeChange.getPosition().getX(), changeLaneFactor * (extrapolatedPosition.getY() - lastAgentStateBeforeChange.getPosition().getY())
-                                + lastAgentStateBeforeChange.getPosition().getY());
+                        final Point2D changeLanePosition = new Point2D.Double(changeLaneFactor * (extrapolatedPosition.getX() - lastPositionBeforeChange.getX()) + lastPositionBeforeChange.getX(),
+                                changeLaneFactor * (extrapolatedPosition.getY() - lastPositionBeforeChange.getY()) + lastPositionBeforeChange.getY());
                         xChangeLaneShift = changeLanePosition.getX() - x;
                         yChangeLaneShift = changeLanePosition.getY() - y;
                         if (Main.DEBUG) {
                             g.setColor(Color.GREEN);
                             g.setStroke(new BasicStroke(.5f));
-                            g.translate(-x, -y);
                             g.drawOval((int) extrapolatedPosition.getX() - 2, (int) extrapolatedPosition.getY() - 2, 4, 4);
-                            g.drawOval((int) lastAgentStateBeforeChange.getPosition().getX() - 2, (int) lastAgentStateBeforeChange.getPosition().getY() - 2, 4, 4);
-                            g.drawLine((int) lastAgentStateBeforeChange.getPosition().getX(), (int) lastAgentStateBeforeChange.getPosition().getY(), (int) extrapolatedPosition.getX(),
-                                    (int) extrapolatedPosition.getY());
+                            g.drawOval((int) lastPositionBeforeChange.getX() - 2, (int) lastPositionBeforeChange.getY() - 2, 4, 4);
+                            g.drawLine((int) lastPositionBeforeChange.getX(), (int) lastPositionBeforeChange.getY(), (int) extrapolatedPosition.getX(), (int) extrapolatedPosition.getY());
                             g.setColor(Color.RED);
-                            g.drawLine((int) lastAgentStateBeforeChange.getPosition().getX(), (int) lastAgentStateBeforeChange.getPosition().getY(), (int) changeLanePosition.getX(),
-                                    (int) changeLanePosition.getY());
-                            g.translate(x, y);
+                            g.drawLine((int) lastPositionBeforeChange.getX(), (int) lastPositionBeforeChange.getY(), (int) changeLanePosition.getX(), (int) changeLanePosition.getY());
                         }
-                        g.translate(xChangeLaneShift, yChangeLaneShift);
                     }
                 }
             }
-            g.translate(-x, -y);
-            Renderable.super.render(g, simulationStates);
-            g.translate(-xChangeLaneShift, -yChangeLaneShift);
-        } else {
-            Renderable.super.render(g, simulationStates);
         }
+        g.translate(xChangeLaneShift, yChangeLaneShift);
+        render(g, frame.getId(index), position, orientation, color, vehicle, frame.getAcceleration(index));
+        g.translate(-xChangeLaneShift, -yChangeLaneShift);
     }
-    
+
+    private static void render(final Graphics2D g, final int id, final Point2D position, final double orientation, final Color color, final Vehicle vehicle, final double acceleration) {
+        final double x = position.getX();
+        final double y = position.getY();
+        g.setStroke(new BasicStroke(1));
+        g.setColor(color);
+        g.translate(x, y);
+        g.rotate(orientation);
+        g.fill(vehicle.getShape());
+        if (Config.getInstance().getBool("agent.render.infos", false)) {
+            g.setFont(Window.FONT);
+            g.drawString("Agent " + id, -9, 5);
+        }
+        if (Main.DEBUG) {
+            final Color c = g.getColor();
+            g.setColor(Color.RED);
+            int accelerationIndicatorLength = 0;
+            if (acceleration > 0) {
+                accelerationIndicatorLength = (int) (acceleration / vehicle.getMaxAcceleration() * ACCELERATION_DEBUG_INDICATOR_LENGTH);
+            } else {
+                accelerationIndicatorLength = (int) -(acceleration / vehicle.getMinAcceleration() * ACCELERATION_DEBUG_INDICATOR_LENGTH);
+            }
+            g.setStroke(new BasicStroke(.5f));
+            g.drawLine(0, 0, accelerationIndicatorLength, 0);
+            g.drawOval((int) -ACCELERATION_DEBUG_INDICATOR_LENGTH, (int) -ACCELERATION_DEBUG_INDICATOR_LENGTH, (int) ACCELERATION_DEBUG_INDICATOR_LENGTH * 2,
+                    (int) ACCELERATION_DEBUG_INDICATOR_LENGTH * 2);
+            g.setColor(c);
+        }
+        g.rotate(-orientation);
+        g.translate(-x, -y);
+    }
+
     public void setAcceleration(final double acceleration) {
         this.acceleration = Helpers.clamp(acceleration, vehicle.getMinAcceleration(), vehicle.getMaxAcceleration());
     }
@@ -439,6 +640,20 @@ public abstract class Agent extends Element implements Thinkable, Simulatable, R
         lane = nextEdgeLane;
     }
     
+    /**
+     * Hands this agent its random stream and picks its color from it.
+     *
+     * @param random
+     *            the stream, not shared with anyone else
+     */
+    public void setRandom(final SplitMix64 random) {
+        if (random == null) {
+            throw new ArgumentNullException("random");
+        }
+        this.random = random;
+        colorIndex = random.nextInt(colors.length);
+    }
+    
     private void setSpawnInfo(final SpawnInfo spawnInfo) {
         this.spawnInfo = spawnInfo;
     }
@@ -456,13 +671,43 @@ public abstract class Agent extends Element implements Thinkable, Simulatable, R
     
     @Override
     public void simulate(final double duration) {
+        step(duration);
+        commit();
+        handshake();
+    }
+
+    /**
+     * Calculates the state after {@code duration} out of the current state and
+     * the decision. The result is buffered and doesn't become visible until
+     * {@link Agent#commit()} is called. Only reads this agent.
+     *
+     * @param duration
+     *            duration to simulate in [s]
+     */
+    public void step(final double duration) {
         // update acceleration
-        setAcceleration(getDecision().getAcceleration());
-        final double oldVelocity = getVelocity();
+        nextAcceleration = Helpers.clamp(getDecision().getAcceleration(), vehicle.getMinAcceleration(), vehicle.getMaxAcceleration());
         // update velocity
-        setVelocity(oldVelocity + getAcceleration() * duration);
+        nextVelocity = Helpers.clamp(getVelocity() + nextAcceleration * duration, vehicle.getMinVelocity(), vehicle.getMaxVelocity());
         // update position
-        setLanePosition(getLanePosition() + (oldVelocity + getVelocity()) / 2 * duration);
+        nextLanePosition = getLanePosition() + (getVelocity() + nextVelocity) / 2 * duration;
+    }
+
+    /**
+     * Makes the state calculated by {@link Agent#step(double)} the current
+     * state.
+     */
+    public void commit() {
+        acceleration = nextAcceleration;
+        velocity = nextVelocity;
+        lanePosition = nextLanePosition;
+    }
+
+    /**
+     * Handshake with the neighbours on the same lane. Reads the neighbours,
+     * only writes this agent.
+     */
+    public void handshake() {
         //Swap next two lines to capture more Queue information
         //makeHandshakeByEnqueuingNeighbors();
         makeLightweightHandshake();
@@ -472,4 +717,59 @@ public abstract class Agent extends Element implements Thinkable, Simulatable, R
     public String toString() {
         return String.format("Agent{ id: %d, v: %.2f, a: %.2f, lanePosition: %.2f, relativeLanePosition: %.2f }", getId(), velocity, acceleration, lanePosition, getRelativeLanePosition());
     }
+
+    /**
+     * Writes this agent in a compact binary form. Read it again with
+     * {@link Agent#read(DataInput, Net)}. Lanes, junctions and spawn infos are
+     * written as references, so the reading side must have the same net.
+     * {@link Agent#getNeighborsQueue()} is not written.
+     *
+     * @param out
+     *            output to write to
+     * @throws IOException
+     */
+    public void write(final DataOutput out) throws IOException {
+        out.writeUTF(getClass().getSimpleName());
+        out.writeInt(getId());
+        writeState(out);
+    }
+
+    /**
+     * @see Agent#write(DataOutput)
+     * @param out
+     *            output to write to
+     * @throws IOException
+     */
+    public void writeState(final DataOutput out) throws IOException {
+        out.writeInt(lane.getId());
+        out.writeDouble(lanePosition);
+        out.writeDouble(velocity);
+        out.writeDouble(acceleration);
+        Helpers.writeVarInt(out, collisionCount);
+        out.writeByte(colorIndex);
+        final int spawnInfoIndex = spawnInfo == null ? -1 : getNet().getSpawnInfoIndex(spawnInfo);
+        Helpers.writeVarInt(out, spawnInfoIndex + 1);
+        if (spawnInfoIndex < 0) {
+            out.writeBoolean(vehicle.getAgent() != null);
+            if (vehicle.getAgent() != null) {
+                out.writeUTF(vehicle.getAgent());
+            }
+            out.writeDouble(vehicle.getMinAcceleration());
+            out.writeDouble(vehicle.getMaxAcceleration());
+            out.writeDouble(vehicle.getMinVelocity());
+            out.writeDouble(vehicle.getMaxVelocity());
+            out.writeDouble(vehicle.getLength());
+        }
+        out.writeDouble(decision.getAcceleration());
+        out.writeByte(decision.getLaneChange().ordinal());
+        out.writeInt(decision.getTurning() == null ? 0 : decision.getTurning().getId());
+        out.writeInt(decision.getDestination() == null ? 0 : decision.getDestination().getId());
+        Helpers.writeVarInt(out, neighborCountSinceLastSampling);
+        // in iteration order, the handshake logs depend on it
+        Helpers.writeVarInt(out, neighborsSet.size());
+        for (final int neighbor : neighborsSet) {
+            Helpers.writeVarInt(out, neighbor);
+        }
+        random.write(out);
+    }
 }
@@ -3,6 +3,7 @@ package ch.bfh.ti.jts.data;
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Optional;
 import java.util.Set;
@@ -12,6 +13,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import ch.bfh.ti.jts.exceptions.ArgumentNullException;
+import ch.bfh.ti.jts.simulation.EventType;
 import ch.bfh.ti.jts.simulation.Simulatable;
 import ch.bfh.ti.jts.utils.Helpers;
 import ch.bfh.ti.jts.utils.graph.DirectedGraphEdge;
@@ -34,6 +36,10 @@ public class Edge extends Element implements SpawnLocation, DirectedGraphEdge<Ed
      */
     private final int              priority;
     private final Collection<Lane> lanes;
+    /**
+     * Scratch set of {@link Edge#switchLane()}, reused from step to step.
+     */
+    private transient Set<Agent>   laneChangeCandidates;
 
     public Edge(final String name, final Junction start, final Junction end, final int priority) {
         super(name);
@@ -56,7 +62,7 @@ public class Edge extends Element implements SpawnLocation, DirectedGraphEdge<Ed
     }
 
     public Lane getDefaultLane(final Lane current) {
-        return current.getLanes().stream().filter(x -> x.comesFrom(current.getEdge().getEnd())).findFirst().orElse(null);
+        return current.getLanes().stream().filter(x -> x.comesFrom(current.getEdge().getEnd()) && !x.isClosed()).findFirst().orElse(null);
     }
 
     @Override
@@ -68,6 +74,22 @@ public class Edge extends Element implements SpawnLocation, DirectedGraphEdge<Ed
         return lanes.stream().flatMap(x -> x.getEdgeLeaveCandidates().stream()).collect(Collectors.toSet());
     }
 
+    /**
+     * Collects the agents which have reached the end of a lane, without
+     * allocating.
+     *
+     * @param candidates
+     *            cleared and filled with the agents
+     */
+    void getEdgeLeaveCandidates(final Set<Agent> candidates) {
+        candidates.clear();
+        for (final Lane lane : lanes) {
+            for (final Agent agent : lane.getEdgeLeaveCandidates()) {
+                candidates.add(agent);
+            }
+        }
+    }
+
     @Override
     public Junction getEnd() {
         return end;
@@ -104,6 +126,9 @@ public class Edge extends Element implements SpawnLocation, DirectedGraphEdge<Ed
 
     @Override
     public double getWeight() {
+        if (isClosed()) {
+            return Double.POSITIVE_INFINITY;
+        }
         double maxLenght = Double.POSITIVE_INFINITY;
         final Optional<Lane> maxLane = lanes.stream().max((x, y) -> {
             return new Double(x.getLength()).compareTo(y.getLength());
@@ -114,6 +139,13 @@ public class Edge extends Element implements SpawnLocation, DirectedGraphEdge<Ed
         return maxLenght / getPriority();
     }
 
+    /**
+     * @return {@code true} if all the lanes of this edge are closed
+     */
+    public boolean isClosed() {
+        return !lanes.isEmpty() && lanes.stream().allMatch(Lane::isClosed);
+    }
+
     @Override
     public void simulate(final double duration) {
         switchLane();
@@ -123,8 +155,15 @@ public class Edge extends Element implements SpawnLocation, DirectedGraphEdge<Ed
      * Agents switch lane.
      */
     private void switchLane() {
-        getLanes().forEach(lane -> {
-            lane.getLaneChangeCandidates().forEach((agent, changeLane) -> {
+        if (laneChangeCandidates == null) {
+            laneChangeCandidates = new HashSet<>();
+        }
+        for (final Lane lane : getLanes()) {
+            lane.getLaneChangeCandidates(laneChangeCandidates);
+            // same order as the map of the lane, which grows earlier
+            final Collection<Agent> candidates = laneChangeCandidates.size() < Lane.REUSABLE_SET_SIZE ? laneChangeCandidates : lane.getLaneChangeCandidates().keySet();
+            for (final Agent agent : candidates) {
+                final Optional<Lane> changeLane = lane.getLaneChangeTarget(agent);
                 if (!agent.isRemoveCandidate()) {
                     // only if agent isn't already removed
                     try {
@@ -133,6 +172,7 @@ public class Edge extends Element implements SpawnLocation, DirectedGraphEdge<Ed
                             agent.setLane(changeLane.get());
                             changeLane.get().addLaneAgent(agent);
                             lane.removeLaneAgent(agent);
+                            getNet().publish(EventType.LANE_CHANGE, agent, lane.getId(), changeLane.get(), agent.getLanePosition());
                         } else {
                             lane.removeEdgeLeaveCandidate(agent);
                             agent.remove();
@@ -142,8 +182,13 @@ public class Edge extends Element implements SpawnLocation, DirectedGraphEdge<Ed
                         log.error(String.format("%s can't change lane", agent), e);
                     }
                 }
-            });
-        });
+            }
+            if (laneChangeCandidates.size() > Lane.REUSABLE_SET_SIZE) {
+                // grown, would iterate differently than a new set
+                laneChangeCandidates = new HashSet<>();
+            }
+        }
+        laneChangeCandidates.clear();
     }
 
     @Override
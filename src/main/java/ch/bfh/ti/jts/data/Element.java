@@ -59,6 +59,21 @@ public abstract class Element implements Serializable, Comparable<Element> {
         id = NEXT_ID.incrementAndGet();
     }
 
+    /**
+     * Recreates an element with a known id, e.g. an agent received from
+     * another process. Ids handed out later are always bigger.
+     *
+     * @param name
+     *            the xml name
+     * @param id
+     *            the id of the element
+     */
+    protected Element(final String name, final int id) {
+        this.name = name;
+        this.id = id;
+        NEXT_ID.accumulateAndGet(id, Math::max);
+    }
+
     @Override
     public int compareTo(final Element otherElement) {
         return getId() - otherElement.getId();
@@ -74,7 +89,7 @@ public abstract class Element implements Serializable, Comparable<Element> {
             return true;
         }
         final Element elem = (Element) obj;
-        return new Integer(elem.id).equals(id);
+        return elem.id == id;
     }
 
     /**
@@ -133,7 +148,7 @@ public abstract class Element implements Serializable, Comparable<Element> {
 
     @Override
     public int hashCode() {
-        return new Integer(id).hashCode();
+        return Integer.hashCode(id);
     }
 
     /**
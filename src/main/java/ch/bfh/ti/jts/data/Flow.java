@@ -10,18 +10,47 @@ public class Flow extends SpawnInfo {
 
     private static final long serialVersionUID = 1L;
 
-    private final double      frequency;
+    private double            frequency;
     private int               count;
+    /**
+     * Simulation time [s] and count from which on {@link Flow#frequency}
+     * applies.
+     */
+    private double            since;
+    private int               sinceCount;
 
     public Flow(final Vehicle vehicle, final Junction start, final Junction end, final double departureSpeed, final double arrivalSpeed, final double frequency) {
         super(vehicle, start, end, 0.0, 0.0, departureSpeed, 0.0, arrivalSpeed);
         this.frequency = frequency;
     }
 
+    /**
+     * @return number of agents spawned by this flow
+     */
+    public int getCount() {
+        return count;
+    }
+
     public double getFrequency() {
         return frequency;
     }
 
+    /**
+     * @return simulation time from which on {@link Flow#getFrequency()}
+     *         applies [s]
+     */
+    public double getFrequencySince() {
+        return since;
+    }
+
+    /**
+     * @return number of agents spawned before {@link Flow#getFrequency()}
+     *         applied
+     */
+    public int getFrequencySinceCount() {
+        return sinceCount;
+    }
+
     public Junction getRouteEnd() {
         final SpawnLocation end = getEnd();
         if (end instanceof Junction) {
@@ -41,10 +70,58 @@ public class Flow extends SpawnInfo {
     public boolean isSpawn(final double time) {
         assert time >= 0;
 
-        if (count / time < frequency) {
+        if ((count - sinceCount) / (time - since) < frequency) {
             count++;
             return true;
         }
         return false;
     }
+
+    /**
+     * Changes the frequency from now on. The agents the new frequency would
+     * have spawned so far are not made up for.
+     *
+     * @param frequency
+     *            agents per second
+     * @param time
+     *            current simulation time [s]
+     */
+    public void setFrequency(final double frequency, final double time) {
+        if (frequency < 0) {
+            throw new IllegalArgumentException("frequency");
+        }
+        this.frequency = frequency;
+        since = time;
+        sinceCount = count;
+    }
+
+    /**
+     * Restores the frequency together with the time and count it applies
+     * from, e.g. from a checkpoint.
+     *
+     * @param frequency
+     *            agents per second
+     * @param since
+     *            simulation time from which on the frequency applies [s]
+     * @param sinceCount
+     *            number of agents spawned before the frequency applied
+     */
+    public void setFrequency(final double frequency, final double since, final int sinceCount) {
+        if (frequency < 0) {
+            throw new IllegalArgumentException("frequency");
+        }
+        this.frequency = frequency;
+        this.since = since;
+        this.sinceCount = sinceCount;
+    }
+
+    /**
+     * Restores the number of agents spawned, e.g. from a checkpoint.
+     *
+     * @param count
+     *            number of agents spawned
+     */
+    public void setCount(final int count) {
+        this.count = count;
+    }
 }
@@ -6,9 +6,12 @@ import java.awt.Graphics2D;
 import java.awt.Shape;
 import java.awt.geom.Point2D;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
@@ -35,6 +38,17 @@ public class Junction extends Element implements SpawnLocation, DirectedGraphVer
     private final double           y;
     private final Shape            shape;
     private final Collection<Edge> edges;
+    /**
+     * Incoming and outgoing {@link Junction#edges}, {@code null} until used
+     * and after an edge is added.
+     */
+    private transient List<Edge>   incomingEdges;
+    private transient List<Edge>   outgoingEdges;
+    /**
+     * Scratch set of {@link Junction#simulate(double)}, reused from step to
+     * step.
+     */
+    private transient Set<Agent>   crossingAgents;
 
     public Junction(final String name, final double x, final double y, final Shape shape) {
         super(name);
@@ -49,6 +63,8 @@ public class Junction extends Element implements SpawnLocation, DirectedGraphVer
 
     public void addEdge(final Edge edge) {
         edges.add(edge);
+        incomingEdges = null;
+        outgoingEdges = null;
     }
 
     @Override
@@ -64,9 +80,14 @@ public class Junction extends Element implements SpawnLocation, DirectedGraphVer
     }
 
     public Collection<Edge> getIncomingEdges() {
-        return edges.stream().filter(edge -> {
-            return edge.goesTo(this);
-        }).collect(Collectors.toList());
+        List<Edge> incoming = incomingEdges;
+        if (incoming == null) {
+            incoming = Collections.unmodifiableList(edges.stream().filter(edge -> {
+                return edge.goesTo(this);
+            }).collect(Collectors.toList()));
+            incomingEdges = incoming;
+        }
+        return incoming;
     }
 
     public Collection<Lane> getIncomingLanes() {
@@ -77,9 +98,14 @@ public class Junction extends Element implements SpawnLocation, DirectedGraphVer
 
     @Override
     public Collection<Edge> getOutgoingEdges() {
-        return edges.stream().filter(edge -> {
-            return edge.comesFrom(this);
-        }).collect(Collectors.toList());
+        List<Edge> outgoing = outgoingEdges;
+        if (outgoing == null) {
+            outgoing = Collections.unmodifiableList(edges.stream().filter(edge -> {
+                return edge.comesFrom(this);
+            }).collect(Collectors.toList()));
+            outgoingEdges = outgoing;
+        }
+        return outgoing;
     }
 
     public Collection<Lane> getOutgoingLanes() {
@@ -123,79 +149,103 @@ public class Junction extends Element implements SpawnLocation, DirectedGraphVer
 
     @Override
     public void simulate(final double duration) {
+        if (crossingAgents == null) {
+            crossingAgents = new HashSet<>();
+        }
         // move incoming agents over junction
-        edges.stream().filter(edge -> edge.goesTo(this)).forEach(edge -> {
-            edge.getEdgeLeaveCandidates().forEach((agent) -> {
-                try {
-                    // despawn agents, if destination is this junction
-                    final SpawnInfo spawnInfo = agent.getSpawnInfo();
-                    if (spawnInfo != null) {
-                        final SpawnLocation end = spawnInfo.getEnd();
-                        if (equals(end)) {
-                            // remove agent
-                            agent.remove();
-                            return; // break!
-                        }
-                    }
-                } catch (final Exception e) {
-                    log.fatal(String.format("%s can't despawn on %s", agent, this), e);
+        for (final Edge edge : getIncomingEdges()) {
+            edge.getEdgeLeaveCandidates(crossingAgents);
+            for (final Agent agent : crossingAgents) {
+                cross(agent);
+            }
+            if (crossingAgents.size() > Lane.REUSABLE_SET_SIZE) {
+                // grown, would iterate differently than a new set
+                crossingAgents = new HashSet<>();
+            }
+        }
+        crossingAgents.clear();
+    }
+
+    /**
+     * Moves an agent which reached the end of an incoming lane over this
+     * junction: despawns it at its destination, otherwise puts it on the lane
+     * it decided for.
+     */
+    private void cross(final Agent agent) {
+        try {
+            // despawn agents, if destination is this junction
+            final SpawnInfo spawnInfo = agent.getSpawnInfo();
+            if (spawnInfo != null) {
+                final SpawnLocation end = spawnInfo.getEnd();
+                if (equals(end)) {
+                    // remove agent
+                    agent.getLane().removeEdgeLeaveCandidate(agent);
+                    agent.remove();
+                    getNet().arrive();
+                    return; // break!
                 }
-                try {
-                    // check switch edge...
-
-                    // 1. next edge lane?
-                    final Decision decision = agent.getDecision();
-                    final Lane nextEdgeLane = decision.getTurning();
-                    if (nextEdgeLane != null) {
-                        // agent wants to switch on a specified lane
-                        if (agent.getLane().isValidOutgoingLane(nextEdgeLane)) {
-                            // switch to this lane
-                            switchLane(agent, nextEdgeLane);
-                            return; // break!
-                        } else {
-                            // not a valid decision
-                            log.warn(String.format("%s made no valid decision for next lane", agent));
-                        }
-                    }
+            }
+        } catch (final Exception e) {
+            log.fatal(String.format("%s can't despawn on %s", agent, this), e);
+        }
+        try {
+            // check switch edge...
+
+            // 1. next edge lane?
+            final Decision decision = agent.getDecision();
+            final Lane nextEdgeLane = decision.getTurning();
+            if (nextEdgeLane != null) {
+                // agent wants to switch on a specified lane
+                if (nextEdgeLane.isClosed()) {
+                    // take the route to the destination, if any
+                    log.debug(String.format("%s wants to turn into closed %s", agent, nextEdgeLane));
+                } else if (agent.getLane().isValidOutgoingLane(nextEdgeLane)) {
+                    // switch to this lane
+                    switchLane(agent, nextEdgeLane);
+                    return; // break!
+                } else {
+                    // not a valid decision
+                    log.warn(String.format("%s made no valid decision for next lane", agent));
+                }
+            }
 
-                    // 2. destination?
-                    final Junction destination = decision.getDestination();
-                    if (destination != null) {
-                        // agent has a destination
-                        // use gps to get there...
-                        final Junction lastJunction = agent.getLane().getEdge().getEnd();
-                        if (lastJunction == null) {
-                            throw new NullPointerException("lastJunction");
-                        }
-                        final Edge nextEdge = getNet().getGPS().getNextEdge(lastJunction, destination).orElse(null);
-                        if (nextEdge != null) {
-                            // take first lane
-                            final Lane defaultLane = nextEdge.getDefaultLane(agent.getLane());
-                            if (defaultLane != null) {
-                                // switch to this lane
-                                switchLane(agent, defaultLane);
-                                return; // break!
-                            } else {
-                                log.warn("No default lane for this outgoing lane");
-                            }
-                        } else {
-                            log.warn("GPS didn't find a path " + lastJunction + " -> " + destination);
-                        }
+            // 2. destination?
+            final Junction destination = decision.getDestination();
+            if (destination != null) {
+                // agent has a destination
+                // use gps to get there...
+                final Junction lastJunction = agent.getLane().getEdge().getEnd();
+                if (lastJunction == null) {
+                    throw new NullPointerException("lastJunction");
+                }
+                final Edge nextEdge = getNet().getGPS().getNextEdge(lastJunction, destination).orElse(null);
+                if (nextEdge != null) {
+                    // take first lane
+                    final Lane defaultLane = nextEdge.getDefaultLane(agent.getLane());
+                    if (defaultLane != null) {
+                        // switch to this lane
+                        switchLane(agent, defaultLane);
+                        return; // break!
+                    } else {
+                        log.warn("No default lane for this outgoing lane");
                     }
-                    // 3. no decision?
-                    log.warn(String.format("%s remove, can't cross junction", agent));
-                    agent.remove();
-                } catch (final Exception e) {
-                    log.fatal(String.format("%s can't switch edge on %s", agent, this), e);
+                } else {
+                    log.warn("GPS didn't find a path " + lastJunction + " -> " + destination);
                 }
-            });
-        });
+            }
+            // 3. no decision?
+            log.warn(String.format("%s remove, can't cross junction", agent));
+            agent.getLane().removeEdgeLeaveCandidate(agent);
+            agent.remove();
+        } catch (final Exception e) {
+            log.fatal(String.format("%s can't switch edge on %s", agent, this), e);
+        }
     }
 
     private void switchLane(final Agent agent, final Lane nextLane) {
         agent.getLane().removeEdgeLeaveCandidate(agent);
         agent.setNextEdgeLane(nextLane);
-        nextLane.addLaneAgent(agent);
+        getNet().getTransfer().transfer(this, agent, nextLane);
     }
 
     @Override
@@ -7,26 +7,30 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.geom.Point2D;
 import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import ch.bfh.ti.jts.App;
 import ch.bfh.ti.jts.exceptions.ArgumentNullException;
 import ch.bfh.ti.jts.gui.PolyShape;
 import ch.bfh.ti.jts.gui.Renderable;
+import ch.bfh.ti.jts.gui.Window;
+import ch.bfh.ti.jts.simulation.EventType;
 import ch.bfh.ti.jts.simulation.Simulatable;
 import ch.bfh.ti.jts.simulation.Statistics;
 import ch.bfh.ti.jts.utils.Config;
@@ -39,9 +43,36 @@ import ch.bfh.ti.jts.utils.Config;
  */
 public class Lane extends Element implements SpawnLocation, Simulatable, Renderable {
 
+    /**
+     * Agents at a position. Remembers if an agent was ever removed: only sets
+     * which grew from empty to at most {@link Lane#REUSABLE_SET_SIZE} agents
+     * iterate like a new set and may be reused.
+     */
+    private static class AgentSet extends HashSet<Agent> {
+
+        private static final long serialVersionUID = 1L;
+
+        private boolean           shrunk;
+
+        @Override
+        public boolean remove(final Object o) {
+            shrunk = true;
+            return super.remove(o);
+        }
+
+        boolean isReusable() {
+            return !shrunk && size() <= REUSABLE_SET_SIZE;
+        }
+    }
+
     private static final long                      serialVersionUID  = 1L;
     private static final Logger                    log               = LogManager.getLogger(Lane.class);
     public final static boolean                    LANE_RENDER_INFOS = Config.getInstance().getBool("lane.render.infos", false);
+    /**
+     * Size up to which a {@link HashSet} keeps its initial table, and so the
+     * iteration order of a new one.
+     */
+    static final int                               REUSABLE_SET_SIZE = 12;
 
     private final Edge                             edge;
     private final int                              index;
@@ -55,16 +86,35 @@ public class Lane extends Element implements SpawnLocation, Simulatable, Rendera
     /**
      * Agents on line. Key: RelativePosition, Value: List of @{link Agent}s
      */
-    private final NavigableMap<Double, Set<Agent>> laneAgents;
+    private NavigableMap<Double, Set<Agent>>       laneAgents;
 
     /**
      * Agents which have reached the end of the lane.
      */
-    final Set<Agent>                               edgeLeaveCandidates;
+    Set<Agent>                                     edgeLeaveCandidates;
 
     private double                                 spaceMeanSpeed;
     private double                                 timeMeanSpeed;
     private double                                 density;
+    /**
+     * {@code true} while this lane is in the active lanes of the net.
+     */
+    private volatile boolean                       active;
+    /**
+     * {@code true} if no agent may enter this lane any more, the agents on it
+     * leave as usual.
+     */
+    private boolean                                closed;
+    /**
+     * Scratch structures of {@link Lane#simulate(double)}, reused from step
+     * to step: the map the agents are moved to, the sets of agents at a
+     * position which are free, the agents of the step.
+     */
+    private transient NavigableMap<Double, Set<Agent>> spareLaneAgents;
+    private transient Deque<AgentSet>                  freeSets;
+    private transient List<Agent>                      stepAgents;
+    private transient Optional<Lane>                   leftLane;
+    private transient Optional<Lane>                   rightLane;
 
     public Lane(final String name, final Edge edge, final int index, final double speed, final double length, final PolyShape polyShape) {
         super(name);
@@ -90,6 +140,7 @@ public class Lane extends Element implements SpawnLocation, Simulatable, Rendera
             throw new IllegalArgumentException("agent");
         }
         edgeLeaveCandidates.add(agent);
+        setActive(true);
     }
 
     /**
@@ -102,13 +153,25 @@ public class Lane extends Element implements SpawnLocation, Simulatable, Rendera
         if (agent == null) {
             throw new IllegalArgumentException("agent");
         }
-        Set<Agent> agentsAtPosition = laneAgents.get(agent.getRelativeLanePosition());
+        final Double position = agent.getRelativeLanePosition();
+        Set<Agent> agentsAtPosition = laneAgents.get(position);
         if (agentsAtPosition == null) {
             // position not yet known.
-            agentsAtPosition = new HashSet<>();
-            laneAgents.put(agent.getRelativeLanePosition(), agentsAtPosition);
+            agentsAtPosition = freeSets == null || freeSets.isEmpty() ? new AgentSet() : freeSets.pop();
+            laneAgents.put(position, agentsAtPosition);
         }
         agentsAtPosition.add(agent);
+        setActive(true);
+    }
+
+    /**
+     * Removes all the agents, the lane is as if it never had any. Used by
+     * {@link Net#clearAgents()}.
+     */
+    void clearAgents() {
+        laneAgents = new TreeMap<>();
+        edgeLeaveCandidates = new HashSet<>();
+        setActive(false);
     }
 
     public boolean comesFrom(final Junction junction) {
@@ -116,17 +179,37 @@ public class Lane extends Element implements SpawnLocation, Simulatable, Rendera
     }
 
     /**
-     * Gets a flat collection of all agents on this lane in ascending order.
+     * @return number of agents on this lane
+     */
+    public int getAgentCount() {
+        int count = 0;
+        for (final Set<Agent> agents : laneAgents.values()) {
+            count += agents.size();
+        }
+        return count;
+    }
+
+    /**
+     * Adds all the agents on this lane in ascending order to a collection. Lets
+     * callers reuse a scratch list instead of allocating one per call.
      *
-     * @return all agents on the lane
+     * @param target
+     *            collection to add the agents to
      */
-    public Collection<Agent> getAgentsInOrder() {
-        final Collection<Agent> list = new LinkedList<>();
+    public void collectAgentsInOrder(final Collection<? super Agent> target) {
         for (final Set<Agent> agents : laneAgents.values()) {
-            for (final Agent agent : agents) {
-                list.add(agent);
-            }
+            target.addAll(agents);
         }
+    }
+
+    /**
+     * Gets a flat collection of all agents on this lane in ascending order.
+     *
+     * @return all agents on the lane, a new list
+     */
+    public List<Agent> getAgentsInOrder() {
+        final List<Agent> list = new ArrayList<>();
+        collectAgentsInOrder(list);
         return list;
     }
 
@@ -170,39 +253,59 @@ public class Lane extends Element implements SpawnLocation, Simulatable, Rendera
         return index;
     }
 
-    public Map<Agent, Optional<Lane>> getLaneChangeCandidates() {
-        final Map<Agent, Optional<Lane>> changeAgents = new ConcurrentHashMap<>();
-        final Set<Agent> laneChangeCandidates = new HashSet<>();
-
-        // TODO: this as stream
+    /**
+     * Collects the agents which want to change the lane, without allocating.
+     *
+     * @param candidates
+     *            cleared and filled with the agents
+     */
+    void getLaneChangeCandidates(final Set<Agent> candidates) {
+        candidates.clear();
         for (final Set<Agent> agents : laneAgents.values()) {
             for (final Agent agent : agents) {
                 if (agent.isLaneChangeCandidate()) {
-                    laneChangeCandidates.add(agent);
+                    candidates.add(agent);
                 }
             }
         }
+    }
+
+    public Map<Agent, Optional<Lane>> getLaneChangeCandidates() {
+        final Map<Agent, Optional<Lane>> changeAgents = new ConcurrentHashMap<>();
+        final Set<Agent> laneChangeCandidates = new HashSet<>();
+        getLaneChangeCandidates(laneChangeCandidates);
         laneChangeCandidates.forEach(agent -> {
-            switch (agent.getDecision().getLaneChange()) {
-                case RIGHT :
-                    changeAgents.put(agent, getRightLane());
-                    break;
-                case LEFT :
-                    changeAgents.put(agent, getLeftLane());
-                    break;
-                default :
-                    throw new IllegalAccessError("lane change direction");
-            }
+            changeAgents.put(agent, getLaneChangeTarget(agent));
         });
         return changeAgents;
     }
 
+    /**
+     * @param agent
+     *            a lane change candidate of this lane
+     * @return the lane the agent wants to change to
+     */
+    Optional<Lane> getLaneChangeTarget(final Agent agent) {
+        switch (agent.getDecision().getLaneChange()) {
+            case RIGHT :
+                return getRightLane();
+            case LEFT :
+                return getLeftLane();
+            default :
+                throw new IllegalAccessError("lane change direction");
+        }
+    }
+
     public Collection<Lane> getLanes() {
         return lanes;
     }
 
     public Optional<Lane> getLeftLane() {
-        return getEdge().getLanes().stream().filter(x -> x.index == index + 1).findAny();
+        if (leftLane == null) {
+            // lanes of an edge don't change
+            leftLane = getEdge().getLanes().stream().filter(x -> x.index == index + 1).findAny();
+        }
+        return leftLane.filter(x -> !x.closed);
     }
 
     public double getLength() {
@@ -223,14 +326,12 @@ public class Lane extends Element implements SpawnLocation, Simulatable, Rendera
         if (agent.getLane() != this) {
             throw new IllegalArgumentException("agent is not on this lane");
         }
-        Set<Agent> nextAgentsOnLine = new TreeSet<>();
-        try {
-            nextAgentsOnLine = getNextAgentsOnLine(agent.getRelativeLanePosition());
-        } catch (final IllegalArgumentException e) {
+        final double relativePosition = agent.getRelativeLanePosition();
+        if (relativePosition < 0 || relativePosition > 1.0) {
             log.info("agent off the line: can't lookup next agents on line");
+            return Collections.emptySet();
         }
-
-        return nextAgentsOnLine;
+        return getNextAgentsOnLine(relativePosition);
     }
 
     /**
@@ -244,12 +345,11 @@ public class Lane extends Element implements SpawnLocation, Simulatable, Rendera
         if (relativePosition < 0 || relativePosition > 1.0) {
             throw new IllegalArgumentException("relative position invalid: " + relativePosition);
         }
-        final Entry<Double, Set<Agent>> nextAgentsEntry = laneAgents.higherEntry(relativePosition);
-        Set<Agent> nextAgents = new HashSet<>();
-        if (nextAgentsEntry != null) {
-            nextAgents = nextAgentsEntry.getValue();
+        final Double nextPosition = laneAgents.higherKey(relativePosition);
+        if (nextPosition == null) {
+            return Collections.emptySet();
         }
-        return nextAgents;
+        return laneAgents.get(nextPosition);
     }
 
     public PolyShape getPolyShape() {
@@ -278,7 +378,11 @@ public class Lane extends Element implements SpawnLocation, Simulatable, Rendera
     }
 
     public Optional<Lane> getRightLane() {
-        return getEdge().getLanes().stream().filter(x -> x.index == index - 1).findAny();
+        if (rightLane == null) {
+            // lanes of an edge don't change
+            rightLane = getEdge().getLanes().stream().filter(x -> x.index == index - 1).findAny();
+        }
+        return rightLane.filter(x -> !x.closed);
     }
 
     @Override
@@ -294,6 +398,25 @@ public class Lane extends Element implements SpawnLocation, Simulatable, Rendera
         return getEdge().getEnd() == junction;
     }
 
+    /**
+     * @return {@code true} if there are agents on this lane
+     */
+    public boolean hasAgents() {
+        return !laneAgents.isEmpty();
+    }
+
+    /**
+     * @return {@code true} if this lane holds agents or edge leave candidates,
+     *         or did so in the last step
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
     public boolean isBranch() {
         return getLanes().size() > 1;
     }
@@ -341,7 +464,6 @@ public class Lane extends Element implements SpawnLocation, Simulatable, Rendera
         if (agentsAtPosition != null) {
             agentsAtPosition.remove(agent);
         }
-
     }
 
     @Override
@@ -351,36 +473,72 @@ public class Lane extends Element implements SpawnLocation, Simulatable, Rendera
         g.draw(polyShape.getShape());
 
         if (LANE_RENDER_INFOS) {
-            g.setFont(App.FONT);
+            g.setFont(Window.FONT);
             g.setColor(getColor());
             g.drawString(toString(), (int) getPosition().getX(), (int) getPosition().getY());
         }
     }
 
+    /**
+     * Closes or opens this lane. Agents don't change onto or turn into a
+     * closed lane and the routes avoid edges with all their lanes closed.
+     *
+     * @param closed
+     *            {@code true} to close
+     */
+    public void setClosed(final boolean closed) {
+        this.closed = closed;
+        if (getNet() != null) {
+            getNet().resetGPS();
+        }
+    }
+
+    private void setActive(final boolean active) {
+        if (this.active != active) {
+            this.active = active;
+            if (getNet() != null) {
+                getNet().setActive(this, active);
+            }
+        }
+    }
+
     @Override
     public void simulate(final double duration) {
-        final NavigableMap<Double, Set<Agent>> oldAgents = new TreeMap<>(laneAgents);
-        laneAgents.clear();
+        if (spareLaneAgents == null) {
+            spareLaneAgents = new TreeMap<>();
+            freeSets = new ArrayDeque<>();
+            stepAgents = new ArrayList<>();
+        }
+        // move the agents over to the spare map, the old one is the next spare
+        final NavigableMap<Double, Set<Agent>> oldAgents = laneAgents;
+        laneAgents = spareLaneAgents;
+        spareLaneAgents = oldAgents;
 
-        final List<Agent> allAgents = new LinkedList<>();
+        final List<Agent> allAgents = stepAgents;
+        allAgents.clear();
 
         // go through agents in order
-        while (oldAgents.size() > 0) {
-            final Entry<Double, Set<Agent>> entry = oldAgents.pollFirstEntry();
-            for (final Agent thisAgent : entry.getValue()) {
+        final Iterator<Set<Agent>> positions = oldAgents.values().iterator();
+        Set<Agent> nextAgents = positions.hasNext() ? positions.next() : null;
+        while (nextAgents != null) {
+            final Set<Agent> agents = nextAgents;
+            nextAgents = positions.hasNext() ? positions.next() : null;
+            for (final Agent thisAgent : agents) {
 
                 allAgents.add(thisAgent);
 
-                if (App.getInstance().getSimulation().isAllowCollisions()) {
+                if (getNet().isAllowCollisions()) {
                     // check for collision with next, if there is a next and
                     // thisAgent was fully moved
-                    if (thisAgent.isOnLane() && oldAgents.size() > 0) {
-                        final Entry<Double, Set<Agent>> nextEntry = oldAgents.firstEntry();
-                        for (final Agent nextAgent : nextEntry.getValue()) {
+                    if (thisAgent.isOnLane() && nextAgents != null) {
+                        for (final Agent nextAgent : nextAgents) {
                             final double distanceLeft = nextAgent.getLanePosition() - thisAgent.getLanePosition() - thisAgent.getVehicle().getLength() / 2 - nextAgent.getVehicle().getLength() / 2;
                             if (nextAgent.isOnLane() && distanceLeft <= 0) {
                                 // collision!
-                                log.debug(String.format("Collision between agents %d and %d (distance left: %f)", thisAgent.getId(), nextAgent.getId(), distanceLeft));
+                                getNet().publish(EventType.COLLISION, thisAgent, nextAgent.getId(), this, distanceLeft);
+                                if (log.isDebugEnabled()) {
+                                    log.debug(String.format("Collision between agents %d and %d (distance left: %f)", thisAgent.getId(), nextAgent.getId(), distanceLeft));
+                                }
                                 thisAgent.collide();
                                 nextAgent.collide();
                                 thisAgent.setLanePosition(thisAgent.getLanePosition() + distanceLeft);
@@ -397,11 +555,25 @@ public class Lane extends Element implements SpawnLocation, Simulatable, Rendera
                 }
             }
         }
+        // the sets of the old positions are free again
+        for (final Set<Agent> agents : oldAgents.values()) {
+            if (agents instanceof AgentSet && ((AgentSet) agents).isReusable()) {
+                agents.clear();
+                freeSets.push((AgentSet) agents);
+            }
+        }
+        oldAgents.clear();
 
         // collect some statistics informations
         timeMeanSpeed = Statistics.getTimeMeanSpeed(allAgents);
         spaceMeanSpeed = Statistics.getSpaceMeanSpeed(allAgents);
         density = Statistics.getDensity(allAgents.size(), getLength());
+
+        // nothing left to do, statistics are reset
+        if (allAgents.isEmpty() && edgeLeaveCandidates.isEmpty()) {
+            setActive(false);
+        }
+        allAgents.clear();
     }
 
     @Override
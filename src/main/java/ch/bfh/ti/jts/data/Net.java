@@ -1,16 +1,26 @@
 package ch.bfh.ti.jts.data;
 
 import java.awt.geom.Point2D;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -21,9 +31,13 @@ import ch.bfh.ti.jts.ai.Thinkable;
 import ch.bfh.ti.jts.ai.agents.IdleAgent;
 import ch.bfh.ti.jts.exceptions.ArgumentNullException;
 import ch.bfh.ti.jts.gui.Renderable;
+import ch.bfh.ti.jts.simulation.EventBus;
+import ch.bfh.ti.jts.simulation.EventType;
 import ch.bfh.ti.jts.simulation.Simulatable;
+import ch.bfh.ti.jts.simulation.Transfer;
 import ch.bfh.ti.jts.utils.Config;
 import ch.bfh.ti.jts.utils.Helpers;
+import ch.bfh.ti.jts.utils.SplitMix64;
 import ch.bfh.ti.jts.utils.graph.GPS;
 import ch.bfh.ti.jts.utils.layers.Layers;
 
@@ -37,6 +51,9 @@ public class Net extends Element implements Serializable, Simulatable {
 
     private static final long              serialVersionUID  = 1L;
     private static final Logger            log               = LogManager.getLogger(Net.class);
+    private static final int               LANE_LAYER        = Simulatable.KNOWN_CLASSES.get(Lane.class);
+    private static final int               EDGE_LAYER        = Simulatable.KNOWN_CLASSES.get(Edge.class);
+    private static final int               JUNCTION_LAYER    = Simulatable.KNOWN_CLASSES.get(Junction.class);
 
     /**
      * Factor by which the spawning should take place. 1 means real time speed.
@@ -44,14 +61,69 @@ public class Net extends Element implements Serializable, Simulatable {
      */
     private final double                   SPAWN_TIME_FACTOR = Config.getInstance().getDouble("net.spawning.timefactor", 1440.0, 0.0000000001, 10000000000.0);
     private final Set<Element>             elements          = new HashSet<>();
+    private final Map<Integer, Element>    elementsById      = new HashMap<>();
     private final Layers<Renderable>       renderables       = new Layers<>();
     private final Set<Thinkable>           thinkables        = new HashSet<>();
     private final Layers<Simulatable>      simulatables      = new Layers<>();
     private final BlockingQueue<SpawnInfo> routes            = new LinkedBlockingQueue<>();
+    /**
+     * All the routes ever added, to reference them by index.
+     */
+    private final List<SpawnInfo>          spawnInfos        = new ArrayList<>();
+    private final Map<SpawnInfo, Integer>  spawnInfoIndexes  = new IdentityHashMap<>();
     /**
      * Absolute time at simulated [s].
      */
     private double                         simulationTime;
+    /**
+     * Largest id of the elements in this net. Agents created by this net get
+     * the next ones, independent of other nets in the same JVM.
+     */
+    private int                            lastId;
+    /**
+     * Root of the random streams. Each agent created gets a stream split off
+     * from it, in the order of creation.
+     */
+    private SplitMix64                     random            = new SplitMix64(Config.getInstance().getValue("simulation.seed", 1L));
+    /**
+     * Agents which run into each other collide, see
+     * {@link Lane#simulate(double)}.
+     */
+    private boolean                        allowCollisions   = true;
+    /**
+     * Puts agents crossing a junction on their next lane.
+     */
+    private transient Transfer             transfer          = Transfer.DIRECT;
+    /**
+     * Agents are only spawned on lanes accepted by this filter. The agents
+     * for other lanes are still created, so the element ids stay the same in
+     * all the processes simulating a part of the same net.
+     */
+    private transient Predicate<Lane>      spawnFilter;
+    /**
+     * Takes over the spawning: gets each spawn due instead of an agent being
+     * created for it. {@code null} to spawn agents.
+     */
+    private transient Consumer<SpawnInfo>  spawner;
+    /**
+     * Lanes which hold agents or edge leave candidates, or did so in the last
+     * step. Only these lanes, their edges and junctions have to be simulated.
+     */
+    private final Set<Lane>                activeLanes       = ConcurrentHashMap.newKeySet();
+    /**
+     * Agents which reached their destination. Not part of the state written
+     * by {@link Net#writeState(DataOutput)}.
+     */
+    private final AtomicLong               arrivals          = new AtomicLong();
+    /**
+     * Routes between all the junctions. Built on first use, dropped when
+     * junctions or edges change.
+     */
+    private transient volatile GPS<Junction, Edge> gps;
+    /**
+     * Receives the events of this net, {@code null} to publish none.
+     */
+    private transient EventBus             events;
 
     public Net() {
         super("Net");
@@ -114,8 +186,14 @@ public class Net extends Element implements Serializable, Simulatable {
     public void addElement(final Element element) {
         // add element to net
         elements.add(element);
+        elementsById.put(element.getId(), element);
+        lastId = Math.max(lastId, element.getId());
         // set net on element
         element.setNet(this);
+        // routes changed?
+        if (element instanceof Junction || element instanceof Edge) {
+            gps = null;
+        }
         // element renderable?
         if (Renderable.class.isInstance(element)) {
             final Renderable renderable = (Renderable) element;
@@ -134,10 +212,20 @@ public class Net extends Element implements Serializable, Simulatable {
     }
 
     public void addRoutes(final Collection<SpawnInfo> routes) {
+        for (final SpawnInfo route : routes) {
+            spawnInfoIndexes.put(route, spawnInfos.size());
+            spawnInfos.add(route);
+        }
         this.routes.addAll(routes);
     }
 
+    /**
+     * Creates an agent with the next id and random stream. Called for all the
+     * agents spawned, also the ones rejected by {@link Net#spawnFilter}.
+     */
     private Agent createAgent(String name) {
+        final int id = ++lastId;
+        Agent agent = null;
         if (name != null) {
             if (!name.endsWith("Agent")) {
                 // add suffix
@@ -147,18 +235,20 @@ public class Net extends Element implements Serializable, Simulatable {
                 // append namespace
                 name = String.format("ch.bfh.ti.jts.ai.agents.%s", name);
                 final Class<?> clazz = Class.forName(name);
-                final Constructor<?> ctor = clazz.getConstructor();
-                final Object object = ctor.newInstance();
-                log.debug("Create agent: " + object.getClass());
-
-                return (Agent) object;
+                final Constructor<?> ctor = clazz.getConstructor(int.class);
+                agent = (Agent) ctor.newInstance(id);
+                log.debug("Create agent: " + agent.getClass());
             } catch (final Exception e) {
                 log.warn("Creating agent failed: " + name);
             }
         }
-        // default agent
-        log.debug("Create default agent: " + IdleAgent.class);
-        return new IdleAgent();
+        if (agent == null) {
+            // default agent
+            log.debug("Create default agent: " + IdleAgent.class);
+            agent = new IdleAgent(id);
+        }
+        agent.setRandom(random.split());
+        return agent;
     }
 
     private void doSpawning() {
@@ -167,9 +257,13 @@ public class Net extends Element implements Serializable, Simulatable {
                 .collect(Collectors.toList());
         for (final Route route : routes) {
 
-            // create agent
-            final Agent agent = createAgent(route.getVehicle().getAgent());
-            spawn(route, agent);
+            if (spawner != null) {
+                spawner.accept(route);
+            } else {
+                // create agent
+                final Agent agent = createAgent(route.getVehicle().getAgent());
+                spawn(route, agent);
+            }
 
             // remove route (one one spawn per route)
             getRoutes().remove(route);
@@ -180,17 +274,48 @@ public class Net extends Element implements Serializable, Simulatable {
         for (final Flow flow : flows) {
             if (flow.isSpawn(getSimulationTime())) {
 
-                // create agent
-                final Agent agent = createAgent(flow.getVehicle().getAgent());
-                spawn(flow, agent);
+                if (spawner != null) {
+                    spawner.accept(flow);
+                } else {
+                    // create agent
+                    final Agent agent = createAgent(flow.getVehicle().getAgent());
+                    spawn(flow, agent);
+                }
 
                 // don't remove flow (infinite spawning)
             }
         }
     }
 
+    /**
+     * Counts an agent which reached its destination.
+     */
+    void arrive() {
+        arrivals.incrementAndGet();
+    }
+
+    /**
+     * Removes all the agents at once, e.g. before restoring an earlier state
+     * with {@link Net#readState(DataInput)}. The ids handed out to agents are
+     * forgotten, the restored state sets them again.
+     */
+    public void clearAgents() {
+        for (final Agent agent : getAgents()) {
+            removeElement(agent);
+        }
+        getElementStream(Lane.class).forEach(lane -> ((Lane) lane).clearAgents());
+        lastId = elements.stream().mapToInt(Element::getId).max().orElse(0);
+    }
+
+    /**
+     * @return number of agents which reached their destination in this net
+     */
+    public long getArrivals() {
+        return arrivals.get();
+    }
+
     public Element getElement(final int elementId) {
-        return elements.stream().filter(x -> x.getId() == elementId).findAny().orElse(null);
+        return elementsById.get(elementId);
     }
 
     /**
@@ -230,8 +355,62 @@ public class Net extends Element implements Serializable, Simulatable {
         return elements.stream().sequential().filter(x -> filter.stream().anyMatch(f -> f.isAssignableFrom(x.getClass())));
     }
 
+    /**
+     * Gets the elements of a simulation layer which have something to do in
+     * this step. Agents and the net are always active; lanes while they hold
+     * agents or edge leave candidates; edges while one of their lanes holds
+     * agents; junctions while an incoming lane holds edge leave candidates.
+     * Call this just before simulating the layer, since the elements of the
+     * layers before decide what is active.
+     *
+     * @param layer
+     *            the simulation layer
+     * @return the active elements of the layer
+     */
+    public List<Simulatable> getActiveSimulatables(final int layer) {
+        if (layer == LANE_LAYER) {
+            return new ArrayList<>(activeLanes);
+        }
+        if (layer == EDGE_LAYER) {
+            return activeLanes.stream().filter(Lane::hasAgents).map(Lane::getEdge).distinct().collect(Collectors.toList());
+        }
+        if (layer == JUNCTION_LAYER) {
+            return activeLanes.stream().filter(lane -> !lane.getEdgeLeaveCandidates().isEmpty()).map(lane -> lane.getEdge().getEnd()).distinct().collect(Collectors.toList());
+        }
+        return simulatables.getLayerStream(layer).collect(Collectors.toList());
+    }
+
+    /**
+     * Drops the routes, they are built again on next use. Called when the
+     * weights of the edges changed.
+     */
+    public void resetGPS() {
+        gps = null;
+    }
+
+    /**
+     * @return routes between all the junctions of this net
+     */
     public GPS<Junction, Edge> getGPS() {
-        return new GPS<Junction, Edge>(this);
+        GPS<Junction, Edge> gps = this.gps;
+        if (gps == null) {
+            synchronized (this) {
+                gps = this.gps;
+                if (gps == null) {
+                    gps = new GPS<Junction, Edge>(this);
+                    this.gps = gps;
+                }
+            }
+        }
+        return gps;
+    }
+
+    /**
+     * @return bus the events of this net are published to, {@code null} if
+     *         there is none
+     */
+    public EventBus getEvents() {
+        return events;
     }
 
     @Override
@@ -243,6 +422,14 @@ public class Net extends Element implements Serializable, Simulatable {
         return renderables;
     }
 
+    /**
+     * @return root of the random streams, only drawn from by the thread
+     *         simulating this net
+     */
+    public SplitMix64 getRandom() {
+        return random;
+    }
+
     public Collection<SpawnInfo> getRoutes() {
         return routes;
     }
@@ -260,15 +447,167 @@ public class Net extends Element implements Serializable, Simulatable {
         return simulationTime;
     }
 
+    public Transfer getTransfer() {
+        if (transfer == null) {
+            return Transfer.DIRECT;
+        }
+        return transfer;
+    }
+
+    /**
+     * @param index
+     *            index returned by {@link Net#getSpawnInfoIndex(SpawnInfo)}
+     * @return the spawn info
+     */
+    public SpawnInfo getSpawnInfo(final int index) {
+        return spawnInfos.get(index);
+    }
+
+    /**
+     * @param spawnInfo
+     *            a spawn info added with {@link Net#addRoutes(Collection)}
+     * @return index of the spawn info, in order of adding
+     */
+    public int getSpawnInfoIndex(final SpawnInfo spawnInfo) {
+        final Integer index = spawnInfoIndexes.get(spawnInfo);
+        if (index == null) {
+            throw new IllegalArgumentException("spawnInfo");
+        }
+        return index;
+    }
+
     public Stream<Thinkable> getThinkableStream() {
         return thinkables.stream().parallel();
     }
 
+    public boolean isAllowCollisions() {
+        return allowCollisions;
+    }
+
+    /**
+     * Publishes an event at the current simulation time. Doesn't allocate,
+     * may be called by any simulation thread.
+     *
+     * @param type
+     *            type of the event
+     * @param agent
+     *            the agent
+     * @param other
+     *            id of another element, see {@link EventType}
+     * @param lane
+     *            the lane, {@code null} if there is none
+     * @param value
+     *            value, see {@link EventType}
+     */
+    public void publish(final EventType type, final Agent agent, final int other, final Lane lane, final double value) {
+        final EventBus events = this.events;
+        if (events != null) {
+            events.publish(type, getSimulationTime(), agent.getId(), other, lane == null ? 0 : lane.getId(), value);
+        }
+    }
+
+    /**
+     * Restores the dynamic state written by {@link Net#writeState(DataOutput)}
+     * on top of a freshly imported net without agents, or on top of a net of
+     * the same import after {@link Net#clearAgents()}.
+     *
+     * @param in
+     *            input to read from
+     * @throws IOException
+     */
+    public void readState(final DataInput in) throws IOException {
+        if (getElementStream(Agent.class).findAny().isPresent()) {
+            throw new IllegalStateException("net has agents already");
+        }
+        readState(in, lane -> true);
+    }
+
+    /**
+     * Restores the dynamic state written by {@link Net#writeState(DataOutput)}
+     * of a net with the same elements, but only the agents on lanes accepted
+     * by the filter. The agents already in this net are kept, so the states of
+     * nets simulating different parts of the same net can be merged. All the
+     * other parts of the state are replaced.
+     *
+     * @param in
+     *            input to read from
+     * @param filter
+     *            accepts the lanes whose agents are restored
+     * @throws IOException
+     */
+    public void readState(final DataInput in, final Predicate<Lane> filter) throws IOException {
+        if (filter == null) {
+            throw new ArgumentNullException("filter");
+        }
+        simulationTime = in.readDouble();
+        // pending routes
+        final int pending = Helpers.readVarInt(in);
+        final List<SpawnInfo> pendingRoutes = new ArrayList<>(pending);
+        for (int i = 0; i < pending; i++) {
+            pendingRoutes.add(getSpawnInfo(Helpers.readVarInt(in)));
+        }
+        routes.clear();
+        routes.addAll(pendingRoutes);
+        // flow counters and frequencies
+        for (final SpawnInfo spawnInfo : spawnInfos) {
+            if (spawnInfo instanceof Flow) {
+                final Flow flow = (Flow) spawnInfo;
+                flow.setCount(Helpers.readVarInt(in));
+                final double frequency = in.readDouble();
+                final double since = in.readDouble();
+                flow.setFrequency(frequency, since, Helpers.readVarInt(in));
+            }
+        }
+        // closed lanes
+        final int closedCount = Helpers.readVarInt(in);
+        final Set<Integer> closed = new HashSet<>(closedCount);
+        for (int i = 0; i < closedCount; i++) {
+            closed.add(Helpers.readVarInt(in));
+        }
+        getElementStream(Lane.class).map(x -> (Lane) x).filter(x -> x.isClosed() != closed.contains(x.getId())).forEach(x -> x.setClosed(!x.isClosed()));
+        readAgents(in, filter);
+        lastId = Math.max(lastId, in.readInt());
+        random = SplitMix64.read(in);
+    }
+
+    /**
+     * Reads agents written by {@link Net#writeAgents(DataOutput, Collection)}
+     * and puts them back on their lanes, in the order they were written. Agents
+     * at the same position iterate in the order they were added, so the order
+     * written is the order of the lanes afterwards.
+     *
+     * @param in
+     *            input to read from
+     * @param filter
+     *            accepts the lanes whose agents are added
+     * @throws IOException
+     */
+    public void readAgents(final DataInput in, final Predicate<Lane> filter) throws IOException {
+        final int agents = Helpers.readVarInt(in);
+        for (int i = 0; i < agents; i++) {
+            final Agent agent = Agent.read(in, this);
+            if (!filter.test(agent.getLane())) {
+                continue;
+            }
+            addElement(agent);
+            if (agent.isEdgeLeaveCandidate()) {
+                agent.getLane().addEdgeLeaveCandidate(agent);
+            } else {
+                agent.getLane().addLaneAgent(agent);
+            }
+        }
+    }
+
     private void removeElement(final Element element) {
 
         elements.remove(element);
+        elementsById.remove(element.getId());
         // set net on element
         element.setNet(this);
+        // routes changed?
+        if (element instanceof Junction || element instanceof Edge) {
+            gps = null;
+        }
         // element renderable?
         if (Renderable.class.isInstance(element)) {
             final Renderable renderable = (Renderable) element;
@@ -286,12 +625,69 @@ public class Net extends Element implements Serializable, Simulatable {
         }
     }
 
+    /**
+     * Adds a lane to or removes it from the active lanes, see
+     * {@link Net#getActiveSimulatables(int)}.
+     */
+    void setActive(final Lane lane, final boolean active) {
+        if (active) {
+            activeLanes.add(lane);
+        } else {
+            activeLanes.remove(lane);
+        }
+    }
+
+    public void setAllowCollisions(final boolean allowCollisions) {
+        this.allowCollisions = allowCollisions;
+    }
+
+    public void setEvents(final EventBus events) {
+        this.events = events;
+    }
+
+    /**
+     * Restarts the random streams from a seed. Call before the first agent is
+     * created.
+     *
+     * @param seed
+     *            the seed
+     */
+    public void setSeed(final long seed) {
+        random = new SplitMix64(seed);
+    }
+
+    public void setSpawnFilter(final Predicate<Lane> spawnFilter) {
+        this.spawnFilter = spawnFilter;
+    }
+
+    /**
+     * Hands the spawns due to a consumer instead of creating agents for them,
+     * e.g. for an engine not simulating agents.
+     *
+     * @param spawner
+     *            gets the routes and flows due, {@code null} to spawn agents
+     */
+    public void setSpawner(final Consumer<SpawnInfo> spawner) {
+        this.spawner = spawner;
+    }
+
+    public void setTransfer(final Transfer transfer) {
+        if (transfer == null) {
+            throw new ArgumentNullException("transfer");
+        }
+        this.transfer = transfer;
+    }
+
     @Override
     public void simulate(final double duration) {
         simulationTime += duration;
         doSpawning();
         // remove all elements marked as remove candidate
         getElementStream().filter(element -> element.isRemoveCandidate()).collect(Collectors.toList()).forEach(element -> {
+            if (element instanceof Agent) {
+                final Agent agent = (Agent) element;
+                publish(EventType.DESPAWN, agent, 0, agent.getLane(), agent.getLanePosition());
+            }
             removeElement(element);
         });
     }
@@ -307,6 +703,10 @@ public class Net extends Element implements Serializable, Simulatable {
             throw new ArgumentNullException("lane");
         }
 
+        if (spawnFilter != null && !spawnFilter.test(lane) || lane.isClosed()) {
+            return;
+        }
+
         final double posOnLane = Helpers.clamp(spawnInfo.getDeparturePos(), 0.0, lane.getLength());
         agent.init(posOnLane, spawnInfo.getVehicle(), spawnInfo.getDepartureSpeed(), spawnInfo);
 
@@ -314,6 +714,73 @@ public class Net extends Element implements Serializable, Simulatable {
 
         agent.setLane(lane);
         lane.addLaneAgent(agent);
+        publish(EventType.SPAWN, agent, 0, lane, posOnLane);
         log.debug(agent + " spawned at: " + lane);
     }
+
+    /**
+     * Writes agents to be read by {@link Net#readAgents(DataInput, Predicate)}:
+     * their number, then each agent.
+     *
+     * @param out
+     *            output to write to
+     * @param agents
+     *            the agents, in the order to read them
+     * @throws IOException
+     */
+    public static void writeAgents(final DataOutput out, final Collection<Agent> agents) throws IOException {
+        Helpers.writeVarInt(out, agents.size());
+        for (final Agent agent : agents) {
+            agent.write(out);
+        }
+    }
+
+    /**
+     * Writes the dynamic state of this net: simulation time, pending routes,
+     * flow counters and frequencies, closed lanes, the agents and the random
+     * streams. Junctions, edges, lanes and routes are referenced by id or
+     * index, so the state can only be restored on the same imported net.
+     *
+     * @param out
+     *            output to write to
+     * @throws IOException
+     */
+    public void writeState(final DataOutput out) throws IOException {
+        writeState(out, getElementStream(Agent.class).map(x -> (Agent) x).sorted().collect(Collectors.toList()));
+    }
+
+    /**
+     * Writes the dynamic state like {@link Net#writeState(DataOutput)}, but
+     * only the agents given, in their order.
+     *
+     * @param out
+     *            output to write to
+     * @param agents
+     *            the agents to write
+     * @throws IOException
+     */
+    public void writeState(final DataOutput out, final Collection<Agent> agents) throws IOException {
+        out.writeDouble(simulationTime);
+        Helpers.writeVarInt(out, routes.size());
+        for (final SpawnInfo route : routes) {
+            Helpers.writeVarInt(out, getSpawnInfoIndex(route));
+        }
+        for (final SpawnInfo spawnInfo : spawnInfos) {
+            if (spawnInfo instanceof Flow) {
+                final Flow flow = (Flow) spawnInfo;
+                Helpers.writeVarInt(out, flow.getCount());
+                out.writeDouble(flow.getFrequency());
+                out.writeDouble(flow.getFrequencySince());
+                Helpers.writeVarInt(out, flow.getFrequencySinceCount());
+            }
+        }
+        final List<Lane> closed = getElementStream(Lane.class).map(x -> (Lane) x).filter(Lane::isClosed).collect(Collectors.toList());
+        Helpers.writeVarInt(out, closed.size());
+        for (final Lane lane : closed) {
+            Helpers.writeVarInt(out, lane.getId());
+        }
+        writeAgents(out, agents);
+        out.writeInt(lastId);
+        random.write(out);
+    }
 }
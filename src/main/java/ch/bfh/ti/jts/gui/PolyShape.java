@@ -4,6 +4,8 @@ import java.awt.Shape;
 import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -12,7 +14,8 @@ import ch.bfh.ti.jts.exceptions.ArgumentNullException;
 import ch.bfh.ti.jts.utils.Helpers;
 
 /**
- * Shape for polygons.
+ * Shape for polygons. Immutable, so the positions on it may be looked up by
+ * any number of threads at once.
  *
  * @author Enteee
  * @author winki
@@ -51,9 +54,14 @@ public class PolyShape implements Serializable {
     private final Shape         shape;
     private final double        length;
     private final boolean       closedPath;
-    private Point2D             position;
-
-    private double              orientation;
+    /**
+     * Distance along the polygon from the start point to each point.
+     */
+    private final double[]      offsets;
+    /**
+     * Orientation of each segment.
+     */
+    private final double[]      orientations;
 
     public PolyShape(final List<Point2D> points) {
         this(points, false);
@@ -67,9 +75,18 @@ public class PolyShape implements Serializable {
             throw new IllegalArgumentException("points is empty");
         }
         this.closedPath = closedPath;
-        this.points = points;
+        // looked up by index
+        this.points = new ArrayList<Point2D>(points);
         shape = buildShape();
-        length = buildLength();
+        offsets = new double[points.size()];
+        orientations = new double[Math.max(1, points.size() - 1)];
+        for (int i = 1; i < points.size(); i++) {
+            final Point2D last = this.points.get(i - 1);
+            final Point2D current = this.points.get(i);
+            offsets[i] = offsets[i - 1] + current.distance(last);
+            orientations[i - 1] = getAngleBetweenTwoPoints(last, current);
+        }
+        length = offsets[offsets.length - 1];
     }
 
     public PolyShape(final String shapeString) {
@@ -80,19 +97,6 @@ public class PolyShape implements Serializable {
         this(buildPoints(shapeString), closedPath);
     }
 
-    private double buildLength() {
-        double length = 0;
-        if (points.size() > 1) {
-            Point2D last = points.get(0);
-            for (int i = 1; i < points.size(); i++) {
-                final Point2D current = points.get(i);
-                length += current.distance(last);
-                last = current;
-            }
-        }
-        return length;
-    }
-
     private Shape buildShape() {
         final Path2D path = new Path2D.Double();
         for (int i = 0; i < points.size(); i++) {
@@ -109,54 +113,19 @@ public class PolyShape implements Serializable {
         return path;
     }
 
-    private void calculate(double relative) {
-        relative = Helpers.clamp(relative, 0, 1.0);
-        if (points.size() == 2) {
-            final double x = getStartPoint().getX() + relative * (getEndPoint().getX() - getStartPoint().getX());
-            final double y = getStartPoint().getY() + relative * (getEndPoint().getY() - getStartPoint().getY());
-            position = new Point2D.Double(x, y);
-            orientation = getAngleBetweenTwoPoints(getStartPoint(), getEndPoint());
-        }
-        final double lengthOnPolyline = relative * length;
-        followPolygon(lengthOnPolyline, 0);
-    }
-
-    private void followPolygon(final double distanceToFollow, int segment) {
-        double distanceOnSegment;
-        if (segment > points.size() - 2) {
-            // if distance to follow is very small, we got an exception here
-            // so this trick solves the problem
-            segment = points.size() - 2; // last segment
-            final double relativePositionOnSegment = 1.0;
-            final Point2D segmentStart = points.get(segment);
-            final Point2D segmentEnd = points.get(segment + 1);
-            final double x = segmentStart.getX() + relativePositionOnSegment * (segmentEnd.getX() - segmentStart.getX());
-            final double y = segmentStart.getY() + relativePositionOnSegment * (segmentEnd.getY() - segmentStart.getY());
-            position = new Point2D.Double(x, y);
-            orientation = getAngleBetweenTwoPoints(segmentStart, segmentEnd);
-        }
-        distanceOnSegment = getSegmentLength(segment);
-        if (distanceToFollow <= distanceOnSegment) {
-            final double relativePositionOnSegment = distanceToFollow / distanceOnSegment;
-            final Point2D segmentStart = points.get(segment);
-            final Point2D segmentEnd = points.get(segment + 1);
-            final double x = segmentStart.getX() + relativePositionOnSegment * (segmentEnd.getX() - segmentStart.getX());
-            final double y = segmentStart.getY() + relativePositionOnSegment * (segmentEnd.getY() - segmentStart.getY());
-            position = new Point2D.Double(x, y);
-            orientation = getAngleBetweenTwoPoints(segmentStart, segmentEnd);
-        } else {
-            // pass junction and switch to an other lane
-            final double distanceToDriveOnNextSegment = distanceToFollow - distanceOnSegment;
-            followPolygon(distanceToDriveOnNextSegment, segment + 1);
-        }
-    }
-
     private double getAngleBetweenTwoPoints(final Point2D p1, final Point2D p2) {
         final double dx = p2.getX() - p1.getX();
         final double dy = p2.getY() - p1.getY();
         return Math.atan2(dy, dx);
     }
 
+    /**
+     * @return distance along the polygon to a relative position
+     */
+    private double getDistance(final double relative) {
+        return Helpers.clamp(relative, 0, 1.0) * length;
+    }
+
     public Point2D getEndPoint() {
         return points.get(points.size() - 1);
     }
@@ -166,20 +135,36 @@ public class PolyShape implements Serializable {
     }
 
     public double getRelativeOrientation(final double relative) {
-        calculate(relative);
-        return orientation;
+        if (points.size() < 2) {
+            return 0.0;
+        }
+        return orientations[getSegment(getDistance(relative))];
     }
 
     public Point2D getRelativePosition(final double relative) {
-        calculate(relative);
-        return position;
-    }
-
-    private double getSegmentLength(final int index) {
-        if (index < 0 || index > points.size() - 2) {
-            throw new IndexOutOfBoundsException("index: " + index + " points.size: " + points.size());
+        if (points.size() < 2) {
+            return new Point2D.Double(getStartPoint().getX(), getStartPoint().getY());
+        }
+        final double distance = getDistance(relative);
+        final int segment = getSegment(distance);
+        final Point2D segmentStart = points.get(segment);
+        final Point2D segmentEnd = points.get(segment + 1);
+        final double segmentLength = offsets[segment + 1] - offsets[segment];
+        final double relativePositionOnSegment = segmentLength > 0 ? Helpers.clamp((distance - offsets[segment]) / segmentLength, 0.0, 1.0) : 0.0;
+        final double x = segmentStart.getX() + relativePositionOnSegment * (segmentEnd.getX() - segmentStart.getX());
+        final double y = segmentStart.getY() + relativePositionOnSegment * (segmentEnd.getY() - segmentStart.getY());
+        return new Point2D.Double(x, y);
+    }
+
+    /**
+     * @return index of the first segment which ends at or after the distance
+     */
+    private int getSegment(final double distance) {
+        int index = Arrays.binarySearch(offsets, 1, offsets.length, distance);
+        if (index < 0) {
+            index = -index - 1;
         }
-        return points.get(index).distance(points.get(index + 1));
+        return Math.min(index, offsets.length - 1) - 1;
     }
 
     public Shape getShape() {
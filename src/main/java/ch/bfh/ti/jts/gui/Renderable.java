@@ -8,7 +8,7 @@ import java.util.NavigableMap;
 import ch.bfh.ti.jts.data.Agent;
 import ch.bfh.ti.jts.data.Junction;
 import ch.bfh.ti.jts.data.Lane;
-import ch.bfh.ti.jts.data.Net;
+import ch.bfh.ti.jts.simulation.AgentFrame;
 
 /**
  * For all renderable elements.
@@ -58,10 +58,10 @@ public interface Renderable {
      * @param g
      *            the object to render with.
      * @param simulationStates
-     *            Saved simulation states. Key:= wall clock time [s].
-     *            Value:=@{link Net}
+     *            Saved simulation states. Key:= simulation time [s].
+     *            Value:=@{link AgentFrame}
      */
-    default void render(final Graphics2D g, final NavigableMap<Double, Net> simulationStates) {
+    default void render(final Graphics2D g, final NavigableMap<Double, AgentFrame> simulationStates) {
         render(g);
     }
 }
@@ -18,7 +18,9 @@ import java.awt.event.MouseWheelEvent;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.HashSet;
+import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.Set;
 
@@ -33,9 +35,10 @@ import ch.bfh.ti.jts.Main;
 import ch.bfh.ti.jts.data.Agent;
 import ch.bfh.ti.jts.data.Edge;
 import ch.bfh.ti.jts.data.Junction;
-import ch.bfh.ti.jts.data.Net;
 import ch.bfh.ti.jts.gui.console.Console;
 import ch.bfh.ti.jts.gui.console.JtsConsole;
+import ch.bfh.ti.jts.simulation.AgentFrame;
+import ch.bfh.ti.jts.simulation.FrameSource;
 import ch.bfh.ti.jts.utils.Config;
 import ch.bfh.ti.jts.utils.layers.Layers;
 
@@ -63,8 +66,16 @@ public class Window {
         @Override
         public void paintComponent(final Graphics g) {
             final Graphics2D g2d = (Graphics2D) g;
-            // simulate parts of the net
-            final Net wallClockSimulationState = App.getInstance().getSimulation().getWallCLockSimulationState();
+            // get the agent states at wall clock time
+            final FrameSource source = App.getInstance().getFrameSource();
+            final AgentFrame wallClockSimulationState = source.getWallCLockSimulationState();
+            if (wallClockSimulationState == null) {
+                // interrupted
+                return;
+            }
+            renderedFrame = wallClockSimulationState;
+            final NavigableMap<Double, AgentFrame> savedStates = source.getSavedStates();
+            final double wallClockTime = source.getWallClockTime();
             try {
                 g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
                 g2d.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 8));
@@ -103,13 +114,17 @@ public class Window {
                     log.error("Can not invert world-->screen matrix.", e);
                 }
 
-                // render everything
-                final Layers<Renderable> renderables = wallClockSimulationState.getRenderable();
+                // render static elements
+                final Layers<Renderable> renderables = wallClockSimulationState.getTopology().getRenderable();
                 for (final int layer : renderables.getLayersIterator()) {
                     renderables.getLayerStream(layer).sequential().forEach(e -> {
-                        e.render(g2d, App.getInstance().getSimulation().getSavedStates());
+                        e.render(g2d, savedStates);
                     });
                 }
+                // render agents on top
+                for (int i = 0; i < wallClockSimulationState.size(); i++) {
+                    Agent.render(g2d, wallClockSimulationState, i, savedStates, wallClockTime);
+                }
                 // render console
                 g2d.setTransform(tConsole);
                 console.render(g2d);
@@ -180,10 +195,15 @@ public class Window {
             } else if (e.isAltDown()) {
                 filterClass = Optional.of(Edge.class);
             }
+            final AgentFrame pickFrame = renderedFrame;
+            if (pickFrame == null) {
+                // nothing rendered yet
+                return;
+            }
             filterClass.ifPresent(filter -> {
-                App.getInstance().getSimulation().getWallCLockSimulationState().getElementByCoordinates(worldCoordinatesPoint, CLICK_RADIUS, filter).ifPresent(element -> {
+                pickFrame.getElementIdByCoordinates(worldCoordinatesPoint, CLICK_RADIUS, filter).ifPresent(elementId -> {
                     final Console console = Window.getInstance().getConsole();
-                    console.stringTyped(String.format("%d", element.getId()));
+                    console.stringTyped(String.format("%d", elementId));
                 });
             });
         }
@@ -241,6 +261,11 @@ public class Window {
      */
     private static final double CLICK_RADIUS           = Config.getInstance().getDouble("click.radius", 30.0, 0.0, 1000.0);
 
+    /**
+     * Font of the element labels.
+     */
+    public static final Font    FONT                   = new Font(Config.getInstance().getValue("app.font.familiy", "sans-serif"), Font.PLAIN, Config.getInstance().getInt("app.font.size", 4, 1, 100));
+
     private static final Window INSTANCE               = new Window();
     private final JFrame        frame;
     private final JPanel        renderPanel;
@@ -260,6 +285,11 @@ public class Window {
     private final Point2D       zoomCenter             = new Point2D.Double();
     private final Set<Integer>  keys                   = new HashSet<Integer>();
     private final Console       console                = new JtsConsole();
+    /**
+     * Frame rendered last, mouse picks look up the agents where they are
+     * shown.
+     */
+    private volatile AgentFrame renderedFrame;
 
     public Window() {
         frame = new JFrame();
@@ -282,6 +312,13 @@ public class Window {
         return console;
     }
 
+    /**
+     * @return part of the world visible in the window, in world coordinates
+     */
+    public Rectangle2D getVisibleArea() {
+        return screenToWorldTransform.createTransformedShape(new Rectangle2D.Double(0, 0, windoww, windowh)).getBounds2D();
+    }
+
     public void setVisible(final boolean visible) {
         frame.setVisible(visible);
     }
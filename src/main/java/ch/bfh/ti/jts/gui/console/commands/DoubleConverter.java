@@ -0,0 +1,22 @@
+package ch.bfh.ti.jts.gui.console.commands;
+
+import com.beust.jcommander.IStringConverter;
+import com.beust.jcommander.ParameterException;
+
+/**
+ * Converts command parameters to {@link Double}. Not shipped with jcommander.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class DoubleConverter implements IStringConverter<Double> {
+
+    @Override
+    public Double convert(final String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (final NumberFormatException e) {
+            throw new ParameterException("Not a number: " + value);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package ch.bfh.ti.jts.gui.console.commands;
+
+import java.util.Optional;
+
+import ch.bfh.ti.jts.simulation.Simulation;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+
+@Parameters(commandDescription = "Advance to a simulation time as fast as possible, rendering resumes there")
+public class FastForwardCommand extends Command {
+
+    @Parameter(names = { "-time", "-t" }, description = "Simulation time to advance to [s]", converter = DoubleConverter.class)
+    private Double time;
+    @Parameter(names = { "-by", "-b" }, description = "Simulation time to advance by [s]", converter = DoubleConverter.class)
+    private Double by;
+
+    @Override
+    public Optional<String> execute(final Object executor) {
+        final Simulation simulation = (Simulation) executor;
+        final double now = simulation.getSimNet().getSimulationTime();
+        Double target = time;
+        if (by != null) {
+            target = now + by;
+        }
+        time = null; // reset value
+        by = null; // reset value
+        if (target == null) {
+            if (simulation.isFastForwarding()) {
+                return Optional.of(String.format("Fast forwarding to %.1f s, at %.1f s", simulation.getFastForwardTime(), now));
+            }
+            return Optional.of("Not fast forwarding");
+        }
+        if (!simulation.fastForward(target)) {
+            return Optional.of(String.format("Simulation time is already %.1f s", now));
+        }
+        return Optional.of(String.format("Fast forwarding from %.1f s to %.1f s", now, target));
+    }
+
+    @Override
+    public String getName() {
+        return "forward";
+    }
+
+    @Override
+    public Class<?> getTargetType() {
+        return Simulation.class;
+    }
+}
@@ -0,0 +1,41 @@
+package ch.bfh.ti.jts.gui.console.commands;
+
+import java.util.Optional;
+
+import ch.bfh.ti.jts.simulation.Playback;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+
+@Parameters(commandDescription = "Control the playback of a trace")
+public class PlaybackCommand extends Command {
+
+    @Parameter(names = { "-speed", "-s" }, description = "Simulated seconds per second, negative to play backwards, 0 to pause", converter = DoubleConverter.class)
+    private Double speed;
+    @Parameter(names = { "-seek", "-t" }, description = "Jump to a simulation time [s]", converter = DoubleConverter.class)
+    private Double time;
+
+    @Override
+    public Optional<String> execute(final Object executor) {
+        final Playback playback = (Playback) executor;
+        if (time != null) {
+            playback.seek(time);
+            time = null; // reset value
+        }
+        if (speed != null) {
+            playback.setSpeed(speed);
+            speed = null; // reset value
+        }
+        return Optional.of(String.format("Playback at %.1f s of %.1f - %.1f s, speed %.2f", playback.getWallClockTime(), playback.getStartTime(), playback.getEndTime(), playback.getSpeed()));
+    }
+
+    @Override
+    public String getName() {
+        return "playback";
+    }
+
+    @Override
+    public Class<?> getTargetType() {
+        return Playback.class;
+    }
+}
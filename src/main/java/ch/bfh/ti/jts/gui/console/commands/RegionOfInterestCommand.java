@@ -0,0 +1,71 @@
+package ch.bfh.ti.jts.gui.console.commands;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Optional;
+
+import ch.bfh.ti.jts.gui.Window;
+import ch.bfh.ti.jts.simulation.Simulation;
+import ch.bfh.ti.jts.simulation.engines.HybridEngine;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+
+@Parameters(commandDescription = "Set the region the Hybrid engine simulates in detail")
+public class RegionOfInterestCommand extends Command {
+
+    @Parameter(names = { "-viewport", "-v" }, description = "Use the visible part of the net")
+    private boolean viewport = false;
+    @Parameter(names = { "-all", "-a" }, description = "Simulate the whole net in detail")
+    private boolean all      = false;
+    @Parameter(names = "-x", description = "Left world coordinate", converter = DoubleConverter.class)
+    private Double  x;
+    @Parameter(names = "-y", description = "Top world coordinate", converter = DoubleConverter.class)
+    private Double  y;
+    @Parameter(names = "-width", description = "Width [m]", converter = DoubleConverter.class)
+    private Double  width;
+    @Parameter(names = "-height", description = "Height [m]", converter = DoubleConverter.class)
+    private Double  height;
+
+    @Override
+    public Optional<String> execute(final Object executor) {
+        final Simulation simulation = (Simulation) executor;
+        Rectangle2D region = null;
+        boolean change = true;
+        if (viewport) {
+            region = Window.getInstance().getVisibleArea();
+        } else if (x != null && y != null && width != null && height != null) {
+            region = new Rectangle2D.Double(x, y, width, height);
+        } else if (!all) {
+            change = false;
+        }
+        // reset values
+        viewport = false;
+        all = false;
+        x = null;
+        y = null;
+        width = null;
+        height = null;
+        if (!(simulation.getEngine() instanceof HybridEngine)) {
+            return Optional.of("Only the Hybrid engine has a region of interest");
+        }
+        final HybridEngine engine = (HybridEngine) simulation.getEngine();
+        if (change) {
+            engine.setRegionOfInterest(region);
+        }
+        region = engine.getRegionOfInterest();
+        if (region == null) {
+            return Optional.of(String.format("Whole net in detail, %d agents queued", engine.getQueuedCount()));
+        }
+        return Optional.of(String.format("Region of interest: %.0f,%.0f,%.0f,%.0f, %d agents queued", region.getX(), region.getY(), region.getWidth(), region.getHeight(), engine.getQueuedCount()));
+    }
+
+    @Override
+    public String getName() {
+        return "roi";
+    }
+
+    @Override
+    public Class<?> getTargetType() {
+        return Simulation.class;
+    }
+}
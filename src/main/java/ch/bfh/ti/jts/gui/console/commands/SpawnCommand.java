@@ -4,7 +4,6 @@ import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 
 import ch.bfh.ti.jts.data.Edge;
@@ -13,6 +12,7 @@ import ch.bfh.ti.jts.data.Net;
 import ch.bfh.ti.jts.data.Route;
 import ch.bfh.ti.jts.data.SpawnInfo;
 import ch.bfh.ti.jts.data.Vehicle;
+import ch.bfh.ti.jts.utils.SplitMix64;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
@@ -28,7 +28,8 @@ public class SpawnCommand extends Command {
         final Net net = (Net) executor;
 
         // get net data
-        final List<Element> edges = net.getElementStream(Edge.class).collect(Collectors.toList());
+        final List<Element> edges = net.getElementStream(Edge.class).sorted().collect(Collectors.toList());
+        final SplitMix64 random = net.getRandom();
 
         // generate routes
         final Collection<SpawnInfo> routes = new LinkedList<>();
@@ -37,9 +38,9 @@ public class SpawnCommand extends Command {
             final Vehicle vehicle = new Vehicle();
 
             // random route, random position
-            final Edge routeStart = (Edge) edges.get(ThreadLocalRandom.current().nextInt(edges.size()));
-            final Edge routeEnd = (Edge) edges.get(ThreadLocalRandom.current().nextInt(edges.size()));
-            final double position = ThreadLocalRandom.current().nextDouble();
+            final Edge routeStart = (Edge) edges.get(random.nextInt(edges.size()));
+            final Edge routeEnd = (Edge) edges.get(random.nextInt(edges.size()));
+            final double position = random.nextDouble();
             final double departureTime = net.getSimulationTime();
             final double speed = vehicle.getMaxVelocity();
 
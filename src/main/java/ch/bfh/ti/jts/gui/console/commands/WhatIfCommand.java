@@ -0,0 +1,90 @@
+package ch.bfh.ti.jts.gui.console.commands;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import ch.bfh.ti.jts.App;
+import ch.bfh.ti.jts.data.Edge;
+import ch.bfh.ti.jts.data.Element;
+import ch.bfh.ti.jts.data.Flow;
+import ch.bfh.ti.jts.data.Lane;
+import ch.bfh.ti.jts.gui.Window;
+import ch.bfh.ti.jts.simulation.Simulation;
+import ch.bfh.ti.jts.simulation.WhatIf;
+import ch.bfh.ti.jts.simulation.WhatIf.Scenario;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+
+@Parameters(commandDescription = "Evaluate scenarios on forks of the simulation in the background")
+public class WhatIfCommand extends Command {
+
+    @Parameter(description = "Ids of lanes or edges to close, one scenario each")
+    private final List<Integer> elementIds = new ArrayList<>();
+    @Parameter(names = { "-flow", "-f" }, description = "Scale the frequency of all flows by this factor", converter = DoubleConverter.class)
+    private Double              flow;
+    @Parameter(names = { "-horizon", "-t" }, description = "Simulation time to look ahead [s]", converter = DoubleConverter.class)
+    private Double              horizon;
+
+    @Override
+    public Optional<String> execute(final Object executor) {
+        final App app = (App) executor;
+        if (app == null) {
+            throw new IllegalArgumentException("app");
+        }
+        final List<Integer> ids = new ArrayList<>(elementIds);
+        final Double factor = flow;
+        final double time = horizon == null ? 300.0 : horizon;
+        // reset values
+        elementIds.clear();
+        flow = null;
+        horizon = null;
+        final Simulation simulation = app.getSimulation();
+        if (simulation == null || app.getWhatIf() == null || app.getFrameSource() != simulation) {
+            return Optional.of("Not available in playback");
+        }
+        if (time <= 0) {
+            return Optional.of("Horizon must be positive");
+        }
+        final List<Scenario> scenarios = new ArrayList<>();
+        for (final int id : ids) {
+            final Element element = simulation.getSimNet().getElement(id);
+            if (element instanceof Lane) {
+                scenarios.add(new Scenario(String.format("close lane %d", id), net -> ((Lane) net.getElement(id)).setClosed(true)));
+            } else if (element instanceof Edge) {
+                scenarios.add(new Scenario(String.format("close edge %d", id), net -> ((Edge) net.getElement(id)).getLanes().forEach(lane -> lane.setClosed(true))));
+            } else {
+                return Optional.of(String.format("%d is neither a lane nor an edge", id));
+            }
+        }
+        if (factor != null) {
+            if (factor < 0) {
+                return Optional.of("Flow factor must not be negative");
+            }
+            scenarios.add(new Scenario(String.format("flow x%.2f", factor), net -> net.getRoutes().stream().filter(x -> x instanceof Flow).map(x -> (Flow) x)
+                    .forEach(x -> x.setFrequency(x.getFrequency() * factor, net.getSimulationTime()))));
+        }
+        if (scenarios.isEmpty()) {
+            return Optional.of("Nothing to evaluate, give lanes or edges to close or a flow factor");
+        }
+        app.getWhatIf().evaluate(simulation, time, scenarios).whenComplete((results, e) -> {
+            if (e != null) {
+                Window.getInstance().getConsole().write("what-if failed: " + e.getMessage());
+            } else {
+                Window.getInstance().getConsole().write(WhatIf.report(results));
+            }
+        });
+        return Optional.of(String.format("Forked %d scenarios and a baseline, %.0f s ahead", scenarios.size(), time));
+    }
+
+    @Override
+    public String getName() {
+        return "whatif";
+    }
+
+    @Override
+    public Class<?> getTargetType() {
+        return App.class;
+    }
+}
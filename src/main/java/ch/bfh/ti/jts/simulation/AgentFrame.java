@@ -0,0 +1,539 @@
+package ch.bfh.ti.jts.simulation;
+
+import java.awt.geom.Point2D;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+import ch.bfh.ti.jts.ai.LaneChange;
+import ch.bfh.ti.jts.data.Agent;
+import ch.bfh.ti.jts.data.Element;
+import ch.bfh.ti.jts.data.Lane;
+import ch.bfh.ti.jts.data.Net;
+import ch.bfh.ti.jts.data.Vehicle;
+import ch.bfh.ti.jts.exceptions.ArgumentNullException;
+import ch.bfh.ti.jts.utils.Helpers;
+
+/**
+ * Snapshot of the dynamic agent state at one simulation time. The state is
+ * kept in primitive arrays (struct of arrays), sorted by ascending agent id.
+ * Junctions, edges and lanes are not copied but shared through the
+ * {@link Topology}.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class AgentFrame {
+
+    /**
+     * Changes from one frame to the next, see
+     * {@link AgentFrame#diff(AgentFrame, double)}.
+     */
+    static final class Delta {
+
+        private final double     simulationTime;
+        private final double     duration;
+        /**
+         * Number of agents in the next frame.
+         */
+        private final int        size;
+        /**
+         * Ids of the agents which are gone, ascending.
+         */
+        private final int[]      removed;
+        /**
+         * Agents which are new or changed their lane, lane change, color or
+         * vehicle.
+         */
+        private final AgentFrame changed;
+        /**
+         * Acceleration, velocity and lane position of all the other agents, in
+         * ascending id order. Each value is stored as the bits which differ
+         * from its prediction, see {@link AgentFrame#putBits(ByteBuffer, long)}.
+         */
+        private final byte[]     kinematics;
+
+        private Delta(final double simulationTime, final double duration, final int size, final int[] removed, final AgentFrame changed, final byte[] kinematics) {
+            this.simulationTime = simulationTime;
+            this.duration = duration;
+            this.size = size;
+            this.removed = removed;
+            this.changed = changed;
+            this.kinematics = kinematics;
+        }
+
+        /**
+         * @return estimated memory used [byte]
+         */
+        int getRetainedSize() {
+            return OBJECT_OVERHEAD + ARRAY_OVERHEAD + removed.length * Integer.BYTES + ARRAY_OVERHEAD + kinematics.length + changed.getRetainedSize();
+        }
+
+        double getSimulationTime() {
+            return simulationTime;
+        }
+    }
+
+    private static final LaneChange[] LANE_CHANGES    = LaneChange.values();
+    /**
+     * Estimated header size of an object [byte].
+     */
+    private static final int          OBJECT_OVERHEAD = 16;
+    /**
+     * Estimated header size of an array [byte].
+     */
+    private static final int          ARRAY_OVERHEAD  = 16;
+
+    /**
+     * Captures the current agent state of a net.
+     *
+     * @param topology
+     *            the static topology of the net
+     * @param net
+     *            the net to capture
+     * @return the captured frame
+     */
+    public static AgentFrame capture(final Topology topology, final Net net) {
+        if (net == null) {
+            throw new ArgumentNullException("net");
+        }
+        final List<Agent> agents = net.getElementStream(Agent.class).map(x -> (Agent) x).filter(x -> x.getLane() != null).sorted().collect(Collectors.toList());
+        final AgentFrame frame = new AgentFrame(topology, net.getSimulationTime(), agents.size());
+        for (int i = 0; i < agents.size(); i++) {
+            final Agent agent = agents.get(i);
+            frame.ids[i] = agent.getId();
+            frame.laneIds[i] = agent.getLane().getId();
+            frame.lanePositions[i] = agent.getLanePosition();
+            frame.velocities[i] = agent.getVelocity();
+            frame.accelerations[i] = agent.getAcceleration();
+            frame.laneChanges[i] = (byte) agent.getDecision().getLaneChange().ordinal();
+            frame.colors[i] = (byte) agent.getColorIndex();
+            frame.vehicles[i] = agent.getVehicle();
+        }
+        return frame;
+    }
+
+    /**
+     * @param size
+     *            number of agents
+     * @return number of bytes {@link AgentFrame#write(ByteBuffer, ToIntFunction)}
+     *         writes
+     */
+    static int getEncodedSize(final int size) {
+        return Double.BYTES + Integer.BYTES + size * (3 * Integer.BYTES + 3 * Double.BYTES + 2 * Byte.BYTES);
+    }
+
+    /**
+     * Reads a frame written by
+     * {@link AgentFrame#write(ByteBuffer, ToIntFunction)}.
+     *
+     * @param topology
+     *            the static topology of the net
+     * @param buffer
+     *            buffer positioned at the frame, positioned after it on return
+     * @param vehicles
+     *            vehicles by index
+     * @return the frame
+     */
+    static AgentFrame read(final Topology topology, final ByteBuffer buffer, final List<Vehicle> vehicles) {
+        final double simulationTime = buffer.getDouble();
+        final int size = buffer.getInt();
+        final AgentFrame frame = new AgentFrame(topology, simulationTime, size);
+        // bulk reads, one array after the other
+        buffer.asIntBuffer().get(frame.ids, 0, size);
+        buffer.position(buffer.position() + size * Integer.BYTES);
+        buffer.asIntBuffer().get(frame.laneIds, 0, size);
+        buffer.position(buffer.position() + size * Integer.BYTES);
+        buffer.asDoubleBuffer().get(frame.lanePositions, 0, size);
+        buffer.position(buffer.position() + size * Double.BYTES);
+        buffer.asDoubleBuffer().get(frame.velocities, 0, size);
+        buffer.position(buffer.position() + size * Double.BYTES);
+        buffer.asDoubleBuffer().get(frame.accelerations, 0, size);
+        buffer.position(buffer.position() + size * Double.BYTES);
+        buffer.get(frame.laneChanges, 0, size);
+        buffer.get(frame.colors, 0, size);
+        for (int i = 0; i < size; i++) {
+            frame.vehicles[i] = vehicles.get(buffer.getInt());
+        }
+        return frame;
+    }
+
+    private final Topology  topology;
+    private final double    simulationTime;
+    private final int       size;
+    private final int[]     ids;
+    private final int[]     laneIds;
+    private final double[]  lanePositions;
+    private final double[]  velocities;
+    private final double[]  accelerations;
+    private final byte[]    laneChanges;
+    private final byte[]    colors;
+    /**
+     * Vehicles are immutable and therefore shared with the agents.
+     */
+    private final Vehicle[] vehicles;
+
+    private AgentFrame(final Topology topology, final double simulationTime, final int size) {
+        if (topology == null) {
+            throw new ArgumentNullException("topology");
+        }
+        this.topology = topology;
+        this.simulationTime = simulationTime;
+        this.size = size;
+        ids = new int[size];
+        laneIds = new int[size];
+        lanePositions = new double[size];
+        velocities = new double[size];
+        accelerations = new double[size];
+        laneChanges = new byte[size];
+        colors = new byte[size];
+        vehicles = new Vehicle[size];
+    }
+
+    /**
+     * Frame sharing everything but the kinematics with another frame.
+     */
+    private AgentFrame(final AgentFrame from, final double simulationTime, final double[] lanePositions, final double[] velocities) {
+        topology = from.topology;
+        this.simulationTime = simulationTime;
+        size = from.size;
+        ids = from.ids;
+        laneIds = from.laneIds;
+        this.lanePositions = lanePositions;
+        this.velocities = velocities;
+        accelerations = from.accelerations;
+        laneChanges = from.laneChanges;
+        colors = from.colors;
+        vehicles = from.vehicles;
+    }
+
+    /**
+     * Applies the changes to the next frame.
+     *
+     * @param delta
+     *            changes from this frame, see
+     *            {@link AgentFrame#diff(AgentFrame, double)}
+     * @return the next frame
+     */
+    AgentFrame apply(final Delta delta) {
+        final AgentFrame next = new AgentFrame(topology, delta.simulationTime, delta.size);
+        final AgentFrame changed = delta.changed;
+        final double duration = delta.duration;
+        final ByteBuffer kinematics = ByteBuffer.wrap(delta.kinematics);
+        int i = 0;
+        int j = 0;
+        int removed = 0;
+        for (int k = 0; k < next.size; k++) {
+            // skip the agents which are gone
+            while (i < size && removed < delta.removed.length && ids[i] == delta.removed[removed]) {
+                i++;
+                removed++;
+            }
+            if (j < changed.size && (i >= size || changed.ids[j] <= ids[i])) {
+                if (i < size && changed.ids[j] == ids[i]) {
+                    i++;
+                }
+                next.copy(k, changed, j++);
+            } else {
+                next.copy(k, this, i);
+                final double acceleration = xor(accelerations[i], getBits(kinematics));
+                final double velocity = predictVelocity(i, acceleration, duration);
+                next.accelerations[k] = acceleration;
+                next.velocities[k] = xor(velocity, getBits(kinematics));
+                next.lanePositions[k] = xor(predictLanePosition(i, velocity, duration), getBits(kinematics));
+                i++;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Copies an agent from another frame.
+     */
+    private void copy(final int index, final AgentFrame from, final int fromIndex) {
+        ids[index] = from.ids[fromIndex];
+        laneIds[index] = from.laneIds[fromIndex];
+        lanePositions[index] = from.lanePositions[fromIndex];
+        velocities[index] = from.velocities[fromIndex];
+        accelerations[index] = from.accelerations[fromIndex];
+        laneChanges[index] = from.laneChanges[fromIndex];
+        colors[index] = from.colors[fromIndex];
+        vehicles[index] = from.vehicles[fromIndex];
+    }
+
+    /**
+     * Computes the changes from this frame to the next. Agents which stay on
+     * their lane are stored by the bits in which their kinematics differ from
+     * the last frame, respectively from the prediction by
+     * {@link Agent#step(double)}. An agent which moves as predicted takes
+     * three bytes.
+     *
+     * @param next
+     *            the next frame
+     * @param duration
+     *            duration of the step between the frames [s]
+     * @return the changes
+     */
+    Delta diff(final AgentFrame next, final double duration) {
+        final int[] removed = new int[size];
+        int removedCount = 0;
+        final int[] changed = new int[next.size];
+        int changedCount = 0;
+        final ByteBuffer kinematics = ByteBuffer.allocate(next.size * 3 * (1 + Long.BYTES));
+        int i = 0;
+        for (int k = 0; k < next.size; k++) {
+            while (i < size && ids[i] < next.ids[k]) {
+                removed[removedCount++] = ids[i++];
+            }
+            if (i < size && ids[i] == next.ids[k] && isKept(i, next, k)) {
+                final double velocity = predictVelocity(i, next.accelerations[k], duration);
+                putBits(kinematics, xor(accelerations[i], next.accelerations[k]));
+                putBits(kinematics, xor(velocity, next.velocities[k]));
+                putBits(kinematics, xor(predictLanePosition(i, velocity, duration), next.lanePositions[k]));
+            } else {
+                changed[changedCount++] = k;
+            }
+            if (i < size && ids[i] == next.ids[k]) {
+                i++;
+            }
+        }
+        while (i < size) {
+            removed[removedCount++] = ids[i++];
+        }
+        final AgentFrame changedFrame = new AgentFrame(topology, next.simulationTime, changedCount);
+        for (int k = 0; k < changedCount; k++) {
+            changedFrame.copy(k, next, changed[k]);
+        }
+        return new Delta(next.simulationTime, duration, next.size, Arrays.copyOf(removed, removedCount), changedFrame, Arrays.copyOf(kinematics.array(), kinematics.position()));
+    }
+
+    /**
+     * Extrapolates all the agents along their current lane, for rendering.
+     * Pure kinematics, neither this frame nor the net are touched. Only the
+     * lane positions and velocities are computed, everything else is shared
+     * with this frame.
+     *
+     * @param duration
+     *            duration to extrapolate in [s]
+     * @return a new frame at {@code simulationTime + duration}
+     */
+    public AgentFrame extrapolate(final double duration) {
+        final double[] extrapolatedLanePositions = new double[size];
+        final double[] extrapolatedVelocities = new double[size];
+        for (int i = 0; i < size; i++) {
+            final Vehicle vehicle = vehicles[i];
+            final double velocity = Helpers.clamp(velocities[i] + accelerations[i] * duration, vehicle.getMinVelocity(), vehicle.getMaxVelocity());
+            extrapolatedVelocities[i] = velocity;
+            // stays on the lane, the next frame knows where it went from there
+            extrapolatedLanePositions[i] = Helpers.clamp(lanePositions[i] + (velocities[i] + velocity) / 2 * duration, 0.0, getLane(i).getLength());
+        }
+        return new AgentFrame(this, simulationTime + duration, extrapolatedLanePositions, extrapolatedVelocities);
+    }
+
+    public double getAcceleration(final int index) {
+        return accelerations[index];
+    }
+
+    /**
+     * Reads bits written by {@link AgentFrame#putBits(ByteBuffer, long)}.
+     */
+    private static long getBits(final ByteBuffer buffer) {
+        final int header = buffer.get();
+        final int trailing = header >>> 4 & 0xF;
+        final int length = header & 0xF;
+        long bits = 0;
+        for (int i = 0; i < length; i++) {
+            bits = bits << Byte.SIZE | buffer.get() & 0xFF;
+        }
+        return bits << trailing * Byte.SIZE;
+    }
+
+    public int getColorIndex(final int index) {
+        return colors[index];
+    }
+
+    /**
+     * Returns the element that is nearest to a specified coordinate pair.
+     * Agents are looked up in this frame, everything else in the topology.
+     *
+     * @see Net#getElementByCoordinates(Point2D, double, Class)
+     * @return id of the nearest element
+     */
+    public Optional<Integer> getElementIdByCoordinates(final Point2D coordinates, final double maxDistance, final Class<?> type) {
+        if (!type.isAssignableFrom(Agent.class)) {
+            return topology.getElementByCoordinates(coordinates, maxDistance, type).map(Element::getId);
+        }
+        Optional<Integer> nearestAgent = Optional.empty();
+        double minDistance = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            final double distance = getPosition(i).distance(coordinates);
+            if (distance <= maxDistance && distance < minDistance) {
+                nearestAgent = Optional.of(ids[i]);
+                minDistance = distance;
+            }
+        }
+        return nearestAgent;
+    }
+
+    public int getId(final int index) {
+        return ids[index];
+    }
+
+    public Lane getLane(final int index) {
+        return topology.getLane(laneIds[index]);
+    }
+
+    public LaneChange getLaneChange(final int index) {
+        return LANE_CHANGES[laneChanges[index]];
+    }
+
+    public int getLaneId(final int index) {
+        return laneIds[index];
+    }
+
+    public double getLanePosition(final int index) {
+        return lanePositions[index];
+    }
+
+    /**
+     * @return absolute position of the agent on the world.
+     */
+    public Point2D getPosition(final int index) {
+        return getLane(index).getPolyShape().getRelativePosition(getRelativeLanePosition(index));
+    }
+
+    /**
+     * @return relative position of the agent on its lane.
+     */
+    public double getRelativeLanePosition(final int index) {
+        return lanePositions[index] / getLane(index).getLength();
+    }
+
+    /**
+     * @return estimated memory used [byte], the shared vehicles not counted
+     */
+    int getRetainedSize() {
+        return OBJECT_OVERHEAD + 8 * ARRAY_OVERHEAD + size * (3 * Integer.BYTES + 3 * Double.BYTES + 2 * Byte.BYTES);
+    }
+
+    public double getSimulationTime() {
+        return simulationTime;
+    }
+
+    public Topology getTopology() {
+        return topology;
+    }
+
+    public Vehicle getVehicle(final int index) {
+        return vehicles[index];
+    }
+
+    public double getVelocity(final int index) {
+        return velocities[index];
+    }
+
+    /**
+     * Finds the index of an agent in this frame.
+     *
+     * @param agentId
+     *            id of the agent
+     * @return index of the agent, negative if the agent is not in this frame
+     */
+    public int indexOf(final int agentId) {
+        return Arrays.binarySearch(ids, 0, size, agentId);
+    }
+
+    /**
+     * @return {@code true} if the agent keeps its lane, lane change, color and
+     *         vehicle in the next frame
+     */
+    private boolean isKept(final int index, final AgentFrame next, final int nextIndex) {
+        return laneIds[index] == next.laneIds[nextIndex] && laneChanges[index] == next.laneChanges[nextIndex] && colors[index] == next.colors[nextIndex] && vehicles[index] == next.vehicles[nextIndex];
+    }
+
+    /**
+     * @return lane position after {@code duration}, like
+     *         {@link Agent#step(double)}
+     */
+    private double predictLanePosition(final int index, final double velocity, final double duration) {
+        return lanePositions[index] + (velocities[index] + velocity) / 2 * duration;
+    }
+
+    /**
+     * @return velocity after {@code duration}, like {@link Agent#step(double)}
+     */
+    private double predictVelocity(final int index, final double acceleration, final double duration) {
+        final Vehicle vehicle = vehicles[index];
+        return Helpers.clamp(velocities[index] + acceleration * duration, vehicle.getMinVelocity(), vehicle.getMaxVelocity());
+    }
+
+    /**
+     * Writes bits in a compact form: a header byte with the number of
+     * trailing zero bytes and the number of the significant bytes in
+     * between, followed by the significant bytes. Zero takes a single byte.
+     */
+    private static void putBits(final ByteBuffer buffer, final long bits) {
+        if (bits == 0) {
+            buffer.put((byte) 0);
+            return;
+        }
+        final int trailing = Long.numberOfTrailingZeros(bits) / Byte.SIZE;
+        final int length = Long.BYTES - Long.numberOfLeadingZeros(bits) / Byte.SIZE - trailing;
+        buffer.put((byte) (trailing << 4 | length));
+        for (int shift = (trailing + length - 1) * Byte.SIZE; shift >= trailing * Byte.SIZE; shift -= Byte.SIZE) {
+            buffer.put((byte) (bits >>> shift));
+        }
+    }
+
+    /**
+     * @return number of agents in this frame
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Writes this frame, see {@link AgentFrame#getEncodedSize(int)}.
+     *
+     * @param buffer
+     *            buffer with enough space left
+     * @param vehicleIndex
+     *            index of each vehicle
+     */
+    void write(final ByteBuffer buffer, final ToIntFunction<Vehicle> vehicleIndex) {
+        buffer.putDouble(simulationTime);
+        buffer.putInt(size);
+        buffer.asIntBuffer().put(ids, 0, size);
+        buffer.position(buffer.position() + size * Integer.BYTES);
+        buffer.asIntBuffer().put(laneIds, 0, size);
+        buffer.position(buffer.position() + size * Integer.BYTES);
+        buffer.asDoubleBuffer().put(lanePositions, 0, size);
+        buffer.position(buffer.position() + size * Double.BYTES);
+        buffer.asDoubleBuffer().put(velocities, 0, size);
+        buffer.position(buffer.position() + size * Double.BYTES);
+        buffer.asDoubleBuffer().put(accelerations, 0, size);
+        buffer.position(buffer.position() + size * Double.BYTES);
+        buffer.put(laneChanges, 0, size);
+        buffer.put(colors, 0, size);
+        for (int i = 0; i < size; i++) {
+            buffer.putInt(vehicleIndex.applyAsInt(vehicles[i]));
+        }
+    }
+
+    /**
+     * @return the bits in which two values differ
+     */
+    private static long xor(final double value, final double other) {
+        return Double.doubleToRawLongBits(value) ^ Double.doubleToRawLongBits(other);
+    }
+
+    /**
+     * @return {@code value} with the given bits flipped
+     */
+    private static double xor(final double value, final long bits) {
+        return Double.longBitsToDouble(Double.doubleToRawLongBits(value) ^ bits);
+    }
+}
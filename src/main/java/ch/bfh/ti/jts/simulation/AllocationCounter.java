@@ -0,0 +1,158 @@
+package ch.bfh.ti.jts.simulation;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.bfh.ti.jts.simulation.engines.Engine;
+
+/**
+ * Counts the bytes allocated on the heap during a tick by the thread ticking
+ * and the workers of its {@link Engine}, see {@link Engine#getWorkerIds()}.
+ * Other threads, like the stages running along, are not counted. Workers
+ * which start or end during a tick are not counted for that tick. Engines on
+ * the common pool share their workers with the other simulations running at
+ * the same time, the counts include them. The engines cache the worker ids,
+ * so measuring allocates nothing unless the workers changed since the last
+ * tick. Needs a JVM which supports {@link com.sun.management.ThreadMXBean},
+ * other JVMs count nothing.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class AllocationCounter {
+
+    private static final Logger                          log  = LogManager.getLogger(AllocationCounter.class);
+    private static final com.sun.management.ThreadMXBean BEAN = getBean();
+
+    private static com.sun.management.ThreadMXBean getBean() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()) {
+                if (!sunBean.isThreadAllocatedMemoryEnabled()) {
+                    sunBean.setThreadAllocatedMemoryEnabled(true);
+                }
+                return sunBean;
+            }
+        }
+        log.warn("Thread allocated memory not supported, allocations are not counted");
+        return null;
+    }
+
+    /**
+     * @return {@code true} if this JVM counts allocations
+     */
+    public static boolean isSupported() {
+        return BEAN != null;
+    }
+
+    /**
+     * The thread ticking, followed by the workers of the engine at the start
+     * of the tick.
+     */
+    private long[] threads = new long[0];
+    /**
+     * Bytes allocated by {@link AllocationCounter#threads} up to the start of
+     * the tick. Index:= index in {@link AllocationCounter#threads}.
+     */
+    private long[] bytes   = new long[0];
+    private int    count;
+    private long   last;
+    private long   total;
+    private long   ticks;
+
+    /**
+     * @return mean bytes allocated per tick, {@link Double#NaN} before the
+     *         first tick or if not supported
+     */
+    public double getAverage() {
+        if (ticks == 0) {
+            return Double.NaN;
+        }
+        return (double) total / ticks;
+    }
+
+    /**
+     * @return bytes allocated during the last tick
+     */
+    public long getLast() {
+        return last;
+    }
+
+    /**
+     * @return number of ticks counted
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * @return bytes allocated during all the ticks counted
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Forgets all the ticks counted so far.
+     */
+    public void reset() {
+        last = 0;
+        total = 0;
+        ticks = 0;
+    }
+
+    /**
+     * Called before a tick, by the thread ticking.
+     *
+     * @param engine
+     *            engine simulating the tick
+     */
+    public void start(final Engine engine) {
+        if (BEAN == null) {
+            return;
+        }
+        final long ticking = Thread.currentThread().getId();
+        final long[] workers = engine.getWorkerIds();
+        if (threads.length < workers.length + 1) {
+            threads = new long[(workers.length + 1) * 2];
+            bytes = new long[threads.length];
+        }
+        threads[0] = ticking;
+        count = 1;
+        for (final long worker : workers) {
+            if (worker != ticking) {
+                threads[count++] = worker;
+            }
+        }
+        // the thread ticking last, reading the others allocates nothing
+        for (int i = count - 1; i >= 0; i--) {
+            bytes[i] = BEAN.getThreadAllocatedBytes(threads[i]);
+        }
+    }
+
+    /**
+     * Called after a tick, counts the bytes allocated since
+     * {@link AllocationCounter#start(Engine)}.
+     */
+    public void stop() {
+        if (BEAN == null) {
+            return;
+        }
+        long allocated = 0;
+        for (int i = 0; i < count; i++) {
+            final long now = BEAN.getThreadAllocatedBytes(threads[i]);
+            if (now < 0 || bytes[i] < 0) {
+                // ended meanwhile or not started yet
+                continue;
+            }
+            allocated += now - bytes[i];
+        }
+        last = allocated;
+        total += allocated;
+        ticks++;
+    }
+}
@@ -0,0 +1,192 @@
+package ch.bfh.ti.jts.simulation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import ch.bfh.ti.jts.exceptions.ArgumentNullException;
+import ch.bfh.ti.jts.utils.Helpers;
+
+/**
+ * Snapshot of the dynamic state of a {@link Simulation} after a tick: the
+ * agents with their handshake neighbours, lane occupancy, closed lanes,
+ * pending routes, flow counters and frequencies, simulation time and step,
+ * together with the progress of the handshake experiment. Junctions, edges and
+ * lanes are not stored; a checkpoint is restored on top of the same net freshly
+ * imported.
+ * <p>
+ * The state is encoded in memory by the simulation thread between two ticks,
+ * so {@link Checkpoint#write(Path)} can run on any thread. Files are gzipped
+ * and start with a magic number and the format {@link Checkpoint#VERSION}.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class Checkpoint {
+
+    /**
+     * Version of the file format. Increase with every incompatible change.
+     */
+    public static final int    VERSION = 4;
+    /**
+     * "JTSC"
+     */
+    private static final int   MAGIC   = 0x4A545343;
+
+    /**
+     * Captures the state of a simulation. Call between two ticks.
+     *
+     * @param netName
+     *            name of the simulated net
+     * @param tick
+     *            number of the last tick
+     * @param handshakeRates
+     *            handshake rates sampled so far
+     * @param simulation
+     *            the simulation
+     * @return the checkpoint
+     */
+    public static Checkpoint capture(final String netName, final int tick, final List<Double> handshakeRates, final Simulation simulation) {
+        if (simulation == null) {
+            throw new ArgumentNullException("simulation");
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(simulation.getTopology().getElements().size());
+            out.writeDouble(simulation.getStepController().getStep());
+            simulation.getSimNet().writeState(out);
+        } catch (final IOException e) {
+            // in memory
+            throw new UncheckedIOException(e);
+        }
+        return new Checkpoint(netName, tick, handshakeRates, bytes.toByteArray());
+    }
+
+    /**
+     * Reads a checkpoint file.
+     *
+     * @param file
+     *            the file
+     * @return the checkpoint
+     * @throws IOException
+     *             if the file can't be read or has another format version
+     */
+    public static Checkpoint read(final Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a checkpoint: " + file);
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(String.format("checkpoint version %d not supported, expected %d: %s", version, VERSION, file));
+            }
+            final String netName = in.readUTF();
+            final int tick = in.readInt();
+            final int rates = Helpers.readVarInt(in);
+            final List<Double> handshakeRates = new ArrayList<>(rates);
+            for (int i = 0; i < rates; i++) {
+                handshakeRates.add(in.readDouble());
+            }
+            final byte[] state = new byte[in.readInt()];
+            in.readFully(state);
+            return new Checkpoint(netName, tick, handshakeRates, state);
+        }
+    }
+
+    private final String       netName;
+    private final int          tick;
+    private final List<Double> handshakeRates;
+    private final byte[]       state;
+
+    private Checkpoint(final String netName, final int tick, final List<Double> handshakeRates, final byte[] state) {
+        if (netName == null) {
+            throw new ArgumentNullException("netName");
+        }
+        if (handshakeRates == null) {
+            throw new ArgumentNullException("handshakeRates");
+        }
+        this.netName = netName;
+        this.tick = tick;
+        this.handshakeRates = Collections.unmodifiableList(new ArrayList<>(handshakeRates));
+        this.state = state;
+    }
+
+    public List<Double> getHandshakeRates() {
+        return handshakeRates;
+    }
+
+    public String getNetName() {
+        return netName;
+    }
+
+    /**
+     * @return size of the encoded simulation state in [byte]
+     */
+    public int getStateSize() {
+        return state.length;
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * Restores the state on a new simulation of the same net. The net has no
+     * agents, see {@link ch.bfh.ti.jts.data.Net#readState(java.io.DataInput)}.
+     *
+     * @param simulation
+     *            the simulation
+     * @throws IOException
+     *             if the checkpoint doesn't match the net
+     */
+    public void restore(final Simulation simulation) throws IOException {
+        if (simulation == null) {
+            throw new ArgumentNullException("simulation");
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(state))) {
+            if (in.readInt() != simulation.getTopology().getElements().size()) {
+                throw new IOException("checkpoint doesn't match the net: " + netName);
+            }
+            simulation.getStepController().setStep(in.readDouble());
+            simulation.getSimNet().readState(in);
+        }
+    }
+
+    /**
+     * Writes this checkpoint to a file. The file is replaced at once, so a
+     * crash while writing leaves the last checkpoint intact.
+     *
+     * @param file
+     *            the file
+     * @throws IOException
+     */
+    public void write(final Path file) throws IOException {
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(netName);
+            out.writeInt(tick);
+            Helpers.writeVarInt(out, handshakeRates.size());
+            for (final double rate : handshakeRates) {
+                out.writeDouble(rate);
+            }
+            out.writeInt(state.length);
+            out.write(state);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,124 @@
+package ch.bfh.ti.jts.simulation;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.bfh.ti.jts.exceptions.ArgumentNullException;
+
+/**
+ * Writes {@link Checkpoint}s to a file on a background thread, so the
+ * simulation only pays for encoding the state. If the last checkpoint is still
+ * being written, a new one is dropped instead of queued: checkpoints replace
+ * each other anyway.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class CheckpointWriter implements AutoCloseable {
+
+    private static final Logger   log = LogManager.getLogger(CheckpointWriter.class);
+
+    private final Path            file;
+    private final ExecutorService executor;
+    private Future<?>             pending;
+
+    /**
+     * @param file
+     *            file to write the checkpoints to
+     */
+    public CheckpointWriter(final Path file) {
+        if (file == null) {
+            throw new ArgumentNullException("file");
+        }
+        this.file = file;
+        executor = Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, "checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Waits for the last checkpoint to be written.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes a checkpoint in the background.
+     *
+     * @param checkpoint
+     *            the checkpoint
+     * @return {@code false} if the checkpoint was dropped, because the last one
+     *         is still being written
+     */
+    public boolean submit(final Checkpoint checkpoint) {
+        if (checkpoint == null) {
+            throw new ArgumentNullException("checkpoint");
+        }
+        if (pending != null && !pending.isDone()) {
+            log.warn("Checkpoint of tick " + checkpoint.getTick() + " dropped, still writing the last one");
+            return false;
+        }
+        pending = executor.submit(() -> {
+            try {
+                write(checkpoint);
+            } catch (final IOException e) {
+                log.error("Writing checkpoint failed: " + file, e);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Writes a checkpoint after the last one and waits for it. Never drops the
+     * checkpoint, e.g. for the one after the last tick.
+     *
+     * @param checkpoint
+     *            the checkpoint
+     * @throws IOException
+     *             if writing failed
+     */
+    public void submitAndWait(final Checkpoint checkpoint) throws IOException {
+        if (checkpoint == null) {
+            throw new ArgumentNullException("checkpoint");
+        }
+        // queued behind the last one, which might overwrite it otherwise
+        pending = executor.submit(() -> {
+            write(checkpoint);
+            return null;
+        });
+        try {
+            pending.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing checkpoint: " + file, e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Writing checkpoint failed: " + file, e.getCause());
+        }
+    }
+
+    private void write(final Checkpoint checkpoint) throws IOException {
+        final long start = System.nanoTime();
+        checkpoint.write(file);
+        log.info(String.format("Checkpoint of tick %d written to %s (%d bytes of state, %.1f ms)", checkpoint.getTick(), file, checkpoint.getStateSize(), (System.nanoTime() - start) / 1e6));
+    }
+}
@@ -0,0 +1,73 @@
+package ch.bfh.ti.jts.simulation;
+
+/**
+ * View on an event of the {@link EventBus}. Subscribers get the same instance
+ * for each event of a batch, so the values are only valid during the call.
+ * Copy them to keep them.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class Event {
+
+    private EventType type;
+    private double    time;
+    private int       agent;
+    private int       other;
+    private int       lane;
+    private double    value;
+
+    /**
+     * @return id of the agent the event is about
+     */
+    public int getAgent() {
+        return agent;
+    }
+
+    /**
+     * @return id of the lane, see {@link EventType}
+     */
+    public int getLane() {
+        return lane;
+    }
+
+    /**
+     * @return id of another element, see {@link EventType}. 0 if there is
+     *         none.
+     */
+    public int getOther() {
+        return other;
+    }
+
+    /**
+     * @return simulation time of the event [s]
+     */
+    public double getTime() {
+        return time;
+    }
+
+    public EventType getType() {
+        return type;
+    }
+
+    /**
+     * @return value of the event, see {@link EventType}
+     */
+    public double getValue() {
+        return value;
+    }
+
+    void set(final EventType type, final double time, final int agent, final int other, final int lane, final double value) {
+        this.type = type;
+        this.time = time;
+        this.agent = agent;
+        this.other = other;
+        this.lane = lane;
+        this.value = value;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Event{ type: %s, time: %.2f, agent: %d, other: %d, lane: %d, value: %.2f }", type, time, agent, other, lane, value);
+    }
+}
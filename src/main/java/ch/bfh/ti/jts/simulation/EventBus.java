@@ -0,0 +1,230 @@
+package ch.bfh.ti.jts.simulation;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import ch.bfh.ti.jts.exceptions.ArgumentNullException;
+
+/**
+ * Bus for the {@link Event}s of a simulation. The events are kept in a ring of
+ * preallocated primitive arrays. Any number of simulation threads publish
+ * without locks or allocation: a publisher claims a slot with a compare and
+ * set, fills it and marks it published. Each {@link Subscription} reads at its
+ * own pace, in batches, on a thread of its choice. A publisher never waits: if
+ * the slowest subscription is a whole ring behind, the event is dropped and
+ * counted instead. Without subscriptions nothing is published.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class EventBus {
+
+    /**
+     * A reader of the bus. Not thread safe, poll from one thread.
+     */
+    public class Subscription implements AutoCloseable {
+
+        /**
+         * Sequence of the next event to read. Slots before it may be reused.
+         */
+        private final AtomicLong sequence;
+        private final Event      event = new Event();
+
+        private Subscription(final long sequence) {
+            this.sequence = new AtomicLong(sequence);
+        }
+
+        /**
+         * Stops reading, the slots are no longer held back.
+         */
+        @Override
+        public void close() {
+            subscriptions.remove(this);
+        }
+
+        /**
+         * @return number of events published but not read yet
+         */
+        public long getBacklog() {
+            return Math.max(0, cursor.get() - sequence.get());
+        }
+
+        /**
+         * Reads the next batch of events.
+         *
+         * @param handler
+         *            called for each event, with the same {@link Event}
+         *            instance
+         * @param max
+         *            maximal number of events to read
+         * @return number of events read, 0 if there are none
+         */
+        public int poll(final Consumer<Event> handler, final int max) {
+            if (handler == null) {
+                throw new ArgumentNullException("handler");
+            }
+            long next = sequence.get();
+            int count = 0;
+            while (count < max) {
+                final int slot = (int) next & mask;
+                if (published.get(slot) != next) {
+                    // not published yet
+                    break;
+                }
+                event.set(TYPES[types[slot]], times[slot], agents[slot], others[slot], lanes[slot], values[slot]);
+                handler.accept(event);
+                next++;
+                count++;
+            }
+            // release the slots read
+            sequence.lazySet(next);
+            return count;
+        }
+    }
+
+    private static final EventType[] TYPES         = EventType.values();
+
+    private final int                mask;
+    private final byte[]             types;
+    private final double[]           times;
+    private final int[]              agents;
+    private final int[]              others;
+    private final int[]              lanes;
+    private final double[]           values;
+    /**
+     * Sequence of the event in each slot, -1 if there is none yet.
+     */
+    private final AtomicLongArray    published;
+    /**
+     * Sequence of the next event to publish.
+     */
+    private final AtomicLong         cursor        = new AtomicLong();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final LongAdder          dropped       = new LongAdder();
+    /**
+     * Lower bound of the sequences of all the subscriptions, refreshed when
+     * the ring seems full.
+     */
+    private volatile long            gate;
+
+    /**
+     * @param capacity
+     *            number of events the ring holds, rounded up to a power of two
+     */
+    public EventBus(final int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity");
+        }
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        mask = size - 1;
+        types = new byte[size];
+        times = new double[size];
+        agents = new int[size];
+        others = new int[size];
+        lanes = new int[size];
+        values = new double[size];
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return number of events dropped because a subscription fell a whole
+     *         ring behind
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return number of events published
+     */
+    public long getPublished() {
+        return cursor.get();
+    }
+
+    /**
+     * @return sequence of the slowest subscription, {@code cursor} if there
+     *         is none
+     */
+    private long getMinimumSequence(final long cursor) {
+        long minimum = cursor;
+        for (final Subscription subscription : subscriptions) {
+            minimum = Math.min(minimum, subscription.sequence.get());
+        }
+        return minimum;
+    }
+
+    /**
+     * @return {@code true} if there is at least one subscription
+     */
+    public boolean hasSubscriptions() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Publishes an event. Never blocks. Thread safe.
+     *
+     * @param type
+     *            type of the event
+     * @param time
+     *            simulation time [s]
+     * @param agent
+     *            id of the agent
+     * @param other
+     *            id of another element, see {@link EventType}
+     * @param lane
+     *            id of the lane, see {@link EventType}
+     * @param value
+     *            value, see {@link EventType}
+     * @return {@code false} if the event was dropped or nobody subscribed
+     */
+    public boolean publish(final EventType type, final double time, final int agent, final int other, final int lane, final double value) {
+        if (subscriptions.isEmpty()) {
+            return false;
+        }
+        final int capacity = mask + 1;
+        long sequence;
+        do {
+            sequence = cursor.get();
+            if (sequence - capacity >= gate) {
+                gate = getMinimumSequence(sequence);
+                if (sequence - capacity >= gate) {
+                    // the slot still holds an unread event
+                    dropped.increment();
+                    return false;
+                }
+            }
+        } while (!cursor.compareAndSet(sequence, sequence + 1));
+        final int slot = (int) sequence & mask;
+        types[slot] = (byte) type.ordinal();
+        times[slot] = time;
+        agents[slot] = agent;
+        others[slot] = other;
+        lanes[slot] = lane;
+        values[slot] = value;
+        // the ordered write makes the slot visible
+        published.lazySet(slot, sequence);
+        return true;
+    }
+
+    /**
+     * Starts reading at the next event published.
+     *
+     * @return the subscription, close it when done
+     */
+    public Subscription subscribe() {
+        final Subscription subscription = new Subscription(cursor.get());
+        subscriptions.add(subscription);
+        return subscription;
+    }
+}
@@ -0,0 +1,132 @@
+package ch.bfh.ti.jts.simulation;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.bfh.ti.jts.exceptions.ArgumentNullException;
+import ch.bfh.ti.jts.utils.Config;
+
+/**
+ * Writes the {@link Event}s of an {@link EventBus} to a file, one tab
+ * separated line per event: time, type, agent, other, lane, value. Reads the
+ * bus in batches on a thread of its own and sleeps while there is nothing to
+ * read, so the simulation never waits for the file.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class EventLog implements AutoCloseable {
+
+    private static final Logger         log     = LogManager.getLogger(EventLog.class);
+
+    /**
+     * Maximal number of events read at once.
+     */
+    private static final int            BATCH   = Config.getInstance().getInt("simulation.events.batch", 1024, 1, 1 << 20);
+    /**
+     * Sleep while the bus is empty [ns].
+     */
+    private static final long           IDLE    = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final EventBus              bus;
+    private final EventBus.Subscription subscription;
+    private final Writer                writer;
+    private final Thread                thread;
+    private final StringBuilder         line    = new StringBuilder();
+    private volatile boolean            running = true;
+    private long                        written;
+    private IOException                 error;
+
+    /**
+     * Creates or truncates the file and starts reading the bus.
+     *
+     * @param file
+     *            the file
+     * @param bus
+     *            the bus to read
+     * @throws IOException
+     */
+    public EventLog(final Path file, final EventBus bus) throws IOException {
+        if (file == null) {
+            throw new ArgumentNullException("file");
+        }
+        if (bus == null) {
+            throw new ArgumentNullException("bus");
+        }
+        this.bus = bus;
+        writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16);
+        writer.write("#time\ttype\tagent\tother\tlane\tvalue\n");
+        subscription = bus.subscribe();
+        thread = new Thread(this::run, "EventLog " + file.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Writes the remaining events and closes the file.
+     *
+     * @throws IOException
+     *             if writing failed
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            thread.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        subscription.close();
+        writer.close();
+        log.info(String.format("Events: %d published, %d written, %d dropped", bus.getPublished(), written, bus.getDropped()));
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                if (subscription.poll(this::write, BATCH) == 0) {
+                    writer.flush();
+                    LockSupport.parkNanos(this, IDLE);
+                }
+            }
+            // the simulation stopped, read what is left
+            while (subscription.poll(this::write, BATCH) > 0) {
+            }
+        } catch (final UncheckedIOException e) {
+            error = e.getCause();
+            log.error("Writing events failed", error);
+        } catch (final IOException e) {
+            error = e;
+            log.error("Writing events failed", error);
+        } finally {
+            // don't hold back the publishers any longer
+            subscription.close();
+        }
+    }
+
+    private void write(final Event event) {
+        try {
+            // cheaper than String.format, the log has to keep up with the bus
+            line.setLength(0);
+            line.append(event.getTime()).append('\t').append(event.getType()).append('\t').append(event.getAgent()).append('\t').append(event.getOther()).append('\t').append(event.getLane()).append('\t')
+                    .append(event.getValue()).append('\n');
+            writer.append(line);
+            written++;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package ch.bfh.ti.jts.simulation;
+
+/**
+ * Types of the {@link Event}s published to the {@link EventBus}.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public enum EventType {
+    /**
+     * An agent entered the net. Lane: spawn lane, value: lane position [m].
+     */
+    SPAWN,
+    /**
+     * An agent left the net. Lane: last lane, value: lane position [m].
+     */
+    DESPAWN,
+    /**
+     * Two agents collided. Other: the agent in front, lane: the lane, value:
+     * overlap, negative [m].
+     */
+    COLLISION,
+    /**
+     * An agent changed the lane. Other: id of the lane left, lane: the new
+     * lane, value: lane position [m].
+     */
+    LANE_CHANGE,
+    /**
+     * An agent met another one for the first time. Other: the other agent,
+     * lane: the lane, value: distance [m].
+     */
+    HANDSHAKE;
+}
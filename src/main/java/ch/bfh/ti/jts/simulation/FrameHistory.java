@@ -0,0 +1,358 @@
+package ch.bfh.ti.jts.simulation;
+
+import java.util.Collections;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import ch.bfh.ti.jts.exceptions.ArgumentNullException;
+
+/**
+ * History of the published {@link AgentFrame}s, in ascending simulation time.
+ * Every few frames a full keyframe is kept, the frames in between are kept as
+ * deltas to their predecessor. Reconstructing a frame applies at most
+ * {@code keyframeInterval - 1} deltas. When the history exceeds its byte
+ * budget or its number of entries, the oldest keyframe is evicted together
+ * with its deltas.
+ * <p>
+ * A single thread (the simulation) publishes, any number of threads
+ * (renderer, analysis) read without locks. Readers which want a frame that is
+ * not published yet park until the next frame is published.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class FrameHistory {
+
+    /**
+     * A keyframe or a delta together with its sequence number. Readers compare
+     * the sequence to notice entries which have been overwritten meanwhile.
+     */
+    private static class Entry {
+
+        private final long             sequence;
+        private final double           simulationTime;
+        /**
+         * Sequence of the keyframe the entry builds on.
+         */
+        private final long             keySequence;
+        private final AgentFrame       keyframe;
+        private final AgentFrame.Delta delta;
+        private final int              size;
+
+        Entry(final long sequence, final AgentFrame keyframe) {
+            this.sequence = sequence;
+            simulationTime = keyframe.getSimulationTime();
+            keySequence = sequence;
+            this.keyframe = keyframe;
+            delta = null;
+            size = keyframe.getRetainedSize();
+        }
+
+        Entry(final long sequence, final long keySequence, final AgentFrame.Delta delta) {
+            this.sequence = sequence;
+            simulationTime = delta.getSimulationTime();
+            this.keySequence = keySequence;
+            keyframe = null;
+            this.delta = delta;
+            size = delta.getRetainedSize();
+        }
+    }
+
+    /**
+     * Last frame reconstructed by a reader.
+     */
+    private static class Cursor {
+
+        private final long       sequence;
+        private final AgentFrame frame;
+
+        Cursor(final long sequence, final AgentFrame frame) {
+            this.sequence = sequence;
+            this.frame = frame;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int                         mask;
+    private final long                        budget;
+    private final int                         keyframeInterval;
+    /**
+     * Sequence of the last published frame, -1 if there is none.
+     */
+    private final AtomicLong                  published = new AtomicLong(-1);
+    /**
+     * Sequence of the first frame which is neither cleared nor evicted.
+     * Always a keyframe.
+     */
+    private final AtomicLong                  first     = new AtomicLong(0);
+    /**
+     * Memory used by the entries from {@link FrameHistory#first} on [byte].
+     */
+    private final AtomicLong                  size      = new AtomicLong(0);
+    /**
+     * Threads waiting for the next frame.
+     */
+    private final Queue<Thread>               waiters   = new ConcurrentLinkedQueue<>();
+    /**
+     * Each reader continues from its last frame, so reading ascending frames
+     * applies one delta each.
+     */
+    private final ThreadLocal<Cursor>         cursors   = new ThreadLocal<>();
+    /**
+     * Last published frame, the base of the next delta. Only used by the
+     * publishing thread.
+     */
+    private AgentFrame                        previous;
+    private long                              lastKeySequence;
+
+    /**
+     * @param capacity
+     *            maximal number of frames to keep, rounded up to a power of
+     *            two
+     * @param budget
+     *            memory the frames may use [byte]. The frames since the last
+     *            keyframe are kept in any case.
+     * @param keyframeInterval
+     *            number of frames from one keyframe to the next
+     */
+    public FrameHistory(final int capacity, final long budget, final int keyframeInterval) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity");
+        }
+        if (budget < 0) {
+            throw new IllegalArgumentException("budget");
+        }
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("keyframeInterval");
+        }
+        final int slotCount = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        slots = new AtomicReferenceArray<>(slotCount);
+        mask = slotCount - 1;
+        this.budget = budget;
+        // a group of deltas must never fill the whole ring
+        this.keyframeInterval = Math.max(1, Math.min(keyframeInterval, slotCount / 2));
+    }
+
+    /**
+     * Parks the calling thread until a frame after {@code sequence} is
+     * published, the timeout elapsed or the thread is interrupted.
+     *
+     * @param sequence
+     *            sequence of the last frame seen, see
+     *            {@link FrameHistory#getSequence()}
+     * @param timeout
+     *            maximal time to wait [ns]
+     * @return sequence of the last published frame
+     */
+    public long awaitNext(final long sequence, final long timeout) {
+        final Thread current = Thread.currentThread();
+        final long deadline = System.nanoTime() + timeout;
+        waiters.add(current);
+        try {
+            long remaining;
+            while (published.get() <= sequence && (remaining = deadline - System.nanoTime()) > 0 && !current.isInterrupted()) {
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            waiters.remove(current);
+        }
+        return published.get();
+    }
+
+    /**
+     * Drops all the frames. Only called by the publishing thread.
+     */
+    public void clear() {
+        first.set(published.get() + 1);
+        size.set(0);
+        previous = null;
+    }
+
+    /**
+     * Evicts the oldest keyframe with its deltas. Only called by the
+     * publishing thread.
+     *
+     * @param sequence
+     *            sequence of the frame about to be published
+     */
+    private void evict(final long sequence) {
+        long next = first.get();
+        long freed = 0;
+        do {
+            freed += slots.get((int) next & mask).size;
+            next++;
+        } while (next < sequence && slots.get((int) next & mask).keyframe == null);
+        // readers see the new first before the entries are overwritten
+        first.set(next);
+        size.addAndGet(-freed);
+    }
+
+    /**
+     * @return the latest frame at or before {@code time}, {@code null} if
+     *         there is none
+     */
+    public AgentFrame floor(final double time) {
+        final long last = published.get();
+        for (long sequence = last; sequence >= first.get(); sequence--) {
+            final Entry entry = getEntry(sequence);
+            if (entry == null) {
+                // overwritten, all the older ones are as well
+                break;
+            }
+            if (entry.simulationTime <= time) {
+                return get(sequence);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reconstructs a frame.
+     *
+     * @return the frame, {@code null} if it has been evicted meanwhile
+     */
+    private AgentFrame get(final long sequence) {
+        final Entry entry = getEntry(sequence);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.keyframe != null) {
+            cursors.set(new Cursor(sequence, entry.keyframe));
+            return entry.keyframe;
+        }
+        final Cursor cursor = cursors.get();
+        long from;
+        AgentFrame frame;
+        if (cursor != null && cursor.sequence >= entry.keySequence && cursor.sequence <= sequence) {
+            // same group, continue from there
+            from = cursor.sequence;
+            frame = cursor.frame;
+        } else {
+            final Entry key = getEntry(entry.keySequence);
+            if (key == null) {
+                return null;
+            }
+            from = key.sequence;
+            frame = key.keyframe;
+        }
+        for (long next = from + 1; next <= sequence; next++) {
+            final Entry delta = getEntry(next);
+            if (delta == null) {
+                return null;
+            }
+            frame = frame.apply(delta.delta);
+        }
+        cursors.set(new Cursor(sequence, frame));
+        return frame;
+    }
+
+    private Entry getEntry(final long sequence) {
+        final Entry entry = slots.get((int) sequence & mask);
+        if (entry == null || entry.sequence != sequence || sequence < first.get()) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * @return the oldest frame still in the history, {@code null} if there is
+     *         none
+     */
+    public AgentFrame getOldest() {
+        final long last = published.get();
+        for (long sequence = first.get(); sequence <= last; sequence++) {
+            final AgentFrame frame = get(sequence);
+            if (frame != null) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return sequence of the last published frame, -1 if there is none
+     */
+    public long getSequence() {
+        return published.get();
+    }
+
+    /**
+     * @return memory used by the frames in the history [byte]
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    /**
+     * Publishes a frame and wakes up all the waiting readers. Only called by
+     * the publishing thread.
+     *
+     * @param frame
+     *            the frame, not older than the last published one
+     * @param duration
+     *            duration of the step from the last published frame to this
+     *            one [s]
+     */
+    public void publish(final AgentFrame frame, final double duration) {
+        if (frame == null) {
+            throw new ArgumentNullException("frame");
+        }
+        final long sequence = published.get() + 1;
+        Entry entry = null;
+        if (previous != null && sequence - lastKeySequence < keyframeInterval) {
+            final AgentFrame.Delta delta = previous.diff(frame, duration);
+            // a delta larger than half a keyframe isn't worth it
+            if (2 * delta.getRetainedSize() < frame.getRetainedSize()) {
+                entry = new Entry(sequence, lastKeySequence, delta);
+            }
+        }
+        if (entry == null) {
+            entry = new Entry(sequence, frame);
+            lastKeySequence = sequence;
+        }
+        // make room, but keep the group of the last keyframe
+        while (first.get() < sequence && (sequence - first.get() > mask || size.get() + entry.size > budget && first.get() < lastKeySequence)) {
+            evict(sequence);
+        }
+        slots.set((int) sequence & mask, entry);
+        size.addAndGet(entry.size);
+        previous = frame;
+        // the volatile write makes the entry visible
+        published.set(sequence);
+        for (final Thread waiter : waiters) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * @param from
+     *            minimal simulation time [s]
+     * @return read only copy of the frames at or after {@code from}. Key:=
+     *         simulation time [s].
+     */
+    public NavigableMap<Double, AgentFrame> snapshot(final double from) {
+        final NavigableMap<Double, AgentFrame> frames = new TreeMap<>();
+        final long last = published.get();
+        long sequence = last;
+        // find the first frame from the end, entries carry their time
+        while (sequence > first.get()) {
+            final Entry entry = getEntry(sequence - 1);
+            if (entry == null || entry.simulationTime < from) {
+                break;
+            }
+            sequence--;
+        }
+        for (; sequence <= last; sequence++) {
+            final AgentFrame frame = get(sequence);
+            if (frame != null && frame.getSimulationTime() >= from) {
+                frames.put(frame.getSimulationTime(), frame);
+            }
+        }
+        return Collections.unmodifiableNavigableMap(frames);
+    }
+}
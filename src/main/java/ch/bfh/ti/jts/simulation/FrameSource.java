@@ -0,0 +1,31 @@
+package ch.bfh.ti.jts.simulation;
+
+import java.util.NavigableMap;
+
+/**
+ * Provides the {@link AgentFrame}s the window renders: a running
+ * {@link Simulation} or the {@link Playback} of a recorded trace.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public interface FrameSource {
+
+    /**
+     * @return read only view on the recent frames. Key:= simulation time [s].
+     */
+    NavigableMap<Double, AgentFrame> getSavedStates();
+
+    /**
+     * Gets the frame to show now. May block until there is one.
+     *
+     * @return the frame at {@link FrameSource#getWallClockTime()},
+     *         {@code null} if the calling thread was interrupted while waiting
+     */
+    AgentFrame getWallCLockSimulationState();
+
+    /**
+     * @return simulation time shown now [s]
+     */
+    double getWallClockTime();
+}
@@ -0,0 +1,180 @@
+package ch.bfh.ti.jts.simulation;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.LockSupport;
+
+import ch.bfh.ti.jts.exceptions.ArgumentNullException;
+import ch.bfh.ti.jts.utils.Config;
+import ch.bfh.ti.jts.utils.Helpers;
+
+/**
+ * Plays a recorded trace back instead of simulating. The playback clock runs
+ * at any speed, backwards for negative speeds, and stops at both ends of the
+ * trace. Frames are decoded from the memory mapped trace on demand and a few
+ * of them are cached for the renderer.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class Playback implements FrameSource {
+
+    /**
+     * Frames per second handed to the renderer at most.
+     */
+    private static final int               FPS            = Config.getInstance().getInt("playback.fps", 60, 1, 1000);
+    /**
+     * Number of decoded frames kept.
+     */
+    private static final int               CACHE_SIZE     = Config.getInstance().getInt("playback.cache", 64, 1, 65536);
+    /**
+     * Saved states handed to the renderer reach this far back [s].
+     */
+    private static final double            HISTORY_WINDOW = Config.getInstance().getDouble("simulation.history.time", 10.0, 0.0, 3600.0);
+
+    private final TraceReader              reader;
+    private final Topology                 topology;
+    private final boolean                  interpolate    = Config.getInstance().getValue("simulation.wallclock.interpolate", true);
+    /**
+     * Decoded frames by index, least recently used first.
+     */
+    private final Map<Integer, AgentFrame> cache;
+    /**
+     * Playback time at {@link Playback#anchorNanos} [s].
+     */
+    private double                         anchorTime;
+    private long                           anchorNanos    = System.nanoTime();
+    private double                         speed          = 1.0;
+    private long                           nextFrameNanos = System.nanoTime();
+
+    /**
+     * @param reader
+     *            the trace
+     * @param topology
+     *            topology of the traced net
+     */
+    public Playback(final TraceReader reader, final Topology topology) {
+        if (reader == null) {
+            throw new ArgumentNullException("reader");
+        }
+        if (topology == null) {
+            throw new ArgumentNullException("topology");
+        }
+        if (reader.getFrameCount() == 0) {
+            throw new IllegalArgumentException("empty trace");
+        }
+        this.reader = reader;
+        this.topology = topology;
+        cache = new LinkedHashMap<Integer, AgentFrame>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Integer, AgentFrame> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+        anchorTime = getStartTime();
+    }
+
+    /**
+     * @return simulation time of the last frame [s]
+     */
+    public double getEndTime() {
+        return reader.getTime(reader.getFrameCount() - 1);
+    }
+
+    private AgentFrame getFrame(final int index) {
+        synchronized (cache) {
+            return cache.computeIfAbsent(index, x -> reader.getFrame(x, topology));
+        }
+    }
+
+    @Override
+    public NavigableMap<Double, AgentFrame> getSavedStates() {
+        final double time = getWallClockTime();
+        final NavigableMap<Double, AgentFrame> frames = new TreeMap<>();
+        final int to = reader.floorIndex(time);
+        final int from = Math.max(Math.max(0, reader.floorIndex(time - HISTORY_WINDOW)), to - CACHE_SIZE / 2);
+        for (int index = from; index <= to; index++) {
+            frames.put(reader.getTime(index), getFrame(index));
+        }
+        return Collections.unmodifiableNavigableMap(frames);
+    }
+
+    public double getSpeed() {
+        synchronized (this) {
+            return speed;
+        }
+    }
+
+    /**
+     * @return simulation time of the first frame [s]
+     */
+    public double getStartTime() {
+        return reader.getTime(0);
+    }
+
+    /**
+     * Parks until the next frame is due at {@code playback.fps}.
+     */
+    @Override
+    public AgentFrame getWallCLockSimulationState() {
+        long remaining;
+        while ((remaining = nextFrameNanos - System.nanoTime()) > 0) {
+            if (Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+        nextFrameNanos = System.nanoTime() + 1000000000L / FPS;
+        final double time = getWallClockTime();
+        final AgentFrame frame = getFrame(Math.max(0, reader.floorIndex(time)));
+        if (interpolate && time > frame.getSimulationTime()) {
+            return frame.extrapolate(time - frame.getSimulationTime());
+        }
+        return frame;
+    }
+
+    /**
+     * @return playback time [s]
+     */
+    @Override
+    public double getWallClockTime() {
+        synchronized (this) {
+            final double time = anchorTime + (System.nanoTime() - anchorNanos) * 1E-9 * speed;
+            return Helpers.clamp(time, getStartTime(), getEndTime());
+        }
+    }
+
+    /**
+     * Jumps to a time.
+     *
+     * @param time
+     *            simulation time [s], clamped to the trace
+     */
+    public void seek(final double time) {
+        synchronized (this) {
+            anchorTime = Helpers.clamp(time, getStartTime(), getEndTime());
+            anchorNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Changes the speed from now on.
+     *
+     * @param speed
+     *            simulated seconds per second, negative to play backwards, 0
+     *            to pause
+     */
+    public void setSpeed(final double speed) {
+        synchronized (this) {
+            anchorTime = getWallClockTime();
+            anchorNanos = System.nanoTime();
+            this.speed = speed;
+        }
+    }
+}
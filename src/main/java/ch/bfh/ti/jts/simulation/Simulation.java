@@ -1,23 +1,22 @@
 package ch.bfh.ti.jts.simulation;
 
-import java.util.Map.Entry;
+import java.io.IOException;
 import java.util.NavigableMap;
 import java.util.Queue;
-import java.util.TreeMap;
-import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
 import org.apache.commons.collections4.queue.CircularFifoQueue;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import ch.bfh.ti.jts.data.Net;
-import ch.bfh.ti.jts.gui.Window;
-import ch.bfh.ti.jts.gui.console.Console;
+import ch.bfh.ti.jts.exceptions.ArgumentNullException;
 import ch.bfh.ti.jts.gui.console.commands.Command;
+import ch.bfh.ti.jts.simulation.engines.Engine;
+import ch.bfh.ti.jts.simulation.engines.LayeredEngine;
 import ch.bfh.ti.jts.utils.Config;
-import ch.bfh.ti.jts.utils.deepcopy.DeepCopy;
-import ch.bfh.ti.jts.utils.layers.Layers;
 
 /**
  * Simulates traffic on a @{link ch.bfh.ti.jts.data.Net}
@@ -25,38 +24,13 @@ import ch.bfh.ti.jts.utils.layers.Layers;
  * @author Enteee
  * @author winki
  */
-public class Simulation {
-
-    /**
-     * SaveState holds the simulation data.
-     *
-     * @author Enteee
-     * @author winki
-     */
-    private class SaveState {
-
-        private final Net saveState;
-        private final Net interpolateState;
-
-        public SaveState(final Net state) {
-            saveState = DeepCopy.copy(state);
-            interpolateState = DeepCopy.copy(state);
-        }
-
-        private Net getInterpolateState() {
-            return interpolateState;
-        }
-
-        private Net getSaveState() {
-            return saveState;
-        }
-    }
+public class Simulation implements FrameSource, AutoCloseable {
 
     private static final Logger                            log                                 = LogManager.getLogger(Simulation.class);
 
     /**
-     * The 'virtual' duration of one simulation step in seconds. INFO: static
-     * here because agent is missing a reference to the simulation object.
+     * The nominal 'virtual' duration of one simulation step in seconds. The
+     * actual step is chosen by the {@link StepController}.
      */
     public final static double                             SIMULATION_STEP_DURATION            = Config.getInstance().getDouble("simulation.step.duration", 0.5, 0.0, 3600.0);
     /**
@@ -70,126 +44,404 @@ public class Simulation {
      */
     private static final double                            MIN_SIMULATION_WALL_CLOCK_GAP       = Config.getInstance().getDouble("simulation.wallclock.gap", 20.0, 0.0, 3600.0);
     /**
-     * Keep the last {@link Net} for this amount of time in [s];
+     * Keep the last {@link AgentFrame}s for this amount of time in [s];
      */
     private static final double                            SIMULATION_HISTORY_KEEP_WINDOW      = Config.getInstance().getDouble("simulation.history.time", 10.0, 0.0, 3600.0);
+    /**
+     * Maximal number of {@link AgentFrame}s kept.
+     */
+    private static final int                               SIMULATION_HISTORY_FRAMES           = Config.getInstance().getInt("simulation.history.frames", 4096, 1, 1 << 20);
+    /**
+     * Memory the kept {@link AgentFrame}s may use [MiB].
+     */
+    private static final int                               SIMULATION_HISTORY_BUDGET           = Config.getInstance().getInt("simulation.history.budget", 64, 1, 1 << 20);
+    /**
+     * Number of {@link AgentFrame}s from one keyframe to the next, the ones in
+     * between are kept as deltas.
+     */
+    private static final int                               SIMULATION_HISTORY_KEYFRAMES        = Config.getInstance().getInt("simulation.history.keyframes", 32, 1, 1 << 16);
+    /**
+     * Longest time a reader waits for a frame before looking at the wall
+     * clock again [ns].
+     */
+    private static final long                              MAX_FRAME_WAIT                      = 100000000L;
     /**
      * Size of the floating average for tick duration.
      */
     private static final int                               FLOAT_AVERAGE_TICK_DURATION_SIZE    = Config.getInstance().getInt("simulation.tick.averagetime", 20, 0, 1000);
+    /**
+     * Number of captured frames which may wait for the frame stage.
+     */
+    private static final int                               PIPELINE_QUEUE                      = Config.getInstance().getInt("simulation.pipeline.queue", 16, 1, 1 << 16);
+    /**
+     * Number of events the event bus holds.
+     */
+    private static final int                               EVENTS_CAPACITY                     = Config.getInstance().getInt("simulation.events.capacity", 65536, 1, 1 << 30);
     /**
      * Start wallclock time of the simulation [s].
      */
     private final double                                   startWallClockTime                  = System.nanoTime() * 1E-9;
+    /**
+     * Added to the wall clock time [s]. Moves the wall clock to the
+     * simulation time reached by a fast forward.
+     */
+    private volatile double                                wallClockOffset;
+    /**
+     * Simulation time to advance to as fast as possible [s], NaN if not fast
+     * forwarding.
+     */
+    private volatile double                                fastForwardTime                     = Double.NaN;
     /**
      * Queue used for floating average calcuateion of tick duration [s].
      */
     private final Queue<Double>                            floatAverageTickDurationQueue       = new CircularFifoQueue<>(FLOAT_AVERAGE_TICK_DURATION_SIZE);
     /**
-     * Simulation states. Whereas Key = absolute simulation time
+     * Simulation states published by each tick, in ascending simulation time.
      */
-    private final ConcurrentSkipListMap<Double, SaveState> simulationStates                    = new ConcurrentSkipListMap<>();
+    private final FrameHistory                             simulationStates                    = new FrameHistory(SIMULATION_HISTORY_FRAMES, SIMULATION_HISTORY_BUDGET * (1L << 20),
+                                                                                                       SIMULATION_HISTORY_KEYFRAMES);
     /**
      * Interpolate the wall clock state.
      */
     private final AtomicBoolean                            interpolateWallClockSimulationState = new AtomicBoolean(Config.getInstance().getValue("simulation.wallclock.interpolate", true));
     /**
-     * Allow collisions.
+     * Record a {@link AgentFrame} after each tick. Only needed for rendering.
+     */
+    private boolean                                        recordHistory                       = true;
+    /**
+     * Keep the simulation near wall clock time by sleeping in
+     * {@link Simulation#tick()}.
+     */
+    private boolean                                        wallClockPacing                     = true;
+    /**
+     * Trace the {@link AgentFrame}s are appended to, {@code null} if not
+     * tracing. Only used by the frame stage.
+     */
+    private volatile TraceWriter                           trace;
+    /**
+     * Publishes and traces the captured frames while the next tick is
+     * simulated, {@code null} to do it within the tick.
+     */
+    private final Stage                                    frameStage;
+    /**
+     * Engine used to advance {@link Simulation#simulateNet}.
+     */
+    private Engine                                         engine                              = createEngine(Config.getInstance().getValue("simulation.engine", "Layered"));
+    /**
+     * Chooses the duration of each step.
      */
-    private boolean                                        allowCollisions                     = Config.getInstance().getValue("simulation.collisions", true);
+    private final StepController                           stepController                      = new StepController();
     /**
      * The @{link Net} to simulate.
      */
     final Net                                              simulateNet;
+    /**
+     * Static part of {@link Simulation#simulateNet}, shared by all the saved
+     * {@link AgentFrame}s.
+     */
+    private final Topology                                 topology;
+    /**
+     * Events of {@link Simulation#simulateNet}.
+     */
+    private final EventBus                                 events                              = new EventBus(EVENTS_CAPACITY);
+    /**
+     * Bytes allocated by the ticks.
+     */
+    private final AllocationCounter                        allocations                         = new AllocationCounter();
 
     public Simulation(final Net simulateNet) {
         this.simulateNet = simulateNet;
+        simulateNet.setAllowCollisions(Config.getInstance().getValue("simulation.collisions", true));
+        topology = new Topology(simulateNet);
+        simulateNet.setEvents(events);
+        frameStage = Config.getInstance().getValue("simulation.pipeline", true) ? new Stage("frame-stage", PIPELINE_QUEUE) : null;
     }
-    
+
+    /**
+     * Closes the engine and waits for the frames captured so far. Ticking a
+     * closed simulation is not possible.
+     */
+    @Override
+    public void close() {
+        close(engine);
+        if (frameStage != null) {
+            frameStage.close();
+        }
+    }
+
+    private static void close(final Engine engine) {
+        if (engine instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) engine).close();
+            } catch (final Exception e) {
+                log.warn("Closing engine failed", e);
+            }
+        }
+    }
+
     public Net getSimNet() {
         return this.simulateNet;
     }
 
-    private void addSimulationState(final Net net) {
-        final Net netCopy = DeepCopy.copy(net);
-        // remove old states from history
-        final double simulationStatesWindowMin = getWallClockTime() - SIMULATION_HISTORY_KEEP_WINDOW;
-        simulationStates.headMap(simulationStatesWindowMin).forEach((key, value) -> {
-            simulationStates.remove(key, value);
-        });
+    /**
+     * Creates an engine by its name.
+     *
+     * @param name
+     *            name of the engine, with or without the suffix 'Engine'
+     * @return the engine, {@link LayeredEngine} if there is no such engine
+     */
+    public static Engine createEngine(String name) {
+        if (name != null) {
+            if (!name.endsWith("Engine")) {
+                // add suffix
+                name = name.concat("Engine");
+            }
+            try {
+                // append namespace
+                name = String.format("%s.%s", Engine.class.getPackage().getName(), name);
+                final Class<?> clazz = Class.forName(name);
+                final Object object = clazz.getConstructor().newInstance();
+                log.debug("Create engine: " + object.getClass());
+                return (Engine) object;
+            } catch (final Exception e) {
+                log.warn("Creating engine failed: " + name);
+            }
+        }
+        // default engine
+        log.debug("Create default engine: " + LayeredEngine.class);
+        return new LayeredEngine();
+    }
 
-        simulationStates.put(netCopy.getSimulationTime(), new SaveState(net));
-        log.debug("simulationStates.size:" + simulationStates.size());
+    /**
+     * @param publish
+     *            publish the frame to the history, otherwise only trace it
+     */
+    private void addSimulationState(final Net net, final double duration, final boolean publish) {
+        // the only part reading the net, the frame is immutable
+        final AgentFrame frame = AgentFrame.capture(topology, net);
+        if (frameStage != null) {
+            frameStage.execute(() -> publishSimulationState(frame, duration, publish));
+        } else {
+            publishSimulationState(frame, duration, publish);
+        }
+    }
+
+    /**
+     * Publishes a captured frame to the history and appends it to the trace.
+     * Runs on the frame stage, if pipelining.
+     */
+    private void publishSimulationState(final AgentFrame frame, final double duration, final boolean publish) {
+        if (publish) {
+            // the oldest frames are evicted
+            simulationStates.publish(frame, duration);
+            log.debug("simulationStates.sequence:" + simulationStates.getSequence() + " size:" + simulationStates.getSize());
+        }
+        if (trace != null) {
+            try {
+                trace.append(frame);
+            } catch (final IOException e) {
+                log.error("Writing trace failed, tracing stopped", e);
+                trace = null;
+            }
+        }
     }
 
     /**
      * command on simulation element
      *
      * @param command
+     * @param output
+     *            receives the messages of the command
      */
-    public void executeCommand(final Command command) {
+    public void executeCommand(final Command command, final Consumer<String> output) {
         final Class<?> targetType = command.getTargetType();
-        final Console console = Window.getInstance().getConsole();
         if (targetType == Simulation.class) {
             // command on simulation itself
-            command.execute(this).ifPresent(message -> console.write(message));
+            command.execute(this).ifPresent(output);
         } else {
             simulateNet.getElementStream(command.getTargetType()).forEach(element -> {
-                command.execute(element).ifPresent(message -> console.write(message));
+                command.execute(element).ifPresent(output);
             });
         }
     }
 
-    public NavigableMap<Double, Net> getSavedStates() {
-        // TODO: do with streams
-        final NavigableMap<Double, Net> returnSavedStates = new TreeMap<>();
-        for (final Entry<Double, SaveState> entry : simulationStates.entrySet()) {
-            final Net savedNet = entry.getValue().getSaveState();
-            returnSavedStates.put(savedNet.getSimulationTime(), savedNet);
+    /**
+     * Ends a fast forward: the wall clock jumps to the reached simulation
+     * time and the history starts over from the reached state.
+     */
+    private void endFastForward() {
+        fastForwardTime = Double.NaN;
+        wallClockOffset += simulateNet.getSimulationTime() - getWallClockTime();
+        floatAverageTickDurationQueue.clear();
+        // the frames before are far behind the wall clock
+        resetSimulation();
+        log.info("Fast forward ended at " + simulateNet.getSimulationTime() + " s");
+    }
+
+    /**
+     * Advances to a simulation time as fast as possible. Until it is reached,
+     * the ticks neither record the history nor pace to the wall clock and the
+     * renderer keeps the last state without interpolating. Afterwards the
+     * wall clock continues from the reached time. Only called by the
+     * simulation thread, e.g. from a command.
+     *
+     * @param time
+     *            simulation time to reach [s]
+     * @return {@code false} if the simulation is already there
+     */
+    public boolean fastForward(final double time) {
+        if (time <= simulateNet.getSimulationTime()) {
+            return false;
         }
-        return returnSavedStates;
+        fastForwardTime = time;
+        return true;
     }
 
     /**
-     * blocks if there is no simulation state or wall clock is ahead of
-     * simulation
+     * Waits until the frames captured so far are published and traced.
+     */
+    public void flush() {
+        if (frameStage != null) {
+            frameStage.flush();
+        }
+    }
+
+    /**
+     * @return simulation time a fast forward advances to [s], NaN if not fast
+     *         forwarding
+     */
+    public double getFastForwardTime() {
+        return fastForwardTime;
+    }
+
+    /**
+     * @return read only view on the saved simulation states. Key:= simulation
+     *         time [s].
+     */
+    @Override
+    public NavigableMap<Double, AgentFrame> getSavedStates() {
+        return simulationStates.snapshot(getWallClockTime() - SIMULATION_HISTORY_KEEP_WINDOW);
+    }
+
+    /**
+     * @return bytes allocated by the ticks, the whole tick from simulating to
+     *         capturing the frame
+     */
+    public AllocationCounter getAllocations() {
+        return allocations;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * @return bus the spawns, despawns, collisions, lane changes and
+     *         handshakes of the net are published to. Only published while
+     *         subscribed.
+     */
+    public EventBus getEvents() {
+        return events;
+    }
+
+    public StepController getStepController() {
+        return stepController;
+    }
+
+    public Topology getTopology() {
+        return topology;
+    }
+
+    /**
+     * Parks until there is a simulation state at or before the wall clock
+     * time. Woken up by each published state.
      *
-     * @return the simulation state closest to the wall clock time.
-     */
-    public Net getWallCLockSimulationState() {
-        Net wallClockSimulationState = null;
-        do {
-            final Entry<Double, SaveState> entry = simulationStates.floorEntry(getWallClockTime());
-            if (entry != null) {
-                wallClockSimulationState = entry.getValue().getInterpolateState();
+     * @return the simulation state closest to the wall clock time,
+     *         {@code null} if the calling thread was interrupted while waiting
+     */
+    @Override
+    public AgentFrame getWallCLockSimulationState() {
+        AgentFrame wallClockSimulationState = null;
+        while (wallClockSimulationState == null) {
+            final long sequence = simulationStates.getSequence();
+            final double wallClockTime = getWallClockTime();
+            wallClockSimulationState = simulationStates.floor(wallClockTime);
+            if (wallClockSimulationState == null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+                // wait for the next state or till the oldest one is due
+                long timeout = MAX_FRAME_WAIT;
+                final AgentFrame oldest = simulationStates.getOldest();
+                if (oldest != null) {
+                    timeout = Math.min(timeout, (long) ((oldest.getSimulationTime() - wallClockTime) / WALL_CLOCK_ACCELERATION_FACTOR * 1E9) + 1);
+                }
+                simulationStates.awaitNext(sequence, timeout);
             }
-        } while (wallClockSimulationState == null);
-        if (interpolateWallClockSimulationState.get()) {
-            simulate(wallClockSimulationState, getWallClockTime() - wallClockSimulationState.getSimulationTime());
+        }
+        if (interpolateWallClockSimulationState.get() && !isFastForwarding()) {
+            wallClockSimulationState = wallClockSimulationState.extrapolate(getWallClockTime() - wallClockSimulationState.getSimulationTime());
         }
         return wallClockSimulationState;
     }
 
     /**
-     * @return wall clock time spent in [s].
+     * @return wall clock time spent in [s], plus the time skipped by fast
+     *         forwards.
      */
+    @Override
     public double getWallClockTime() {
-        return (System.nanoTime() * 1E-9 - startWallClockTime) * WALL_CLOCK_ACCELERATION_FACTOR;
+        return (System.nanoTime() * 1E-9 - startWallClockTime) * WALL_CLOCK_ACCELERATION_FACTOR + wallClockOffset;
     }
 
     public boolean isAllowCollisions() {
-        return allowCollisions;
+        return simulateNet.isAllowCollisions();
+    }
+
+    public boolean isFastForwarding() {
+        return !Double.isNaN(fastForwardTime);
+    }
+
+    public boolean isRecordHistory() {
+        return recordHistory;
+    }
+
+    public boolean isWallClockPacing() {
+        return wallClockPacing;
     }
 
     /**
      * Flushes all the buffered simulation states.
      */
     public void resetSimulation() {
-        simulationStates.clear();
+        if (frameStage != null) {
+            // only the publishing thread may clear
+            frameStage.execute(simulationStates::clear);
+        } else {
+            simulationStates.clear();
+        }
     }
 
     public void setAllowCollisions(final boolean allowCollisions) {
-        this.allowCollisions = allowCollisions;
+        simulateNet.setAllowCollisions(allowCollisions);
+    }
+
+    /**
+     * Sets the engine simulating the next ticks. The engine replaced is
+     * closed, e.g. the one {@code simulation.engine} created.
+     *
+     * @param engine
+     *            the engine
+     */
+    public void setEngine(final Engine engine) {
+        if (engine == null) {
+            throw new ArgumentNullException("engine");
+        }
+        final Engine replaced = this.engine;
+        this.engine = engine;
+        if (replaced != engine) {
+            close(replaced);
+        }
     }
 
     public void setInterpolateWallClockSimulationState(final boolean value) {
@@ -197,36 +449,54 @@ public class Simulation {
     }
 
     /**
-     * Simulate the given net.
+     * Enables or disables recording of {@link AgentFrame}s. Disable for runs
+     * without rendering.
      *
-     * @param simulateNet
-     * @param duration
-     */
-    private void simulate(final Net simulateNet, final double duration) {
-        // delegate simulation to @{link Simulatable}s
-        final Layers<Simulatable> simulatables = simulateNet.getSimulatable();
-        for (final int layer : simulatables.getLayersIterator()) {
-            simulatables.getLayerStream(layer).parallel().forEach(e -> {
-                e.simulate(duration);
-            });
+     * @param recordHistory
+     *            {@code true} to record
+     */
+    public void setRecordHistory(final boolean recordHistory) {
+        this.recordHistory = recordHistory;
+        if (!recordHistory) {
+            resetSimulation();
         }
     }
 
     /**
-     * Think on the given net
+     * Restarts the random streams of the net from a seed. Runs with the same
+     * seed give the same results, independent of the number of threads. Call
+     * before the first tick.
      *
-     * @param simulateNet
-     * @param duration
+     * @param seed
+     *            the seed
      */
-    private void think(final Net simulateNet, final double duration) {
-        simulateNet.getThinkableStream().forEach(element -> {
-            // think
-            try {
-                element.think();
-            } catch (final Exception e) {
-                log.error("Think failed for element: " + element, e);
-            }
-        });
+    public void setSeed(final long seed) {
+        simulateNet.setSeed(seed);
+    }
+
+    /**
+     * Appends the {@link AgentFrame} of each tick to a trace. The caller
+     * closes the trace. Waits for the frames of the earlier ticks, they go to
+     * the old trace.
+     *
+     * @param trace
+     *            the trace, {@code null} to stop tracing
+     */
+    public void setTrace(final TraceWriter trace) {
+        flush();
+        this.trace = trace;
+    }
+
+    /**
+     * Enables or disables wall clock pacing. Without pacing
+     * {@link Simulation#tick()} never sleeps and the simulation runs as fast
+     * as possible.
+     *
+     * @param wallClockPacing
+     *            {@code true} to pace
+     */
+    public void setWallClockPacing(final boolean wallClockPacing) {
+        this.wallClockPacing = wallClockPacing;
     }
 
     /**
@@ -234,11 +504,24 @@ public class Simulation {
      * clock.
      */
     public void tick() {
-        
+
         final double tickTimeStart = getWallClockTime();
-        simulate(simulateNet, SIMULATION_STEP_DURATION);
-        think(simulateNet, SIMULATION_STEP_DURATION);
-        addSimulationState(simulateNet);
+        allocations.start(engine);
+        final double step = stepController.getStep();
+        engine.simulate(simulateNet, step);
+        // decide for the next step
+        engine.think(simulateNet, stepController.update(simulateNet, engine));
+        if (isFastForwarding() && simulateNet.getSimulationTime() >= fastForwardTime) {
+            endFastForward();
+        }
+        final boolean fastForwarding = isFastForwarding();
+        if (recordHistory && !fastForwarding || trace != null) {
+            addSimulationState(simulateNet, step, recordHistory && !fastForwarding);
+        }
+        allocations.stop();
+        if (!wallClockPacing || fastForwarding) {
+            return;
+        }
         floatAverageTickDurationQueue.add(getWallClockTime() - tickTimeStart);
         // we have enough for floating average
         if (floatAverageTickDurationQueue.size() >= FLOAT_AVERAGE_TICK_DURATION_SIZE) {
@@ -251,12 +534,17 @@ public class Simulation {
             final double simulationAdvancedTooMuch = simulationWallClockDiff - simulationMinAdvance;
             // simulation is in advance too much
             if (simulationAdvancedTooMuch > 0) {
-                try {
-                    log.debug("Tick sleep for " + simulationAdvancedTooMuch + " s simulationWallClockDiff:" + simulationWallClockDiff + " s floatAverageWallClockLoopDuration:"
-                            + floatAverageLoopDuration + " s");
-                    Thread.sleep((long) (simulationAdvancedTooMuch * 1E3));
-                } catch (final InterruptedException e) {
-                    log.warn("Tick sleep interrupted");
+                log.debug("Tick sleep for " + simulationAdvancedTooMuch + " s simulationWallClockDiff:" + simulationWallClockDiff + " s floatAverageWallClockLoopDuration:"
+                        + floatAverageLoopDuration + " s");
+                // wall clock time runs accelerated
+                final long deadline = System.nanoTime() + (long) (simulationAdvancedTooMuch / WALL_CLOCK_ACCELERATION_FACTOR * 1E9);
+                long remaining;
+                while ((remaining = deadline - System.nanoTime()) > 0) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        log.warn("Tick sleep interrupted");
+                        break;
+                    }
+                    LockSupport.parkNanos(this, remaining);
                 }
             }
         }
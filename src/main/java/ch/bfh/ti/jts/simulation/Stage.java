@@ -0,0 +1,136 @@
+package ch.bfh.ti.jts.simulation;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.bfh.ti.jts.exceptions.ArgumentNullException;
+
+/**
+ * Background stage of the tick pipeline. Runs the submitted tasks one after
+ * the other, in submission order, on a thread of its own. The tasks only work
+ * on immutable views of a tick (frames, log lines), so the simulation goes on
+ * with the next tick meanwhile. The queue is bounded: if the stage falls
+ * behind, {@link Stage#execute(Runnable)} blocks until there is room again
+ * instead of piling up ticks.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class Stage implements Executor, AutoCloseable {
+
+    private static final Logger      log    = LogManager.getLogger(Stage.class);
+
+    private final String             name;
+    private final ThreadPoolExecutor executor;
+    /**
+     * Number of submissions which had to wait for room in the queue.
+     */
+    private final AtomicLong         stalls = new AtomicLong();
+
+    /**
+     * @param name
+     *            name of the stage and its thread
+     * @param capacity
+     *            number of tasks which may wait at most
+     */
+    public Stage(final String name, final int capacity) {
+        if (name == null) {
+            throw new ArgumentNullException("name");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity");
+        }
+        this.name = name;
+        // the thread ends when idle, stages which are never closed don't leak it
+        executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new ArrayBlockingQueue<>(capacity), r -> {
+            final Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        }, (r, e) -> {
+            if (e.isShutdown()) {
+                throw new RejectedExecutionException(name + " is closed");
+            }
+            // back pressure: wait for the stage to catch up
+            stalls.incrementAndGet();
+            try {
+                e.getQueue().put(r);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(name + " interrupted", ex);
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs all the pending tasks and stops the stage.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.debug("Stage " + name + " closed, " + stalls.get() + " stalls");
+    }
+
+    /**
+     * Queues a task, blocks while the queue is full.
+     *
+     * @param task
+     *            the task, must not touch the live net
+     */
+    @Override
+    public void execute(final Runnable task) {
+        if (task == null) {
+            throw new ArgumentNullException("task");
+        }
+        executor.execute(() -> {
+            try {
+                task.run();
+            } catch (final RuntimeException e) {
+                log.error("Task of stage " + name + " failed", e);
+            }
+        });
+    }
+
+    /**
+     * Waits until all the tasks submitted so far have run. Whatever they did
+     * is visible to the calling thread afterwards.
+     */
+    public void flush() {
+        try {
+            executor.submit(() -> {
+                // marker, runs after all the earlier tasks
+            }).get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (final RejectedExecutionException e) {
+            // closed, nothing pending
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return number of submissions which had to wait because the stage fell
+     *         behind
+     */
+    public long getStalls() {
+        return stalls.get();
+    }
+}
@@ -1,7 +1,6 @@
 package ch.bfh.ti.jts.simulation;
 
 import java.util.Collection;
-import java.util.stream.Collectors;
 
 import ch.bfh.ti.jts.data.Agent;
 
@@ -13,6 +12,37 @@ import ch.bfh.ti.jts.data.Agent;
  */
 public class Statistics {
 
+    /**
+     * Two sided 95% quantiles of the Student t distribution for 1 to 30
+     * degrees of freedom.
+     */
+    private static final double[] T_QUANTILES = { 12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228, 2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101,
+            2.093, 2.086, 2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042 };
+
+    /**
+     * Half width of the 95% confidence interval of the mean of independent
+     * samples, with the Student t distribution.
+     *
+     * @param samples
+     *            the samples
+     * @return half width, {@link Double#NaN} for less than two samples
+     */
+    public static double getConfidenceHalfWidth(final double[] samples) {
+        final int n = samples.length;
+        if (n < 2) {
+            return Double.NaN;
+        }
+        final double mean = getMean(samples);
+        double squares = 0;
+        for (final double sample : samples) {
+            squares += (sample - mean) * (sample - mean);
+        }
+        final double standardDeviation = Math.sqrt(squares / (n - 1));
+        // beyond the table the normal quantile is close enough
+        final double t = n - 1 <= T_QUANTILES.length ? T_QUANTILES[n - 2] : 1.96;
+        return t * standardDeviation / Math.sqrt(n);
+    }
+
     /**
      * Density (k) is defined as the number of vehicles per unit length of the
      * roadway. In traffic flow, the two most important densities are the
@@ -38,6 +68,22 @@ public class Statistics {
         return numAgents / roadwayLength;
     }
 
+    /**
+     * @param samples
+     *            the samples
+     * @return arithmetic mean, {@link Double#NaN} for no samples
+     */
+    public static double getMean(final double[] samples) {
+        if (samples.length == 0) {
+            return Double.NaN;
+        }
+        double sum = 0;
+        for (final double sample : samples) {
+            sum += sample;
+        }
+        return sum / samples.length;
+    }
+
     /**
      * Space mean speed is the speed measured by taking the whole roadway
      * segment into account. Consecutive pictures or video of a roadway segment
@@ -52,11 +98,16 @@ public class Statistics {
      *            agents
      * @return space mean speed
      */
-    public static double getSpaceMeanSpeed(Collection<Agent> agents) {
-        // only agents with positive velocities
-        agents = agents.stream().filter(x -> x.getVelocity() > 0).collect(Collectors.toList());
-        final int n = agents.size();
-        final double sum = agents.stream().mapToDouble(x -> 1.0 / x.getVelocity()).sum();
+    public static double getSpaceMeanSpeed(final Collection<Agent> agents) {
+        int n = 0;
+        double sum = 0;
+        for (final Agent agent : agents) {
+            // only agents with positive velocities
+            if (agent.getVelocity() > 0) {
+                n++;
+                sum += 1.0 / agent.getVelocity();
+            }
+        }
         if (sum == 0) {
             // avoid division by zero
             return 0;
@@ -82,7 +133,10 @@ public class Statistics {
      */
     public static double getTimeMeanSpeed(final Collection<Agent> agents) {
         final int n = agents.size();
-        final double sum = agents.stream().mapToDouble(Agent::getVelocity).sum();
+        double sum = 0;
+        for (final Agent agent : agents) {
+            sum += agent.getVelocity();
+        }
         if (n * sum == 0) {
             // avoid division by zero
             return 0;
@@ -0,0 +1,146 @@
+package ch.bfh.ti.jts.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.bfh.ti.jts.data.Agent;
+import ch.bfh.ti.jts.data.Lane;
+import ch.bfh.ti.jts.data.Net;
+import ch.bfh.ti.jts.exceptions.ArgumentNullException;
+import ch.bfh.ti.jts.simulation.engines.Engine;
+import ch.bfh.ti.jts.utils.Config;
+import ch.bfh.ti.jts.utils.Helpers;
+
+/**
+ * Chooses the duration of the next simulation step from the traffic state.
+ * Sparse traffic allows long steps, agents closing in on each other, fast
+ * agents on short lanes and hard accelerations force short ones. The step stays within
+ * [{@code simulation.step.min}, {@code simulation.step.max}]; both default to
+ * {@link Simulation#SIMULATION_STEP_DURATION}, which gives a fixed step.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class StepController {
+
+    private static final Logger log               = LogManager.getLogger(StepController.class);
+
+    /**
+     * Shortest step [s].
+     */
+    private static final double MIN_STEP          = Config.getInstance().getDouble("simulation.step.min", Simulation.SIMULATION_STEP_DURATION, 0.001, 3600.0);
+    /**
+     * Longest step [s].
+     */
+    private static final double MAX_STEP          = Config.getInstance().getDouble("simulation.step.max", Simulation.SIMULATION_STEP_DURATION, MIN_STEP, 3600.0);
+    /**
+     * Fraction of the gap to the agent in front an agent may close in one
+     * step.
+     */
+    private static final double HEADWAY_FRACTION  = Config.getInstance().getDouble("simulation.step.headway", 0.5, 0.01, 1.0);
+    /**
+     * Largest velocity change of an agent in one step [m/s].
+     */
+    private static final double MAX_VELOCITY_STEP = Config.getInstance().getDouble("simulation.step.velocity", 10.0, 0.01, 100.0);
+    /**
+     * Factor by which the step grows at most from one tick to the next. It
+     * shrinks immediately.
+     */
+    private static final double MAX_GROWTH        = Config.getInstance().getDouble("simulation.step.growth", 2.0, 1.0, 100.0);
+
+    private double              step              = Helpers.clamp(Simulation.SIMULATION_STEP_DURATION, MIN_STEP, MAX_STEP);
+    /**
+     * Agents of the lane being checked. Reused to avoid allocations.
+     */
+    private final List<Agent>   laneAgents        = new ArrayList<>();
+
+    /**
+     * Longest stable step for the agents on a lane.
+     */
+    private double getStableStep(final Lane lane) {
+        double stable = Double.MAX_VALUE;
+        Agent follower = null;
+        // from the start of the lane to its end
+        laneAgents.clear();
+        lane.collectAgentsInOrder(laneAgents);
+        for (final Agent agent : laneAgents) {
+            if (agent.isRemoveCandidate()) {
+                continue;
+            }
+            final double velocity = agent.getVelocity();
+            if (velocity > 0) {
+                // don't skip a lane
+                stable = Math.min(stable, lane.getLength() / velocity);
+            }
+            // don't jump in velocity, unless it is at its limit anyway
+            final double acceleration = agent.getAcceleration();
+            if (acceleration > 0 && velocity < agent.getVehicle().getMaxVelocity() || acceleration < 0 && velocity > agent.getVehicle().getMinVelocity()) {
+                stable = Math.min(stable, MAX_VELOCITY_STEP / Math.abs(acceleration));
+            }
+            // don't close in on the agent in front within one step
+            if (follower != null && follower.getVelocity() > velocity) {
+                final double gap = agent.getLanePosition() - follower.getLanePosition() - (agent.getVehicle().getLength() + follower.getVehicle().getLength()) / 2;
+                // overlapping agents collided already, a shorter step won't help
+                if (gap > 0) {
+                    stable = Math.min(stable, HEADWAY_FRACTION * gap / (follower.getVelocity() - velocity));
+                }
+            }
+            follower = agent;
+        }
+        return stable;
+    }
+
+    /**
+     * @return duration of the current step in [s]
+     */
+    public double getStep() {
+        return step;
+    }
+
+    /**
+     * @return {@code true} if the step is not fixed
+     */
+    public boolean isAdaptive() {
+        return MIN_STEP < MAX_STEP;
+    }
+
+    /**
+     * Restores a step, e.g. from a checkpoint.
+     *
+     * @param step
+     *            duration of the current step in [s], clamped to the bounds
+     */
+    public void setStep(final double step) {
+        this.step = Helpers.clamp(step, MIN_STEP, MAX_STEP);
+    }
+
+    /**
+     * Chooses the next step out of the committed state of a net.
+     *
+     * @param net
+     *            the net
+     * @param engine
+     *            the engine simulating the net, the step is the same for all
+     *            its processes
+     * @return duration of the next step in [s]
+     */
+    public double update(final Net net, final Engine engine) {
+        if (net == null) {
+            throw new ArgumentNullException("net");
+        }
+        if (!isAdaptive()) {
+            return step;
+        }
+        double stable = net.getElementStream(Lane.class).mapToDouble(x -> getStableStep((Lane) x)).min().orElse(Double.MAX_VALUE);
+        stable = engine.min(new double[] { stable })[0];
+        final double next = Helpers.clamp(Math.min(stable, step * MAX_GROWTH), MIN_STEP, MAX_STEP);
+        if (next != step) {
+            log.debug(String.format("Step %.3f s -> %.3f s", step, next));
+        }
+        step = next;
+        return step;
+    }
+}
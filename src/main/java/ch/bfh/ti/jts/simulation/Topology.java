@@ -0,0 +1,100 @@
+package ch.bfh.ti.jts.simulation;
+
+import java.awt.geom.Point2D;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import ch.bfh.ti.jts.data.Agent;
+import ch.bfh.ti.jts.data.Element;
+import ch.bfh.ti.jts.data.Lane;
+import ch.bfh.ti.jts.data.Net;
+import ch.bfh.ti.jts.exceptions.ArgumentNullException;
+import ch.bfh.ti.jts.gui.Renderable;
+import ch.bfh.ti.jts.utils.layers.Layers;
+
+/**
+ * Static part of a {@link Net}: junctions, edges and lanes with their
+ * geometry. Captured once after importing and shared by all the
+ * {@link AgentFrame}s of a simulation.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class Topology {
+
+    private final Net                net;
+    private final List<Element>      elements;
+    private final Map<Integer, Lane> lanes       = new HashMap<>();
+    private final Layers<Renderable> renderables = new Layers<>();
+
+    public Topology(final Net net) {
+        if (net == null) {
+            throw new ArgumentNullException("net");
+        }
+        this.net = net;
+        elements = Collections.unmodifiableList(net.getElementStream().filter(x -> !(x instanceof Agent)).sorted().collect(Collectors.toList()));
+        for (final Element element : elements) {
+            if (element instanceof Lane) {
+                lanes.put(element.getId(), (Lane) element);
+            }
+            if (element instanceof Renderable) {
+                final Renderable renderable = (Renderable) element;
+                renderables.addLayerable(renderable.getRenderLayer(), renderable);
+            }
+        }
+    }
+
+    /**
+     * Returns the static element that is nearest to a specified coordinate
+     * pair.
+     *
+     * @see Net#getElementByCoordinates(Point2D, double, Class)
+     */
+    public Optional<Element> getElementByCoordinates(final Point2D coordinates, final double maxDistance, final Class<?> type) {
+        Optional<Element> nearestElement = Optional.empty();
+        double minDistance = Double.MAX_VALUE;
+        for (final Element element : elements) {
+            if (type.isAssignableFrom(element.getClass())) {
+                final double distance = element.getDistance(coordinates);
+                if (distance <= maxDistance && distance < minDistance) {
+                    nearestElement = Optional.of(element);
+                    minDistance = distance;
+                }
+            }
+        }
+        return nearestElement;
+    }
+
+    /**
+     * @return all the static elements in ascending id order
+     */
+    public List<Element> getElements() {
+        return elements;
+    }
+
+    /**
+     * Gets a lane by its element id.
+     *
+     * @param laneId
+     *            the lane id
+     * @return the lane or {@code null} if there is none
+     */
+    public Lane getLane(final int laneId) {
+        return lanes.get(laneId);
+    }
+
+    public Net getNet() {
+        return net;
+    }
+
+    /**
+     * @return the static renderables (everything except agents)
+     */
+    public Layers<Renderable> getRenderable() {
+        return renderables;
+    }
+}
@@ -0,0 +1,221 @@
+package ch.bfh.ti.jts.simulation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.bfh.ti.jts.data.Vehicle;
+import ch.bfh.ti.jts.exceptions.ArgumentNullException;
+
+/**
+ * Reads a trace file written by {@link TraceWriter}. The file is memory mapped
+ * in segments of up to {@link TraceReader#SEGMENT_SIZE} bytes; opening it only
+ * indexes the records, frames are decoded on access. Thread safe.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class TraceReader implements AutoCloseable {
+
+    private static final Logger          log           = LogManager.getLogger(TraceReader.class);
+
+    /**
+     * Largest mapped segment [byte]. A single frame may exceed it.
+     */
+    private static final long            SEGMENT_SIZE  = 1L << 30;
+
+    private final FileChannel            channel;
+    private final String                 netName;
+    private final int                    elementCount;
+    private final List<Vehicle>          vehicles      = new ArrayList<>();
+    private final List<MappedByteBuffer> segments      = new ArrayList<>();
+    private int                          frameCount;
+    private int[]                        frameSegments = new int[1024];
+    private int[]                        frameOffsets  = new int[1024];
+    private double[]                     frameTimes    = new double[1024];
+
+    /**
+     * Opens and indexes a trace file.
+     *
+     * @param file
+     *            the file
+     * @throws IOException
+     *             if the file can't be read or has another format version
+     */
+    public TraceReader(final Path file) throws IOException {
+        if (file == null) {
+            throw new ArgumentNullException("file");
+        }
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            final ByteBuffer header = read(0, 3 * Integer.BYTES);
+            if (header.getInt() != TraceWriter.MAGIC) {
+                throw new IOException("not a trace: " + file);
+            }
+            final int version = header.getInt();
+            if (version != TraceWriter.VERSION) {
+                throw new IOException(String.format("trace version %d not supported, expected %d: %s", version, TraceWriter.VERSION, file));
+            }
+            final int nameLength = header.getInt();
+            final ByteBuffer name = read(header.limit(), nameLength + Integer.BYTES);
+            final byte[] nameBytes = new byte[nameLength];
+            name.get(nameBytes);
+            netName = new String(nameBytes, StandardCharsets.UTF_8);
+            elementCount = name.getInt();
+            index(header.limit() + name.limit());
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+        log.info(String.format("Trace %s: net %s, %d frames, %d vehicles, %d segments", file, netName, frameCount, vehicles.size(), segments.size()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Finds the latest frame at or before a time.
+     *
+     * @param time
+     *            simulation time [s]
+     * @return index of the frame, -1 if all the frames are later
+     */
+    public int floorIndex(final double time) {
+        int index = Arrays.binarySearch(frameTimes, 0, frameCount, time);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        return index;
+    }
+
+    /**
+     * @return number of elements of the traced topology
+     */
+    public int getElementCount() {
+        return elementCount;
+    }
+
+    /**
+     * Decodes a frame.
+     *
+     * @param index
+     *            index of the frame
+     * @param topology
+     *            topology of the traced net
+     * @return the frame
+     */
+    public AgentFrame getFrame(final int index, final Topology topology) {
+        if (index < 0 || index >= frameCount) {
+            throw new IndexOutOfBoundsException("index");
+        }
+        // own position, the segments are shared by all the readers
+        final ByteBuffer buffer = segments.get(frameSegments[index]).duplicate();
+        buffer.position(frameOffsets[index]);
+        return AgentFrame.read(topology, buffer, vehicles);
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public String getNetName() {
+        return netName;
+    }
+
+    /**
+     * @param index
+     *            index of the frame
+     * @return simulation time of the frame [s]
+     */
+    public double getTime(final int index) {
+        return frameTimes[index];
+    }
+
+    /**
+     * Walks all the records, decodes the vehicles and maps the segments.
+     */
+    private void index(final long start) throws IOException {
+        final long size = channel.size();
+        long segmentStart = start;
+        long position = start;
+        while (position + TraceWriter.RECORD_HEAD <= size) {
+            final ByteBuffer head = read(position, TraceWriter.RECORD_HEAD);
+            final byte type = head.get();
+            final int length = head.getInt();
+            final long end = position + TraceWriter.RECORD_HEAD + length;
+            if (length < 0 || end > size) {
+                log.warn("Trace cut off after " + frameCount + " frames");
+                break;
+            }
+            if (end - segmentStart > SEGMENT_SIZE && position > segmentStart) {
+                segments.add(channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, position - segmentStart));
+                segmentStart = position;
+            }
+            final long payload = position + TraceWriter.RECORD_HEAD;
+            switch (type) {
+                case TraceWriter.VEHICLE :
+                    vehicles.add(readVehicle(read(payload, length)));
+                    break;
+                case TraceWriter.FRAME :
+                    if (frameCount == frameTimes.length) {
+                        frameSegments = Arrays.copyOf(frameSegments, frameCount * 2);
+                        frameOffsets = Arrays.copyOf(frameOffsets, frameCount * 2);
+                        frameTimes = Arrays.copyOf(frameTimes, frameCount * 2);
+                    }
+                    frameSegments[frameCount] = segments.size();
+                    frameOffsets[frameCount] = (int) (payload - segmentStart);
+                    frameTimes[frameCount] = read(payload, Double.BYTES).getDouble();
+                    frameCount++;
+                    break;
+                default :
+                    throw new IOException("unknown record type: " + type);
+            }
+            position = end;
+        }
+        segments.add(channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, position - segmentStart));
+    }
+
+    /**
+     * Reads a part of the file.
+     *
+     * @return buffer with the part, flipped
+     */
+    private ByteBuffer read(final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of trace");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private Vehicle readVehicle(final ByteBuffer buffer) {
+        final double minAcceleration = buffer.getDouble();
+        final double maxAcceleration = buffer.getDouble();
+        final double minVelocity = buffer.getDouble();
+        final double maxVelocity = buffer.getDouble();
+        final double length = buffer.getDouble();
+        final int agentLength = buffer.getInt();
+        String agent = null;
+        if (agentLength >= 0) {
+            final byte[] agentBytes = new byte[agentLength];
+            buffer.get(agentBytes);
+            agent = new String(agentBytes, StandardCharsets.UTF_8);
+        }
+        return new Vehicle(minAcceleration, maxAcceleration, minVelocity, maxVelocity, length, agent);
+    }
+}
@@ -0,0 +1,177 @@
+package ch.bfh.ti.jts.simulation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.bfh.ti.jts.data.Vehicle;
+import ch.bfh.ti.jts.exceptions.ArgumentNullException;
+import ch.bfh.ti.jts.utils.Config;
+
+/**
+ * Appends the {@link AgentFrame} of each tick to a trace file, which
+ * {@link TraceReader} plays back later. Records are collected in a direct
+ * buffer and written in batches. Each record is a type byte, the length of
+ * its payload and the payload:
+ * <ul>
+ * <li>{@link TraceWriter#VEHICLE}: a vehicle seen for the first time,
+ * vehicles are numbered in the order of their records</li>
+ * <li>{@link TraceWriter#FRAME}: a frame, see
+ * {@link AgentFrame#write(java.nio.ByteBuffer, java.util.function.ToIntFunction)}</li>
+ * </ul>
+ * A trace cut off by a crash stays readable up to its last complete record.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class TraceWriter implements AutoCloseable {
+
+    private static final Logger         log         = LogManager.getLogger(TraceWriter.class);
+
+    /**
+     * Version of the file format. Increase with every incompatible change.
+     */
+    public static final int             VERSION     = 1;
+    /**
+     * "JTST"
+     */
+    static final int                    MAGIC       = 0x4A545354;
+    static final byte                   VEHICLE     = 1;
+    static final byte                   FRAME       = 2;
+    /**
+     * Type byte and payload length.
+     */
+    static final int                    RECORD_HEAD = Byte.BYTES + Integer.BYTES;
+
+    /**
+     * Size of the write buffer [byte]. Grows for frames which don't fit.
+     */
+    private static final int            BUFFER_SIZE = Config.getInstance().getInt("simulation.trace.buffer", 1 << 20, 1 << 10, 1 << 30);
+
+    private final Path                  file;
+    private final FileChannel           channel;
+    private final Map<Vehicle, Integer> vehicles    = new IdentityHashMap<>();
+    private ByteBuffer                  buffer      = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long                        frames;
+    private long                        bytes;
+
+    /**
+     * Creates or truncates a trace file.
+     *
+     * @param file
+     *            the file
+     * @param netName
+     *            name of the traced net
+     * @param topology
+     *            topology of the traced net
+     * @throws IOException
+     */
+    public TraceWriter(final Path file, final String netName, final Topology topology) throws IOException {
+        if (file == null) {
+            throw new ArgumentNullException("file");
+        }
+        if (netName == null) {
+            throw new ArgumentNullException("netName");
+        }
+        if (topology == null) {
+            throw new ArgumentNullException("topology");
+        }
+        this.file = file;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        final byte[] name = netName.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(name.length);
+        buffer.put(name);
+        buffer.putInt(topology.getElements().size());
+    }
+
+    /**
+     * Appends a frame. It reaches the file with one of the next batches.
+     *
+     * @param frame
+     *            the frame
+     * @throws IOException
+     */
+    public void append(final AgentFrame frame) throws IOException {
+        if (frame == null) {
+            throw new ArgumentNullException("frame");
+        }
+        for (int i = 0; i < frame.size(); i++) {
+            final Vehicle vehicle = frame.getVehicle(i);
+            if (!vehicles.containsKey(vehicle)) {
+                vehicles.put(vehicle, vehicles.size());
+                appendVehicle(vehicle);
+            }
+        }
+        final int length = AgentFrame.getEncodedSize(frame.size());
+        reserve(RECORD_HEAD + length);
+        buffer.put(FRAME);
+        buffer.putInt(length);
+        frame.write(buffer, vehicles::get);
+        frames++;
+    }
+
+    private void appendVehicle(final Vehicle vehicle) throws IOException {
+        final byte[] agent = vehicle.getAgent() == null ? null : vehicle.getAgent().getBytes(StandardCharsets.UTF_8);
+        final int length = 5 * Double.BYTES + Integer.BYTES + (agent == null ? 0 : agent.length);
+        reserve(RECORD_HEAD + length);
+        buffer.put(VEHICLE);
+        buffer.putInt(length);
+        buffer.putDouble(vehicle.getMinAcceleration());
+        buffer.putDouble(vehicle.getMaxAcceleration());
+        buffer.putDouble(vehicle.getMinVelocity());
+        buffer.putDouble(vehicle.getMaxVelocity());
+        buffer.putDouble(vehicle.getLength());
+        if (agent == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(agent.length);
+            buffer.put(agent);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+        log.info(String.format("Trace %s: %d frames, %d vehicles, %d bytes", file, frames, vehicles.size(), bytes));
+    }
+
+    /**
+     * Writes the buffered records to the file.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytes += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Makes room for a record, flushes the buffer if it is full.
+     */
+    private void reserve(final int size) throws IOException {
+        if (buffer.remaining() >= size) {
+            return;
+        }
+        flush();
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(size) << 1);
+        }
+    }
+}
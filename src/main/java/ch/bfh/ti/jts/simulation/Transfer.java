@@ -0,0 +1,35 @@
+package ch.bfh.ti.jts.simulation;
+
+import ch.bfh.ti.jts.data.Agent;
+import ch.bfh.ti.jts.data.Junction;
+import ch.bfh.ti.jts.data.Lane;
+
+/**
+ * Puts an agent that crossed a junction on its next lane. Engines which own
+ * lanes on different threads or processes replace the default to hand the
+ * agent over to the owner of the lane.
+ *
+ * @author Enteee
+ * @author winki
+ */
+@FunctionalInterface
+public interface Transfer {
+
+    /**
+     * Puts the agent directly on the lane.
+     */
+    static Transfer DIRECT = (junction, agent, lane) -> lane.addLaneAgent(agent);
+
+    /**
+     * Called after the agent left its last lane. {@link Agent#getLane()}
+     * already returns the new lane.
+     *
+     * @param junction
+     *            the crossed junction
+     * @param agent
+     *            the agent
+     * @param lane
+     *            the lane the agent enters
+     */
+    void transfer(final Junction junction, final Agent agent, final Lane lane);
+}
@@ -0,0 +1,315 @@
+package ch.bfh.ti.jts.simulation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.bfh.ti.jts.Handshake;
+import ch.bfh.ti.jts.data.Agent;
+import ch.bfh.ti.jts.data.Net;
+import ch.bfh.ti.jts.exceptions.ArgumentNullException;
+import ch.bfh.ti.jts.utils.Config;
+import ch.bfh.ti.jts.utils.deepcopy.DeepCopy;
+
+/**
+ * Evaluates what-if scenarios on forks of a running simulation. The dynamic
+ * state of the simulation is captured as a {@link Checkpoint} between two
+ * ticks, which takes a few milliseconds. Everything else runs on background
+ * workers. The net is copied once, on the first evaluation, and each worker
+ * copies that template once. A fork restores the checkpoint on the net of its
+ * worker, which replaces the state of the previous fork including the
+ * modification of its scenario, applies the modification of its own scenario
+ * and simulates up to a horizon. The copies keep the element ids of the
+ * simulated net, which the checkpoint refers to. The running simulation is
+ * neither stopped nor changed. A baseline fork without modification is
+ * simulated along, the results of the scenarios are compared against it.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class WhatIf implements AutoCloseable {
+
+    /**
+     * A modification of the net to evaluate.
+     */
+    public static class Scenario {
+
+        private final String        name;
+        private final Consumer<Net> modification;
+
+        /**
+         * @param name
+         *            name shown in the report
+         * @param modification
+         *            applied to the restored net of the fork, before the
+         *            first tick
+         */
+        public Scenario(final String name, final Consumer<Net> modification) {
+            if (name == null) {
+                throw new ArgumentNullException("name");
+            }
+            if (modification == null) {
+                throw new ArgumentNullException("modification");
+            }
+            this.name = name;
+            this.modification = modification;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Key figures of a fork, measured from the fork to the horizon.
+     */
+    public static class Result {
+
+        private final String name;
+        private final double meanSpeed;
+        private final double throughput;
+        private final double handshakeRate;
+        private final int    agents;
+
+        Result(final String name, final double meanSpeed, final double throughput, final double handshakeRate, final int agents) {
+            this.name = name;
+            this.meanSpeed = meanSpeed;
+            this.throughput = throughput;
+            this.handshakeRate = handshakeRate;
+            this.agents = agents;
+        }
+
+        /**
+         * @return agents in the net at the horizon
+         */
+        public int getAgents() {
+            return agents;
+        }
+
+        /**
+         * @return mean handshakes per agent and tick
+         */
+        public double getHandshakeRate() {
+            return handshakeRate;
+        }
+
+        /**
+         * @return mean speed of the agents over all ticks [m/s]
+         */
+        public double getMeanSpeed() {
+            return meanSpeed;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return agents reaching their destination [1/h]
+         */
+        public double getThroughput() {
+            return throughput;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.2f m/s, %.0f agents/h, %.4f handshakes/tick, %d agents", name, meanSpeed, throughput, handshakeRate, agents);
+        }
+    }
+
+    private static final Logger log          = LogManager.getLogger(WhatIf.class);
+
+    /**
+     * Number of forks simulated at the same time.
+     */
+    private static final int    THREADS      = Config.getInstance().getInt("simulation.whatif.threads", Runtime.getRuntime().availableProcessors(), 1, 1024);
+    /**
+     * Engine simulating the forks. Deterministic, so the differences between
+     * the forks come from the scenarios only.
+     */
+    private static final String ENGINE       = Config.getInstance().getValue("simulation.whatif.engine", "Buffered");
+    /**
+     * Ticks from one sampling of the handshake rate to the next.
+     */
+    private static final int    SAMPLE_TICKS = 20;
+    private static final String BASELINE     = "baseline";
+
+    /**
+     * Writes the results, each scenario with its difference to the baseline.
+     *
+     * @param results
+     *            the baseline first, then the scenarios
+     * @return one line per result
+     */
+    public static String report(final List<Result> results) {
+        if (results == null) {
+            throw new ArgumentNullException("results");
+        }
+        final StringBuilder report = new StringBuilder();
+        final Result baseline = results.isEmpty() ? null : results.get(0);
+        for (final Result result : results) {
+            if (report.length() > 0) {
+                report.append(System.lineSeparator());
+            }
+            report.append(result);
+            if (result != baseline) {
+                report.append(String.format(" (%+.1f%% speed, %+.1f%% throughput, %+.1f%% handshakes)", change(baseline.meanSpeed, result.meanSpeed),
+                        change(baseline.throughput, result.throughput), change(baseline.handshakeRate, result.handshakeRate)));
+            }
+        }
+        return report.toString();
+    }
+
+    private static double change(final double base, final double value) {
+        if (base == 0) {
+            return value == 0 ? 0.0 : Double.NaN;
+        }
+        return (value - base) / base * 100.0;
+    }
+
+    private final String           netName;
+    private final ExecutorService  executor;
+    /**
+     * Net the workers copy, without agents. Copied from the simulation on the
+     * first evaluation and read only afterwards.
+     */
+    private Net                    template;
+    /**
+     * Net of each worker, reused by all the forks on the worker.
+     */
+    private final ThreadLocal<Net> nets = new ThreadLocal<>();
+
+    /**
+     * Starts no threads and copies nothing until the first evaluation.
+     *
+     * @param netName
+     *            name of the simulated net
+     */
+    public WhatIf(final String netName) {
+        if (netName == null) {
+            throw new ArgumentNullException("netName");
+        }
+        this.netName = netName;
+        final AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(THREADS, r -> {
+            final Thread thread = new Thread(r, "whatif-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Forks the simulation and evaluates the scenarios. Call between two
+     * ticks, on the thread simulating.
+     *
+     * @param simulation
+     *            the running simulation, the same one on each call
+     * @param horizon
+     *            simulation time to simulate each fork for [s]
+     * @param scenarios
+     *            the scenarios
+     * @return the results, the baseline first, then the scenarios in the
+     *         given order
+     */
+    public CompletableFuture<List<Result>> evaluate(final Simulation simulation, final double horizon, final List<Scenario> scenarios) {
+        if (simulation == null) {
+            throw new ArgumentNullException("simulation");
+        }
+        if (scenarios == null) {
+            throw new ArgumentNullException("scenarios");
+        }
+        if (horizon <= 0) {
+            throw new IllegalArgumentException("horizon");
+        }
+        if (template == null) {
+            final Net net = DeepCopy.copy(simulation.getSimNet());
+            net.clearAgents();
+            template = net;
+        }
+        final Checkpoint checkpoint = Checkpoint.capture(netName, 0, Collections.emptyList(), simulation);
+        log.info(String.format("Forking %d scenarios at %.1f s, %d bytes of state", scenarios.size(), simulation.getSimNet().getSimulationTime(), checkpoint.getStateSize()));
+        final List<Scenario> all = new ArrayList<>(scenarios.size() + 1);
+        all.add(new Scenario(BASELINE, net -> {
+        }));
+        all.addAll(scenarios);
+        final List<CompletableFuture<Result>> forks = new ArrayList<>(all.size());
+        for (final Scenario scenario : all) {
+            forks.add(CompletableFuture.supplyAsync(() -> simulate(checkpoint, scenario, horizon), executor));
+        }
+        return CompletableFuture.allOf(forks.toArray(new CompletableFuture<?>[forks.size()])).thenApply(x -> {
+            final List<Result> results = new ArrayList<>(forks.size());
+            forks.forEach(fork -> results.add(fork.join()));
+            return results;
+        });
+    }
+
+    public String getNetName() {
+        return netName;
+    }
+
+    /**
+     * Simulates one fork, on a worker.
+     */
+    private Result simulate(final Checkpoint checkpoint, final Scenario scenario, final double horizon) {
+        Net net = nets.get();
+        if (net == null) {
+            net = DeepCopy.copy(template);
+            nets.set(net);
+        } else {
+            // the restore replaces the rest of the state of the last fork
+            net.clearAgents();
+        }
+        final Simulation fork = new Simulation(net);
+        fork.setRecordHistory(false);
+        fork.setWallClockPacing(false);
+        fork.setEngine(Simulation.createEngine(ENGINE));
+        try {
+            checkpoint.restore(fork);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        scenario.modification.accept(net);
+        final double start = net.getSimulationTime();
+        final long arrivals = net.getArrivals();
+        double speeds = 0.0;
+        double rates = 0.0;
+        int ticks = 0;
+        int samples = 0;
+        try {
+            while (net.getSimulationTime() - start < horizon) {
+                fork.tick();
+                ticks++;
+                final List<Agent> agents = net.getAgents();
+                if (!agents.isEmpty()) {
+                    speeds += Statistics.getTimeMeanSpeed(agents);
+                }
+                if (ticks % SAMPLE_TICKS == 0 && !agents.isEmpty()) {
+                    rates += Handshake.averageHandshakeRate(fork, SAMPLE_TICKS);
+                    samples++;
+                }
+            }
+        } finally {
+            fork.close();
+        }
+        final double elapsed = net.getSimulationTime() - start;
+        final Result result = new Result(scenario.getName(), ticks == 0 ? 0.0 : speeds / ticks, elapsed <= 0 ? 0.0 : (net.getArrivals() - arrivals) / elapsed * 3600.0, samples == 0 ? 0.0 : rates / samples,
+                net.getAgents().size());
+        log.info(String.format("Fork %s", result));
+        return result;
+    }
+}
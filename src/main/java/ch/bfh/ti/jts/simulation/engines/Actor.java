@@ -0,0 +1,236 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import ch.bfh.ti.jts.data.Agent;
+import ch.bfh.ti.jts.data.Edge;
+import ch.bfh.ti.jts.data.Junction;
+import ch.bfh.ti.jts.data.Lane;
+
+/**
+ * A junction together with its incoming edges and their lanes, simulated as
+ * one unit by the {@link ActorEngine}. Agents crossing the junction onto a
+ * lane of another actor are collected in one batch per target and posted to
+ * its mailbox when the step of this actor is done. An actor takes the agents
+ * out of its mailbox once its own step and the steps of all its upstream
+ * actors are done, so it never waits for parts of the net it isn't connected
+ * to.
+ *
+ * @author Enteee
+ * @author winki
+ */
+class Actor {
+
+    /**
+     * Agents handed from one actor to another in one step.
+     */
+    private static class Batch {
+
+        private final int         sender;
+        private final List<Agent> agents;
+
+        Batch(final int sender, final List<Agent> agents) {
+            this.sender = sender;
+            this.agents = agents;
+        }
+    }
+
+    private static final Comparator<Batch> BY_SENDER  = Comparator.comparingInt(batch -> batch.sender);
+
+    private final int                      index;
+    private final Junction                 junction;
+    private final List<Edge>               edges      = new ArrayList<>();
+    private final List<Lane>               lanes      = new ArrayList<>();
+    /**
+     * Actors owning the outgoing edges, in index order.
+     */
+    private final List<Actor>              downstream = new ArrayList<>();
+    /**
+     * Agents for each downstream actor, posted at the end of the step. Index:=
+     * index in {@link Actor#downstream}.
+     */
+    private final List<List<Agent>>        outbox     = new ArrayList<>();
+    private final Queue<Batch>             mailbox    = new ConcurrentLinkedQueue<>();
+    /**
+     * Steps which have to finish before the mailbox is emptied: the own one
+     * and the ones of the upstream actors simulated in this step.
+     */
+    private final AtomicInteger            pending    = new AtomicInteger();
+    /**
+     * Agents of the current step. Reused to avoid allocations.
+     */
+    private final List<Agent>              agents     = new ArrayList<>();
+    /**
+     * Agents of the lane being collected. Reused to avoid allocations.
+     */
+    private final List<Agent>              laneAgents = new ArrayList<>();
+    /**
+     * Number of steps whose agents this actor has received, its local clock.
+     */
+    private long                           clock;
+
+    Actor(final int index, final Junction junction) {
+        this.index = index;
+        this.junction = junction;
+        for (final Edge edge : junction.getIncomingEdges()) {
+            edges.add(edge);
+            lanes.addAll(edge.getLanes());
+        }
+    }
+
+    /**
+     * Adds a step this actor waits for before it empties its mailbox.
+     */
+    void await() {
+        pending.incrementAndGet();
+    }
+
+    /**
+     * Looks up the downstream actors.
+     *
+     * @param actors
+     *            all the actors, by junction
+     */
+    void connect(final Function<Junction, Actor> actors) {
+        junction.getOutgoingEdges().stream().map(edge -> actors.apply(edge.getEnd())).distinct().sorted(Comparator.comparingInt(Actor::getIndex)).forEach(actor -> {
+            downstream.add(actor);
+            outbox.add(new ArrayList<>());
+        });
+    }
+
+    /**
+     * Counts a finished step this actor waits for. The last one delivers the
+     * mailbox.
+     */
+    void countDown() {
+        if (pending.decrementAndGet() == 0) {
+            deliver();
+        }
+    }
+
+    /**
+     * Puts the agents of the mailbox on their lanes, in the order of the
+     * senders.
+     */
+    private void deliver() {
+        final List<Batch> batches = new ArrayList<>();
+        Batch batch;
+        while ((batch = mailbox.poll()) != null) {
+            batches.add(batch);
+        }
+        Collections.sort(batches, BY_SENDER);
+        for (final Batch received : batches) {
+            for (final Agent agent : received.agents) {
+                agent.getLane().addLaneAgent(agent);
+            }
+        }
+        clock++;
+    }
+
+    public long getClock() {
+        return clock;
+    }
+
+    public List<Actor> getDownstream() {
+        return downstream;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return number of batches posted to this actor and not delivered yet
+     */
+    public int getMailboxSize() {
+        return mailbox.size();
+    }
+
+    public Junction getJunction() {
+        return junction;
+    }
+
+    /**
+     * Hands an agent to another actor, it is put on its lane when the target
+     * empties its mailbox.
+     *
+     * @param target
+     *            actor owning {@link Agent#getLane()}
+     * @param agent
+     *            the agent
+     */
+    public void handOff(final Actor target, final Agent agent) {
+        final int position = downstream.indexOf(target);
+        if (position < 0) {
+            throw new IllegalArgumentException("target");
+        }
+        outbox.get(position).add(agent);
+    }
+
+    /**
+     * Posts one batch to each downstream actor which got agents.
+     *
+     * @return number of batches posted
+     */
+    int post() {
+        int posted = 0;
+        for (int i = 0; i < downstream.size(); i++) {
+            final List<Agent> batch = outbox.get(i);
+            if (!batch.isEmpty()) {
+                downstream.get(i).mailbox.add(new Batch(index, new ArrayList<>(batch)));
+                batch.clear();
+                posted++;
+            }
+        }
+        return posted;
+    }
+
+    /**
+     * Simulates the own part of the net for one step: agents, lanes, edges
+     * and the junction. Only touches data owned by this actor. Empty lanes
+     * are skipped.
+     *
+     * @param duration
+     *            duration to simulate in [s]
+     */
+    public void simulate(final double duration) {
+        agents.clear();
+        for (final Lane lane : lanes) {
+            if (!lane.isActive()) {
+                continue;
+            }
+            laneAgents.clear();
+            lane.collectAgentsInOrder(laneAgents);
+            for (final Agent agent : laneAgents) {
+                if (!agent.isRemoveCandidate()) {
+                    agents.add(agent);
+                }
+            }
+            for (final Agent agent : lane.getEdgeLeaveCandidates()) {
+                if (!agent.isRemoveCandidate()) {
+                    agents.add(agent);
+                }
+            }
+        }
+        agents.forEach(agent -> agent.step(duration));
+        agents.forEach(agent -> agent.commit());
+        agents.forEach(agent -> agent.handshake());
+        lanes.stream().filter(Lane::isActive).forEach(lane -> lane.simulate(duration));
+        edges.stream().filter(edge -> edge.getLanes().stream().anyMatch(Lane::hasAgents)).forEach(edge -> edge.simulate(duration));
+        if (lanes.stream().anyMatch(lane -> !lane.getEdgeLeaveCandidates().isEmpty())) {
+            junction.simulate(duration);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Actor{ index: %d, junction: %d, lanes: %d, downstream: %d }", index, junction.getId(), lanes.size(), downstream.size());
+    }
+}
@@ -0,0 +1,187 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.bfh.ti.jts.data.Agent;
+import ch.bfh.ti.jts.data.Junction;
+import ch.bfh.ti.jts.data.Lane;
+import ch.bfh.ti.jts.data.Net;
+import ch.bfh.ti.jts.simulation.Simulatable;
+import ch.bfh.ti.jts.simulation.Transfer;
+import ch.bfh.ti.jts.utils.Config;
+
+/**
+ * Simulates each junction with its incoming edges as an {@link Actor}. There
+ * are no barriers between the layers: an actor runs its whole step as one
+ * task on a dedicated {@link ForkJoinPool}, hands the agents crossing to other
+ * actors over in one batch per target and the target takes them in as soon
+ * as its upstream actors are done. Actors without agents are not scheduled at
+ * all. Only the {@link Net} itself (spawning, removing) waits for all the
+ * actors. Deterministic like the {@link BufferedEngine}, with the same
+ * results.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class ActorEngine implements Engine, AutoCloseable {
+
+    private static final Logger log         = LogManager.getLogger(ActorEngine.class);
+    private static final int    LANE_LAYER  = Simulatable.KNOWN_CLASSES.get(Lane.class);
+
+    /**
+     * Default number of workers running the actors.
+     */
+    private static final int    PARALLELISM = Config.getInstance().getInt("simulation.actors.parallelism", Runtime.getRuntime().availableProcessors(), 1, 1024);
+
+    /**
+     * Number of workers running the actors.
+     */
+    private final int                 parallelism;
+    private final ForkJoinPool        pool;
+    private final Workers             workers = new Workers("actor");
+    private final AtomicLong          batches = new AtomicLong();
+    private Net                       net;
+    private List<Actor>               actors;
+    private Map<Junction, Actor>      junctionActors;
+    private long                      ticks;
+    private long                      scheduled;
+
+    /**
+     * Runs the actors on {@code simulation.actors.parallelism} workers.
+     */
+    public ActorEngine() {
+        this(PARALLELISM);
+    }
+
+    /**
+     * @param parallelism
+     *            number of workers running the actors
+     */
+    public ActorEngine(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism");
+        }
+        this.parallelism = parallelism;
+        pool = new ForkJoinPool(parallelism, workers, null, false);
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+        if (ticks > 0) {
+            log.info(String.format("%.1f of %d actors scheduled per tick, %.1f batches per tick", (double) scheduled / ticks, actors.size(), (double) batches.get() / ticks));
+        }
+    }
+
+    private void connect(final Net net) {
+        final List<Junction> junctions = net.getElementStream(Junction.class).map(x -> (Junction) x).sorted().collect(Collectors.toList());
+        actors = new ArrayList<>(junctions.size());
+        junctionActors = new HashMap<>();
+        for (final Junction junction : junctions) {
+            final Actor actor = new Actor(actors.size(), junction);
+            actors.add(actor);
+            junctionActors.put(junction, actor);
+        }
+        actors.forEach(actor -> actor.connect(junctionActors::get));
+        this.net = net;
+        log.info(String.format("%d actors on %d workers", actors.size(), parallelism));
+    }
+
+    /**
+     * @return the actors in index order, {@code null} before the first step
+     */
+    List<Actor> getActors() {
+        return actors;
+    }
+
+    /**
+     * @return actors owning the active lanes, in index order
+     */
+    private List<Actor> getActive(final Net net) {
+        final Set<Actor> active = new LinkedHashSet<>();
+        for (final Object lane : net.getActiveSimulatables(LANE_LAYER)) {
+            active.add(junctionActors.get(((Lane) lane).getEdge().getEnd()));
+        }
+        final List<Actor> sorted = new ArrayList<>(active);
+        sorted.sort(Comparator.comparingInt(Actor::getIndex));
+        return sorted;
+    }
+
+    /**
+     * @return number of batches of agents posted to mailboxes so far
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return number of actor steps scheduled so far
+     */
+    public long getScheduled() {
+        return scheduled;
+    }
+
+    @Override
+    public long[] getWorkerIds() {
+        // the thinkables think on the common pool
+        return workers.getIds(true);
+    }
+
+    @Override
+    public void simulate(final Net net, final double duration) {
+        if (this.net != net) {
+            connect(net);
+        }
+        final List<Actor> active = getActive(net);
+        // each actor waits for itself and its active upstream actors
+        for (final Actor actor : active) {
+            actor.await();
+            actor.getDownstream().forEach(Actor::await);
+        }
+        net.setTransfer(this::transfer);
+        try {
+            final List<ForkJoinTask<?>> tasks = new ArrayList<>(active.size());
+            for (final Actor actor : active) {
+                tasks.add(ForkJoinTask.adapt(() -> {
+                    actor.simulate(duration);
+                    batches.addAndGet(actor.post());
+                    actor.countDown();
+                    actor.getDownstream().forEach(Actor::countDown);
+                }));
+            }
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        } finally {
+            net.setTransfer(Transfer.DIRECT);
+        }
+        net.simulate(duration);
+        ticks++;
+        scheduled += active.size();
+    }
+
+    /**
+     * Puts an agent on a lane of the same actor directly, otherwise hands it
+     * to the actor of the lane.
+     */
+    private void transfer(final Junction junction, final Agent agent, final Lane lane) {
+        final Actor source = junctionActors.get(junction);
+        final Actor target = junctionActors.get(lane.getEdge().getEnd());
+        if (source == target) {
+            lane.addLaneAgent(agent);
+        } else {
+            source.handOff(target, agent);
+        }
+    }
+}
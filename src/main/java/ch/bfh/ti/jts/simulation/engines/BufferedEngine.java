@@ -0,0 +1,56 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import ch.bfh.ti.jts.data.Agent;
+import ch.bfh.ti.jts.data.Net;
+import ch.bfh.ti.jts.simulation.Simulatable;
+import ch.bfh.ti.jts.utils.layers.Layers;
+
+/**
+ * Deterministic engine. The result of a step does not depend on the number of
+ * threads or their interleaving:
+ * <ul>
+ * <li>Thinking only reads the committed state of the last step and only writes
+ * the own decision.</li>
+ * <li>Agents read their committed state and write the next state into a buffer
+ * ({@link Agent#step(double)}). All the buffers are swapped at once
+ * ({@link Agent#commit()}) before any agent looks at its neighbours again.</li>
+ * <li>Lanes, edges and junctions only write the data they own: a lane its
+ * agents, an edge its lanes and a junction its outgoing lanes.</li>
+ * </ul>
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class BufferedEngine implements Engine {
+
+    private static final int AGENT_LAYER = Simulatable.KNOWN_CLASSES.get(Agent.class);
+
+    @Override
+    public void simulate(final Net net, final double duration) {
+        final Layers<Simulatable> simulatables = net.getSimulatable();
+        for (final int layer : simulatables.getLayersIterator()) {
+            if (layer == AGENT_LAYER) {
+                final List<Agent> agents = simulatables.getLayerStream(layer).map(x -> (Agent) x).collect(Collectors.toList());
+                // read committed state, write next state
+                agents.parallelStream().forEach(agent -> {
+                    agent.step(duration);
+                });
+                // swap
+                agents.parallelStream().forEach(agent -> {
+                    agent.commit();
+                });
+                // all the neighbours are moved now
+                agents.parallelStream().forEach(agent -> {
+                    agent.handshake();
+                });
+            } else {
+                net.getActiveSimulatables(layer).parallelStream().forEach(e -> {
+                    e.simulate(duration);
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,646 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.bfh.ti.jts.data.Agent;
+import ch.bfh.ti.jts.data.Edge;
+import ch.bfh.ti.jts.data.Junction;
+import ch.bfh.ti.jts.data.Lane;
+import ch.bfh.ti.jts.data.Net;
+import ch.bfh.ti.jts.data.SpawnInfo;
+import ch.bfh.ti.jts.exceptions.ArgumentNullException;
+import ch.bfh.ti.jts.utils.Config;
+import ch.bfh.ti.jts.utils.SplitMix64;
+import ch.bfh.ti.jts.utils.graph.GPS;
+
+/**
+ * Fast mode for very large scenarios: the vehicles are no agents but cells of
+ * a Nagel-Schreckenberg cellular automaton. Each lane is cut into cells of
+ * {@code simulation.cellular.cell} meters, one bit per cell tells whether it
+ * is occupied, the speeds are bytes in cells per update. An update every
+ * {@code simulation.cellular.step} seconds of simulation time accelerates
+ * each vehicle by one cell up to the speed limit of its lane and vehicle,
+ * slows it down to the free cells ahead, lets it dawdle by one cell with
+ * probability {@code simulation.cellular.dawdle} and moves all vehicles at
+ * once.
+ * <p>
+ * The routes and flows of the net are spawned by the net, see
+ * {@link Net#setSpawner(java.util.function.Consumer)}, at the departure cell
+ * or the nearest free cell behind or else in front of it. A vehicle at the
+ * end of a lane crosses the junction like an agent: it arrives at its
+ * destination, or takes the lane connected to it by {@link Lane#getLanes()}
+ * on the next edge the GPS gives. Agents in the net when the engine takes
+ * over become vehicles.
+ * <p>
+ * Handshakes are taken from the cells: in each update every vehicle counts
+ * the vehicles on its lane within {@code simulation.cellular.handshake}
+ * meters. These are contacts per update, not neighbor sets as kept by agents,
+ * and there are no agents to render or to think. The dawdling is drawn from
+ * the seed of the net by update and vehicle, the lanes are updated in
+ * parallel and the results don't depend on the threads.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class CellularEngine implements Engine, AutoCloseable {
+
+    private static final Logger log        = LogManager.getLogger(CellularEngine.class);
+
+    /**
+     * Length of a cell [m].
+     */
+    private static final double CELL       = Config.getInstance().getDouble("simulation.cellular.cell", 7.5, 0.1, 1000.0);
+    /**
+     * Simulation time between two updates [s].
+     */
+    private static final double STEP       = Config.getInstance().getDouble("simulation.cellular.step", 1.0, 0.001, 3600.0);
+    /**
+     * Probability of a vehicle to slow down by one cell per update.
+     */
+    private static final double DAWDLE     = Config.getInstance().getDouble("simulation.cellular.dawdle", 0.2, 0.0, 1.0);
+    /**
+     * Vehicles spawned per vehicle of the routes and flows.
+     */
+    private static final double DEMAND     = Config.getInstance().getDouble("simulation.cellular.demand", 1.0, 0.0, 1000.0);
+    /**
+     * Cells in front of and behind a vehicle it shakes hands with.
+     */
+    private static final int    RANGE      = (int) Math.ceil(Config.getInstance().getDouble("simulation.cellular.handshake", 250.0, 0.0, 100000.0) / CELL);
+    private static final int    MAX_SPEED  = Byte.MAX_VALUE;
+    /**
+     * Next lane of a vehicle not chosen yet.
+     */
+    private static final int    UNDECIDED  = -1;
+    /**
+     * Next lane of a vehicle arriving at the end of its lane.
+     */
+    private static final int    ARRIVE     = -2;
+    /**
+     * Next lane of a vehicle without a way on at the end of its lane.
+     */
+    private static final int    LEAVE      = -3;
+    /**
+     * Next lane of a vehicle waiting for a closed lane.
+     */
+    private static final int    WAIT       = -4;
+
+    private Net                 net;
+    private GPS<Junction, Edge> gps;
+    /**
+     * Seed of the dawdling.
+     */
+    private long                seed;
+    /**
+     * Simulation time not updated yet [s].
+     */
+    private double              pending;
+    /**
+     * Vehicles to spawn, the fraction left over by the demand factor.
+     */
+    private double              demand;
+
+    // lanes, index: by lane id
+    private Lane[]              lanes;
+    private Map<Lane, Integer>  laneIndexes;
+    /**
+     * Index of the first word of a lane in {@link CellularEngine#occupied}.
+     * The lanes start at word boundaries.
+     */
+    private int[]               laneWords;
+    private int[]               laneCells;
+    /**
+     * Speed limit [cells per update].
+     */
+    private byte[]              laneSpeeds;
+    /**
+     * Indexes of the lanes connected over the end junction.
+     */
+    private int[][]             laneSuccessors;
+    /**
+     * Vehicle leaving a lane in the current update, -1 for none.
+     */
+    private int[]               crossings;
+
+    // cells, index: 64 * word of the lane + cell on the lane
+    private long[]              occupied;
+    /**
+     * Vehicle in an occupied cell.
+     */
+    private int[]               cellVehicles;
+
+    // vehicles, index: slot
+    private int[]               vehicleIds;
+    /**
+     * Junction the vehicle drives to, {@code null} to drive anywhere.
+     */
+    private Junction[]          vehicleDestinations;
+    private byte[]              vehicleSpeeds;
+    private byte[]              vehicleMaxSpeeds;
+    /**
+     * Lane taken at the end of the current lane, or one of
+     * {@link CellularEngine#UNDECIDED}, {@link CellularEngine#ARRIVE},
+     * {@link CellularEngine#LEAVE}, {@link CellularEngine#WAIT}.
+     */
+    private int[]               vehicleNextLanes;
+    private int[]               freeSlots;
+    private int                 freeSlotCount;
+    private int                 slotCount;
+
+    private int                 vehicles;
+    private int                 nextVehicleId;
+    private long                updates;
+    private long                vehicleUpdates;
+    private long                contacts;
+    /**
+     * Cells moved by all the vehicles.
+     */
+    private long                distance;
+    private long                arrivals;
+    private long                left;
+    private long                blocked;
+    private long                nanos;
+
+    private int addVehicle(final int cell, final int speed, final int maxSpeed, final Junction destination) {
+        final int slot;
+        if (freeSlotCount > 0) {
+            slot = freeSlots[--freeSlotCount];
+        } else {
+            if (slotCount == vehicleIds.length) {
+                final int capacity = slotCount * 2;
+                vehicleIds = Arrays.copyOf(vehicleIds, capacity);
+                vehicleDestinations = Arrays.copyOf(vehicleDestinations, capacity);
+                vehicleSpeeds = Arrays.copyOf(vehicleSpeeds, capacity);
+                vehicleMaxSpeeds = Arrays.copyOf(vehicleMaxSpeeds, capacity);
+                vehicleNextLanes = Arrays.copyOf(vehicleNextLanes, capacity);
+                freeSlots = Arrays.copyOf(freeSlots, capacity);
+            }
+            slot = slotCount++;
+        }
+        vehicleIds[slot] = nextVehicleId++;
+        vehicleDestinations[slot] = destination;
+        vehicleMaxSpeeds[slot] = (byte) maxSpeed;
+        vehicleSpeeds[slot] = (byte) Math.min(speed, maxSpeed);
+        vehicleNextLanes[slot] = UNDECIDED;
+        occupied[cell >>> 6] |= 1L << cell;
+        cellVehicles[cell] = slot;
+        vehicles++;
+        return slot;
+    }
+
+    /**
+     * First phase of an update: the speeds of the vehicles on a lane, out of
+     * the cells before the update.
+     *
+     * @return contacts of the vehicles on the lane
+     */
+    private long accelerate(final int lane, final long updateSeed, final long dawdle) {
+        final int first = laneWords[lane] << 6;
+        final int cells = laneCells[lane];
+        long laneContacts = 0;
+        // cell of the vehicle in front, cells after the lane are free up to the next lane
+        int ahead = -1;
+        for (int cell = previousSetBit(first + cells - 1, first); cell >= 0; cell = previousSetBit(cell - 1, first)) {
+            final int slot = cellVehicles[cell];
+            int speed = Math.min(vehicleSpeeds[slot] + 1, Math.min(vehicleMaxSpeeds[slot], laneSpeeds[lane]));
+            int gap;
+            if (ahead >= 0) {
+                gap = ahead - cell - 1;
+            } else {
+                gap = first + cells - 1 - cell;
+                if (speed > gap) {
+                    gap += getEntryGap(lane, slot);
+                }
+            }
+            speed = Math.min(speed, gap);
+            if (speed > 0 && dawdle > 0 && SplitMix64.valueAt(updateSeed, vehicleIds[slot]) >>> 11 < dawdle) {
+                speed--;
+            }
+            vehicleSpeeds[slot] = (byte) speed;
+            if (RANGE > 0) {
+                laneContacts += countSetBits(Math.max(first, cell - RANGE), Math.min(first + cells - 1, cell + RANGE)) - 1;
+            }
+            ahead = cell;
+        }
+        return laneContacts;
+    }
+
+    @Override
+    public void close() {
+        if (net != null) {
+            net.setSpawner(null);
+        }
+        if (updates > 0) {
+            log.info(String.format("%d updates, %d vehicle updates in %.3f s: %.0f vehicle updates/s", updates, vehicleUpdates, nanos / 1e9, getUpdateRate()));
+            log.info(String.format("%d vehicles, %d arrived, %d left the net, %d spawns blocked, mean speed %.2f m/s, %.2f contacts per vehicle and update", vehicles, arrivals, left,
+                    blocked, getMeanSpeed(), getContactRate()));
+        }
+    }
+
+    private void connect(final Net net) {
+        if (this.net != null) {
+            this.net.setSpawner(null);
+        }
+        final List<Lane> laneList = net.getElementStream(Lane.class).map(x -> (Lane) x).sorted(Comparator.comparingInt(Lane::getId)).collect(Collectors.toList());
+        lanes = laneList.toArray(new Lane[laneList.size()]);
+        laneIndexes = new IdentityHashMap<>();
+        laneWords = new int[lanes.length];
+        laneCells = new int[lanes.length];
+        laneSpeeds = new byte[lanes.length];
+        laneSuccessors = new int[lanes.length][];
+        crossings = new int[lanes.length];
+        Arrays.fill(crossings, -1);
+        int words = 0;
+        for (int i = 0; i < lanes.length; i++) {
+            final Lane lane = lanes[i];
+            laneIndexes.put(lane, i);
+            laneWords[i] = words;
+            laneCells[i] = Math.max(1, (int) (lane.getLength() / CELL));
+            laneSpeeds[i] = (byte) (lane.getSpeed() > 0 ? Math.max(1, toCells(lane.getSpeed())) : MAX_SPEED);
+            words += (laneCells[i] + 63) >>> 6;
+        }
+        for (int i = 0; i < lanes.length; i++) {
+            laneSuccessors[i] = lanes[i].getLanes().stream().mapToInt(laneIndexes::get).toArray();
+        }
+        occupied = new long[words];
+        cellVehicles = new int[words << 6];
+        final int capacity = 1024;
+        vehicleIds = new int[capacity];
+        vehicleDestinations = new Junction[capacity];
+        vehicleSpeeds = new byte[capacity];
+        vehicleMaxSpeeds = new byte[capacity];
+        vehicleNextLanes = new int[capacity];
+        freeSlots = new int[capacity];
+        freeSlotCount = 0;
+        slotCount = 0;
+        vehicles = 0;
+        nextVehicleId = 0;
+        pending = 0;
+        demand = 0;
+        seed = net.getRandom().nextLong();
+        gps = net.getGPS();
+        // the agents so far go on as vehicles
+        final List<Agent> agents = net.getElementStream(Agent.class).map(x -> (Agent) x).filter(x -> x.getLane() != null).sorted(Comparator.comparingInt(Agent::getId))
+                .collect(Collectors.toList());
+        for (final Agent agent : agents) {
+            final Integer lane = laneIndexes.get(agent.getLane());
+            final SpawnInfo spawnInfo = agent.getSpawnInfo();
+            place(lane, agent.getLanePosition(), agent.getVelocity(), agent.getVehicle().getMaxVelocity(), spawnInfo == null ? null : spawnInfo.getEndJunction());
+        }
+        net.clearAgents();
+        net.setSpawner(this::spawn);
+        this.net = net;
+        log.info(String.format("%d lanes cut into %d cells of %.1f m, %d agents taken over as vehicles", lanes.length, Arrays.stream(laneCells).sum(), CELL, vehicles));
+    }
+
+    /**
+     * @return number of occupied cells in a range, both ends included
+     */
+    private int countSetBits(final int from, final int to) {
+        final int firstWord = from >>> 6;
+        final int lastWord = to >>> 6;
+        final long firstMask = -1L << from;
+        final long lastMask = -1L >>> 63 - (to & 63);
+        if (firstWord == lastWord) {
+            return Long.bitCount(occupied[firstWord] & firstMask & lastMask);
+        }
+        int count = Long.bitCount(occupied[firstWord] & firstMask);
+        for (int word = firstWord + 1; word < lastWord; word++) {
+            count += Long.bitCount(occupied[word]);
+        }
+        return count + Long.bitCount(occupied[lastWord] & lastMask);
+    }
+
+    /**
+     * Third phase of an update: moves the vehicle at the front of a lane over
+     * the junction, onto the next lane as far as the cells there are free.
+     */
+    private void cross(final int lane, final int slot) {
+        final int first = laneWords[lane] << 6;
+        final int cells = laneCells[lane];
+        final int cell = previousSetBit(first + cells - 1, first);
+        final int speed = vehicleSpeeds[slot];
+        final int next = vehicleNextLanes[slot];
+        if (next == ARRIVE || next == LEAVE) {
+            removeVehicle(cell, slot);
+            if (next == ARRIVE) {
+                arrivals++;
+            } else {
+                left++;
+            }
+            return;
+        }
+        final int nextFirst = laneWords[next] << 6;
+        final int nextCells = laneCells[next];
+        final int blocker = nextSetBit(nextFirst, nextFirst + nextCells);
+        final int target = Math.min(cell + speed - first - cells, (blocker < 0 ? nextCells : blocker - nextFirst) - 1);
+        occupied[cell >>> 6] &= ~(1L << cell);
+        if (target < 0) {
+            // entered by another vehicle in this update: wait at the end of the lane
+            final int end = first + cells - 1;
+            occupied[end >>> 6] |= 1L << end;
+            cellVehicles[end] = slot;
+            vehicleSpeeds[slot] = (byte) (end - cell);
+            distance -= speed - (end - cell);
+            return;
+        }
+        final int nextCell = nextFirst + target;
+        occupied[nextCell >>> 6] |= 1L << nextCell;
+        cellVehicles[nextCell] = slot;
+        final int moved = first + cells - cell + target;
+        vehicleSpeeds[slot] = (byte) moved;
+        distance -= speed - moved;
+        vehicleNextLanes[slot] = UNDECIDED;
+    }
+
+    /**
+     * Cells free behind the end of a lane for the vehicle at its front: up to
+     * the first vehicle on the lane it takes next, or all the way if it
+     * leaves the net. Chooses the next lane if not done yet.
+     */
+    private int getEntryGap(final int lane, final int slot) {
+        int next = vehicleNextLanes[slot];
+        if (next == UNDECIDED || next == WAIT || next >= 0 && lanes[next].isClosed()) {
+            next = route(lane, vehicleDestinations[slot]);
+            vehicleNextLanes[slot] = next;
+        }
+        if (next == ARRIVE || next == LEAVE) {
+            return MAX_SPEED;
+        }
+        if (next == WAIT) {
+            return 0;
+        }
+        final int nextFirst = laneWords[next] << 6;
+        final int blocker = nextSetBit(nextFirst, nextFirst + laneCells[next]);
+        return blocker < 0 ? laneCells[next] : blocker - nextFirst;
+    }
+
+    public long getArrivals() {
+        return arrivals;
+    }
+
+    public long getBlocked() {
+        return blocked;
+    }
+
+    /**
+     * @return mean number of vehicles within handshake range of a vehicle in
+     *         an update
+     */
+    public double getContactRate() {
+        return vehicleUpdates == 0 ? Double.NaN : (double) contacts / vehicleUpdates;
+    }
+
+    public long getContacts() {
+        return contacts;
+    }
+
+    public long getLeft() {
+        return left;
+    }
+
+    /**
+     * @return mean speed of the vehicles over all the updates [m/s]
+     */
+    public double getMeanSpeed() {
+        return vehicleUpdates == 0 ? Double.NaN : distance * CELL / (vehicleUpdates * STEP);
+    }
+
+    /**
+     * @return vehicle updates per second of wall clock time spent updating
+     */
+    public double getUpdateRate() {
+        return nanos == 0 ? Double.NaN : vehicleUpdates / (nanos / 1e9);
+    }
+
+    public long getUpdates() {
+        return updates;
+    }
+
+    public long getVehicleUpdates() {
+        return vehicleUpdates;
+    }
+
+    public int getVehicles() {
+        return vehicles;
+    }
+
+    /**
+     * Second phase of an update: moves the vehicles on a lane by their speed.
+     * The vehicle at the front leaving the lane is left for
+     * {@link CellularEngine#cross(int, int)}.
+     *
+     * @return cells moved by the vehicles on the lane
+     */
+    private long move(final int lane) {
+        final int first = laneWords[lane] << 6;
+        final int end = first + laneCells[lane];
+        long moved = 0;
+        crossings[lane] = -1;
+        for (int cell = previousSetBit(end - 1, first); cell >= 0; cell = previousSetBit(cell - 1, first)) {
+            final int slot = cellVehicles[cell];
+            final int speed = vehicleSpeeds[slot];
+            moved += speed;
+            if (speed == 0) {
+                continue;
+            }
+            final int target = cell + speed;
+            if (target >= end) {
+                crossings[lane] = slot;
+                continue;
+            }
+            occupied[cell >>> 6] &= ~(1L << cell);
+            occupied[target >>> 6] |= 1L << target;
+            cellVehicles[target] = slot;
+        }
+        return moved;
+    }
+
+    /**
+     * @return first occupied cell in [from, to), -1 if there is none
+     */
+    private int nextSetBit(final int from, final int to) {
+        int word = from >>> 6;
+        long bits = occupied[word] & -1L << from;
+        while (true) {
+            if (bits != 0) {
+                final int cell = (word << 6) + Long.numberOfTrailingZeros(bits);
+                return cell < to ? cell : -1;
+            }
+            if (++word << 6 >= to) {
+                return -1;
+            }
+            bits = occupied[word];
+        }
+    }
+
+    /**
+     * @return first free cell in [from, to), -1 if there is none
+     */
+    private int nextClearBit(final int from, final int to) {
+        for (int cell = from; cell < to; cell++) {
+            if ((occupied[cell >>> 6] & 1L << cell) == 0) {
+                return cell;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Puts a vehicle on a lane, in the cell of the position or the nearest
+     * free cell behind it, if there is none the nearest one in front of it.
+     */
+    private void place(final int lane, final double position, final double velocity, final double maxVelocity, final Junction destination) {
+        final int first = laneWords[lane] << 6;
+        final int departure = first + Math.max(0, Math.min(laneCells[lane] - 1, (int) (position / CELL)));
+        int cell = previousClearBit(departure, first);
+        if (cell < 0) {
+            cell = nextClearBit(departure, first + laneCells[lane]);
+        }
+        if (cell < 0) {
+            blocked++;
+            return;
+        }
+        addVehicle(cell, toCells(velocity), Math.max(1, toCells(maxVelocity)), destination);
+    }
+
+    /**
+     * @return last free cell in [to, from], -1 if there is none
+     */
+    private int previousClearBit(final int from, final int to) {
+        for (int cell = from; cell >= to; cell--) {
+            if ((occupied[cell >>> 6] & 1L << cell) == 0) {
+                return cell;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return last occupied cell in [to, from], -1 if there is none
+     */
+    private int previousSetBit(final int from, final int to) {
+        if (from < to) {
+            return -1;
+        }
+        int word = from >>> 6;
+        long bits = occupied[word] & -1L >>> 63 - (from & 63);
+        while (true) {
+            if (bits != 0) {
+                final int cell = (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+                return cell >= to ? cell : -1;
+            }
+            if (word-- << 6 <= to) {
+                return -1;
+            }
+            bits = occupied[word];
+        }
+    }
+
+    private void removeVehicle(final int cell, final int slot) {
+        occupied[cell >>> 6] &= ~(1L << cell);
+        vehicleDestinations[slot] = null;
+        freeSlots[freeSlotCount++] = slot;
+        vehicles--;
+    }
+
+    /**
+     * Chooses the lane after the end of a lane: the one connected to it on
+     * the next edge to the destination, otherwise the first open one
+     * connected, like {@link Edge#getDefaultLane(Lane)}.
+     */
+    private int route(final int lane, final Junction destination) {
+        final Junction junction = lanes[lane].getEdge().getEnd();
+        if (destination != null && destination.equals(junction)) {
+            return ARRIVE;
+        }
+        final int[] successors = laneSuccessors[lane];
+        if (successors.length == 0) {
+            return LEAVE;
+        }
+        if (destination != null) {
+            final Edge edge = gps.getNextEdge(junction, destination).orElse(null);
+            for (final int next : successors) {
+                if (lanes[next].getEdge() == edge && !lanes[next].isClosed()) {
+                    return next;
+                }
+            }
+        }
+        for (final int next : successors) {
+            if (!lanes[next].isClosed()) {
+                return next;
+            }
+        }
+        return WAIT;
+    }
+
+    @Override
+    public void simulate(final Net net, final double duration) {
+        if (this.net != net) {
+            connect(net);
+        }
+        // advances the time and spawns the vehicles due
+        net.simulate(duration);
+        pending += duration;
+        while (pending >= STEP * (1 - 1e-9)) {
+            pending -= STEP;
+            update();
+        }
+    }
+
+    /**
+     * Spawns the vehicles of a route or flow due, see
+     * {@link Net#setSpawner(java.util.function.Consumer)}.
+     */
+    private void spawn(final SpawnInfo spawnInfo) {
+        final Lane lane = spawnInfo.getStart().getSpawnLane();
+        if (lane == null) {
+            throw new ArgumentNullException("lane");
+        }
+        if (lane.isClosed()) {
+            return;
+        }
+        demand += DEMAND;
+        for (; demand >= 1; demand--) {
+            place(laneIndexes.get(lane), spawnInfo.getDeparturePos(), spawnInfo.getDepartureSpeed(), spawnInfo.getVehicle().getMaxVelocity(), spawnInfo.getEndJunction());
+        }
+    }
+
+    @Override
+    public void think(final Net net, final double duration) {
+        // vehicles follow the rules of the automaton
+    }
+
+    /**
+     * @return a speed in cells per update
+     */
+    private int toCells(final double velocity) {
+        return (int) Math.max(0, Math.min(MAX_SPEED, Math.round(velocity * STEP / CELL)));
+    }
+
+    private void update() {
+        final long start = System.nanoTime();
+        final long updateSeed = SplitMix64.valueAt(seed, updates);
+        final long dawdle = (long) (DAWDLE * (1L << 53));
+        final int moving = vehicles;
+        contacts += IntStream.range(0, lanes.length).parallel().mapToLong(lane -> accelerate(lane, updateSeed, dawdle)).sum();
+        distance += IntStream.range(0, lanes.length).parallel().mapToLong(this::move).sum();
+        // in lane order, a vehicle entering a lane first gets the free cells
+        for (int lane = 0; lane < lanes.length; lane++) {
+            if (crossings[lane] >= 0) {
+                cross(lane, crossings[lane]);
+            }
+        }
+        vehicleUpdates += moving;
+        updates++;
+        nanos += System.nanoTime() - start;
+    }
+}
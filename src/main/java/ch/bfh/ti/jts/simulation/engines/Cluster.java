@@ -0,0 +1,303 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.bfh.ti.jts.exceptions.ArgumentNullException;
+
+/**
+ * Connections between the processes of a distributed simulation. Star
+ * topology over loopback TCP: process 0 (the hub) accepts a connection of
+ * every other process and routes all the messages. Every method is a
+ * collective operation and doubles as barrier: all the processes must call
+ * the same methods in the same order.
+ *
+ * @author Enteee
+ * @author winki
+ */
+class Cluster implements Closeable {
+
+    private static final Logger log             = LogManager.getLogger(Cluster.class);
+    private static final byte   EXCHANGE        = 1;
+    private static final byte   REDUCE          = 2;
+    private static final byte   GATHER          = 3;
+    /**
+     * Time [ms] a process waits for the hub to come up.
+     */
+    private static final long   CONNECT_TIMEOUT = 30000;
+    /**
+     * Time [ms] the hub waits for all the other processes to connect.
+     */
+    private static final long   ACCEPT_TIMEOUT  = 300000;
+    /**
+     * Time [ms] between two checks of the started processes while accepting.
+     */
+    private static final int    ACCEPT_POLL     = 500;
+
+    /**
+     * Accepts the next process, checking the started processes in between.
+     */
+    private static Socket accept(final ServerSocket server, final long deadline, final Collection<Process> children) throws IOException {
+        while (true) {
+            try {
+                return server.accept();
+            } catch (final SocketTimeoutException e) {
+                for (final Process child : children) {
+                    if (!child.isAlive()) {
+                        throw new IOException("process exited with " + child.exitValue() + " before connecting");
+                    }
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("processes did not connect within " + ACCEPT_TIMEOUT + " ms");
+                }
+            }
+        }
+    }
+
+    private static void expect(final DataInputStream in, final byte tag) throws IOException {
+        final byte read = in.readByte();
+        if (read != tag) {
+            throw new IOException(String.format("protocol error: expected %d got %d", tag, read));
+        }
+    }
+
+    private static List<byte[]> readPayloads(final DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        final List<byte[]> payloads = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            payloads.add(payload);
+        }
+        return payloads;
+    }
+
+    private static void writePayloads(final DataOutputStream out, final List<byte[]> payloads) throws IOException {
+        out.writeInt(payloads.size());
+        for (final byte[] payload : payloads) {
+            out.writeInt(payload.length);
+            out.write(payload);
+        }
+    }
+
+    private final int                rank;
+    private final int                size;
+    private final List<Socket>       sockets = new ArrayList<>();
+    /**
+     * Hub: Index:= rank of the process, index 0 unused. Others: only the
+     * connection to the hub.
+     */
+    private final DataInputStream[]  ins;
+    private final DataOutputStream[] outs;
+
+    /**
+     * Connects all the processes. Blocks until all processes are connected
+     * (hub) or the connection to the hub is up.
+     *
+     * @param rank
+     *            rank of this process, 0 is the hub
+     * @param size
+     *            number of processes
+     * @param port
+     *            loopback port of the hub
+     * @param children
+     *            processes started by this one, the hub gives up waiting
+     *            when one of them exits
+     * @throws IOException
+     */
+    Cluster(final int rank, final int size, final int port, final Collection<Process> children) throws IOException {
+        if (rank < 0 || rank >= size) {
+            throw new IllegalArgumentException("rank");
+        }
+        if (children == null) {
+            throw new ArgumentNullException("children");
+        }
+        this.rank = rank;
+        this.size = size;
+        ins = new DataInputStream[size];
+        outs = new DataOutputStream[size];
+        if (rank == 0) {
+            final long deadline = System.currentTimeMillis() + ACCEPT_TIMEOUT;
+            try (ServerSocket server = new ServerSocket(port, size, InetAddress.getLoopbackAddress())) {
+                server.setSoTimeout(ACCEPT_POLL);
+                for (int i = 1; i < size; i++) {
+                    final Socket socket = accept(server, deadline, children);
+                    final DataInputStream in = open(socket);
+                    final int peer = in.readInt();
+                    if (peer <= 0 || peer >= size || ins[peer] != null) {
+                        throw new IOException("invalid peer rank: " + peer);
+                    }
+                    ins[peer] = in;
+                    outs[peer] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    log.info("Process " + peer + " connected");
+                }
+            }
+        } else {
+            final long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+            Socket socket = null;
+            while (socket == null) {
+                try {
+                    socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                } catch (final IOException e) {
+                    if (System.currentTimeMillis() > deadline) {
+                        throw e;
+                    }
+                    try {
+                        Thread.sleep(100);
+                    } catch (final InterruptedException ie) {
+                        throw new IOException("interrupted while connecting", ie);
+                    }
+                }
+            }
+            ins[0] = open(socket);
+            outs[0] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            outs[0].writeInt(rank);
+            outs[0].flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (final Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    /**
+     * Sends payloads to other processes.
+     *
+     * @param outgoing
+     *            Index:= rank of the receiving process
+     * @return payloads for this process, in order of the sending rank
+     * @throws IOException
+     */
+    List<byte[]> exchange(final List<List<byte[]>> outgoing) throws IOException {
+        if (rank != 0) {
+            outs[0].writeByte(EXCHANGE);
+            for (final List<byte[]> payloads : outgoing) {
+                writePayloads(outs[0], payloads);
+            }
+            outs[0].flush();
+            expect(ins[0], EXCHANGE);
+            return readPayloads(ins[0]);
+        }
+        final List<List<byte[]>> incoming = new ArrayList<>(size);
+        for (int target = 0; target < size; target++) {
+            incoming.add(new ArrayList<>(outgoing.get(target)));
+        }
+        for (int source = 1; source < size; source++) {
+            expect(ins[source], EXCHANGE);
+            for (int target = 0; target < size; target++) {
+                incoming.get(target).addAll(readPayloads(ins[source]));
+            }
+        }
+        for (int target = 1; target < size; target++) {
+            outs[target].writeByte(EXCHANGE);
+            writePayloads(outs[target], incoming.get(target));
+            outs[target].flush();
+        }
+        return incoming.get(0);
+    }
+
+    /**
+     * @see ch.bfh.ti.jts.simulation.engines.Engine#gather(List)
+     */
+    List<String> gather(final List<String> lines) throws IOException {
+        if (rank != 0) {
+            outs[0].writeByte(GATHER);
+            final List<byte[]> payloads = new ArrayList<>(lines.size());
+            for (final String line : lines) {
+                payloads.add(line.getBytes(StandardCharsets.UTF_8));
+            }
+            writePayloads(outs[0], payloads);
+            outs[0].flush();
+            return Collections.emptyList();
+        }
+        final List<String> all = new ArrayList<>(lines);
+        for (int source = 1; source < size; source++) {
+            expect(ins[source], GATHER);
+            for (final byte[] payload : readPayloads(ins[source])) {
+                all.add(new String(payload, StandardCharsets.UTF_8));
+            }
+        }
+        return all;
+    }
+
+    private DataInputStream open(final Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        sockets.add(socket);
+        return new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    }
+
+    /**
+     * @see ch.bfh.ti.jts.simulation.engines.Engine#min(double[])
+     */
+    double[] min(final double[] values) throws IOException {
+        return reduce(values, Math::min);
+    }
+
+    /**
+     * Reduces element wise on process 0 and sends the result back to all the
+     * processes.
+     */
+    private double[] reduce(final double[] values, final DoubleBinaryOperator operator) throws IOException {
+        if (rank != 0) {
+            outs[0].writeByte(REDUCE);
+            outs[0].writeInt(values.length);
+            for (final double value : values) {
+                outs[0].writeDouble(value);
+            }
+            outs[0].flush();
+            expect(ins[0], REDUCE);
+            final double[] results = new double[ins[0].readInt()];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = ins[0].readDouble();
+            }
+            return results;
+        }
+        final double[] results = values.clone();
+        for (int source = 1; source < size; source++) {
+            expect(ins[source], REDUCE);
+            final int length = ins[source].readInt();
+            if (length != results.length) {
+                throw new IOException("protocol error: reduction of different lengths");
+            }
+            for (int i = 0; i < length; i++) {
+                results[i] = operator.applyAsDouble(results[i], ins[source].readDouble());
+            }
+        }
+        for (int target = 1; target < size; target++) {
+            outs[target].writeByte(REDUCE);
+            outs[target].writeInt(results.length);
+            for (final double result : results) {
+                outs[target].writeDouble(result);
+            }
+            outs[target].flush();
+        }
+        return results;
+    }
+
+    /**
+     * @see ch.bfh.ti.jts.simulation.engines.Engine#sum(double[])
+     */
+    double[] sum(final double[] values) throws IOException {
+        return reduce(values, Double::sum);
+    }
+}
@@ -0,0 +1,175 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.bfh.ti.jts.data.Agent;
+import ch.bfh.ti.jts.data.Junction;
+import ch.bfh.ti.jts.data.Lane;
+import ch.bfh.ti.jts.data.Net;
+import ch.bfh.ti.jts.simulation.Transfer;
+
+/**
+ * Simulates one part of a net in a simulation spread over several processes.
+ * Every process imports the whole net and the same routes, so all the element
+ * ids match. The net is split like in the {@link PartitionedEngine}, one
+ * {@link Region} per process. A process only spawns agents on its own lanes.
+ * Agents crossing a junction into the region of another process are written
+ * with {@link Agent#write(DataOutput)} and exchanged at the end of each step.
+ * Process 0 reports the results, see {@link Engine#sum(double[])}.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class DistributedEngine implements Engine, AutoCloseable {
+
+    private static final Logger         log    = LogManager.getLogger(DistributedEngine.class);
+
+    private final int                   rank;
+    private final int                   processes;
+    private final Cluster               cluster;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private Net                         net;
+    private Region                      region;
+    private Map<Junction, Integer>      junctionRanks;
+
+    /**
+     * Connects to the other processes. Blocks until the cluster is complete.
+     *
+     * @param rank
+     *            rank of this process, 0 reports the results
+     * @param processes
+     *            number of processes
+     * @param port
+     *            loopback port used by process 0
+     * @param children
+     *            processes started by this one, connecting fails when one of
+     *            them exits
+     * @throws IOException
+     */
+    public DistributedEngine(final int rank, final int processes, final int port, final Collection<Process> children) throws IOException {
+        this.rank = rank;
+        this.processes = processes;
+        cluster = new Cluster(rank, processes, port, children);
+    }
+
+    @Override
+    public void close() throws IOException {
+        cluster.close();
+    }
+
+    @Override
+    public List<String> gather(final List<String> lines) {
+        try {
+            return cluster.gather(lines);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int getRank(final Lane lane) {
+        return junctionRanks.get(lane.getEdge().getEnd());
+    }
+
+    @Override
+    public boolean isReporter() {
+        return rank == 0;
+    }
+
+    private void partition(final Net net) {
+        final List<List<Junction>> parts = PartitionedEngine.split(net, processes);
+        if (parts.size() != processes) {
+            throw new IllegalStateException(String.format("net has not enough junctions for %d processes", processes));
+        }
+        junctionRanks = new HashMap<>();
+        for (int i = 0; i < parts.size(); i++) {
+            for (final Junction junction : parts.get(i)) {
+                junctionRanks.put(junction, i);
+            }
+        }
+        region = new Region(rank, parts.get(rank), processes);
+        net.setSpawnFilter(lane -> getRank(lane) == rank);
+        this.net = net;
+        log.info(String.format("Process %d of %d simulates %s", rank, processes, region));
+    }
+
+    @Override
+    public double[] min(final double[] values) {
+        try {
+            return cluster.min(values);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void simulate(final Net net, final double duration) {
+        if (this.net != net) {
+            partition(net);
+        }
+        net.setTransfer(this::transfer);
+        try {
+            region.simulate(duration);
+        } finally {
+            net.setTransfer(Transfer.DIRECT);
+        }
+        try {
+            // agents leaving this process
+            final List<List<byte[]>> outgoing = new ArrayList<>(processes);
+            for (int target = 0; target < processes; target++) {
+                final List<byte[]> payloads = new ArrayList<>();
+                final Queue<Agent> outbox = region.getOutbox(target);
+                Agent agent;
+                while ((agent = outbox.poll()) != null) {
+                    buffer.reset();
+                    agent.write(new DataOutputStream(buffer));
+                    payloads.add(buffer.toByteArray());
+                    // removed from this net by net.simulate
+                    agent.remove();
+                }
+                outgoing.add(payloads);
+            }
+            // agents entering this process
+            for (final byte[] payload : cluster.exchange(outgoing)) {
+                final Agent agent = Agent.read(new DataInputStream(new ByteArrayInputStream(payload)), net);
+                net.addElement(agent);
+                agent.getLane().addLaneAgent(agent);
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        net.simulate(duration);
+    }
+
+    @Override
+    public double[] sum(final double[] values) {
+        try {
+            return cluster.sum(values);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void transfer(final Junction junction, final Agent agent, final Lane lane) {
+        final int target = getRank(lane);
+        if (target == rank) {
+            lane.addLaneAgent(agent);
+        } else {
+            region.handOff(target, agent);
+        }
+    }
+}
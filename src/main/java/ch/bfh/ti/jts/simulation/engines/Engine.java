@@ -0,0 +1,106 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+
+import ch.bfh.ti.jts.data.Net;
+
+/**
+ * Strategy used by {@link ch.bfh.ti.jts.simulation.Simulation} to advance a
+ * {@link Net} by one step. Implementations are looked up by name in this
+ * package: {@code <name>Engine}.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public interface Engine {
+
+    /**
+     * Collects lines of all the processes taking part in the simulation. All
+     * the processes must call the collective methods in the same order.
+     *
+     * @param lines
+     *            lines of this process
+     * @return lines of all processes on the reporter, in process order. Empty
+     *         on all the other processes.
+     */
+    default List<String> gather(final List<String> lines) {
+        return lines;
+    }
+
+    /**
+     * Threads working for this engine besides the one calling
+     * {@link Engine#simulate(Net, double)}. By default the workers of the
+     * common pool the parallel streams run on, which other simulations in
+     * the same JVM may use as well.
+     *
+     * @return ids of the worker threads, may contain threads which ended
+     *         meanwhile. Don't modify.
+     */
+    default long[] getWorkerIds() {
+        return Workers.getCommonPoolIds();
+    }
+
+    /**
+     * @return {@code true} if this process writes results
+     */
+    default boolean isReporter() {
+        return true;
+    }
+
+    /**
+     * Minimum of values of all the processes taking part in the simulation.
+     *
+     * @see Engine#gather(List)
+     * @param values
+     *            values of this process
+     * @return element wise minimums, on all processes
+     */
+    default double[] min(final double[] values) {
+        return values;
+    }
+
+    /**
+     * Simulate the given net.
+     *
+     * @param net
+     *            the net to simulate
+     * @param duration
+     *            duration to simulate in [s]
+     */
+    void simulate(final Net net, final double duration);
+
+    /**
+     * Sums up values of all the processes taking part in the simulation.
+     *
+     * @see Engine#gather(List)
+     * @param values
+     *            values of this process
+     * @return element wise sums, on all processes
+     */
+    default double[] sum(final double[] values) {
+        return values;
+    }
+
+    /**
+     * Let all the thinkables of the given net make their decisions. Thinkables
+     * only read the committed state and write their own decision, so this is
+     * done in parallel by default.
+     *
+     * @param net
+     *            the net to think on
+     * @param duration
+     *            duration of the next step in [s]
+     */
+    default void think(final Net net, final double duration) {
+        net.getThinkableStream().forEach(element -> {
+            // think
+            try {
+                element.think(duration);
+            } catch (final Exception e) {
+                LogManager.getLogger(getClass()).error("Think failed for element: " + element, e);
+            }
+        });
+    }
+}
@@ -0,0 +1,342 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.bfh.ti.jts.data.Agent;
+import ch.bfh.ti.jts.data.Edge;
+import ch.bfh.ti.jts.data.Element;
+import ch.bfh.ti.jts.data.Lane;
+import ch.bfh.ti.jts.data.Net;
+import ch.bfh.ti.jts.gui.PolyShape;
+import ch.bfh.ti.jts.simulation.Simulatable;
+import ch.bfh.ti.jts.utils.Config;
+import ch.bfh.ti.jts.utils.layers.Layers;
+
+/**
+ * Simulates a region of interest in full detail and the rest of the net as
+ * queues. Inside the region, and on all the edges touching it, the agents are
+ * simulated like in the {@link BufferedEngine}. Every other edge is
+ * mesoscopic: an agent entering it leaves its lane and waits in the queue of
+ * the edge for the free flow travel time, given by the length and the speed
+ * of the lane. The queue is first in first out and releases at most
+ * {@code simulation.hybrid.capacity} agents per hour and lane. A released
+ * agent is put back at the end of its lane and crosses the next junction like
+ * any other agent, onto a microscopic lane or into the next queue.
+ * <p>
+ * Queued agents neither think nor shake hands, their lane position is moved
+ * along for rendering only. The cost of a step depends on the agents in the
+ * region and the number of queued agents, not on the size of the net. Without
+ * a region of interest the whole net is simulated in detail.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class HybridEngine implements Engine {
+
+    /**
+     * An agent waiting in the queue of a mesoscopic edge.
+     */
+    private static class Entry {
+
+        private final Agent  agent;
+        private final double entryTime;
+        private final double entryPosition;
+        /**
+         * Free flow speed [m/s].
+         */
+        private final double speed;
+        /**
+         * Earliest simulation time to leave the edge [s].
+         */
+        private final double exitTime;
+
+        Entry(final Agent agent, final double entryTime) {
+            final Lane lane = agent.getLane();
+            this.agent = agent;
+            this.entryTime = entryTime;
+            entryPosition = Math.min(Math.max(0.0, agent.getLanePosition()), lane.getLength());
+            final double laneSpeed = lane.getSpeed() > 0 ? lane.getSpeed() : Double.MAX_VALUE;
+            speed = Math.max(MIN_SPEED, Math.min(laneSpeed, agent.getVehicle().getMaxVelocity()));
+            exitTime = entryTime + (lane.getLength() - entryPosition) / speed;
+        }
+    }
+
+    /**
+     * Queue of a mesoscopic edge.
+     */
+    private static class MesoEdge {
+
+        private final Edge         edge;
+        private final Queue<Entry> entries = new ArrayDeque<>();
+        /**
+         * Number of agents which may leave now, grows with the flow capacity
+         * of the lanes.
+         */
+        private double             credit;
+
+        MesoEdge(final Edge edge) {
+            this.edge = edge;
+        }
+    }
+
+    private static final Logger log         = LogManager.getLogger(HybridEngine.class);
+    private static final int    AGENT_LAYER = Simulatable.KNOWN_CLASSES.get(Agent.class);
+    private static final int    LANE_LAYER  = Simulatable.KNOWN_CLASSES.get(Lane.class);
+
+    /**
+     * Flow capacity of a mesoscopic lane [1/s].
+     */
+    private static final double CAPACITY    = Config.getInstance().getDouble("simulation.hybrid.capacity", 1800.0, 1.0, 100000.0) / 3600.0;
+    /**
+     * Lower bound of the free flow speed, agents of lanes without speed limit
+     * and stopped vehicles leave some day [m/s].
+     */
+    private static final double MIN_SPEED   = 0.1;
+
+    /**
+     * Parses a region of interest.
+     *
+     * @param value
+     *            "x,y,width,height" in world coordinates, empty for none
+     * @return the region, {@code null} if there is none
+     */
+    public static Rectangle2D parseRegionOfInterest(final String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        final String[] parts = value.split(",");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("region of interest: x,y,width,height");
+        }
+        return new Rectangle2D.Double(Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()), Double.parseDouble(parts[2].trim()), Double.parseDouble(parts[3].trim()));
+    }
+
+    /**
+     * Queues of the mesoscopic edges.
+     */
+    private final Map<Edge, MesoEdge>   mesoEdges = new HashMap<>();
+    /**
+     * Queues holding agents, in order of their first agent.
+     */
+    private final Set<MesoEdge>         occupied  = new LinkedHashSet<>();
+    /**
+     * Agents waiting in a queue.
+     */
+    private final Set<Agent>            queued    = new LinkedHashSet<>();
+    private volatile Rectangle2D        regionOfInterest;
+    /**
+     * Net the edges were classified for, {@code null} to classify them again.
+     */
+    private Net                         classified;
+
+    public HybridEngine() {
+        Rectangle2D region = null;
+        try {
+            region = parseRegionOfInterest(Config.getInstance().getValue("simulation.hybrid.roi", ""));
+        } catch (final IllegalArgumentException e) {
+            log.warn("Invalid simulation.hybrid.roi, simulating the whole net in detail", e);
+        }
+        regionOfInterest = region;
+    }
+
+    /**
+     * Splits the edges into microscopic and mesoscopic ones. Agents of edges
+     * which became microscopic are put back on their lanes.
+     */
+    private void classify(final Net net) {
+        final Rectangle2D region = regionOfInterest;
+        final Map<Edge, MesoEdge> previous = new HashMap<>(mesoEdges);
+        mesoEdges.clear();
+        final List<Edge> edges = net.getElementStream(Edge.class).map(x -> (Edge) x).sorted().collect(Collectors.toList());
+        for (final Edge edge : edges) {
+            if (region != null && !isInRegion(edge, region)) {
+                final MesoEdge mesoEdge = previous.remove(edge);
+                mesoEdges.put(edge, mesoEdge == null ? new MesoEdge(edge) : mesoEdge);
+            }
+        }
+        // became microscopic
+        for (final MesoEdge mesoEdge : previous.values()) {
+            for (final Entry entry : mesoEdge.entries) {
+                queued.remove(entry.agent);
+                entry.agent.getLane().addLaneAgent(entry.agent);
+            }
+            occupied.remove(mesoEdge);
+        }
+        classified = net;
+        log.info(String.format("%d of %d edges mesoscopic", mesoEdges.size(), edges.size()));
+    }
+
+    /**
+     * Takes the agents which entered a mesoscopic lane off the lane and
+     * queues them.
+     */
+    private void enqueue(final Net net) {
+        final double now = net.getSimulationTime();
+        final List<Lane> lanes = net.getActiveSimulatables(LANE_LAYER).stream().map(x -> (Lane) x).filter(x -> mesoEdges.containsKey(x.getEdge())).sorted()
+                .collect(Collectors.toList());
+        for (final Lane lane : lanes) {
+            final MesoEdge mesoEdge = mesoEdges.get(lane.getEdge());
+            for (final Agent agent : lane.getAgentsInOrder()) {
+                if (agent.isRemoveCandidate()) {
+                    continue;
+                }
+                lane.removeLaneAgent(agent);
+                mesoEdge.entries.add(new Entry(agent, now));
+                queued.add(agent);
+                occupied.add(mesoEdge);
+            }
+        }
+    }
+
+    /**
+     * @return agents simulated in detail: the agents on active lanes
+     */
+    private List<Agent> getMicroAgents(final Net net) {
+        final List<Agent> agents = new ArrayList<>();
+        final List<Lane> lanes = net.getActiveSimulatables(LANE_LAYER).stream().map(x -> (Lane) x).sorted().collect(Collectors.toList());
+        for (final Lane lane : lanes) {
+            for (final Agent agent : lane.getAgentsInOrder()) {
+                if (!agent.isRemoveCandidate()) {
+                    agents.add(agent);
+                }
+            }
+            for (final Agent agent : lane.getEdgeLeaveCandidates()) {
+                if (!agent.isRemoveCandidate()) {
+                    agents.add(agent);
+                }
+            }
+        }
+        agents.sort(Comparator.comparingInt(Element::getId));
+        return agents;
+    }
+
+    /**
+     * @return number of agents waiting in mesoscopic queues
+     */
+    public int getQueuedCount() {
+        return queued.size();
+    }
+
+    /**
+     * @return the region simulated in detail, {@code null} for the whole net
+     */
+    public Rectangle2D getRegionOfInterest() {
+        return regionOfInterest;
+    }
+
+    /**
+     * @return {@code true} if a lane of the edge lies in the region
+     */
+    private boolean isInRegion(final Edge edge, final Rectangle2D region) {
+        for (final Lane lane : edge.getLanes()) {
+            final PolyShape shape = lane.getPolyShape();
+            if (region.contains(shape.getStartPoint()) || region.contains(shape.getEndPoint()) || shape.getShape().intersects(region)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lets the agents at the head of the queues leave, as far as their travel
+     * time is over and the capacity allows. They are put at the end of their
+     * lane as edge leave candidates.
+     */
+    private void release(final Net net, final double duration) {
+        final double now = net.getSimulationTime();
+        final Iterator<MesoEdge> iterator = occupied.iterator();
+        while (iterator.hasNext()) {
+            final MesoEdge mesoEdge = iterator.next();
+            final int lanes = Math.max(1, mesoEdge.edge.getLanes().size());
+            mesoEdge.credit = Math.min(lanes, mesoEdge.credit + CAPACITY * lanes * duration);
+            Entry head;
+            while ((head = mesoEdge.entries.peek()) != null && head.exitTime <= now && mesoEdge.credit >= 1.0) {
+                mesoEdge.entries.poll();
+                mesoEdge.credit -= 1.0;
+                queued.remove(head.agent);
+                final Lane lane = head.agent.getLane();
+                head.agent.setLanePosition(lane.getLength() + MIN_SPEED * duration);
+                lane.addEdgeLeaveCandidate(head.agent);
+            }
+            // move the waiting agents along, for rendering
+            for (final Entry entry : mesoEdge.entries) {
+                entry.agent.setLanePosition(Math.min(entry.agent.getLane().getLength(), entry.entryPosition + entry.speed * (now - entry.entryTime)));
+            }
+            if (mesoEdge.entries.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Changes the region simulated in detail, from the next step on.
+     *
+     * @param regionOfInterest
+     *            the region in world coordinates, {@code null} for the whole
+     *            net
+     */
+    public void setRegionOfInterest(final Rectangle2D regionOfInterest) {
+        this.regionOfInterest = regionOfInterest == null ? null : (Rectangle2D) regionOfInterest.clone();
+        classified = null;
+    }
+
+    @Override
+    public void simulate(final Net net, final double duration) {
+        if (classified != net) {
+            classify(net);
+        }
+        enqueue(net);
+        final Layers<Simulatable> simulatables = net.getSimulatable();
+        for (final int layer : simulatables.getLayersIterator()) {
+            if (layer == AGENT_LAYER) {
+                final List<Agent> agents = getMicroAgents(net);
+                // read committed state, write next state
+                agents.parallelStream().forEach(agent -> {
+                    agent.step(duration);
+                });
+                // swap
+                agents.parallelStream().forEach(agent -> {
+                    agent.commit();
+                });
+                // all the neighbours are moved now
+                agents.parallelStream().forEach(agent -> {
+                    agent.handshake();
+                });
+            } else {
+                net.getActiveSimulatables(layer).parallelStream().forEach(e -> {
+                    e.simulate(duration);
+                });
+            }
+        }
+    }
+
+    @Override
+    public void think(final Net net, final double duration) {
+        if (classified == net) {
+            // released agents decide at the end of their lane like the others
+            release(net, duration);
+        }
+        net.getThinkableStream().filter(element -> !queued.contains(element)).forEach(element -> {
+            // think
+            try {
+                element.think(duration);
+            } catch (final Exception e) {
+                log.error("Think failed for element: " + element, e);
+            }
+        });
+    }
+}
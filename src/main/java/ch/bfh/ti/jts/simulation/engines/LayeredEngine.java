@@ -0,0 +1,26 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import ch.bfh.ti.jts.data.Net;
+import ch.bfh.ti.jts.simulation.Simulatable;
+import ch.bfh.ti.jts.utils.layers.Layers;
+
+/**
+ * Simulates layer by layer, each layer in parallel. Agents move in place, so
+ * agents reading their neighbours may see them before or after they moved.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class LayeredEngine implements Engine {
+
+    @Override
+    public void simulate(final Net net, final double duration) {
+        // delegate simulation to @{link Simulatable}s
+        final Layers<Simulatable> simulatables = net.getSimulatable();
+        for (final int layer : simulatables.getLayersIterator()) {
+            net.getActiveSimulatables(layer).parallelStream().forEach(e -> {
+                e.simulate(duration);
+            });
+        }
+    }
+}
@@ -0,0 +1,534 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.bfh.ti.jts.data.Agent;
+import ch.bfh.ti.jts.data.Junction;
+import ch.bfh.ti.jts.data.Lane;
+import ch.bfh.ti.jts.data.Net;
+import ch.bfh.ti.jts.simulation.Transfer;
+
+/**
+ * A {@link Region} simulated optimistically on an own copy of the net by the
+ * {@link TimeWarpEngine}. Like a process of the {@link DistributedEngine} it
+ * only spawns agents on its own lanes and hands agents crossing into another
+ * region over as {@link Message}s, stamped with the tick they cross in. It
+ * doesn't wait for the other processes: it saves its state after every tick
+ * and goes on. A message for a tick it has simulated already, a straggler,
+ * rolls it back to the state before that tick.
+ * <p>
+ * A saved state holds the agents of each lane of the region in the order of
+ * the lane, so a restored process simulates exactly like the first time.
+ * Lanes unchanged since the last save share its bytes, lanes without agents
+ * cost nothing.
+ * <p>
+ * Cancellation is lazy: after a rollback the messages sent earlier stay
+ * where they are. Simulating a tick again, the process compares the new
+ * messages of the tick with the ones sent the first time and only if they
+ * differ cancels the old ones with anti-messages and sends the new ones. As
+ * the messages a process sends in a tick don't depend on the ones it receives
+ * in the same tick, neighbours don't roll each other back over and over.
+ * <p>
+ * The handshakes of each tick are recorded in the order they were made and the
+ * neighbours sets emptied, the {@link TimeWarpEngine} counts them once the
+ * tick is committed.
+ *
+ * @author Enteee
+ * @author winki
+ */
+class LogicalProcess {
+
+    /**
+     * An agent handed from one process to another in a tick, or the
+     * cancellation of an earlier one.
+     */
+    static class Message {
+
+        private final int     sender;
+        private final int     target;
+        private final long    tick;
+        /**
+         * Number of the message among the ones of the sender in the tick.
+         */
+        private final int     sequence;
+        /**
+         * The agent, written with {@link Agent#write(java.io.DataOutput)}.
+         */
+        private final byte[]  agent;
+        private final boolean anti;
+
+        Message(final int sender, final int target, final long tick, final int sequence, final byte[] agent, final boolean anti) {
+            this.sender = sender;
+            this.target = target;
+            this.tick = tick;
+            this.sequence = sequence;
+            this.agent = agent;
+            this.anti = anti;
+        }
+
+        Message cancel() {
+            return new Message(sender, target, tick, sequence, agent, true);
+        }
+
+        boolean isSame(final Message message) {
+            return target == message.target && sequence == message.sequence && Arrays.equals(agent, message.agent);
+        }
+    }
+
+    /**
+     * State of the process before a tick.
+     */
+    private static class State {
+
+        /**
+         * State of the net without agents, written by
+         * {@link Net#writeState(java.io.DataOutput, java.util.Collection)}.
+         */
+        private final byte[]   net;
+        /**
+         * Agents of each lane, written by
+         * {@link Net#writeAgents(java.io.DataOutput, java.util.Collection)}.
+         * Index:= index of the lane in {@link LogicalProcess#lanes}.
+         */
+        private final byte[][] lanes;
+
+        State(final byte[] net, final byte[][] lanes) {
+            this.net = net;
+            this.lanes = lanes;
+        }
+    }
+
+    private static final Logger                     log             = LogManager.getLogger(LogicalProcess.class);
+    /**
+     * Agents of a lane without agents.
+     */
+    private static final byte[]                     NO_AGENTS       = new byte[] { 0 };
+    private static final Comparator<Message>        BY_SENDER       = Comparator.<Message> comparingInt(message -> message.sender).thenComparingInt(message -> message.sequence);
+
+    private final int                               index;
+    private final Net                               net;
+    private final Region                            region;
+    private final List<Lane>                        lanes;
+    /**
+     * Agents of a lane being saved: on the lane in order, then the ones
+     * leaving it. Reused for the lane of an agent whose handshakes are
+     * recorded.
+     */
+    private final List<Agent>                       laneAgents      = new ArrayList<>();
+    /**
+     * Index of the process owning each junction. Key:= junction id.
+     */
+    private final Map<Integer, Integer>             owners;
+    private List<LogicalProcess>                    processes;
+    /**
+     * Messages posted by the other processes and not looked at yet.
+     */
+    private final Queue<Message>                    mailbox         = new ConcurrentLinkedQueue<>();
+    /**
+     * Agents handed over, by tick. Kept after simulating the tick, a rollback
+     * receives them again.
+     */
+    private final NavigableMap<Long, List<Message>> inbox           = new TreeMap<>();
+    /**
+     * Messages sent and not cancelled, by tick.
+     */
+    private final NavigableMap<Long, List<Message>> sent            = new TreeMap<>();
+    /**
+     * Saved states, by the tick they are the state before.
+     */
+    private final NavigableMap<Long, State>         states          = new TreeMap<>();
+    /**
+     * Handshakes of each tick: agent id, neighbour id and distance, one after
+     * the other, in the order they were made.
+     */
+    private final NavigableMap<Long, double[]>      handshakes      = new TreeMap<>();
+    private final ByteArrayOutputStream             buffer          = new ByteArrayOutputStream();
+    private double[]                                recorded        = new double[48];
+    private int                                     recordedLength;
+    /**
+     * Number of ticks simulated so far, the local virtual time.
+     */
+    private long                                    clock;
+    private long                                    executed;
+    private long                                    rolledBack;
+    private long                                    rollbacks;
+    private long                                    messages;
+    private long                                    antiMessages;
+
+    /**
+     * @param index
+     *            index of this process
+     * @param net
+     *            own copy of the net, its agents are replaced
+     * @param junctions
+     *            junctions of this process, of the own net
+     * @param owners
+     *            index of the process owning each junction, by junction id
+     * @param processes
+     *            number of processes
+     * @param clock
+     *            tick to start at
+     * @param state
+     *            state of the whole net before that tick, written by
+     *            {@link Net#writeState(java.io.DataOutput)}
+     */
+    LogicalProcess(final int index, final Net net, final List<Junction> junctions, final Map<Integer, Integer> owners, final int processes, final long clock, final byte[] state) {
+        this.index = index;
+        this.net = net;
+        this.owners = owners;
+        this.clock = clock;
+        region = new Region(index, junctions, processes);
+        lanes = new ArrayList<>(region.getLanes());
+        net.setEvents(null);
+        net.setSpawnFilter(this::isOwn);
+        net.clearAgents();
+        try {
+            net.readState(new DataInputStream(new ByteArrayInputStream(state)), this::isOwn);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        save();
+    }
+
+    /**
+     * Forgets everything before a tick, nothing before it is rolled back any
+     * more.
+     *
+     * @param tick
+     *            the global virtual time
+     */
+    void collect(final long tick) {
+        states.headMap(tick, false).clear();
+        handshakes.headMap(tick, false).clear();
+        inbox.headMap(tick, false).clear();
+        sent.headMap(tick, false).clear();
+    }
+
+    void connect(final List<LogicalProcess> processes) {
+        this.processes = processes;
+    }
+
+    /**
+     * Looks at the messages posted, rolls back if one is for a tick simulated
+     * already.
+     */
+    private void drain() {
+        Message message;
+        while ((message = mailbox.poll()) != null) {
+            if (message.anti) {
+                final List<Message> received = inbox.get(message.tick);
+                final Message cancel = message;
+                if (received == null || !received.removeIf(x -> x.sender == cancel.sender && x.sequence == cancel.sequence)) {
+                    throw new IllegalStateException("anti-message without message");
+                }
+            } else {
+                inbox.computeIfAbsent(message.tick, x -> new ArrayList<>()).add(message);
+            }
+            if (message.tick < clock) {
+                rollback(message.tick);
+            }
+        }
+    }
+
+    long getAntiMessages() {
+        return antiMessages;
+    }
+
+    long getClock() {
+        return clock;
+    }
+
+    long getExecuted() {
+        return executed;
+    }
+
+    /**
+     * @param tick
+     *            the tick
+     * @return handshakes of the tick: agent id, neighbour id and distance,
+     *         one after the other
+     */
+    double[] getHandshakes(final long tick) {
+        final double[] recorded = handshakes.get(tick);
+        if (recorded == null) {
+            throw new IllegalStateException("tick not simulated: " + tick);
+        }
+        return recorded;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    long getMessages() {
+        return messages;
+    }
+
+    /**
+     * Call while no process simulates.
+     *
+     * @return earliest tick of the messages posted and not looked at yet,
+     *         {@link Long#MAX_VALUE} if there are none
+     */
+    long getPending() {
+        long pending = Long.MAX_VALUE;
+        for (final Message message : mailbox) {
+            pending = Math.min(pending, message.tick);
+        }
+        return pending;
+    }
+
+    long getRollbacks() {
+        return rollbacks;
+    }
+
+    long getRolledBack() {
+        return rolledBack;
+    }
+
+    private State getState(final long tick) {
+        final State state = states.get(tick);
+        if (state == null) {
+            throw new IllegalStateException("no state before tick " + tick);
+        }
+        return state;
+    }
+
+    private boolean isOwn(final Lane lane) {
+        return owners.get(lane.getEdge().getEnd().getId()) == index;
+    }
+
+    /**
+     * Records the handshakes of the tick and empties the neighbours sets. An
+     * agent adds its neighbours in the order of its lane, which is still the
+     * same.
+     */
+    private void record(final List<Agent> agents) {
+        recordedLength = 0;
+        for (final Agent agent : agents) {
+            if (agent.getNeighborsSet().isEmpty()) {
+                continue;
+            }
+            laneAgents.clear();
+            agent.getLane().collectAgentsInOrder(laneAgents);
+            for (final Agent other : laneAgents) {
+                if (agent.getNeighborsSet().contains(other.getId())) {
+                    if (recordedLength + 3 > recorded.length) {
+                        recorded = Arrays.copyOf(recorded, recorded.length * 2);
+                    }
+                    recorded[recordedLength++] = agent.getId();
+                    recorded[recordedLength++] = other.getId();
+                    recorded[recordedLength++] = Math.abs(agent.getLanePosition() - other.getLanePosition());
+                }
+            }
+            agent.emptyNeighborsSet();
+            agent.getLatestHandshakeRate(1);
+        }
+        handshakes.put(clock, Arrays.copyOf(recorded, recordedLength));
+    }
+
+    /**
+     * Reads the state before a tick into a net, its agents are added to the
+     * ones of the net.
+     *
+     * @param tick
+     *            the tick
+     * @param target
+     *            a net with the same elements, this one or the one of the
+     *            simulation
+     */
+    void readState(final long tick, final Net target) {
+        final State state = getState(tick);
+        try {
+            target.readState(new DataInputStream(new ByteArrayInputStream(state.net)), lane -> true);
+            for (final byte[] agents : state.lanes) {
+                if (agents != NO_AGENTS) {
+                    target.readAgents(new DataInputStream(new ByteArrayInputStream(agents)), lane -> true);
+                }
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Restores the state before a tick. The messages sent since are kept, see
+     * {@link LogicalProcess#send(List)}.
+     *
+     * @param tick
+     *            the tick
+     */
+    void rollback(final long tick) {
+        if (tick >= clock) {
+            return;
+        }
+        net.clearAgents();
+        readState(tick, net);
+        states.tailMap(tick, false).clear();
+        handshakes.tailMap(tick, true).clear();
+        rolledBack += clock - tick;
+        rollbacks++;
+        log.debug(String.format("Process %d rolled back from tick %d to %d", index, clock, tick));
+        clock = tick;
+    }
+
+    /**
+     * Simulates ticks up to a limit, unless rolled back meanwhile.
+     *
+     * @param limit
+     *            tick to stop before
+     * @param duration
+     *            duration of a tick [s]
+     */
+    void run(final long limit, final double duration) {
+        drain();
+        while (clock < limit) {
+            tick(duration);
+            drain();
+        }
+    }
+
+    /**
+     * Saves the state before the current tick.
+     */
+    private void save() {
+        final State last = states.isEmpty() ? null : states.lastEntry().getValue();
+        final byte[][] saved = new byte[lanes.size()][];
+        try {
+            for (int i = 0; i < saved.length; i++) {
+                final Lane lane = lanes.get(i);
+                if (!lane.isActive()) {
+                    saved[i] = NO_AGENTS;
+                    continue;
+                }
+                laneAgents.clear();
+                lane.collectAgentsInOrder(laneAgents);
+                laneAgents.addAll(lane.getEdgeLeaveCandidates());
+                buffer.reset();
+                Net.writeAgents(new DataOutputStream(buffer), laneAgents);
+                final byte[] agents = buffer.toByteArray();
+                // shared with the last state if unchanged, a few agents stand
+                saved[i] = last != null && Arrays.equals(agents, last.lanes[i]) ? last.lanes[i] : agents;
+            }
+            buffer.reset();
+            net.writeState(new DataOutputStream(buffer), Collections.emptyList());
+        } catch (final IOException e) {
+            // in memory
+            throw new UncheckedIOException(e);
+        }
+        states.put(clock, new State(buffer.toByteArray(), saved));
+    }
+
+    /**
+     * Sends the messages of the current tick, unless the same ones were sent
+     * already before a rollback.
+     */
+    private void send(final List<Message> outgoing) {
+        final List<Message> earlier = sent.remove(clock);
+        if (earlier != null && earlier.size() == outgoing.size()) {
+            boolean same = true;
+            for (int i = 0; i < outgoing.size() && same; i++) {
+                same = outgoing.get(i).isSame(earlier.get(i));
+            }
+            if (same) {
+                sent.put(clock, earlier);
+                return;
+            }
+        }
+        if (earlier != null) {
+            for (final Message message : earlier) {
+                processes.get(message.target).mailbox.add(message.cancel());
+                antiMessages++;
+            }
+        }
+        for (final Message message : outgoing) {
+            processes.get(message.target).mailbox.add(message);
+            messages++;
+        }
+        if (!outgoing.isEmpty()) {
+            sent.put(clock, outgoing);
+        }
+    }
+
+    /**
+     * Simulates one tick, like a process of the {@link DistributedEngine}:
+     * the region, the agents handed over and the net.
+     */
+    private void tick(final double duration) {
+        net.setTransfer(this::transfer);
+        try {
+            region.simulate(duration, this::record);
+        } finally {
+            net.setTransfer(Transfer.DIRECT);
+        }
+        // agents leaving this process
+        final List<Message> outgoing = new ArrayList<>();
+        try {
+            for (final LogicalProcess target : processes) {
+                final Queue<Agent> outbox = region.getOutbox(target.index);
+                Agent agent;
+                while ((agent = outbox.poll()) != null) {
+                    buffer.reset();
+                    agent.write(new DataOutputStream(buffer));
+                    outgoing.add(new Message(index, target.index, clock, outgoing.size(), buffer.toByteArray(), false));
+                    // removed from this net by net.simulate
+                    agent.remove();
+                }
+            }
+            send(outgoing);
+            // agents entering this process, in the order of the senders
+            final List<Message> received = inbox.getOrDefault(clock, Collections.emptyList());
+            Collections.sort(received, BY_SENDER);
+            for (final Message message : received) {
+                final Agent agent = Agent.read(new DataInputStream(new ByteArrayInputStream(message.agent)), net);
+                net.addElement(agent);
+                agent.getLane().addLaneAgent(agent);
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        net.simulate(duration);
+        // decide for the next tick
+        net.getThinkableStream().sequential().forEach(element -> {
+            try {
+                element.think(duration);
+            } catch (final Exception e) {
+                log.error("Think failed for element: " + element, e);
+            }
+        });
+        clock++;
+        executed++;
+        save();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LogicalProcess{ index: %d, clock: %d, states: %d, %s }", index, clock, states.size(), region);
+    }
+
+    private void transfer(final Junction junction, final Agent agent, final Lane lane) {
+        if (isOwn(lane)) {
+            lane.addLaneAgent(agent);
+        } else {
+            region.handOff(owners.get(lane.getEdge().getEnd().getId()), agent);
+        }
+    }
+}
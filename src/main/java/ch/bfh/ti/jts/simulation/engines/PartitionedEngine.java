@@ -0,0 +1,182 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.bfh.ti.jts.data.Agent;
+import ch.bfh.ti.jts.data.Junction;
+import ch.bfh.ti.jts.data.Lane;
+import ch.bfh.ti.jts.data.Net;
+import ch.bfh.ti.jts.simulation.Transfer;
+import ch.bfh.ti.jts.utils.Config;
+
+/**
+ * Splits the net into spatially compact {@link Region}s of about the same
+ * weight and lets each worker simulate a whole region for a whole step. The
+ * only barrier is at the end of the step: agents which crossed a junction on a
+ * region boundary are put on their next lane afterwards and then the
+ * {@link Net} itself is simulated. Deterministic like the
+ * {@link BufferedEngine}, with the same results.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class PartitionedEngine implements Engine {
+
+    private static final Logger log     = LogManager.getLogger(PartitionedEngine.class);
+
+    /**
+     * Number of regions the net is split into.
+     */
+    private static final int    REGIONS = Config.getInstance().getInt("simulation.regions", Runtime.getRuntime().availableProcessors(), 1, 1024);
+
+    /**
+     * Weight of a junction: The total length [m] of the incoming lanes, which
+     * the region of the junction owns.
+     *
+     * @param junction
+     *            the junction
+     * @return weight
+     */
+    static double getWeight(final Junction junction) {
+        return 1.0 + junction.getIncomingLanes().stream().mapToDouble(Lane::getLength).sum();
+    }
+
+    /**
+     * Recursive coordinate bisection: Split along the longer side of the
+     * bounding box, so that each half gets weight according to its number of
+     * regions.
+     */
+    private static void bisect(final List<Junction> junctions, final int parts, final List<List<Junction>> result) {
+        if (parts <= 1 || junctions.size() <= 1) {
+            result.add(junctions);
+            return;
+        }
+        final double width = junctions.stream().mapToDouble(x -> x.getPosition().getX()).max().getAsDouble() - junctions.stream().mapToDouble(x -> x.getPosition().getX()).min().getAsDouble();
+        final double height = junctions.stream().mapToDouble(x -> x.getPosition().getY()).max().getAsDouble() - junctions.stream().mapToDouble(x -> x.getPosition().getY()).min().getAsDouble();
+        final Comparator<Junction> axis;
+        if (width >= height) {
+            axis = Comparator.comparingDouble(x -> x.getPosition().getX());
+        } else {
+            axis = Comparator.comparingDouble(x -> x.getPosition().getY());
+        }
+        final List<Junction> sorted = new ArrayList<>(junctions);
+        Collections.sort(sorted, axis.thenComparing(Junction::getId));
+        final int leftParts = parts / 2;
+        final double totalWeight = sorted.stream().mapToDouble(PartitionedEngine::getWeight).sum();
+        final double leftWeight = totalWeight * leftParts / parts;
+        int split = 0;
+        double weight = 0;
+        while (split < sorted.size() - 1 && weight + getWeight(sorted.get(split)) / 2 < leftWeight) {
+            weight += getWeight(sorted.get(split));
+            split++;
+        }
+        split = Math.max(1, split);
+        bisect(sorted.subList(0, split), leftParts, result);
+        bisect(sorted.subList(split, sorted.size()), parts - leftParts, result);
+    }
+
+    /**
+     * Splits the junctions of a net into spatially compact parts of about the
+     * same weight.
+     *
+     * @param net
+     *            the net
+     * @param parts
+     *            number of parts wanted
+     * @return the parts, at most one per junction
+     */
+    static List<List<Junction>> split(final Net net, final int parts) {
+        final List<Junction> junctions = net.getElementStream(Junction.class).map(x -> (Junction) x).sorted().collect(Collectors.toList());
+        final List<List<Junction>> result = new ArrayList<>();
+        bisect(junctions, Math.min(parts, Math.max(1, junctions.size())), result);
+        return result;
+    }
+
+    /**
+     * Number of regions wanted, at most one per junction.
+     */
+    private final int             regionCount;
+    private Net                   net;
+    private List<Region>          regions;
+    private Map<Junction, Region> junctionRegions;
+
+    /**
+     * Splits the net into {@code simulation.regions} regions.
+     */
+    public PartitionedEngine() {
+        this(REGIONS);
+    }
+
+    /**
+     * @param regionCount
+     *            number of regions to split the net into
+     */
+    public PartitionedEngine(final int regionCount) {
+        if (regionCount < 1) {
+            throw new IllegalArgumentException("regionCount");
+        }
+        this.regionCount = regionCount;
+    }
+
+    /**
+     * @return number of agents handed off from one region to another so far
+     */
+    public long getHandOffs() {
+        return regions == null ? 0 : regions.stream().mapToLong(Region::getReceived).sum();
+    }
+
+    private void partition(final Net net) {
+        final List<List<Junction>> parts = split(net, regionCount);
+        regions = new ArrayList<>(parts.size());
+        junctionRegions = new HashMap<>();
+        for (final List<Junction> part : parts) {
+            final Region region = new Region(regions.size(), new ArrayList<>(part), parts.size());
+            regions.add(region);
+            part.forEach(junction -> junctionRegions.put(junction, region));
+        }
+        this.net = net;
+        final long boundaries = junctionRegions.keySet().stream().filter(junction -> junction.getOutgoingEdges().stream().anyMatch(edge -> junctionRegions.get(edge.getEnd()) != junctionRegions.get(junction))).count();
+        log.info(String.format("Net split into %d regions, %d boundary junctions", regions.size(), boundaries));
+        regions.forEach(region -> log.info(region));
+    }
+
+    /**
+     * Puts an agent on a lane of the same region directly, otherwise hands it
+     * off to the region of the lane.
+     */
+    private void transfer(final Junction junction, final Agent agent, final Lane lane) {
+        final Region source = junctionRegions.get(junction);
+        final Region target = junctionRegions.get(lane.getEdge().getEnd());
+        if (source == target) {
+            lane.addLaneAgent(agent);
+        } else {
+            source.handOff(target, agent);
+        }
+    }
+
+    @Override
+    public void simulate(final Net net, final double duration) {
+        if (this.net != net) {
+            partition(net);
+        }
+        net.setTransfer(this::transfer);
+        try {
+            regions.parallelStream().forEach(region -> {
+                region.simulate(duration);
+            });
+        } finally {
+            net.setTransfer(Transfer.DIRECT);
+        }
+        regions.forEach(region -> region.receive(regions));
+        net.simulate(duration);
+    }
+}
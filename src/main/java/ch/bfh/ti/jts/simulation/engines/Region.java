@@ -0,0 +1,200 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import ch.bfh.ti.jts.data.Agent;
+import ch.bfh.ti.jts.data.Edge;
+import ch.bfh.ti.jts.data.Junction;
+import ch.bfh.ti.jts.data.Lane;
+
+/**
+ * A connected part of a net simulated by one worker. A region owns its
+ * junctions, all the edges ending in one of its junctions, their lanes and
+ * the agents on these lanes. Agents leaving the region over a junction are put
+ * in the outbox for the region owning the next lane.
+ *
+ * @author Enteee
+ * @author winki
+ */
+class Region {
+
+    private final int                index;
+    private final List<Junction>     junctions;
+    private final List<Edge>         edges      = new ArrayList<>();
+    private final List<Lane>         lanes      = new ArrayList<>();
+    /**
+     * Agents handed off to other regions. Index:= index of the target region.
+     */
+    private final List<Queue<Agent>> outboxes;
+    /**
+     * Agents of the current step. Reused to avoid allocations.
+     */
+    private final List<Agent>        agents     = new ArrayList<>();
+    /**
+     * Agents of the lane being collected. Reused to avoid allocations.
+     */
+    private final List<Agent>        laneAgents = new ArrayList<>();
+    private final double             weight;
+    /**
+     * Number of agents received from other regions.
+     */
+    private long                     received;
+
+    Region(final int index, final List<Junction> junctions, final int regions) {
+        this.index = index;
+        this.junctions = Collections.unmodifiableList(junctions);
+        double weight = 0;
+        for (final Junction junction : junctions) {
+            for (final Edge edge : junction.getIncomingEdges()) {
+                edges.add(edge);
+                lanes.addAll(edge.getLanes());
+            }
+            weight += PartitionedEngine.getWeight(junction);
+        }
+        this.weight = weight;
+        outboxes = new ArrayList<>(regions);
+        for (int i = 0; i < regions; i++) {
+            outboxes.add(new ArrayDeque<>());
+        }
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public List<Junction> getJunctions() {
+        return junctions;
+    }
+
+    /**
+     * @return number of agents received from other regions so far
+     */
+    public long getReceived() {
+        return received;
+    }
+
+    /**
+     * @param target
+     *            index of the target region
+     * @return agents handed off to the target region
+     */
+    public Queue<Agent> getOutbox(final int target) {
+        return outboxes.get(target);
+    }
+
+    public Collection<Lane> getLanes() {
+        return lanes;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
+    /**
+     * Hands an agent off to another region. It is put on its lane by
+     * {@link Region#receive(List)} after all the regions finished the step.
+     *
+     * @param target
+     *            region owning {@link Agent#getLane()}
+     * @param agent
+     *            the agent
+     */
+    public void handOff(final Region target, final Agent agent) {
+        handOff(target.index, agent);
+    }
+
+    /**
+     * @see Region#handOff(Region, Agent)
+     * @param target
+     *            index of the region owning {@link Agent#getLane()}
+     * @param agent
+     *            the agent
+     */
+    public void handOff(final int target, final Agent agent) {
+        outboxes.get(target).add(agent);
+    }
+
+    /**
+     * Puts all the agents handed off to this region on their lanes. Must not
+     * run concurrently with {@link Region#simulate(double)} of any region.
+     *
+     * @param regions
+     *            all the regions in index order
+     */
+    public void receive(final List<Region> regions) {
+        for (final Region source : regions) {
+            final Queue<Agent> inbox = source.outboxes.get(index);
+            Agent agent;
+            while ((agent = inbox.poll()) != null) {
+                agent.getLane().addLaneAgent(agent);
+                received++;
+            }
+        }
+    }
+
+    /**
+     * Simulates the whole region for one step: agents, lanes, edges and
+     * junctions. Only touches data owned by this region. Empty lanes, edges
+     * and junctions are skipped, see
+     * {@link ch.bfh.ti.jts.data.Net#getActiveSimulatables(int)}.
+     *
+     * @param duration
+     *            duration to simulate in [s]
+     */
+    public void simulate(final double duration) {
+        simulate(duration, null);
+    }
+
+    /**
+     * @see Region#simulate(double)
+     * @param duration
+     *            duration to simulate in [s]
+     * @param handshaken
+     *            called with the agents of the region once they made their
+     *            handshakes, before any of them changes lanes. {@code null} for
+     *            none.
+     */
+    void simulate(final double duration, final Consumer<List<Agent>> handshaken) {
+        agents.clear();
+        for (final Lane lane : lanes) {
+            if (!lane.isActive()) {
+                continue;
+            }
+            laneAgents.clear();
+            lane.collectAgentsInOrder(laneAgents);
+            for (final Agent agent : laneAgents) {
+                if (!agent.isRemoveCandidate()) {
+                    agents.add(agent);
+                }
+            }
+            for (final Agent agent : lane.getEdgeLeaveCandidates()) {
+                if (!agent.isRemoveCandidate()) {
+                    agents.add(agent);
+                }
+            }
+        }
+        agents.forEach(agent -> agent.step(duration));
+        agents.forEach(agent -> agent.commit());
+        agents.forEach(agent -> agent.handshake());
+        if (handshaken != null) {
+            handshaken.accept(agents);
+        }
+        lanes.stream().filter(Lane::isActive).forEach(lane -> lane.simulate(duration));
+        edges.stream().filter(edge -> edge.getLanes().stream().anyMatch(Lane::hasAgents)).forEach(edge -> edge.simulate(duration));
+        final Set<Junction> crossings = lanes.stream().filter(lane -> !lane.getEdgeLeaveCandidates().isEmpty()).map(lane -> lane.getEdge().getEnd()).collect(Collectors.toSet());
+        junctions.stream().filter(crossings::contains).forEach(junction -> junction.simulate(duration));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Region{ index: %d, junctions: %d, lanes: %d, weight: %.2f }", index, junctions.size(), lanes.size(), weight);
+    }
+}
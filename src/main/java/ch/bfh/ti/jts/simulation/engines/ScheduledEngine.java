@@ -0,0 +1,312 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.bfh.ti.jts.ai.Thinkable;
+import ch.bfh.ti.jts.data.Agent;
+import ch.bfh.ti.jts.data.Edge;
+import ch.bfh.ti.jts.data.Lane;
+import ch.bfh.ti.jts.data.Net;
+import ch.bfh.ti.jts.simulation.Simulatable;
+import ch.bfh.ti.jts.utils.Config;
+import ch.bfh.ti.jts.utils.layers.Layers;
+
+/**
+ * Same phases and results as the {@link BufferedEngine}, but the work is
+ * scheduled on a dedicated {@link ForkJoinPool} instead of the common pool the
+ * GUI streams use. The elements of a phase are cut into tasks by their
+ * estimated cost: the time measured per unit of work for their position in
+ * the phase in the last ticks, scaled by the number of agents a lane or an
+ * edge holds now. Each task is timed as a whole, so the clock is read twice
+ * per task, not per element. Expensive elements end up in tasks of their own,
+ * cheap ones are batched.
+ * <p>
+ * The load imbalance of each tick is logged: the time of the busiest worker
+ * summed over all phases, relative to a perfectly balanced schedule.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class ScheduledEngine implements Engine, AutoCloseable {
+
+    /**
+     * Cost estimates of the elements of one phase, by position of the element
+     * in the phase. The arrays are kept from tick to tick and only grow.
+     */
+    private static class Phase {
+
+        /**
+         * Smoothed time per unit of work [ns].
+         */
+        private double[] costs    = new double[0];
+        /**
+         * Time per unit of work [ns] measured in the last tick: the one of the
+         * task the element was in.
+         */
+        private double[] samples  = new double[0];
+        private int[]    units    = new int[0];
+        /**
+         * Estimated cost of the elements before a position.
+         */
+        private double[] prefix   = new double[1];
+        /**
+         * Number of positions with an estimate.
+         */
+        private int      size;
+        /**
+         * Time per unit of work [ns] of positions without an estimate.
+         */
+        private double   meanCost = 1.0;
+
+        private void ensureCapacity(final int size) {
+            if (costs.length < size) {
+                final int capacity = Math.max(size, costs.length * 2);
+                costs = Arrays.copyOf(costs, capacity);
+                samples = new double[capacity];
+                units = new int[capacity];
+                prefix = new double[capacity + 1];
+            }
+        }
+    }
+
+    private static final Logger log         = LogManager.getLogger(ScheduledEngine.class);
+    private static final int    AGENT_LAYER = Simulatable.KNOWN_CLASSES.get(Agent.class);
+
+    /**
+     * Default number of workers of the pool.
+     */
+    private static final int    PARALLELISM = Config.getInstance().getInt("simulation.scheduler.parallelism", Runtime.getRuntime().availableProcessors(), 1, 1024);
+    /**
+     * Number of tasks per worker the work of a phase is cut into.
+     */
+    private static final int    TASKS       = Config.getInstance().getInt("simulation.scheduler.tasks", 4, 1, 1024);
+    /**
+     * Weight of the last measurement in the cost estimate of an element.
+     */
+    private static final double SMOOTHING   = Config.getInstance().getDouble("simulation.scheduler.smoothing", 0.5, 0.0, 1.0);
+
+    /**
+     * Units of work of an element: the agents on a lane or an edge.
+     */
+    private static int getUnits(final Object element) {
+        if (element instanceof Lane) {
+            return 1 + ((Lane) element).getAgentCount();
+        }
+        if (element instanceof Edge) {
+            return 1 + ((Edge) element).getLanes().stream().mapToInt(Lane::getAgentCount).sum();
+        }
+        return 1;
+    }
+
+    /**
+     * Number of workers of the pool.
+     */
+    private final int                 parallelism;
+    private final ForkJoinPool        pool;
+    private final Workers             workers = new Workers("scheduler");
+    private final Map<String, Phase>  phases  = new HashMap<>();
+    /**
+     * Busy time [ns] of each worker in the current phase. The last slot is for
+     * the thread waiting on the pool, which may help out.
+     */
+    private final AtomicLongArray     busy;
+    /**
+     * Sum of the busy time of the busiest worker of each phase in this tick.
+     */
+    private long                      criticalTime;
+    /**
+     * Sum of the mean busy time of each phase in this tick.
+     */
+    private double                    balancedTime;
+    private double                    loadImbalance;
+    private double                    loadImbalanceSum;
+    private long                      ticks;
+
+    /**
+     * Schedules on {@code simulation.scheduler.parallelism} workers.
+     */
+    public ScheduledEngine() {
+        this(PARALLELISM);
+    }
+
+    /**
+     * @param parallelism
+     *            number of workers of the pool
+     */
+    public ScheduledEngine(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism");
+        }
+        this.parallelism = parallelism;
+        busy = new AtomicLongArray(parallelism + 1);
+        pool = new ForkJoinPool(parallelism, workers, null, false);
+        log.info(String.format("Scheduler with %d workers, %d tasks per worker", parallelism, TASKS));
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+        if (ticks > 0) {
+            log.info(String.format("Mean load imbalance: %.3f over %d ticks", loadImbalanceSum / ticks, ticks));
+        }
+    }
+
+    /**
+     * @return load imbalance of the last tick: 0 if all the workers were busy
+     *         for the same time, 1 if the busiest worker took twice as long as
+     *         the mean, ...
+     */
+    public double getLoadImbalance() {
+        return loadImbalance;
+    }
+
+    @Override
+    public long[] getWorkerIds() {
+        return workers.getIds(false);
+    }
+
+    /**
+     * Runs a phase on the pool.
+     *
+     * @param name
+     *            name of the phase, the cost estimates are kept by name
+     * @param elements
+     *            elements of the phase
+     * @param work
+     *            work to do on each element
+     */
+    private <T> void run(final String name, final List<T> elements, final Consumer<T> work) {
+        final int size = elements.size();
+        if (size == 0) {
+            return;
+        }
+        final Phase phase = phases.computeIfAbsent(name, x -> new Phase());
+        phase.ensureCapacity(size);
+        final int[] units = phase.units;
+        final double[] prefix = phase.prefix;
+        final double[] samples = phase.samples;
+        long totalUnits = 0;
+        for (int i = 0; i < size; i++) {
+            units[i] = getUnits(elements.get(i));
+            totalUnits += units[i];
+            prefix[i + 1] = prefix[i] + units[i] * (i < phase.size ? phase.costs[i] : phase.meanCost);
+        }
+        final double grain = prefix[size] / (parallelism * TASKS);
+        for (int i = 0; i < busy.length(); i++) {
+            busy.set(i, 0);
+        }
+
+        /**
+         * Cuts a range of elements at its cost midpoint until it is cheap
+         * enough or a single element.
+         */
+        class Slice extends RecursiveAction {
+
+            private static final long serialVersionUID = 1L;
+            private final int         from;
+            private final int         to;
+
+            Slice(final int from, final int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > 1 && prefix[to] - prefix[from] > grain) {
+                    int split = Arrays.binarySearch(prefix, from, to, (prefix[from] + prefix[to]) / 2);
+                    if (split < 0) {
+                        split = -split - 1;
+                    }
+                    split = Math.max(from + 1, Math.min(to - 1, split));
+                    invokeAll(new Slice(from, split), new Slice(split, to));
+                    return;
+                }
+                // measured per task, the elements share its time by their units
+                final long start = System.nanoTime();
+                long taskUnits = 0;
+                for (int i = from; i < to; i++) {
+                    work.accept(elements.get(i));
+                    taskUnits += units[i];
+                }
+                final long total = System.nanoTime() - start;
+                final double sample = (double) total / taskUnits;
+                for (int i = from; i < to; i++) {
+                    samples[i] = sample;
+                }
+                final Thread thread = Thread.currentThread();
+                final int slot = thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool ? ((ForkJoinWorkerThread) thread).getPoolIndex() % parallelism : parallelism;
+                busy.addAndGet(slot, total);
+            }
+        }
+
+        pool.invoke(new Slice(0, size));
+
+        // update the estimates, positions after the last element are forgotten
+        final double[] costs = phase.costs;
+        for (int i = 0; i < size; i++) {
+            costs[i] = i < phase.size ? SMOOTHING * samples[i] + (1 - SMOOTHING) * costs[i] : samples[i];
+        }
+        phase.size = size;
+        long totalTime = 0;
+        long max = 0;
+        for (int i = 0; i < busy.length(); i++) {
+            totalTime += busy.get(i);
+            max = Math.max(max, busy.get(i));
+        }
+        phase.meanCost = Math.max(1.0, (double) totalTime / totalUnits);
+        criticalTime += max;
+        balancedTime += (double) totalTime / parallelism;
+    }
+
+    @Override
+    public void simulate(final Net net, final double duration) {
+        final Layers<Simulatable> simulatables = net.getSimulatable();
+        for (final int layer : simulatables.getLayersIterator()) {
+            if (layer == AGENT_LAYER) {
+                final List<Agent> agents = simulatables.getLayerStream(layer).map(x -> (Agent) x).collect(Collectors.toList());
+                // read committed state, write next state
+                run("step", agents, agent -> agent.step(duration));
+                // swap
+                run("commit", agents, Agent::commit);
+                // all the neighbours are moved now
+                run("handshake", agents, Agent::handshake);
+            } else {
+                run("layer" + layer, net.getActiveSimulatables(layer), e -> e.simulate(duration));
+            }
+        }
+    }
+
+    @Override
+    public void think(final Net net, final double duration) {
+        final List<Thinkable> thinkables = net.getThinkableStream().collect(Collectors.toList());
+        run("think", thinkables, element -> {
+            // think
+            try {
+                element.think(duration);
+            } catch (final Exception e) {
+                log.error("Think failed for element: " + element, e);
+            }
+        });
+
+        // thinking ends the tick: report its balance
+        loadImbalance = balancedTime > 0 ? criticalTime / balancedTime - 1 : 0;
+        loadImbalanceSum += loadImbalance;
+        ticks++;
+        log.debug(String.format("Load imbalance: %.3f (critical path: %.3f ms, balanced: %.3f ms)", loadImbalance, criticalTime / 1e6, balancedTime / 1e6));
+        criticalTime = 0;
+        balancedTime = 0;
+    }
+}
@@ -0,0 +1,246 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.bfh.ti.jts.data.Agent;
+import ch.bfh.ti.jts.data.Junction;
+import ch.bfh.ti.jts.data.Net;
+import ch.bfh.ti.jts.utils.Config;
+import ch.bfh.ti.jts.utils.deepcopy.DeepCopy;
+
+/**
+ * Optimistic parallel engine after the time warp mechanism. The net is split
+ * like in the {@link PartitionedEngine}, each region is a
+ * {@link LogicalProcess} simulating on an own copy of the net. The processes
+ * don't wait for each other: in a round each one runs up to
+ * {@code simulation.timewarp.window} ticks ahead, handing agents over as
+ * messages and rolling back to a saved state when a message arrives for a tick
+ * it has simulated already. Regions which rarely exchange agents rarely roll
+ * back.
+ * <p>
+ * After each round the global virtual time (GVT) is taken: the earliest tick
+ * any process may still roll back to, the smallest of the process clocks and
+ * the ticks of the messages not received yet. Ticks before it are final. The
+ * net of the simulation is a view on them: each step rebuilds its agents out
+ * of the states the processes saved for the step and adds up the handshakes
+ * recorded in it, then the processes forget the states before it.
+ * <p>
+ * The processes go on from their saved state after every tick, so a tick
+ * simulated again after a rollback runs like the first time: the results
+ * depend neither on the window nor on the number of regions or the timing of
+ * the threads. They differ from the ones of the other engines in the order
+ * agents at the same position are simulated in, as after restoring a
+ * {@link ch.bfh.ti.jts.simulation.Checkpoint}. Thinking is done by the
+ * processes, events other than handshakes are not published and the step has
+ * to be fixed: a step of another duration discards the ticks simulated ahead.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class TimeWarpEngine implements Engine, AutoCloseable {
+
+    private static final Logger log     = LogManager.getLogger(TimeWarpEngine.class);
+
+    /**
+     * Number of regions the net is split into.
+     */
+    private static final int    REGIONS = Config.getInstance().getInt("simulation.timewarp.regions", Runtime.getRuntime().availableProcessors(), 1, 1024);
+    /**
+     * Number of ticks a process may run ahead of the step being committed.
+     * Bounds the states kept.
+     */
+    private static final int    WINDOW  = Config.getInstance().getInt("simulation.timewarp.window", 16, 1, 100000);
+
+    private final int            regions;
+    private final int            window;
+    private final ForkJoinPool   pool;
+    private final Workers        workers  = new Workers("timewarp");
+    private Net                  net;
+    private List<LogicalProcess> processes;
+    /**
+     * Next tick to commit.
+     */
+    private long                 tick;
+    /**
+     * Duration of the ticks simulated ahead [s].
+     */
+    private double               duration = Double.NaN;
+    private long                 rounds;
+
+    /**
+     * Splits the net into {@code simulation.timewarp.regions} processes with a
+     * window of {@code simulation.timewarp.window} ticks.
+     */
+    public TimeWarpEngine() {
+        this(REGIONS, WINDOW);
+    }
+
+    /**
+     * @param regions
+     *            number of regions to split the net into, one process each
+     * @param window
+     *            number of ticks a process may run ahead of the step being
+     *            committed
+     */
+    public TimeWarpEngine(final int regions, final int window) {
+        if (regions < 1) {
+            throw new IllegalArgumentException("regions");
+        }
+        if (window < 1) {
+            throw new IllegalArgumentException("window");
+        }
+        this.regions = regions;
+        this.window = window;
+        pool = new ForkJoinPool(Math.min(regions, Runtime.getRuntime().availableProcessors()), workers, null, false);
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+        if (tick > 0) {
+            final long executed = processes.stream().mapToLong(LogicalProcess::getExecuted).sum();
+            final long rolledBack = processes.stream().mapToLong(LogicalProcess::getRolledBack).sum();
+            log.info(String.format("%d ticks committed in %d rounds, %d ticks simulated by %d processes, %d rolled back in %d rollbacks, %d messages, %d anti-messages", tick, rounds,
+                    executed, processes.size(), rolledBack, processes.stream().mapToLong(LogicalProcess::getRollbacks).sum(), processes.stream().mapToLong(LogicalProcess::getMessages).sum(),
+                    processes.stream().mapToLong(LogicalProcess::getAntiMessages).sum()));
+        }
+    }
+
+    /**
+     * Publishes a committed tick to the net of the simulation: replaces its
+     * agents by the ones the processes saved after the tick and counts the
+     * handshakes of the tick.
+     */
+    private void commit(final long tick) {
+        // the handshake statistics of the net are the ones counting
+        final Map<Integer, Agent> previous = new HashMap<>();
+        net.getElementStream(Agent.class).forEach(x -> previous.put(x.getId(), (Agent) x));
+        net.clearAgents();
+        for (final LogicalProcess process : processes) {
+            process.readState(tick + 1, net);
+        }
+        net.getElementStream(Agent.class).forEach(x -> {
+            final Agent agent = previous.get(x.getId());
+            if (agent != null) {
+                ((Agent) x).takeHandshakes(agent);
+            }
+        });
+        for (final LogicalProcess process : processes) {
+            final double[] handshakes = process.getHandshakes(tick);
+            for (int i = 0; i < handshakes.length; i += 3) {
+                final Agent agent = (Agent) net.getElement((int) handshakes[i]);
+                // gone if it arrived in this tick
+                if (agent != null) {
+                    agent.addNeighbor((int) handshakes[i + 1], handshakes[i + 2]);
+                }
+            }
+        }
+    }
+
+    private void connect(final Net net) {
+        final List<List<Junction>> parts = PartitionedEngine.split(net, regions);
+        final Map<Integer, Integer> owners = new HashMap<>();
+        for (int i = 0; i < parts.size(); i++) {
+            for (final Junction junction : parts.get(i)) {
+                owners.put(junction.getId(), i);
+            }
+        }
+        final ByteArrayOutputStream state = new ByteArrayOutputStream();
+        try {
+            net.writeState(new DataOutputStream(state));
+        } catch (final IOException e) {
+            // in memory
+            throw new UncheckedIOException(e);
+        }
+        tick = 0;
+        processes = new ArrayList<>(parts.size());
+        for (int i = 0; i < parts.size(); i++) {
+            // same element ids in all the copies
+            final Net copy = DeepCopy.copy(net);
+            final List<Junction> junctions = parts.get(i).stream().map(x -> (Junction) copy.getElement(x.getId())).collect(Collectors.toList());
+            processes.add(new LogicalProcess(i, copy, junctions, owners, parts.size(), tick, state.toByteArray()));
+        }
+        processes.forEach(process -> process.connect(processes));
+        this.net = net;
+        log.info(String.format("Net split into %d logical processes, window of %d ticks", processes.size(), window));
+        processes.forEach(process -> log.info(process));
+    }
+
+    /**
+     * Call while no process simulates.
+     *
+     * @return the global virtual time: the earliest tick a process may still
+     *         roll back to
+     */
+    private long getGlobalVirtualTime() {
+        long gvt = Long.MAX_VALUE;
+        for (final LogicalProcess process : processes) {
+            gvt = Math.min(gvt, Math.min(process.getClock(), process.getPending()));
+        }
+        return gvt;
+    }
+
+    /**
+     * @return number of rollbacks of all the processes so far
+     */
+    public long getRollbacks() {
+        return processes == null ? 0 : processes.stream().mapToLong(LogicalProcess::getRollbacks).sum();
+    }
+
+    @Override
+    public long[] getWorkerIds() {
+        return workers.getIds(false);
+    }
+
+    /**
+     * Lets all the processes run up to a limit, without barriers between them.
+     */
+    private void round(final long limit, final double duration) {
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>(processes.size());
+        for (final LogicalProcess process : processes) {
+            tasks.add(ForkJoinTask.adapt(() -> process.run(limit, duration)));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        rounds++;
+    }
+
+    @Override
+    public void simulate(final Net net, final double duration) {
+        if (this.net != net) {
+            connect(net);
+        }
+        if (duration != this.duration) {
+            if (!Double.isNaN(this.duration)) {
+                log.warn(String.format("Step changed from %.3f s to %.3f s, discarding the ticks simulated ahead", this.duration, duration));
+                processes.forEach(process -> process.rollback(tick));
+            }
+            this.duration = duration;
+        }
+        while (getGlobalVirtualTime() <= tick) {
+            round(tick + window, duration);
+        }
+        commit(tick);
+        tick++;
+        for (final LogicalProcess process : processes) {
+            process.collect(tick);
+        }
+    }
+
+    @Override
+    public void think(final Net net, final double duration) {
+        // the processes think after each tick
+    }
+}
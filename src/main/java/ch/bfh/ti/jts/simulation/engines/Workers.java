@@ -0,0 +1,117 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Creates and remembers the threads of the {@link ForkJoinPool} of an engine,
+ * so the engine can tell its workers apart from the other threads of the JVM.
+ *
+ * @author Enteee
+ * @author winki
+ */
+class Workers implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+
+    /**
+     * Name prefix of the workers of {@link ForkJoinPool#commonPool()}.
+     */
+    private static final String COMMON_POOL     = "ForkJoinPool.commonPool-worker-";
+
+    /**
+     * Ids of the workers of the common pool, taken when the pool had
+     * {@link Workers#commonPoolSize} workers.
+     */
+    private static long[]       commonPoolIds   = new long[0];
+    private static int          commonPoolSize  = -1;
+
+    /**
+     * Looking up the threads of the JVM is expensive, so the ids are only
+     * looked up again when the size of the pool changes.
+     *
+     * @return ids of the workers of the common pool, the pool the parallel
+     *         streams run on. Don't modify.
+     */
+    static synchronized long[] getCommonPoolIds() {
+        final int size = ForkJoinPool.commonPool().getPoolSize();
+        if (size != commonPoolSize) {
+            final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            commonPoolIds = Stream.of(bean.getThreadInfo(bean.getAllThreadIds())).filter(info -> info != null && info.getThreadName().startsWith(COMMON_POOL)).mapToLong(ThreadInfo::getThreadId)
+                    .toArray();
+            commonPoolSize = size;
+        }
+        return commonPoolIds;
+    }
+
+    private final String        name;
+    private final Set<Thread>   threads         = ConcurrentHashMap.newKeySet();
+    /**
+     * Number of threads created so far.
+     */
+    private final AtomicInteger created         = new AtomicInteger();
+    /**
+     * Ids of {@link Workers#threads} when {@link Workers#idsOf} threads were
+     * created. Ended threads are dropped when the next one is created.
+     */
+    private long[]              ids             = new long[0];
+    private int                 idsOf;
+    /**
+     * {@link Workers#ids} followed by the ids of the common pool, built from
+     * {@link Workers#idsWithCommonPoolOf} and
+     * {@link Workers#commonPoolIdsOf}.
+     */
+    private long[]              idsWithCommonPool;
+    private long[]              idsWithCommonPoolOf;
+    private long[]              commonPoolIdsOf;
+
+    /**
+     * @param name
+     *            name of the threads, followed by their index in the pool
+     */
+    Workers(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Allocates nothing unless the workers changed. Call from one thread.
+     *
+     * @param commonPool
+     *            {@code true} to add the workers of the common pool
+     * @return ids of the workers. Don't modify.
+     */
+    long[] getIds(final boolean commonPool) {
+        final int count = created.get();
+        if (count != idsOf) {
+            threads.removeIf(thread -> thread.getState() == Thread.State.TERMINATED);
+            ids = threads.stream().mapToLong(Thread::getId).toArray();
+            idsOf = count;
+        }
+        final long[] own = ids;
+        if (!commonPool) {
+            return own;
+        }
+        final long[] common = getCommonPoolIds();
+        if (own != idsWithCommonPoolOf || common != commonPoolIdsOf) {
+            idsWithCommonPool = LongStream.concat(LongStream.of(own), LongStream.of(common)).toArray();
+            idsWithCommonPoolOf = own;
+            commonPoolIdsOf = common;
+        }
+        return idsWithCommonPool;
+    }
+
+    @Override
+    public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+        final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName(name + "-" + thread.getPoolIndex());
+        threads.add(thread);
+        created.incrementAndGet();
+        return thread;
+    }
+}
@@ -3,6 +3,9 @@ package ch.bfh.ti.jts.utils;
 import java.awt.Color;
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Global helper functions.
@@ -124,4 +127,45 @@ public class Helpers {
         final double y = a.getY() + 0.5 * (b.getY() - a.getY());
         return new Point2D.Double(x, y);
     }
+
+    /**
+     * Reads an int written by {@link Helpers#writeVarInt(DataOutput, int)}.
+     *
+     * @param in
+     *            input to read from
+     * @return the value
+     * @throws IOException
+     */
+    public static int readVarInt(final DataInput in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 28) {
+                throw new IOException("varint too long");
+            }
+            b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Writes an int in 1 to 5 bytes, 7 bits per byte. Small non negative
+     * values need less space.
+     *
+     * @param out
+     *            output to write to
+     * @param value
+     *            the value
+     * @throws IOException
+     */
+    public static void writeVarInt(final DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
 }
@@ -0,0 +1,125 @@
+package ch.bfh.ti.jts.utils;
+
+import java.util.Arrays;
+
+/**
+ * Set of {@code int}s without boxing. Open addressing with linear probing, the
+ * table doubles when half full. Looking up and adding known values doesn't
+ * allocate. Not thread safe.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class IntHashSet {
+
+    /**
+     * Marks a free slot, the value itself is kept in
+     * {@link IntHashSet#containsFree}.
+     */
+    private static final int FREE = Integer.MIN_VALUE;
+
+    private static int mix(final int value) {
+        final int h = value * 0x9e3779b9;
+        return h ^ h >>> 16;
+    }
+
+    private int[]            slots;
+    private boolean          containsFree;
+    private int              size;
+
+    public IntHashSet() {
+        this(16);
+    }
+
+    /**
+     * @param capacity
+     *            number of values the set holds without growing
+     */
+    public IntHashSet(final int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity");
+        }
+        slots = new int[Math.max(4, Integer.highestOneBit(Math.max(1, capacity * 2 - 1)) << 1)];
+        Arrays.fill(slots, FREE);
+    }
+
+    /**
+     * @param value
+     *            the value
+     * @return {@code true} if the value was not in the set yet
+     */
+    public boolean add(final int value) {
+        if (value == FREE) {
+            if (containsFree) {
+                return false;
+            }
+            containsFree = true;
+            size++;
+            return true;
+        }
+        final int mask = slots.length - 1;
+        int i = mix(value) & mask;
+        while (slots[i] != FREE) {
+            if (slots[i] == value) {
+                return false;
+            }
+            i = i + 1 & mask;
+        }
+        slots[i] = value;
+        size++;
+        if (size * 2 > slots.length) {
+            grow();
+        }
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(slots, FREE);
+        containsFree = false;
+        size = 0;
+    }
+
+    /**
+     * @param value
+     *            the value
+     * @return {@code true} if the value is in the set
+     */
+    public boolean contains(final int value) {
+        if (value == FREE) {
+            return containsFree;
+        }
+        final int mask = slots.length - 1;
+        int i = mix(value) & mask;
+        while (slots[i] != FREE) {
+            if (slots[i] == value) {
+                return true;
+            }
+            i = i + 1 & mask;
+        }
+        return false;
+    }
+
+    private void grow() {
+        final int[] old = slots;
+        slots = new int[old.length * 2];
+        Arrays.fill(slots, FREE);
+        final int mask = slots.length - 1;
+        for (final int value : old) {
+            if (value != FREE) {
+                int i = mix(value) & mask;
+                while (slots[i] != FREE) {
+                    i = i + 1 & mask;
+                }
+                slots[i] = value;
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+}
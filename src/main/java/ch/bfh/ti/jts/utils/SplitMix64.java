@@ -0,0 +1,149 @@
+package ch.bfh.ti.jts.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Splittable pseudo random number generator. Uses the SplitMix64 algorithm
+ * of {@link java.util.SplittableRandom}, so the sequences for a seed are the
+ * same, but unlike it is serializable and its state can be written and read,
+ * e.g. for checkpoints. {@link SplitMix64#split()} hands out an independent
+ * generator: each consumer gets a stream of its own, no state is shared
+ * between threads. Not thread safe.
+ *
+ * @author Enteee
+ * @author winki
+ */
+public class SplitMix64 implements Serializable {
+
+    private static final long   serialVersionUID = 1L;
+    private static final long   GOLDEN_GAMMA     = 0x9e3779b97f4a7c15L;
+    private static final double DOUBLE_UNIT      = 0x1.0p-53;
+
+    private long                seed;
+    /**
+     * Odd increment of {@link SplitMix64#seed}.
+     */
+    private final long          gamma;
+
+    public SplitMix64(final long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    private SplitMix64(final long seed, final long gamma) {
+        this.seed = seed;
+        this.gamma = gamma;
+    }
+
+    /**
+     * Reads a generator written by {@link SplitMix64#write(DataOutput)}.
+     *
+     * @param in
+     *            input to read from
+     * @return the generator, continuing where the written one stopped
+     * @throws IOException
+     */
+    public static SplitMix64 read(final DataInput in) throws IOException {
+        final long seed = in.readLong();
+        final long gamma = in.readLong();
+        if ((gamma & 1) == 0) {
+            throw new IOException("invalid gamma");
+        }
+        return new SplitMix64(seed, gamma);
+    }
+
+    /**
+     * Value of the sequence of {@code new SplitMix64(seed)} at an index,
+     * without stepping through the values before it. Depends on nothing else,
+     * so it can be drawn on any thread in any order, e.g. keyed by the step
+     * and an id.
+     *
+     * @param seed
+     *            seed of the sequence
+     * @param index
+     *            index of the value, 0 for the first
+     * @return the value {@link SplitMix64#nextLong()} returns at that index
+     */
+    public static long valueAt(final long seed, final long index) {
+        return mix64(seed + (index + 1) * GOLDEN_GAMMA);
+    }
+
+    private static int mix32(long z) {
+        z = (z ^ z >>> 33) * 0x62a9d9ed799705f5L;
+        return (int) ((z ^ z >>> 28) * 0xcb24d0a5c88c35b3L >>> 32);
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ z >>> 30) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ z >>> 27) * 0x94d049bb133111ebL;
+        return z ^ z >>> 31;
+    }
+
+    private static long mixGamma(long z) {
+        z = (z ^ z >>> 33) * 0xff51afd7ed558ccdL;
+        z = (z ^ z >>> 33) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ z >>> 33) | 1L;
+        // avoid increments with too few bit transitions
+        return Long.bitCount(z ^ z >>> 1) < 24 ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+
+    /**
+     * @return uniformly distributed value in [0, 1)
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * @param bound
+     *            upper bound (exclusive), positive
+     * @return uniformly distributed value in [0, bound)
+     */
+    public int nextInt(final int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound");
+        }
+        int r = mix32(nextSeed());
+        final int m = bound - 1;
+        if ((bound & m) == 0) {
+            // power of two
+            return r & m;
+        }
+        // reject the values of the last incomplete range
+        for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = mix32(nextSeed()) >>> 1) {
+        }
+        return r;
+    }
+
+    public long nextLong() {
+        return mix64(nextSeed());
+    }
+
+    private long nextSeed() {
+        return seed += gamma;
+    }
+
+    /**
+     * Hands out a new generator. The sequences of both generators are
+     * independent of each other, this generator advances.
+     *
+     * @return the new generator
+     */
+    public SplitMix64 split() {
+        return new SplitMix64(nextLong(), mixGamma(nextSeed()));
+    }
+
+    /**
+     * Writes the state of this generator.
+     *
+     * @param out
+     *            output to write to
+     * @throws IOException
+     */
+    public void write(final DataOutput out) throws IOException {
+        out.writeLong(seed);
+        out.writeLong(gamma);
+    }
+}
@@ -1,9 +1,9 @@
 package ch.bfh.ti.jts.utils.layers;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -31,7 +31,8 @@ public class Layers<T> implements Serializable {
         // does the layer exist?
         if (!layers.containsKey(layer)) {
             // add a new layer
-            layers.put(layer, new LinkedList<T>());
+            // array lists split well for parallel streams
+            layers.put(layer, new ArrayList<T>());
             layerKeys.add(layer);
         }
         // add layerable to layer
@@ -4,8 +4,13 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
@@ -13,6 +18,18 @@ import ch.bfh.ti.jts.gui.PolyShape;
 
 public class PolyShapeTest {
 
+    /**
+     * (0, 0) - (0, 10) - (10, 10) - (10, 0): three segments of 10 m.
+     */
+    private static PolyShape createThreeSegments() {
+        final List<Point2D> points = new LinkedList<Point2D>();
+        points.add(new Point2D.Double(0.0, 0.0));
+        points.add(new Point2D.Double(0.0, 10.0));
+        points.add(new Point2D.Double(10.0, 10.0));
+        points.add(new Point2D.Double(10.0, 0.0));
+        return new PolyShape(points);
+    }
+
     @Test
     public void constructor() {
         // length: 363.83
@@ -90,4 +107,74 @@ public class PolyShapeTest {
         final PolyShape ps = new PolyShape(points);
         assertEquals(ps.getRelativePosition(0.5), new Point2D.Double(0, 5.0));
     }
+
+    @Test
+    public void getRelativePositionBounds() {
+        final PolyShape ps = createThreeSegments();
+        assertEquals(ps.getRelativePosition(0.0), new Point2D.Double(0.0, 0.0));
+        assertEquals(ps.getRelativePosition(1.0), new Point2D.Double(10.0, 0.0));
+        assertTrue(ps.getRelativeOrientation(0.0) == Math.PI / 2);
+        assertTrue(ps.getRelativeOrientation(1.0) == -Math.PI / 2);
+        // clamped
+        assertEquals(ps.getRelativePosition(-0.5), new Point2D.Double(0.0, 0.0));
+        assertEquals(ps.getRelativePosition(1.5), new Point2D.Double(10.0, 0.0));
+    }
+
+    @Test
+    public void getRelativePositionSegmentBoundaries() {
+        final PolyShape ps = createThreeSegments();
+        // a boundary belongs to the segment ending there
+        assertEquals(ps.getRelativePosition(1.0 / 3), new Point2D.Double(0.0, 10.0));
+        assertTrue(ps.getRelativeOrientation(1.0 / 3) == Math.PI / 2);
+        assertEquals(ps.getRelativePosition(2.0 / 3), new Point2D.Double(10.0, 10.0));
+        assertTrue(ps.getRelativeOrientation(2.0 / 3) == 0.0);
+        // just after a boundary
+        assertTrue(ps.getRelativeOrientation(0.5) == 0.0);
+        assertEquals(ps.getRelativePosition(0.5), new Point2D.Double(5.0, 10.0));
+        assertTrue(ps.getRelativeOrientation(0.7) == -Math.PI / 2);
+    }
+
+    @Test
+    public void getRelativePositionEmptySegment() {
+        final List<Point2D> points = new LinkedList<Point2D>();
+        points.add(new Point2D.Double(0.0, 0.0));
+        points.add(new Point2D.Double(0.0, 0.0));
+        points.add(new Point2D.Double(0.0, 10.0));
+        final PolyShape ps = new PolyShape(points);
+        assertEquals(ps.getRelativePosition(0.0), new Point2D.Double(0.0, 0.0));
+        assertEquals(ps.getRelativePosition(0.5), new Point2D.Double(0.0, 5.0));
+        assertEquals(ps.getRelativePosition(1.0), new Point2D.Double(0.0, 10.0));
+    }
+
+    @Test
+    public void getRelativePositionConcurrent() throws Exception {
+        final PolyShape ps = createThreeSegments();
+        final int lookups = 10000;
+        final Point2D[] expected = new Point2D[lookups + 1];
+        for (int i = 0; i <= lookups; i++) {
+            expected[i] = ps.getRelativePosition((double) i / lookups);
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int offset = t;
+                results.add(executor.submit((Callable<Boolean>) () -> {
+                    // each thread walks the shape from another start
+                    for (int i = 0; i <= lookups; i++) {
+                        final int index = (i + offset * lookups / 8) % (lookups + 1);
+                        if (!ps.getRelativePosition((double) index / lookups).equals(expected[index])) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (final Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
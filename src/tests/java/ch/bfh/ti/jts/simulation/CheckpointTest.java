@@ -0,0 +1,140 @@
+package ch.bfh.ti.jts.simulation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ch.bfh.ti.jts.App;
+import ch.bfh.ti.jts.data.Net;
+import ch.bfh.ti.jts.simulation.engines.BufferedEngine;
+import ch.bfh.ti.jts.utils.deepcopy.DeepCopy;
+
+public class CheckpointTest {
+
+    private static final String NET   = "default";
+    private static final int    TICKS = 100;
+
+    /**
+     * Element ids are unique within the JVM, all the simulations copy this
+     * net.
+     */
+    private static Net          template;
+
+    @BeforeClass
+    public static void importNet() {
+        template = App.importNet(NET);
+    }
+
+    private static Simulation createSimulation() {
+        final Simulation simulation = new Simulation(DeepCopy.copy(template));
+        simulation.setRecordHistory(false);
+        simulation.setWallClockPacing(false);
+        simulation.setEngine(new BufferedEngine());
+        return simulation;
+    }
+
+    private static byte[] getState(final Simulation simulation) throws IOException {
+        final ByteArrayOutputStream state = new ByteArrayOutputStream();
+        simulation.getSimNet().writeState(new DataOutputStream(state));
+        return state.toByteArray();
+    }
+
+    private static void tick(final Simulation simulation, final int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            simulation.tick();
+        }
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes a checkpoint and replaces the int at an offset of its
+     * uncompressed content.
+     */
+    private Path writeModified(final int offset, final int value) throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("modified.bin");
+        try (Simulation simulation = createSimulation()) {
+            Checkpoint.capture(NET, 0, Arrays.asList(), simulation).write(file);
+        }
+        final byte[] content;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            content = bytes.toByteArray();
+        }
+        ByteBuffer.wrap(content).putInt(offset, value);
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            out.write(content);
+        }
+        return file;
+    }
+
+    @Test
+    public void otherVersionIsRejected() throws IOException {
+        final Path file = writeModified(4, Checkpoint.VERSION + 1);
+        try {
+            Checkpoint.read(file);
+            fail("read a checkpoint of another version");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("version " + (Checkpoint.VERSION + 1)));
+        }
+    }
+
+    @Test
+    public void otherFileIsRejected() throws IOException {
+        final Path file = writeModified(0, 0);
+        try {
+            Checkpoint.read(file);
+            fail("read a file which is not a checkpoint");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().startsWith("not a checkpoint"));
+        }
+    }
+
+    @Test
+    public void writeReadRestore() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("checkpoint.bin");
+        final List<Double> rates = Arrays.asList(0.0, 0.5, 1.25);
+        try (Simulation simulation = createSimulation(); Simulation resumed = createSimulation()) {
+            tick(simulation, TICKS);
+            Checkpoint.capture(NET, TICKS, rates, simulation).write(file);
+
+            final Checkpoint checkpoint = Checkpoint.read(file);
+            assertEquals(NET, checkpoint.getNetName());
+            assertEquals(TICKS, checkpoint.getTick());
+            assertEquals(rates, checkpoint.getHandshakeRates());
+            checkpoint.restore(resumed);
+            assertEquals(simulation.getStepController().getStep(), resumed.getStepController().getStep(), 0.0);
+            assertArrayEquals(getState(simulation), getState(resumed));
+
+            // and goes on the same way
+            tick(simulation, TICKS);
+            tick(resumed, TICKS);
+            assertArrayEquals(getState(simulation), getState(resumed));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package ch.bfh.ti.jts.simulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import ch.bfh.ti.jts.simulation.EventBus.Subscription;
+
+public class EventBusTest {
+
+    private static final int CAPACITY = 16;
+
+    private static boolean publish(final EventBus bus, final int agent) {
+        return bus.publish(EventType.LANE_CHANGE, agent * 0.1, agent, agent + 1, agent + 2, agent * 0.5);
+    }
+
+    @Test
+    public void closedSubscriptionReleasesSlots() {
+        final EventBus bus = new EventBus(CAPACITY);
+        final Subscription slow = bus.subscribe();
+        try (Subscription fast = bus.subscribe()) {
+            for (int i = 0; i < CAPACITY; i++) {
+                assertTrue(publish(bus, i));
+            }
+            assertEquals(CAPACITY, fast.poll(x -> {
+            }, Integer.MAX_VALUE));
+            assertFalse(publish(bus, CAPACITY));
+            slow.close();
+            assertTrue(publish(bus, CAPACITY + 1));
+        }
+        assertEquals(1, bus.getDropped());
+    }
+
+    @Test
+    public void countsDropsWhenFull() {
+        final EventBus bus = new EventBus(CAPACITY);
+        assertEquals(CAPACITY, bus.getCapacity());
+        try (Subscription subscription = bus.subscribe()) {
+            for (int i = 0; i < CAPACITY; i++) {
+                assertTrue(publish(bus, i));
+            }
+            // the subscription is a whole ring behind
+            for (int i = 0; i < 5; i++) {
+                assertFalse(publish(bus, CAPACITY + i));
+            }
+            assertEquals(CAPACITY, bus.getPublished());
+            assertEquals(5, bus.getDropped());
+            assertEquals(CAPACITY, subscription.getBacklog());
+            // the events kept are the first ones, in order
+            final List<Integer> agents = new ArrayList<>();
+            assertEquals(CAPACITY, subscription.poll(event -> {
+                assertEquals(EventType.LANE_CHANGE, event.getType());
+                assertEquals(event.getAgent() * 0.1, event.getTime(), 0.0);
+                assertEquals(event.getAgent() + 1, event.getOther());
+                assertEquals(event.getAgent() + 2, event.getLane());
+                assertEquals(event.getAgent() * 0.5, event.getValue(), 0.0);
+                agents.add(event.getAgent());
+            }, Integer.MAX_VALUE));
+            for (int i = 0; i < CAPACITY; i++) {
+                assertEquals(i, (int) agents.get(i));
+            }
+            // read slots are free again
+            assertTrue(publish(bus, CAPACITY));
+            assertEquals(5, bus.getDropped());
+            assertEquals(1, subscription.getBacklog());
+        }
+    }
+
+    @Test
+    public void concurrentPublishers() throws InterruptedException {
+        final int publishers = 4;
+        final int events = 10000;
+        final EventBus bus = new EventBus(CAPACITY);
+        long read = 0;
+        try (Subscription subscription = bus.subscribe()) {
+            final ForkJoinPool pool = new ForkJoinPool(publishers);
+            for (int i = 0; i < publishers; i++) {
+                pool.execute(() -> {
+                    for (int j = 0; j < events; j++) {
+                        publish(bus, j);
+                    }
+                });
+            }
+            pool.shutdown();
+            while (!pool.awaitTermination(1, TimeUnit.MILLISECONDS)) {
+                read += subscription.poll(x -> {
+                }, CAPACITY);
+            }
+            read += subscription.poll(x -> {
+            }, Integer.MAX_VALUE);
+        }
+        // every event is either read or counted as dropped
+        assertEquals(publishers * events, bus.getPublished() + bus.getDropped());
+        assertEquals(bus.getPublished(), read);
+    }
+
+    @Test
+    public void noSubscriptionPublishesNothing() {
+        final EventBus bus = new EventBus(CAPACITY);
+        assertFalse(publish(bus, 0));
+        assertEquals(0, bus.getPublished());
+        assertEquals(0, bus.getDropped());
+    }
+}
@@ -0,0 +1,97 @@
+package ch.bfh.ti.jts.simulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.NavigableMap;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class FrameHistoryTest {
+
+    private static final int        TICKS    = 200;
+    private static final int        INTERVAL = 8;
+
+    private static List<AgentFrame> frames;
+
+    @BeforeClass
+    public static void simulate() {
+        try (Simulation simulation = Frames.createSimulation()) {
+            frames = Frames.simulate(simulation, TICKS);
+        }
+        assertTrue(frames.get(TICKS - 1).size() > 0);
+    }
+
+    private static void publish(final FrameHistory history, final int index) {
+        final double duration = index == 0 ? 0 : frames.get(index).getSimulationTime() - frames.get(index - 1).getSimulationTime();
+        history.publish(frames.get(index), duration);
+    }
+
+    @Test
+    public void keepsBudget() {
+        final long budget = 4 * frames.get(TICKS - 1).getRetainedSize();
+        final FrameHistory history = new FrameHistory(TICKS, budget, INTERVAL);
+        for (int i = 0; i < TICKS; i++) {
+            publish(history, i);
+            // the frames since the last keyframe are kept in any case, no
+            // entry is larger than its frame
+            long group = 0;
+            for (int j = Math.max(0, i - INTERVAL + 1); j <= i; j++) {
+                group += frames.get(j).getRetainedSize();
+            }
+            assertTrue(history.getSize() <= Math.max(budget, group));
+            final AgentFrame oldest = history.getOldest();
+            int index = i;
+            while (frames.get(index).getSimulationTime() > oldest.getSimulationTime()) {
+                index--;
+            }
+            Frames.assertFrameEquals(frames.get(index), oldest);
+        }
+        // evicted frames are gone
+        assertNull(history.floor(frames.get(0).getSimulationTime()));
+        Frames.assertFrameEquals(frames.get(TICKS - 1), history.floor(frames.get(TICKS - 1).getSimulationTime()));
+    }
+
+    @Test
+    public void keepsCapacity() {
+        final FrameHistory history = new FrameHistory(32, Long.MAX_VALUE, INTERVAL);
+        for (int i = 0; i < TICKS; i++) {
+            publish(history, i);
+        }
+        final NavigableMap<Double, AgentFrame> snapshot = history.snapshot(0);
+        assertTrue(snapshot.size() <= 32);
+        Frames.assertFrameEquals(frames.get(TICKS - snapshot.size()), snapshot.firstEntry().getValue());
+    }
+
+    @Test
+    public void rebuildsFrames() {
+        final FrameHistory history = new FrameHistory(TICKS, Long.MAX_VALUE, INTERVAL);
+        long keyframes = 0;
+        for (int i = 0; i < TICKS; i++) {
+            publish(history, i);
+            keyframes += frames.get(i).getRetainedSize();
+        }
+        assertEquals(TICKS - 1, history.getSequence());
+        // deltas are smaller than the frames they replace
+        assertTrue(history.getSize() < keyframes);
+        Frames.assertFrameEquals(frames.get(0), history.getOldest());
+        // ascending, each frame continues from the last one
+        final NavigableMap<Double, AgentFrame> snapshot = history.snapshot(0);
+        assertEquals(TICKS, snapshot.size());
+        int i = 0;
+        for (final AgentFrame frame : snapshot.values()) {
+            Frames.assertFrameEquals(frames.get(i++), frame);
+        }
+        // descending, each frame starts from its keyframe
+        for (i = TICKS - 1; i >= 0; i--) {
+            final double time = frames.get(i).getSimulationTime();
+            Frames.assertFrameEquals(frames.get(i), history.floor(time));
+            if (i > 0) {
+                Frames.assertFrameEquals(frames.get(i - 1), history.floor(Math.nextDown(time)));
+            }
+        }
+    }
+}
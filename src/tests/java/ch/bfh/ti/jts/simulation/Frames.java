@@ -0,0 +1,74 @@
+package ch.bfh.ti.jts.simulation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.bfh.ti.jts.App;
+import ch.bfh.ti.jts.data.Net;
+import ch.bfh.ti.jts.data.Vehicle;
+import ch.bfh.ti.jts.simulation.engines.BufferedEngine;
+import ch.bfh.ti.jts.utils.deepcopy.DeepCopy;
+
+/**
+ * Captures the frames of a simulation of the default net and compares frames.
+ */
+final class Frames {
+
+    static final String NET = "default";
+
+    /**
+     * Element ids are unique within the JVM, all the simulations copy this
+     * net.
+     */
+    private static Net  template;
+
+    static void assertFrameEquals(final AgentFrame expected, final AgentFrame actual) {
+        assertEquals(expected.getSimulationTime(), actual.getSimulationTime(), 0.0);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getId(i), actual.getId(i));
+            assertEquals(expected.getLaneId(i), actual.getLaneId(i));
+            assertEquals(expected.getLanePosition(i), actual.getLanePosition(i), 0.0);
+            assertEquals(expected.getVelocity(i), actual.getVelocity(i), 0.0);
+            assertEquals(expected.getAcceleration(i), actual.getAcceleration(i), 0.0);
+            assertEquals(expected.getLaneChange(i), actual.getLaneChange(i));
+            assertEquals(expected.getColorIndex(i), actual.getColorIndex(i));
+            final Vehicle vehicle = expected.getVehicle(i);
+            assertEquals(vehicle.getAgent(), actual.getVehicle(i).getAgent());
+            assertEquals(vehicle.getLength(), actual.getVehicle(i).getLength(), 0.0);
+            assertEquals(vehicle.getMaxVelocity(), actual.getVehicle(i).getMaxVelocity(), 0.0);
+        }
+    }
+
+    static synchronized Simulation createSimulation() {
+        if (template == null) {
+            template = App.importNet(NET);
+        }
+        final Simulation simulation = new Simulation(DeepCopy.copy(template));
+        simulation.setRecordHistory(false);
+        simulation.setWallClockPacing(false);
+        simulation.setEngine(new BufferedEngine());
+        return simulation;
+    }
+
+    /**
+     * @param simulation
+     *            the simulation
+     * @param ticks
+     *            number of ticks to simulate
+     * @return the frame after each tick
+     */
+    static List<AgentFrame> simulate(final Simulation simulation, final int ticks) {
+        final List<AgentFrame> frames = new ArrayList<>(ticks);
+        for (int i = 0; i < ticks; i++) {
+            simulation.tick();
+            frames.add(AgentFrame.capture(simulation.getTopology(), simulation.getSimNet()));
+        }
+        return frames;
+    }
+
+    private Frames() {
+    }
+}
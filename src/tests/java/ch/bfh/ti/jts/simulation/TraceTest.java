@@ -0,0 +1,68 @@
+package ch.bfh.ti.jts.simulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TraceTest {
+
+    private static final int TICKS = 200;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void cutOffTraceIsReadable() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("trace.bin");
+        final List<AgentFrame> frames;
+        try (Simulation simulation = Frames.createSimulation(); TraceWriter writer = new TraceWriter(file, Frames.NET, simulation.getTopology())) {
+            frames = Frames.simulate(simulation, TICKS);
+            for (final AgentFrame frame : frames) {
+                writer.append(frame);
+            }
+        }
+        // the last frame is only half written
+        final byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length - 10));
+        try (TraceReader reader = new TraceReader(file)) {
+            assertEquals(TICKS - 1, reader.getFrameCount());
+            Frames.assertFrameEquals(frames.get(TICKS - 2), reader.getFrame(TICKS - 2, frames.get(0).getTopology()));
+        }
+    }
+
+    @Test
+    public void writeRead() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("trace.bin");
+        final List<AgentFrame> frames;
+        final Topology topology;
+        try (Simulation simulation = Frames.createSimulation(); TraceWriter writer = new TraceWriter(file, Frames.NET, simulation.getTopology())) {
+            topology = simulation.getTopology();
+            frames = Frames.simulate(simulation, TICKS);
+            for (final AgentFrame frame : frames) {
+                writer.append(frame);
+            }
+        }
+        assertTrue(frames.get(TICKS - 1).size() > 0);
+        try (TraceReader reader = new TraceReader(file)) {
+            assertEquals(Frames.NET, reader.getNetName());
+            assertEquals(topology.getElements().size(), reader.getElementCount());
+            assertEquals(TICKS, reader.getFrameCount());
+            for (int i = 0; i < TICKS; i++) {
+                final double time = frames.get(i).getSimulationTime();
+                assertEquals(time, reader.getTime(i), 0.0);
+                assertEquals(i, reader.floorIndex(time));
+                assertEquals(i - 1, reader.floorIndex(Math.nextDown(time)));
+                Frames.assertFrameEquals(frames.get(i), reader.getFrame(i, topology));
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ch.bfh.ti.jts.simulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import ch.bfh.ti.jts.data.Flow;
+import ch.bfh.ti.jts.data.Lane;
+import ch.bfh.ti.jts.simulation.WhatIf.Result;
+import ch.bfh.ti.jts.simulation.WhatIf.Scenario;
+
+public class WhatIfTest {
+
+    private static final int    TICKS   = 100;
+    private static final double HORIZON = 20.0;
+
+    private static void assertResultEquals(final Result expected, final Result actual) {
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getMeanSpeed(), actual.getMeanSpeed(), 0.0);
+        assertEquals(expected.getThroughput(), actual.getThroughput(), 0.0);
+        assertEquals(expected.getHandshakeRate(), actual.getHandshakeRate(), 0.0);
+        assertEquals(expected.getAgents(), actual.getAgents());
+    }
+
+    @Test
+    public void forksDontChangeEachOther() {
+        try (Simulation simulation = Frames.createSimulation(); WhatIf whatIf = new WhatIf(Frames.NET)) {
+            Frames.simulate(simulation, TICKS);
+            final int laneId = simulation.getSimNet().getElementStream(Lane.class).findFirst().get().getId();
+            final List<Scenario> scenarios = Arrays.asList(new Scenario("no flows", net -> net.getRoutes().stream().filter(x -> x instanceof Flow).map(x -> (Flow) x)
+                    .forEach(x -> x.setFrequency(0, net.getSimulationTime()))), new Scenario("close lane", net -> ((Lane) net.getElement(laneId)).setClosed(true)));
+            final List<Result> first = whatIf.evaluate(simulation, HORIZON, Collections.emptyList()).join();
+            final List<Result> modified = whatIf.evaluate(simulation, HORIZON, scenarios).join();
+            // the forks after the modified ones start from the checkpoint only
+            final List<Result> second = whatIf.evaluate(simulation, HORIZON, Collections.emptyList()).join();
+            assertEquals(1, first.size());
+            assertEquals(3, modified.size());
+            assertTrue(first.get(0).getAgents() > 0);
+            assertResultEquals(first.get(0), modified.get(0));
+            assertResultEquals(first.get(0), second.get(0));
+            assertNotEquals(first.get(0).getThroughput() + first.get(0).getAgents(), modified.get(1).getThroughput() + modified.get(1).getAgents(), 0.0);
+            // the running simulation is not changed
+            assertTrue(simulation.getSimNet().getElementStream(Lane.class).noneMatch(x -> ((Lane) x).isClosed()));
+        }
+    }
+}
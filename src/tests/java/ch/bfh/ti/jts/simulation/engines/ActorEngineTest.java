@@ -0,0 +1,23 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ActorEngineTest {
+
+    private static final int PARALLELISM = 4;
+
+    @Test
+    public void mailboxesAreDelivered() {
+        final ActorEngine engine = new ActorEngine(PARALLELISM);
+        Runs.simulate(() -> engine);
+        assertTrue(engine.getBatches() > 0);
+        for (final Actor actor : engine.getActors()) {
+            assertEquals(0, actor.getMailboxSize());
+        }
+        // actors without agents are not scheduled
+        assertTrue(engine.getScheduled() < (long) Runs.TICKS * engine.getActors().size());
+    }
+}
@@ -0,0 +1,29 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class BufferedEngineTest {
+
+    /**
+     * Parallel streams started on a worker of a pool run on that pool.
+     */
+    private static byte[] simulate(final int threads) throws Exception {
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.submit(() -> Runs.simulate(BufferedEngine::new)).get();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void sameResultsForAnyNumberOfThreads() throws Exception {
+        final byte[] expected = simulate(1);
+        assertArrayEquals(expected, simulate(2));
+        assertArrayEquals(expected, simulate(4));
+    }
+}
@@ -0,0 +1,51 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Supplier;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class EngineEquivalenceTest {
+
+    /**
+     * Workers or regions of the engines, independent of the machine.
+     */
+    private static final int PARALLELISM = 4;
+
+    private static byte[]    expected;
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> engines() {
+        return Arrays.asList(new Object[][] {
+                { "Buffered", (Supplier<Engine>) BufferedEngine::new },
+                { "Partitioned", (Supplier<Engine>) () -> new PartitionedEngine(PARALLELISM) },
+                { "Scheduled", (Supplier<Engine>) () -> new ScheduledEngine(PARALLELISM) },
+                { "Actor", (Supplier<Engine>) () -> new ActorEngine(PARALLELISM) },
+                // every tick committed before the next one is simulated
+                { "TimeWarp", (Supplier<Engine>) () -> new TimeWarpEngine(PARALLELISM, 1) } });
+    }
+
+    @BeforeClass
+    public static void simulateBuffered() {
+        expected = Runs.simulate(BufferedEngine::new);
+    }
+
+    @Parameter(0)
+    public String           name;
+    @Parameter(1)
+    public Supplier<Engine> engine;
+
+    @Test
+    public void sameResultsAsBuffered() {
+        assertArrayEquals(expected, Runs.simulate(engine));
+    }
+}
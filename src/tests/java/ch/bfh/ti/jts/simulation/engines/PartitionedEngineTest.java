@@ -0,0 +1,19 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PartitionedEngineTest {
+
+    private static final int REGIONS = 4;
+
+    @Test
+    public void handsOffAgentsBetweenRegions() {
+        assertEquals(REGIONS, PartitionedEngine.split(Runs.copyTemplate(), REGIONS).size());
+        final PartitionedEngine engine = new PartitionedEngine(REGIONS);
+        Runs.simulate(() -> engine);
+        assertTrue(engine.getHandOffs() > 0);
+    }
+}
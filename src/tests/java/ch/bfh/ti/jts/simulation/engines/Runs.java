@@ -0,0 +1,64 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Supplier;
+
+import ch.bfh.ti.jts.App;
+import ch.bfh.ti.jts.data.Net;
+import ch.bfh.ti.jts.simulation.Simulation;
+import ch.bfh.ti.jts.utils.deepcopy.DeepCopy;
+
+/**
+ * Simulates copies of a net with an engine and returns their state, to compare
+ * the results of the engines. The net is large enough to be split into several
+ * regions. Element ids are unique within the JVM, so all the runs copy the same
+ * imported net.
+ */
+final class Runs {
+
+    static final String NET   = "wankdorf";
+    static final int    TICKS = 300;
+    static final long   SEED  = 42;
+
+    private static Net  template;
+
+    static synchronized Net copyTemplate() {
+        if (template == null) {
+            template = App.importNet(NET);
+        }
+        return DeepCopy.copy(template);
+    }
+
+    /**
+     * @param engine
+     *            creates the engine to simulate with
+     * @return state of the net after {@link Runs#TICKS} ticks, written by
+     *         {@link Net#writeState(java.io.DataOutput)}
+     */
+    static byte[] simulate(final Supplier<Engine> engine) {
+        final Net net = copyTemplate();
+        try (Simulation simulation = new Simulation(net)) {
+            simulation.setSeed(SEED);
+            simulation.setRecordHistory(false);
+            simulation.setWallClockPacing(false);
+            simulation.setEngine(engine.get());
+            for (int i = 0; i < TICKS; i++) {
+                simulation.tick();
+            }
+            if (net.getAgents().isEmpty()) {
+                throw new IllegalStateException("no agents to compare");
+            }
+            final ByteArrayOutputStream state = new ByteArrayOutputStream();
+            net.writeState(new DataOutputStream(state));
+            return state.toByteArray();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Runs() {
+    }
+}
@@ -0,0 +1,19 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ScheduledEngineTest {
+
+    private static final int PARALLELISM = 4;
+
+    @Test
+    public void loadImbalanceWithinBounds() {
+        final ScheduledEngine engine = new ScheduledEngine(PARALLELISM);
+        Runs.simulate(() -> engine);
+        // 0 if balanced, PARALLELISM - 1 if one worker did all the work
+        final double imbalance = engine.getLoadImbalance();
+        assertTrue(String.valueOf(imbalance), imbalance >= 0 && imbalance <= PARALLELISM - 1);
+    }
+}
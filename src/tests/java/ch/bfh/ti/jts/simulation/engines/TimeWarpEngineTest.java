@@ -0,0 +1,20 @@
+package ch.bfh.ti.jts.simulation.engines;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TimeWarpEngineTest {
+
+    private static final int REGIONS = 4;
+    private static final int WINDOW  = 16;
+
+    @Test
+    public void rollbacksGiveSameResultsAsBuffered() {
+        final TimeWarpEngine engine = new TimeWarpEngine(REGIONS, WINDOW);
+        assertArrayEquals(Runs.simulate(BufferedEngine::new), Runs.simulate(() -> engine));
+        // agents handed over for ticks simulated already
+        assertTrue(engine.getRollbacks() > 0);
+    }
+}
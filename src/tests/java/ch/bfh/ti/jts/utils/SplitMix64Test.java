@@ -0,0 +1,103 @@
+package ch.bfh.ti.jts.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+public class SplitMix64Test {
+
+    private static final long SEED   = 42;
+    private static final int  VALUES = 1000;
+
+    @Test
+    public void differentSeeds() {
+        final SplitMix64 a = new SplitMix64(SEED);
+        final SplitMix64 b = new SplitMix64(SEED + 1);
+        int equal = 0;
+        for (int i = 0; i < VALUES; i++) {
+            if (a.nextLong() == b.nextLong()) {
+                equal++;
+            }
+        }
+        assertEquals(0, equal);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nextIntBound() {
+        new SplitMix64(SEED).nextInt(0);
+    }
+
+    @Test(expected = IOException.class)
+    public void readInvalidGamma() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(SEED);
+        out.writeLong(2);
+        SplitMix64.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    @Test
+    public void sameAsSplittableRandom() {
+        final SplitMix64 random = new SplitMix64(SEED);
+        final SplittableRandom expected = new SplittableRandom(SEED);
+        for (int i = 0; i < VALUES; i++) {
+            assertEquals(expected.nextLong(), random.nextLong());
+            assertEquals(expected.nextInt(7), random.nextInt(7));
+            assertEquals(expected.nextInt(64), random.nextInt(64));
+            assertEquals(expected.nextDouble(), random.nextDouble(), 0.0);
+        }
+        final SplitMix64 split = random.split();
+        final SplittableRandom expectedSplit = expected.split();
+        for (int i = 0; i < VALUES; i++) {
+            assertEquals(expectedSplit.nextLong(), split.nextLong());
+            assertEquals(expected.nextLong(), random.nextLong());
+        }
+    }
+
+    @Test
+    public void sameSeed() {
+        final SplitMix64 a = new SplitMix64(SEED);
+        final SplitMix64 b = new SplitMix64(SEED);
+        for (int i = 0; i < VALUES; i++) {
+            assertEquals(a.nextLong(), b.nextLong());
+        }
+        // the split streams are reproducible as well
+        final SplitMix64 splitA = a.split();
+        final SplitMix64 splitB = b.split();
+        for (int i = 0; i < VALUES; i++) {
+            assertEquals(splitA.nextLong(), splitB.nextLong());
+            assertEquals(a.nextLong(), b.nextLong());
+        }
+        assertNotEquals(new SplitMix64(SEED).split().nextLong(), new SplitMix64(SEED).nextLong());
+    }
+
+    @Test
+    public void valueAt() {
+        final SplitMix64 random = new SplitMix64(SEED);
+        for (int i = 0; i < VALUES; i++) {
+            assertEquals(random.nextLong(), SplitMix64.valueAt(SEED, i));
+        }
+    }
+
+    @Test
+    public void writeRead() throws IOException {
+        final SplitMix64 random = new SplitMix64(SEED).split();
+        for (int i = 0; i < VALUES; i++) {
+            random.nextLong();
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        random.write(new DataOutputStream(bytes));
+        final SplitMix64 copy = SplitMix64.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        for (int i = 0; i < VALUES; i++) {
+            assertEquals(random.nextLong(), copy.nextLong());
+        }
+    }
+}